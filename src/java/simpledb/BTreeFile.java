@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 import simpledb.Predicate.Op;
@@ -25,6 +26,8 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
+	private final DbFileChannel channel; // all page reads and writes go through it
+	private final PageChecksums checksums; // of the pages written, checked on reads
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -35,10 +38,49 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, optionally in
+	 * memory-mapped mode. A memory-mapped B+ tree file decodes its pages
+	 * from a read-only mapping of the file instead of reading them through
+	 * the file channel; pages are still written through the channel.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param mapped - true to read pages from a mapping of the file
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean mapped) {
+		this(f, key, td, mapped ? StorageMode.MAPPED : StorageMode.PLAIN);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, whose pages
+	 * are stored in the given mode.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param storage - how the pages are kept in the file
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, StorageMode storage) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.channel = storage.open(f, BTreeRootPtrPage.getPageSize(), BufferPool.getPageSize());
+		this.checksums = new PageChecksums(f);
+	}
+
+	/**
+	 * Returns true if this file reads its pages from a mapping of the file
+	 */
+	public boolean isMapped() {
+		return channel.isMapped();
 	}
 
 	/**
@@ -79,66 +121,114 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BTreeRootPtrPage.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-				}
+				readFully(pageBuf, 0);
+				checkPage(id, pageBuf);
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
 				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
 				return p;
 			}
 			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BufferPool.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
-				}
-				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
+				// the pages only decode the buffer, so it can be reused
+				byte pageBuf[] = DbFileChannel.acquireBuffer(BufferPool.getPageSize());
+				try {
+					readFully(pageBuf, pageOffset(id.pageNumber()));
+					checkPage(id, pageBuf);
+					Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
+					if(id.pgcateg() == BTreePageId.INTERNAL) {
+						BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
+						return p;
+					}
+					else if(id.pgcateg() == BTreePageId.LEAF) {
+						BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
+						return p;
+					}
+					else { // id.pgcateg() == BTreePageId.HEADER
+						BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
+						return p;
+					}
+				} finally {
+					DbFileChannel.releaseBuffer(pageBuf);
 				}
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
 		}
 	}
 
+	/**
+	 * Fill buf with the bytes of the file at the given offset
+	 * 
+	 * @throws IllegalArgumentException if the file ends before buf is full
+	 */
+	private void readFully(byte[] buf, long offset) throws IOException {
+		ByteBuffer view = channel.map(offset, buf.length);
+		if (view != null) {
+			view.get(buf);
+			return;
+		}
+		int retval = channel.read(ByteBuffer.wrap(buf), offset);
+		if (retval == 0) {
+			throw new IllegalArgumentException("Read past end of table");
+		}
+		if (retval < buf.length) {
+			throw new IllegalArgumentException("Unable to read "
+					+ buf.length + " bytes from BTreeFile");
+		}
+	}
+
+	/**
+	 * Checks the data of a page read from disk against its checksum, and
+	 * puts back the data the page had when it was last logged if it fails.
+	 * 
+	 * @throws IllegalArgumentException if the page is damaged and the log
+	 *         holds no copy of it
+	 */
+	private void checkPage(BTreePageId id, byte[] buf) throws IOException {
+		if (checksums.verify(id.pageNumber(), ByteBuffer.wrap(buf)))
+			return;
+		byte[] data = Database.getLogFile().findPageImage(id);
+		if (data == null || data.length != buf.length)
+			throw new IllegalArgumentException(new IOException("page " + id.pageNumber() + " of " + f
+					+ " fails its checksum and the log holds no copy of it"));
+		write(new int[] { id.pageNumber() }, new ByteBuffer[] { ByteBuffer.wrap(data) });
+		System.arraycopy(data, 0, buf, 0, buf.length);
+	}
+
+	/**
+	 * Writes the data of pages to their places in the file, along with
+	 * their checksums. The root pointer page is page 0.
+	 * 
+	 * @param pageNos the numbers of the pages, in ascending order
+	 */
+	private void write(int[] pageNos, ByteBuffer[] data) throws IOException {
+		long[] positions = new long[pageNos.length];
+		for (int i = 0; i < pageNos.length; i++)
+			positions[i] = pageNos[i] == 0 ? 0 : pageOffset(pageNos[i]);
+		channel.write(positions, data);
+		for (ByteBuffer buffer : data)
+			buffer.rewind();
+		checksums.update(pageNos, data);
+	}
+
+	/**
+	 * @return the checksums of the pages of this file
+	 */
+	public PageChecksums getChecksums() {
+		return checksums;
+	}
+
+	/**
+	 * Returns the offset in the file of the page with the given number (not
+	 * the root pointer page)
+	 */
+	private long pageOffset(int pageNo) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNo-1) * BufferPool.getPageSize();
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
@@ -146,27 +236,68 @@ public class BTreeFile implements DbFile {
 	 * @param page - the page to write to disk
 	 */
 	public void writePage(Page page) throws IOException {
-		BTreePageId id = (BTreePageId) page.getId();
-		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+		write(new int[] { page.getId().pageNumber() }, new ByteBuffer[] { ByteBuffer.wrap(page.getPageData()) });
+	}
+
+	/**
+	 * Write several pages to disk, writing neighbouring pages with a single
+	 * call.  This should not be called directly but should be called from
+	 * the BufferPool when pages are flushed to disk
+	 * 
+	 * @param pages - distinct pages of this file, in ascending page number order
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		int[] pageNos = new int[pages.size()];
+		ByteBuffer[] buffers = new ByteBuffer[pages.size()];
+		for (int i = 0; i < buffers.length; i++) {
+			pageNos[i] = pages.get(i).getId().pageNumber();
+			buffers[i] = ByteBuffer.wrap(pages.get(i).getPageData());
 		}
+		write(pageNos, buffers);
 	}
-	
+
+	/**
+	 * Force the pages written so far to disk
+	 */
+	public void force() throws IOException {
+		channel.force();
+		checksums.force();
+	}
+
+	// see DbFile.java for javadocs
+	public void close() throws IOException {
+		channel.close();
+		checksums.close();
+	}
+
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) ((channel.size() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+	}
+
+	/**
+	 * Estimates the number of pages a search reads on its way from the root
+	 * to a leaf, from the size of the file and the number of children an
+	 * internal page can hold, without reading any page. The estimate treats
+	 * every page as a leaf and every internal page as full, so it may be one
+	 * level short for a tree that was mostly built by splitting pages.
+	 *
+	 * @return the estimated number of levels of the tree, at least 1
+	 */
+	public int estimateDepth() {
+		int pages = numPages();
+		if (pages <= 1)
+			return 1;
+		int fanout = BTreeInternalPage.getMaxEntries(td.getFieldType(keyField)) + 1;
+		// a root with a level of leaves below it, and a level more each time
+		// the leaves outgrow what the levels above can point to
+		int depth = 2;
+		for (long reach = fanout; reach < pages; reach *= fanout)
+			depth++;
+		return depth;
 	}
 
 	/**
@@ -177,10 +308,15 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
-	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the 
-	 * leaf node with permission perm.
+	 * Finds and locks the leaf page in the B+ tree corresponding to the left-most page
+	 * possibly containing the key field f. It locks the internal nodes along the path
+	 * to the leaf node with READ_ONLY permission, and locks the leaf node with
+	 * permission perm.
+	 * 
+	 * The internal nodes are lock-coupled: the lock on a node is given up again as soon
+	 * as its child is locked, unless the transaction held a lock on the node before, so
+	 * a descent only ever holds two locks and does not keep other transactions from
+	 * splitting the nodes it passed through. The leaf lock is kept as usual.
 	 * 
 	 * If f is null, it finds the left-most leaf page -- used for the iterator
 	 * 
@@ -189,55 +325,73 @@ public class BTreeFile implements DbFile {
 	 * @param pid - the current page being searched
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
+	 * @param passed - a page locked only to find pid, whose lock is given up once pid
+	 *        is locked, or null
 	 * @return the left-most leaf page possibly containing the key field f
+	 * @see #passThrough(TransactionId, HashMap, PageId)
 	 * 
 	 */
 	private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
-			Field f) 
+			Field f, PageId passed) 
 					throws DbException, TransactionAbortedException {
-		// some code goes here
-		if(pid.pgcateg()==BTreePageId.LEAF) // if we find a leaf page just directly return it
-		{
-			BTreeLeafPage pg = (BTreeLeafPage)getPage(tid, dirtypages, pid, perm);
-			return pg;
-		}
-		// now recurse to find the left most entry for a key
-		BTreeInternalPage cur_page = (BTreeInternalPage)(getPage(tid, dirtypages, pid, Permissions.READ_ONLY));
-		
-		Iterator<BTreeEntry> iter = cur_page.iterator();
-		
-		BTreeEntry entry_item = null; 
-		
-		while(iter != null && iter.hasNext()) 
-		{
-			entry_item = iter.next();
-			// get the first entry which has key value greater than equal to key
-			
-			if (f == null || entry_item.getKey().compare(Op.GREATER_THAN_OR_EQ, f))
-			{
-				return this.findLeafPage(tid, dirtypages, entry_item.getLeftChild(), perm, f);
-			}
+		while(pid.pgcateg() != BTreePageId.LEAF) {
+			PageId next = passThrough(tid, dirtypages, pid);
+			BTreeInternalPage cur_page = (BTreeInternalPage)(getPage(tid, dirtypages, pid, Permissions.READ_ONLY));
+			release(tid, passed);
+			passed = next;
+			// the left child of the first entry which has key value greater than
+			// equal to key, or the last entry's right most child
+			pid = cur_page.findChild(f);
 		}
-		// the last entry's right most child
-		return this.findLeafPage(tid, dirtypages, entry_item.getRightChild(), perm, f);
+		BTreeLeafPage pg = (BTreeLeafPage)getPage(tid, dirtypages, pid, perm);
+		release(tid, passed);
+		return pg;
 	}
-	
+
 	/**
-	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
-	 * Used by the BTreeFile iterator.
-	 * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field)
+	 * Convenience method to find a leaf page when there is no dirtypages HashMap,
+	 * starting from the root pointer page. Used by the BTreeFile iterators.
+	 * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field, PageId)
 	 * 
 	 * @param tid - the transaction id
-	 * @param pid - the current page being searched
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
 	 * @return the left-most leaf page possibly containing the key field f
 	 * 
 	 */
-	BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid, Permissions perm,
-			Field f) 
+	BTreeLeafPage findLeafPage(TransactionId tid, Permissions perm, Field f) 
 					throws DbException, TransactionAbortedException {
-		return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
+		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		PageId passed = passThrough(tid, dirtypages, rootPtrId);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_ONLY);
+		return findLeafPage(tid, dirtypages, rootPtr.getRootId(), perm, f, passed);
+	}
+
+	/**
+	 * Decide whether a page that is about to be locked READ_ONLY only to be passed
+	 * through may be unlocked again once the next page is locked. That is only the case
+	 * if the transaction holds no lock on it yet: a lock it held before, or a page it
+	 * changed, has to be kept until the transaction completes.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages of this operation
+	 * @param pid - the page about to be locked
+	 * @return pid if its lock may be given up again, otherwise null
+	 */
+	private PageId passThrough(TransactionId tid, HashMap<PageId, Page> dirtypages, PageId pid) {
+		if(tid == null || dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid))
+			return null;
+		return pid;
+	}
+
+	/**
+	 * Give up the lock on a page returned by passThrough, if any.
+	 * @see #passThrough(TransactionId, HashMap, PageId)
+	 */
+	private void release(TransactionId tid, PageId passed) {
+		if(passed != null)
+			Database.getBufferPool().releasePage(tid, passed);
 	}
 
 	/**
@@ -515,6 +669,9 @@ public class BTreeFile implements DbFile {
 			Page p = Database.getBufferPool().getPage(tid, pid, perm);
 			if(perm == Permissions.READ_WRITE) {
 				dirtypages.put(pid, p);
+				// dirtypages keeps the page until it is handed back, so it
+				// need not stay pinned in the meantime
+				Database.getBufferPool().unpin(tid, pid);
 			}
 			return p;
 		}
@@ -535,6 +692,7 @@ public class BTreeFile implements DbFile {
 		HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
 
 		// get a read lock on the root pointer page and use it to locate the root page
+		PageId passed = passThrough(tid, dirtypages, BTreeRootPtrPage.getId(tableid));
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
 		BTreePageId rootId = rootPtr.getRootId();
 
@@ -542,11 +700,13 @@ public class BTreeFile implements DbFile {
 			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
 			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
 			rootPtr.setRootId(rootId);
+			passed = null;
 		}
 
 		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		// and split the leaf page if there are no more slots available; only the
+		// leaf stays locked, unless it has to be split
+		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField), passed);
 		if(leafPage.getNumEmptySlots() == 0) {
 			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
 		}
@@ -1080,16 +1240,15 @@ public class BTreeFile implements DbFile {
 	 * @throws TransactionAbortedException
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
-		synchronized(this) {
-			if(f.length() == 0) {
+		// only a new file has to be set up, so others do not need the monitor
+		if(channel.size() == 0) synchronized(this) {
+			if(channel.size() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				f.createNewFile();
+				write(new int[] { 0, 1 }, new ByteBuffer[] {
+						ByteBuffer.wrap(emptyRootPtrData), ByteBuffer.wrap(emptyLeafData) });
 			}
 		}
 
@@ -1111,19 +1270,27 @@ public class BTreeFile implements DbFile {
 	 */
 	protected int getEmptyPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages) 
 			throws DbException, IOException, TransactionAbortedException {
-		// get a read lock on the root pointer page and use it to locate the first header page
+		// get a read lock on the root pointer page and use it to locate the first header page;
+		// like the full header pages after it, it is only passed through
+		PageId passed = passThrough(tid, dirtypages, BTreeRootPtrPage.getId(tableid));
 		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
 		BTreePageId headerId = rootPtr.getHeaderId();
 		int emptyPageNo = 0;
 
 		if(headerId != null) {
+			PageId next = passThrough(tid, dirtypages, headerId);
 			BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+			release(tid, passed);
+			passed = next;
 			int headerPageCount = 0;
 			// try to find a header page with an empty slot
 			while(headerPage != null && headerPage.getEmptySlot() == -1) {
 				headerId = headerPage.getNextPageId();
 				if(headerId != null) {
+					next = passThrough(tid, dirtypages, headerId);
 					headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+					release(tid, passed);
+					passed = next;
 					headerPageCount++;
 				}
 				else {
@@ -1139,18 +1306,18 @@ public class BTreeFile implements DbFile {
 				emptyPageNo = headerPageCount * BTreeHeaderPage.getNumSlots() + emptySlot;
 			}
 		}
+		// the header page that was written to stays locked
+		if(!dirtypages.containsKey(passed))
+			release(tid, passed);
 
 		// at this point if headerId is null, either there are no header pages 
 		// or there are no free slots
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
-				emptyPageNo = numPages();
+				emptyPageNo = numPages() + 1;
+				write(new int[] { emptyPageNo }, new ByteBuffer[] { ByteBuffer.wrap(emptyData) });
 			}
 		}
 
@@ -1180,10 +1347,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		write(new int[] { emptyPageNo }, new ByteBuffer[] { ByteBuffer.wrap(BTreePage.createEmptyPageData()) });
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1313,6 +1477,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	ScanRing ring = null;
+	ReadAhead readAhead = null;
+	BTreePageId prefetchedUpTo = null;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1331,11 +1498,56 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
 		it = curp.iterator();
+		// large scans walk the leaf level through a private ring of frames
+		ring = Database.getBufferPool().getScanRing(f.numPages());
+		readAhead = Database.getBufferPool().getReadAhead(ring);
+		prefetchedUpTo = null;
+	}
+
+	/**
+	 * Tell the read-ahead that the scan has moved on to leaf, and have the
+	 * leaves to its right loaded in the background once the scan looks
+	 * sequential. The leaves are taken from the children of leaf's parent,
+	 * which is read without locking it; if the tree is being restructured
+	 * meanwhile, some leaves are simply not prefetched.
+	 */
+	private void readAhead(BTreeLeafPage leaf) {
+		if (readAhead == null)
+			return;
+		int n = readAhead.next();
+		if (n == 0)
+			return;
+		BTreePageId parentId = leaf.getParentId();
+		if (parentId.pgcateg() != BTreePageId.INTERNAL)
+			return;
+		ArrayList<BTreePageId> children = new ArrayList<BTreePageId>();
+		try {
+			BTreeInternalPage parent = (BTreeInternalPage) Database.getBufferPool().getPage(
+					null, parentId, Permissions.READ_ONLY);
+			Iterator<BTreeEntry> entries = parent.iterator();
+			while (entries.hasNext()) {
+				BTreeEntry e = entries.next();
+				if (children.isEmpty())
+					children.add(e.getLeftChild());
+				children.add(e.getRightChild());
+			}
+		} catch (RuntimeException | DbException | TransactionAbortedException e) {
+			return;
+		}
+		int index = children.indexOf(leaf.getId());
+		if (index < 0)
+			return;
+		// continue after the last leaf already prefetched if that is further along
+		int start = Math.max(index, children.indexOf(prefetchedUpTo)) + 1;
+		ArrayList<PageId> pids = new ArrayList<PageId>();
+		for (int i = start; i < children.size() && pids.size() < n; i++)
+			pids.add(children.get(i));
+		if (pids.isEmpty())
+			return;
+		prefetchedUpTo = (BTreePageId) pids.get(pids.size() - 1);
+		Database.getBufferPool().prefetchPages(pids, ring);
 	}
 
 	/**
@@ -1356,7 +1568,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 			}
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+						nextp, Permissions.READ_ONLY, ring);
+				readAhead(curp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1383,6 +1596,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		ring = null;
+		readAhead = null;
+		prefetchedUpTo = null;
 	}
 }
 
@@ -1416,17 +1632,16 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+			curp = f.findLeafPage(tid, Permissions.READ_ONLY, ipred.getField());
+			// skip the tuples on the first page that are less than the key
+			it = curp.iterator(ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
+			it = curp.iterator();
 		}
-		it = curp.iterator();
 	}
 
 	/**
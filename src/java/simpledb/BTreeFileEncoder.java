@@ -143,7 +143,7 @@ public class BTreeFileEncoder {
 	 * Faster method to encode the B+ tree file
 	 * 
 	 * @param tuples - list of tuples to add to the file
-	 * @param hFile - the file to temporarily store the data as a heap file on disk
+	 * @param hFile - the scratch file for the sorted runs, used only when the tuples do not fit in memory
 	 * @param bFile - the file on disk to back the resulting BTreeFile
 	 * @param npagebytes - number of bytes per page
 	 * @param numFields - number of fields per tuple
@@ -181,10 +181,14 @@ public class BTreeFileEncoder {
 	}
 
 	/** 
-	 * Faster method to encode the B+ tree file
+	 * Faster method to encode the B+ tree file. The raw data is parsed on
+	 * several threads and sorted on the key field with an external merge
+	 * sort: runs of tuples that fit in memory are sorted and spilled to
+	 * hFile, then merged while the pages of the tree are written out. Files
+	 * much larger than the heap can be encoded this way.
 	 * 
 	 * @param inFile - the file containing the raw data
-	 * @param hFile - the data file for the HeapFile to be used as an intermediate conversion step
+	 * @param hFile - the scratch file for the sorted runs, used only when the tuples do not fit in memory
 	 * @param bFile - the data file for the BTreeFile
 	 * @param npagebytes - number of bytes per page
 	 * @param numFields - number of fields per tuple
@@ -199,24 +203,121 @@ public class BTreeFileEncoder {
 	public static BTreeFile convert(File inFile, File hFile, File bFile, int npagebytes,
 			int numFields, Type[] typeAr, char fieldSeparator, int keyField) 
 					throws IOException, DbException, TransactionAbortedException {
-		// convert the inFile to HeapFile first.
-		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
-		HeapFile heapf = Utility.openHeapFile(numFields, hFile);
+		return convert(inFile, hFile, bFile, npagebytes, numFields, typeAr, fieldSeparator,
+				keyField, defaultRunTuples(numFields, typeAr));
+	}
 
-		// read all the tuples from the heap file and sort them on the keyField
-		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-		TransactionId tid = new TransactionId();
-		DbFileIterator it = Database.getCatalog().getDatabaseFile(heapf.getId()).iterator(tid);
-		it.open();
-		while (it.hasNext()) {
-			Tuple tup = it.next();
-			tuples.add(tup);
-		}
-		it.close();
-		Collections.sort(tuples, new TupleComparator(keyField));
+	/**
+	 * Encode the B+ tree file, sorting at most runTuples tuples in memory
+	 * at a time.
+	 * 
+	 * @see #convert(File, File, File, int, int, Type[], char, int)
+	 * @param runTuples - the number of tuples per sorted run
+	 */
+	static BTreeFile convert(File inFile, File hFile, File bFile, int npagebytes,
+			int numFields, Type[] typeAr, char fieldSeparator, int keyField, int runTuples) 
+					throws IOException, DbException, TransactionAbortedException {
+		// sort the tuples on the keyField
+		SortedRuns tuples = sortRuns(inFile, hFile, Arrays.copyOf(typeAr, numFields),
+				fieldSeparator, keyField, runTuples);
 
 		// add the tuples to B+ tree file
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		try {
+			writeTree(bf, tuples, npagebytes, numFields, typeAr, keyField, 1.0);
+		} finally {
+			tuples.close();
+		}
+
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		return bf;
+	}
+
+	/**
+	 * Build a B+ tree from the tuples of an operator, the way CREATE INDEX would:
+	 * the tuples are sorted on the key field with the same external merge sort as
+	 * text files, and the pages of the tree are then written bottom-up, each
+	 * level from left to right, instead of inserting the tuples one at a time.
+	 * Leaves and internal pages are filled to fillFactor of their capacity, so
+	 * that later inserts find room without splitting.
+	 * <p>
+	 * The pages are written directly to bFile, which is overwritten; the
+	 * build is not logged, so bFile must not be part of any transaction
+	 * until it returns.
+	 * 
+	 * @param child - the tuples to index; opened and closed by this method
+	 * @param hFile - the scratch file for the sorted runs, used only when the tuples do not fit in memory
+	 * @param bFile - the file on disk to back the resulting BTreeFile
+	 * @param keyField - the field of the tuples the B+ tree will be keyed on
+	 * @param fillFactor - the fraction of each page to fill, between 0.5 and 1
+	 * @return the BTreeFile, added to the catalog under a random name, which
+	 *   adding it under its own name replaces
+	 * @throws IllegalArgumentException if fillFactor is out of range
+	 */
+	public static BTreeFile convert(DbIterator child, File hFile, File bFile, int keyField,
+			double fillFactor) throws IOException, DbException, TransactionAbortedException {
+		TupleDesc td = child.getTupleDesc();
+		Type[] typeAr = new Type[td.numFields()];
+		for (int i = 0; i < typeAr.length; i++)
+			typeAr[i] = td.getFieldType(i);
+		return convert(child, hFile, bFile, keyField, fillFactor,
+				defaultRunTuples(typeAr.length, typeAr));
+	}
+
+	/**
+	 * Build a B+ tree from the tuples of an operator, sorting at most
+	 * runTuples tuples in memory at a time.
+	 * 
+	 * @see #convert(DbIterator, File, File, int, double)
+	 * @param runTuples - the number of tuples per sorted run
+	 */
+	static BTreeFile convert(DbIterator child, File hFile, File bFile, int keyField,
+			double fillFactor, int runTuples) 
+					throws IOException, DbException, TransactionAbortedException {
+		if (fillFactor < 0.5 || fillFactor > 1)
+			throw new IllegalArgumentException("fill factor " + fillFactor + " is not between 0.5 and 1");
+		TupleDesc td = child.getTupleDesc();
+		Type[] typeAr = new Type[td.numFields()];
+		for (int i = 0; i < typeAr.length; i++)
+			typeAr[i] = td.getFieldType(i);
+
+		// start from an empty file
+		PageChecksums.checksumFile(bFile).delete();
+		new FileOutputStream(bFile).close();
+		BTreeFile bf = new BTreeFile(bFile, keyField, td);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+
+		SortedRuns tuples = sortRuns(child, hFile, td, keyField, runTuples);
+		try {
+			writeTree(bf, tuples, BufferPool.getPageSize(), typeAr.length, typeAr, keyField, fillFactor);
+		} finally {
+			tuples.close();
+		}
+
+		// a file that used to be at this path may have left pages in the pool
+		for (int i = 0; i <= bf.numPages(); i++) {
+			int category = (i == 0) ? BTreePageId.ROOT_PTR : BTreePageId.LEAF;
+			Database.getBufferPool().discardPage(new BTreePageId(bf.getId(), i, category));
+		}
+		return bf;
+	}
+
+	/**
+	 * Write the pages of a B+ tree for sorted tuples to an empty BTreeFile: the
+	 * leaves from left to right, each internal page as soon as the level below
+	 * has filled it, then the root pointer, parent and sibling pointers.
+	 * 
+	 * @param bf - the empty BTreeFile
+	 * @param tuples - the tuples in key order
+	 * @param npagebytes - number of bytes per page
+	 * @param numFields - number of fields per tuple
+	 * @param typeAr - array containing the types of the tuples
+	 * @param keyField - the field of the tuples the B+ tree is keyed on
+	 * @param fillFactor - the fraction of each page to fill
+	 */
+	private static void writeTree(BTreeFile bf, SortedRuns tuples, int npagebytes,
+			int numFields, Type[] typeAr, int keyField, double fillFactor) 
+					throws IOException, DbException {
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -226,12 +327,14 @@ public class BTreeFileEncoder {
 		}
 		// pointerbytes: left sibling pointer, right sibling pointer, parent pointer
 		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
-		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+		int maxRecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+		int nrecords = Math.max(1, (int) (maxRecords * fillFactor));
 
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
-		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		int maxEntries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		int nentries = Math.max(1, (int) (maxEntries * fillFactor));
 
 		ArrayList<ArrayList<BTreeEntry>> entries = new ArrayList<ArrayList<BTreeEntry>>();
 
@@ -247,7 +350,8 @@ public class BTreeFileEncoder {
 		ArrayList<Tuple> page1 = new ArrayList<Tuple>();
 		ArrayList<Tuple> page2 = new ArrayList<Tuple>();
 		BTreePageId leftSiblingId = null;
-		for(Tuple tup : tuples) {
+		Tuple tup;
+		while((tup = tuples.next()) != null) {
 			if(page1.size() < nrecords) {
 				page1.add(tup);
 			}
@@ -275,20 +379,22 @@ public class BTreeFileEncoder {
 		}
 
 		// now we need to deal with the end cases. There are two options:
-		// 1. We have less than or equal to a full page of records. Because of the way the code
-		//    was written above, we know this must be the only page
+		// 1. The remaining records fit on one page. When the pages are filled completely,
+		//    because of the way the code was written above, we know this must be the only page
 		// 2. We have somewhere between one and two pages of records remaining.
 		// For case (1), we write out the page 
 		// For case (2), we divide the remaining records equally between the last two pages,
 		// write them out, and update the parent's child pointers.
 		BTreePageId lastPid = null;
-		if(page2.size() == 0) {
-			// write out a page of records - this is the root page
+		if(page1.size() + page2.size() <= maxRecords) {
+			// write out a page of records
+			page1.addAll(page2);
 			byte[] lastPageBytes = convertToLeafPage(page1, npagebytes, numFields, typeAr, keyField);
 			lastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.LEAF);
 			BTreeLeafPage lastPage = new BTreeLeafPage(lastPid, lastPageBytes, keyField);
 			lastPage.setLeftSiblingId(leftSiblingId);
 			bf.writePage(lastPage);
+			setLastRightChild(entries, 0, lastPid);
 		}
 		else {
 			// split the remaining tuples in half
@@ -319,7 +425,7 @@ public class BTreeFileEncoder {
 		}
 
 		// Write out the remaining internal pages
-		cleanUpEntries(entries, bf, nentries, npagebytes, keyType, tableid, keyField);
+		cleanUpEntries(entries, bf, nentries, maxEntries, npagebytes, keyType, tableid, keyField);
 
 		// update the root pointer to point to the last page of the file
 		int root = bf.numPages();
@@ -330,9 +436,275 @@ public class BTreeFileEncoder {
 		// set all the parent and sibling pointers
 		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
 		setRightSiblingPtrs(bf, lastPid, null);
+	}
 
-		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
-		return bf;
+	/**
+	 * Estimated memory used by a parsed tuple besides its field data: the
+	 * Tuple, its field array and the Field objects.
+	 */
+	private static final int TUPLE_OVERHEAD_BYTES = 48;
+	private static final int FIELD_OVERHEAD_BYTES = 40;
+
+	/** The size of the buffers runs are written and read through. */
+	private static final int RUN_BUFFER_BYTES = 1 << 16;
+
+	/**
+	 * @return the number of tuples of the given types a quarter of the
+	 *   maximum heap size holds
+	 */
+	private static int defaultRunTuples(int numFields, Type[] typeAr) {
+		long tupleBytes = TUPLE_OVERHEAD_BYTES;
+		for (int i = 0; i < numFields; i++)
+			tupleBytes += FIELD_OVERHEAD_BYTES + typeAr[i].getLen();
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+				Runtime.getRuntime().maxMemory() / 4 / tupleBytes));
+	}
+
+	/**
+	 * Sort the tuples of a text file on the key field. The file is read in
+	 * runs of runTuples tuples; each run is sorted in memory and, unless it
+	 * is the only one, appended to runFile. The runs are merged as the
+	 * tuples are read from the result. Tuples with equal keys stay in the
+	 * order of the text file.
+	 * 
+	 * @param inFile - the file containing the raw data
+	 * @param runFile - the file to write the sorted runs to
+	 * @param types - the types of the fields of the tuples
+	 * @param fieldSeparator - character separating fields in the raw data file
+	 * @param keyField - the field to sort the tuples on
+	 * @param runTuples - the number of tuples per run
+	 * @return the sorted tuples
+	 * @throws IOException
+	 */
+	private static SortedRuns sortRuns(File inFile, File runFile, Type[] types,
+			char fieldSeparator, int keyField, int runTuples) throws IOException {
+		TupleDesc td = new TupleDesc(types);
+		RunWriter runs = new RunWriter(runFile, td, keyField, runTuples);
+		ParallelTextParser parser = new ParallelTextParser(inFile, types, fieldSeparator);
+		try {
+			ArrayList<Field[]> chunk;
+			while ((chunk = parser.nextChunk()) != null) {
+				for (Field[] fields : chunk) {
+					Tuple t = new Tuple(td);
+					for (int i = 0; i < fields.length; i++)
+						t.setField(i, fields[i]);
+					runs.add(t);
+				}
+			}
+		} finally {
+			parser.close();
+			runs.close();
+		}
+		return runs.merge();
+	}
+
+	/**
+	 * Sort the tuples of an operator on the key field, the same way as
+	 * those of a text file. The tuples are copied, so the operator may
+	 * reuse the ones it returns.
+	 * 
+	 * @see #sortRuns(File, File, Type[], char, int, int)
+	 * @param child - the operator; opened and closed by this method
+	 */
+	private static SortedRuns sortRuns(DbIterator child, File runFile, TupleDesc td,
+			int keyField, int runTuples) throws IOException, DbException, TransactionAbortedException {
+		RunWriter runs = new RunWriter(runFile, td, keyField, runTuples);
+		child.open();
+		try {
+			while (child.hasNext()) {
+				Tuple next = child.next();
+				Tuple t = new Tuple(td);
+				for (int i = 0; i < td.numFields(); i++)
+					t.setField(i, next.getField(i));
+				runs.add(t);
+			}
+		} finally {
+			child.close();
+			runs.close();
+		}
+		return runs.merge();
+	}
+
+	/**
+	 * Collects tuples into runs of runTuples tuples; each run is sorted in
+	 * memory and, unless it is the last one, appended to the run file.
+	 */
+	private static class RunWriter {
+		private final File runFile;
+		private final TupleDesc td;
+		private final TupleComparator comparator;
+		private final int runTuples;
+		private final ArrayList<Long> runLengths = new ArrayList<Long>();
+		private final ArrayList<Tuple> run = new ArrayList<Tuple>();
+		private DataOutputStream runs = null;
+
+		RunWriter(File runFile, TupleDesc td, int keyField, int runTuples) {
+			this.runFile = runFile;
+			this.td = td;
+			this.comparator = new TupleComparator(keyField);
+			this.runTuples = runTuples;
+		}
+
+		void add(Tuple t) throws IOException {
+			run.add(t);
+			if (run.size() >= runTuples) {
+				if (runs == null)
+					runs = new DataOutputStream(new BufferedOutputStream(
+							new FileOutputStream(runFile), RUN_BUFFER_BYTES));
+				runLengths.add(writeRun(sortRun(run, comparator), runs));
+				run.clear();
+			}
+		}
+
+		/** Finish writing the run file. */
+		void close() throws IOException {
+			if (runs != null)
+				runs.close();
+		}
+
+		/**
+		 * @return the merge of the runs written so far and the last run,
+		 *   which stays in memory
+		 */
+		SortedRuns merge() throws IOException {
+			SortedRuns result = new SortedRuns(comparator);
+			long offset = 0;
+			for (int i = 0; i < runLengths.size(); i++) {
+				result.addRun(runFile, offset, runLengths.get(i), td, i);
+				offset += runLengths.get(i) * td.getSize();
+			}
+			result.addRun(Arrays.asList(sortRun(run, comparator)).iterator(), runLengths.size());
+			return result;
+		}
+	}
+
+	/**
+	 * Sort a run of tuples, on several threads for large runs.
+	 * The sort is stable.
+	 */
+	private static Tuple[] sortRun(ArrayList<Tuple> run, TupleComparator comparator) {
+		Tuple[] sorted = run.toArray(new Tuple[run.size()]);
+		Arrays.parallelSort(sorted, comparator);
+		return sorted;
+	}
+
+	/**
+	 * Append the tuples of a sorted run to the run file.
+	 * 
+	 * @return the number of tuples written
+	 */
+	private static long writeRun(Tuple[] sorted, DataOutputStream runs) throws IOException {
+		for (Tuple t : sorted) {
+			for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+				t.getField(j).serialize(runs);
+			}
+		}
+		return sorted.length;
+	}
+
+	/**
+	 * The merge of several sorted runs of tuples, returning the smallest
+	 * tuple of all runs at each step.
+	 */
+	private static class SortedRuns implements Closeable {
+
+		/** A run, with the next tuple it will return. */
+		private static class Run {
+			final int index;
+			final Iterator<Tuple> memory;
+			final DataInputStream in;
+			final TupleDesc td;
+			long remaining;
+			Tuple head;
+
+			Run(int index, Iterator<Tuple> memory) {
+				this.index = index;
+				this.memory = memory;
+				this.in = null;
+				this.td = null;
+			}
+
+			Run(int index, DataInputStream in, long count, TupleDesc td) {
+				this.index = index;
+				this.memory = null;
+				this.in = in;
+				this.td = td;
+				this.remaining = count;
+			}
+
+			/** Read the next tuple of the run into head; null at its end. */
+			void advance() throws IOException {
+				head = null;
+				if (memory != null) {
+					if (memory.hasNext())
+						head = memory.next();
+					return;
+				}
+				if (remaining == 0)
+					return;
+				remaining--;
+				Tuple t = new Tuple(td);
+				try {
+					for (int j = 0; j < td.numFields(); j++)
+						t.setField(j, td.getFieldType(j).parse(in));
+				} catch (java.text.ParseException e) {
+					throw new IOException("corrupt run file", e);
+				}
+				head = t;
+			}
+		}
+
+		private final PriorityQueue<Run> queue;
+		private final ArrayList<Run> runs;
+
+		SortedRuns(final TupleComparator comparator) {
+			this.runs = new ArrayList<Run>();
+			this.queue = new PriorityQueue<Run>(11, new Comparator<Run>() {
+				public int compare(Run r1, Run r2) {
+					int cmp = comparator.compare(r1.head, r2.head);
+					// equal keys come out in the order of the runs
+					return cmp != 0 ? cmp : Integer.compare(r1.index, r2.index);
+				}
+			});
+		}
+
+		void addRun(Iterator<Tuple> memory, int index) throws IOException {
+			add(new Run(index, memory));
+		}
+
+		void addRun(File runFile, long offset, long count, TupleDesc td, int index) throws IOException {
+			FileInputStream fis = new FileInputStream(runFile);
+			fis.getChannel().position(offset);
+			add(new Run(index, new DataInputStream(new BufferedInputStream(fis, RUN_BUFFER_BYTES)), count, td));
+		}
+
+		private void add(Run run) throws IOException {
+			runs.add(run);
+			run.advance();
+			if (run.head != null)
+				queue.add(run);
+		}
+
+		/**
+		 * @return the next tuple in key order, or null after the last one
+		 */
+		Tuple next() throws IOException {
+			Run run = queue.poll();
+			if (run == null)
+				return null;
+			Tuple t = run.head;
+			run.advance();
+			if (run.head != null)
+				queue.add(run);
+			return t;
+		}
+
+		public void close() throws IOException {
+			for (Run run : runs) {
+				if (run.in != null)
+					run.in.close();
+			}
+		}
 	}
 
 	/**
@@ -346,12 +718,14 @@ public class BTreeFileEncoder {
 	 */
 	private static void setRightSiblingPtrs(BTreeFile bf, BTreePageId pid, BTreePageId rightSiblingId) 
 			throws IOException, DbException {
-		BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
-		page.setRightSiblingId(rightSiblingId);
-		BTreePageId leftSiblingId = page.getLeftSiblingId();
-		bf.writePage(page);
-		if(leftSiblingId != null) {
-			setRightSiblingPtrs(bf, leftSiblingId, page.getId());
+		// a loop rather than recursion: there may be millions of leaf pages
+		while(pid != null) {
+			BTreeLeafPage page = (BTreeLeafPage) bf.readPage(pid);
+			page.setRightSiblingId(rightSiblingId);
+			BTreePageId leftSiblingId = page.getLeftSiblingId();
+			bf.writePage(page);
+			rightSiblingId = page.getId();
+			pid = leftSiblingId;
 		}
 	}
 
@@ -394,6 +768,7 @@ public class BTreeFileEncoder {
 	 * @param entries - the list of remaining entries
 	 * @param bf - the BTreeFile
 	 * @param nentries - number of entries per page
+	 * @param maxEntries - number of entries that fit on a page
 	 * @param npagebytes - number of bytes per page
 	 * @param keyType - the type of the key field
 	 * @param tableid - the table id of this BTreeFile
@@ -401,11 +776,11 @@ public class BTreeFileEncoder {
 	 * @throws IOException
 	 */
 	private static void cleanUpEntries(ArrayList<ArrayList<BTreeEntry>> entries,
-			BTreeFile bf, int nentries, int npagebytes, Type keyType, int tableid, 
+			BTreeFile bf, int nentries, int maxEntries, int npagebytes, Type keyType, int tableid, 
 			int keyField) throws IOException {
 		// As with the leaf pages, there are two options:
-		// 1. We have less than or equal to a full page of entries. Because of the way the code
-		//    was written, we know this must be the root page
+		// 1. The remaining entries fit on one page. When the pages are filled completely,
+		//    because of the way the code was written, we know this must be the root page
 		// 2. We have somewhere between one and two pages of entries remaining.
 		// For case (1), we write out the page 
 		// For case (2), we divide the remaining entries equally between the last two pages,
@@ -413,11 +788,12 @@ public class BTreeFileEncoder {
 		for(int i = 0; i < entries.size(); i++) {
 			int childPageCategory = (i == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
 			int size = entries.get(i).size();
-			if(size <= nentries) {
+			if(size <= maxEntries) {
 				// write out a page of entries
 				byte[] internalPageBytes = convertToInternalPage(entries.get(i), npagebytes, keyType, childPageCategory);
 				BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
 				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyField));
+				setLastRightChild(entries, i+1, internalPid);
 			}
 			else {
 				// split the remaining entries in half
@@ -444,6 +820,23 @@ public class BTreeFileEncoder {
 		}
 	}
 
+	/**
+	 * Point the last entry at a level, if there is one, to the last page of the level
+	 * below, when that page is written without pushing up an entry of its own
+	 * 
+	 * @param entries - the list of entries
+	 * @param level - the level of the entry (0 is closest to the leaf pages)
+	 * @param pid - the id of the last page of the level below
+	 */
+	private static void setLastRightChild(ArrayList<ArrayList<BTreeEntry>> entries, int level, 
+			BTreePageId pid) {
+		if(entries.size() > level) {
+			ArrayList<BTreeEntry> levelEntries = entries.get(level);
+			BTreeEntry last = levelEntries.get(levelEntries.size() - 1);
+			levelEntries.set(levelEntries.size() - 1, new BTreeEntry(last.getKey(), last.getLeftChild(), pid));
+		}
+	}
+
 	/**
 	 * Recursive function to update the entries by adding a new Entry at a particular level
 	 * 
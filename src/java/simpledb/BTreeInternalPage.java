@@ -20,6 +20,7 @@ public class BTreeInternalPage extends BTreePage {
 	private final int numSlots;
 	
 	private int childCategory; // either leaf or internal
+	private volatile BTreeKeyIndex keyIndex; // built on demand, dropped on change
 
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
@@ -115,7 +116,15 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
+		return getMaxEntries(td.getFieldType(keyField));
+	}
+
+	/**
+	 * Retrieve the maximum number of entries an internal page keyed on a field
+	 * of the given type can hold.
+	 */
+	static int getMaxEntries(Type keyType) {
+		int keySize = keyType.getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
@@ -431,6 +440,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 		children[rid.tupleno()] = e.getRightChild().pageNumber(); 
 		keys[rid.tupleno()] = e.getKey();
+		keyIndex = null;
 	}
 
 	/**
@@ -595,12 +605,54 @@ public class BTreeInternalPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
+		keyIndex = null;
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
 	}
 
+	/**
+	 * Find the child page to descend into when searching for the left-most
+	 * occurrence of a key: the left child of the first entry whose key is
+	 * greater than or equal to f, or the right child of the last entry if
+	 * there is no such entry. The keys are binary-searched.
+	 * @param f - the key to search for, or null for the left-most child
+	 * @return the id of the child page, or null if this page has no entries
+	 */
+	public BTreePageId findChild(Field f) {
+		BTreeKeyIndex index = keyIndex();
+		if(index.size() == 0)
+			return null;
+		int k = (f == null) ? 0 : index.lowerBound(f);
+		// the left child of entry k is the child in the used slot before it
+		int slot = (k == 0) ? 0 : index.slot(k - 1);
+		return new BTreePageId(pid.getTableId(), children[slot], childCategory);
+	}
+
+	/**
+	 * @return the keys of the entries on this page as a BTreeKeyIndex,
+	 *         building it if the page changed since it was last searched
+	 */
+	private BTreeKeyIndex keyIndex() {
+		BTreeKeyIndex index = keyIndex;
+		if(index == null) {
+			int[] slots = new int[numSlots];
+			Field[] sorted = new Field[numSlots];
+			int n = 0;
+			// slot 0 holds only a child pointer
+			for(int i = 1; i < numSlots; i++) {
+				if(isSlotUsed(i)) {
+					slots[n] = i;
+					sorted[n++] = keys[i];
+				}
+			}
+			index = new BTreeKeyIndex(slots, sorted, n);
+			keyIndex = index;
+		}
+		return index;
+	}
+
 	/**
 	 * @return an iterator over all entries on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return entries in empty slots!)
@@ -0,0 +1,109 @@
+package simpledb;
+
+import simpledb.Predicate.Op;
+
+/**
+ * BTreeKeyIndex is a dense, sorted copy of the keys on a B+ tree page,
+ * which the page builds the first time it is searched after a change so
+ * that a search can binary-search the keys rather than walk every slot.
+ * The slots of a page may have gaps after deletes, so the index also keeps
+ * the slot each key came from. Integer keys are copied out to an int[]
+ * so that comparing them does not go through Field.compare.
+ * <p>
+ * An index is never changed once built; pages drop theirs whenever their
+ * keys change.
+ *
+ * @see BTreeInternalPage#findChild
+ * @see BTreeLeafPage#iterator(Field)
+ */
+class BTreeKeyIndex {
+
+	private final int[] slots;
+	private final int[] intKeys; // null unless the keys are IntFields
+	private final Field[] keys;
+	private final int size;
+
+	/**
+	 * @param slots - the used slots, in key order
+	 * @param keys - the key in each of those slots
+	 * @param size - the number of keys
+	 */
+	BTreeKeyIndex(int[] slots, Field[] keys, int size) {
+		this.slots = slots;
+		this.keys = keys;
+		this.size = size;
+		if (size > 0 && keys[0].getType() == Type.INT_TYPE) {
+			intKeys = new int[size];
+			for (int i = 0; i < size; i++)
+				intKeys[i] = ((IntField) keys[i]).getValue();
+		} else {
+			intKeys = null;
+		}
+	}
+
+	/** @return the number of keys in this index */
+	int size() {
+		return size;
+	}
+
+	/** @return the slot that the ith smallest key is stored in */
+	int slot(int i) {
+		return slots[i];
+	}
+
+	/**
+	 * @return the position of the first key that is greater than or equal
+	 *   to f, or size() if there is none
+	 */
+	int lowerBound(Field f) {
+		int lo = 0;
+		int hi = size;
+		if (intKeys != null) {
+			int v = ((IntField) f).getValue();
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (intKeys[mid] < v)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+		} else {
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (keys[mid].compare(Op.LESS_THAN, f))
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the position of the first key that is greater than f, or
+	 *   size() if there is none
+	 */
+	int upperBound(Field f) {
+		int lo = 0;
+		int hi = size;
+		if (intKeys != null) {
+			int v = ((IntField) f).getValue();
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (intKeys[mid] <= v)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+		} else {
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (keys[mid].compare(Op.LESS_THAN_OR_EQ, f))
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+		}
+		return lo;
+	}
+}
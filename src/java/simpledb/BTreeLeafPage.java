@@ -18,6 +18,7 @@ public class BTreeLeafPage extends BTreePage {
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
+	private volatile BTreeKeyIndex keyIndex; // built on demand, dropped on change
 
 	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
@@ -323,16 +324,9 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
+		BTreeKeyIndex index = keyIndex();
+		int k = index.upperBound(t.getField(keyField));
+		int lessOrEqKey = (k == 0) ? -1 : index.slot(k - 1);
 
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
@@ -469,6 +463,7 @@ public class BTreeLeafPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
+		keyIndex = null;
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
@@ -483,6 +478,39 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageIterator(this);
 	}
 
+	/**
+	 * @param f - the key to start from
+	 * @return an iterator over the tuples on this page whose keys are greater
+	 *         than or equal to f, found by binary-searching the keys
+	 */
+	public Iterator<Tuple> iterator(Field f) {
+		BTreeKeyIndex index = keyIndex();
+		int k = index.lowerBound(f);
+		return new BTreeLeafPageIterator(this, (k == index.size()) ? numSlots : index.slot(k));
+	}
+
+	/**
+	 * @return the keys of the tuples on this page as a BTreeKeyIndex,
+	 *         building it if the page changed since it was last searched
+	 */
+	private BTreeKeyIndex keyIndex() {
+		BTreeKeyIndex index = keyIndex;
+		if(index == null) {
+			int[] slots = new int[numSlots];
+			Field[] sorted = new Field[numSlots];
+			int n = 0;
+			for(int i = 0; i < numSlots; i++) {
+				if(isSlotUsed(i)) {
+					slots[n] = i;
+					sorted[n++] = tuples[i].getField(keyField);
+				}
+			}
+			index = new BTreeKeyIndex(slots, sorted, n);
+			keyIndex = index;
+		}
+		return index;
+	}
+
 	/**
 	 * @return a reverse iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return tuples in empty slots!)
@@ -529,6 +557,11 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		this.p = p;
 	}
 
+	public BTreeLeafPageIterator(BTreeLeafPage p, int firstSlot) {
+		this.p = p;
+		this.curTuple = firstSlot;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
@@ -446,6 +446,7 @@ public class BTreeUtility {
 	public static BTreeFile createEmptyBTreeFile(String path, int cols, int keyField)
 			throws IOException {
 		File f = new File(path);
+		PageChecksums.checksumFile(f).delete();
 		// touch the file
 		FileOutputStream fos = new FileOutputStream(f);
 		fos.write(new byte[0]);
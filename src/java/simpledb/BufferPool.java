@@ -1,9 +1,23 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,6 +27,28 @@ import java.util.ArrayList;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Cached pages live in frames of a concurrent page table. A cache hit is a
+ * lock-free table lookup; a miss publishes an empty frame first, so that
+ * concurrent misses on the same page wait for a single read instead of
+ * loading the page twice. Each frame has a latch that serializes writing
+ * the page out and taking it out of the table, and a pin count that keeps
+ * a frame in use from being evicted. A frame is pinned while its page is
+ * read, and while a transaction that fetched the page READ_WRITE may be
+ * changing it: until the change has been marked dirty, the transaction
+ * releases the page or it completes.
+ * <p>
+ * In off-heap mode the contents of heap file pages are kept in a
+ * {@link PageArena} of direct memory rather than in Java objects, which
+ * keeps garbage collection pauses flat for large pools.
+ * <p>
+ * Dirty pages may be written out before their transaction commits (STEAL),
+ * either to make room or by a {@link PageCleaner}; every such write is
+ * preceded by an update record in the log, and an aborting transaction's
+ * stolen pages are restored from those records.
+ * <p>
+ * Sequential scans can have pages read into the pool ahead of them by a
+ * small set of background threads (see {@link ReadAhead}).
  * 
  * @Threadsafe, all fields are final
  */
@@ -27,19 +63,164 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
     
-    private ConcurrentHashMap<PageId,Page> page_hash;
-    // ok so this stores the Pagid and page
+    /**
+     * A slot of the page table. The frame is put in the table before its
+     * page has been read; threads that find it still empty wait for the
+     * thread that is loading it.
+     */
+    private static class Frame {
+        final PageId pid;
+        // null until the page has been loaded
+        volatile Page page;
+        final CountDownLatch loaded;
+        // the load and the transactions using the frame; a pinned frame is
+        // not evicted
+        final AtomicInteger pins = new AtomicInteger(0);
+        // held while the page is written out or the frame is removed
+        final ReentrantLock latch = new ReentrantLock();
+        // the arena frame that holds the page's bytes, or null if the page
+        // lives on the heap; protected by the latch once the page is loaded
+        ByteBuffer memory;
+
+        /** Creates a frame whose page is still to be loaded. */
+        Frame(PageId pid) {
+            this.pid = pid;
+            this.loaded = new CountDownLatch(1);
+        }
+
+        /** Creates a frame that already holds its page. */
+        Frame(PageId pid, Page page) {
+            this.pid = pid;
+            this.page = page;
+            this.loaded = new CountDownLatch(0);
+        }
+
+        /**
+         * Waits until the frame's page has been loaded.
+         * @return the page, or null if loading it failed
+         */
+        Page awaitPage() {
+            while (true) {
+                try {
+                    loaded.await();
+                    return page;
+                } catch (InterruptedException e) {
+                    // keep waiting; the load is already under way
+                }
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<PageId,Frame> frames;
+    // number of frames counted against the capacity of the pool
+    private final AtomicInteger frame_count;
     int num_pages;
 
+    // the frames each transaction has pinned by fetching their pages
+    // READ_WRITE, by page
+    private final ConcurrentHashMap<TransactionId,ConcurrentHashMap<PageId,Frame>> pinned;
+
+    // serializes victim selection so that two misses never pick the same page
+    private final Object eviction_lock = new Object();
+
+    // the pages evictPage prefers: loaded, unpinned and clean
+    private final ReplacementPolicy.Candidates evictable = new ReplacementPolicy.Candidates() {
+        public boolean isEvictable(PageId pid) {
+            Frame f = frames.get(pid);
+            if (f == null || f.pins.get() > 0 || f.latch.isLocked())
+                return false;
+            Page p = f.page;
+            return p != null && p.isDirty() == null;
+        }
+    };
+
+    // the pages evictPage falls back to: loaded and unpinned, clean or not
+    private final ReplacementPolicy.Candidates stealable = new ReplacementPolicy.Candidates() {
+        public boolean isEvictable(PageId pid) {
+            Frame f = frames.get(pid);
+            return f != null && f.pins.get() == 0 && !f.latch.isLocked() && f.page != null;
+        }
+    };
+
+    // writes dirty pages in the background, or null if none is running
+    private volatile PageCleaner cleaner;
+
+    // decides which page is given up when the pool is full
+    private final ReplacementPolicy policy;
+
+    // pages loaded by a scan ring that nobody else has requested since
+    private final Set<PageId> ring_pages;
+
+    // page-level shared/exclusive locks held by running transactions
+    private final LockManager lock_manager;
+
+    // off-heap storage for heap pages, or null if pages live on the heap
+    private final PageArena arena;
+
+    /** Number of background threads that read prefetched pages. */
+    public static final int PREFETCH_THREADS = 2;
+
+    // reads pages requested by prefetchPages; its threads exit when idle
+    private final ThreadPoolExecutor prefetcher;
+
+    // pages loaded by prefetchPages that nobody has requested yet
+    private final Set<PageId> prefetched;
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using an LRU-2
+     * replacement policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new LRUKReplacementPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts pages
+     * in the order chosen by the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy used to pick eviction victims
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, policy, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts pages
+     * in the order chosen by the given replacement policy.
+     * <p>
+     * An off-heap pool reserves one frame of direct memory per page and
+     * reads heap file pages straight into those frames; the pages it hands
+     * out decode their tuples from that memory on access. Other pages, and
+     * pages inserted beyond the capacity of the pool, stay on the heap.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy used to pick eviction victims
+     * @param offHeap true to keep heap file pages in direct memory
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy, boolean offHeap) {
         // some code goes here
-    	page_hash = new ConcurrentHashMap<PageId,Page>();
+    	frames = new ConcurrentHashMap<PageId,Frame>();
+    	frame_count = new AtomicInteger(0);
+    	pinned = new ConcurrentHashMap<TransactionId,ConcurrentHashMap<PageId,Frame>>();
     	num_pages=numPages;
+    	this.policy = policy;
+    	ring_pages = Collections.newSetFromMap(new ConcurrentHashMap<PageId,Boolean>());
+    	lock_manager = new LockManager();
+    	arena = offHeap ? new PageArena(numPages, pageSize) : null;
+    	prefetched = Collections.newSetFromMap(new ConcurrentHashMap<PageId,Boolean>());
+    	prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS,
+    	        1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+    	        new ThreadFactory() {
+    	            public Thread newThread(Runnable r) {
+    	                Thread t = new Thread(r, "prefetch");
+    	                t.setDaemon(true);
+    	                return t;
+    	            }
+    	        });
+    	prefetcher.allowCoreThreadTimeOut(true);
     }
     
     public static int getPageSize() {
@@ -66,45 +247,417 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * A page retrieved READ_WRITE stays pinned in the pool until it is
+     * marked dirty by insertTuple or deleteTuple, released with
+     * releasePage, or the transaction completes, so that it is not evicted
+     * while the caller is changing it.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page on behalf of a large sequential scan.
+     * Behaves like {@link #getPage(TransactionId, PageId, Permissions)},
+     * except that a page which has to be read from disk is loaded into the
+     * scan's private ring: the page the ring loaded longest ago is evicted to
+     * make room for it, as long as nobody else has used that page since, so
+     * the scan does not push the rest of the working set out of the pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the scan, or null for an ordinary access
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
         throws TransactionAbortedException, DbException {
         // some code goes here
-    	// simple as of now
-    	// if page in buffer return directly
-    	// if space still left read from memory and add
-    	// if no space throw db exception
-    	if (page_hash.containsKey(pid))
+    	// lock the page first, then look it up in the buffer; a page that
+    	// is not cached is read from its file, evicting another page if the
+    	// pool is full
+    	if (tid != null)
+            lock(tid, pid, perm);
+    	boolean pin = tid != null && perm == Permissions.READ_WRITE;
+    	while (true)
+    	{
+    	    // hits only read the page table
+    	    Frame frame = frames.get(pid);
+    	    Page page = frame == null ? null : frame.page;
+    	    if (page != null)
+    	        pageHit(pid, ring);
+    	    else
+    	    {
+    	        page = loadPage(pid, ring);
+    	        frame = frames.get(pid);
+    	    }
+    	    if (!pin)
+    	        return page;
+    	    if (frame != null && pin(tid, frame))
+    	        return frame.page;
+    	    // evicted before it could be pinned; fetch it again
+    	}
+    }
+
+    /**
+     * Pins a frame on behalf of tid, unless tid has pinned it already.
+     *
+     * @return false if the frame is no longer in the page table
+     */
+    private boolean pin(TransactionId tid, Frame frame) {
+        ConcurrentHashMap<PageId,Frame> mine = pinned.get(tid);
+        if (mine == null)
+        {
+            pinned.putIfAbsent(tid, new ConcurrentHashMap<PageId,Frame>());
+            mine = pinned.get(tid);
+        }
+        // evictFrame checks the pin count under the latch
+        frame.latch.lock();
+        try
+        {
+            if (frames.get(frame.pid) != frame || frame.page == null)
+                return false;
+            Frame old = mine.put(frame.pid, frame);
+            if (old != frame)
+            {
+                frame.pins.incrementAndGet();
+                // a frame the page was discarded from in the meantime
+                if (old != null)
+                    old.pins.decrementAndGet();
+            }
+            return true;
+        }
+        finally
+        {
+            frame.latch.unlock();
+        }
+    }
+
+    /**
+     * Drops the pin tid holds on a page, if any. A DbFile that keeps its own
+     * references to the pages it changes and hands them all back from
+     * insertTuple or deleteTuple, as BTreeFile does, may unpin them right
+     * away: should one be evicted meanwhile, the version it hands back
+     * replaces the cached one.
+     */
+    void unpin(TransactionId tid, PageId pid) {
+        ConcurrentHashMap<PageId,Frame> mine = pinned.get(tid);
+        Frame frame = mine == null ? null : mine.remove(pid);
+        if (frame != null)
+            frame.pins.decrementAndGet();
+    }
+
+    /**
+     * Drops all pins tid holds.
+     */
+    private void unpinAll(TransactionId tid) {
+        ConcurrentHashMap<PageId,Frame> mine = pinned.remove(tid);
+        if (mine == null)
+            return;
+        for (Frame frame : mine.values())
+            frame.pins.decrementAndGet();
+    }
+
+    private void lock(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException
+    {
+        try
+        {
+            lock_manager.acquireLock(tid, pid, perm);
+        }
+        catch (DeadlockException e)
         {
-            return page_hash.get(pid);
+            TransactionAbortedException abort = new TransactionAbortedException();
+            abort.initCause(e);
+            throw abort;
+        }
+    }
 
+    /**
+     * Locks a page exclusively on behalf of tid without reading it. Used
+     * for pages a file is about to add past its end outside of the pool,
+     * so that nobody reads them before tid completes.
+     *
+     * @param tid the transaction adding the page
+     * @param pid the page, which need not exist yet
+     */
+    void lockNewPage(TransactionId tid, PageId pid)
+        throws TransactionAbortedException
+    {
+        lock(tid, pid, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Reports a hit to the replacement policy. A scan passing over a page
+     * does not make it any hotter; any other access adopts the page into
+     * the shared part of the pool. The first access to a prefetched page
+     * stands for the load itself, which the policy has already seen.
+     */
+    private void pageHit(PageId pid, ScanRing ring) {
+        boolean first = prefetched.remove(pid);
+        if (ring == null)
+        {
+            ring_pages.remove(pid);
+            if (!first)
+                policy.pageAccessed(pid);
         }
-    	if (page_hash.size() == num_pages)
+    }
+
+    /**
+     * Returns the page after a miss. Exactly one of the threads that miss on
+     * the same page gets to install an empty frame and read the page; the
+     * others wait for that frame to be filled.
+     */
+    private Page loadPage(PageId pid, ScanRing ring) throws DbException {
+        while (true)
         {
-            evictPage();
+            Frame frame = frames.get(pid);
+            if (frame == null)
+            {
+                Frame fresh = new Frame(pid);
+                frame = frames.putIfAbsent(pid, fresh);
+                if (frame == null)
+                    return readIntoFrame(fresh, ring);
+            }
+            Page p = frame.awaitPage();
+            if (p != null)
+            {
+                pageHit(pid, ring);
+                return p;
+            }
+            // the load failed and the frame is gone; try to load it ourselves
         }
-    	if (page_hash.size() < num_pages)
+    }
+
+    /**
+     * Makes room for the frame, reads its page from disk and wakes up the
+     * threads waiting for it. If the read fails the frame is taken out of
+     * the table again.
+     */
+    private Page readIntoFrame(Frame frame, ScanRing ring) throws DbException {
+        PageId pid = frame.pid;
+        boolean reserved = false;
+        frame.pins.incrementAndGet();
+        try
         {
-            // read from memory
-            int tableid = pid.getTableId();
-            DbFile f = Database.getCatalog().getDatabaseFile(tableid);
-            // now read from page from file
-            Page p = f.readPage(pid);
-            page_hash.put(pid, p);
+            if (ring != null)
+            {
+                recycleRingFrame(ring);
+            }
+            reserveFrame();
+            reserved = true;
+            DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            Page p;
+            ByteBuffer memory = allocateMemory(f);
+            try
+            {
+                p = memory == null ? f.readPage(pid) : ((HeapFile) f).readPage(pid, memory);
+            }
+            catch (RuntimeException e)
+            {
+                if (memory != null)
+                    arena.release(memory);
+                throw e;
+            }
+            frame.memory = memory;
+            policy.pageLoaded(pid);
+            frame.page = p;
+            if (ring != null)
+            {
+                ring_pages.add(pid);
+                ring.loaded(pid);
+            }
             return p;
         }
-        else
+        finally
         {
-            throw new DbException("Buffer pool is full");
+            if (frame.page == null)
+            {
+                frames.remove(pid, frame);
+                if (reserved)
+                    frame_count.decrementAndGet();
+            }
+            frame.pins.decrementAndGet();
+            frame.loaded.countDown();
         }
     }
 
     /**
-     * Releases the lock on a page.
+     * @return an arena frame to read a page of f into, or null if the page
+     *   should be read onto the heap, is read from a mapping of its file, or
+     *   is not the size of the arena's frames
+     */
+    private ByteBuffer allocateMemory(DbFile f) {
+        if (arena == null || !(f instanceof HeapFile) || ((HeapFile) f).isMapped()
+                || arena.getFrameSize() != f.getPageSize())
+            return null;
+        return arena.allocate();
+    }
+
+    /**
+     * Hands the frame's arena memory back, after moving the page that used
+     * it to the heap, so that references to the page held elsewhere stay
+     * valid. Must hold the frame's latch.
+     */
+    private void releaseMemory(Frame frame, Page page) {
+        ByteBuffer memory = frame.memory;
+        if (memory == null)
+            return;
+        frame.memory = null;
+        if (page instanceof HeapPage)
+            ((HeapPage) page).detach();
+        arena.release(memory);
+    }
+
+    /**
+     * Counts one more frame against the capacity of the pool, evicting pages
+     * until there is room. Pages added by insertTuple may have pushed the
+     * pool past its capacity, in which case several pages are evicted.
+     */
+    private void reserveFrame() throws DbException {
+        while (true)
+        {
+            int count = frame_count.get();
+            if (count < num_pages)
+            {
+                if (frame_count.compareAndSet(count, count + 1))
+                    return;
+            }
+            else
+            {
+                evictPage();
+            }
+        }
+    }
+
+    /**
+     * Returns a ring for a sequential scan over a file with the given number
+     * of pages, or null if the scan is small enough to go through the shared
+     * pool. Only scans over files that do not fit in the pool get a ring;
+     * caching those would just push out every other page without the scan
+     * itself ever getting a hit.
+     *
+     * @param filePages the number of pages the scan will read
+     */
+    public ScanRing getScanRing(int filePages) {
+        if (filePages <= num_pages)
+            return null;
+        return new ScanRing(Math.min(ScanRing.MAX_SIZE, Math.max(1, num_pages / 8)));
+    }
+
+    /**
+     * Returns the read-ahead state for a sequential scan, or null if the
+     * pool is too small to hold pages ahead of the scan. A scan that goes
+     * through a ring never prefetches further than the ring can hold without
+     * recycling pages the scan has not reached yet.
+     *
+     * @param ring the ring of the scan, or null if it uses the shared pool
+     */
+    public ReadAhead getReadAhead(ScanRing ring) {
+        int window = ring != null ? ring.size() - 1 : num_pages / 4;
+        if (window < 1)
+            return null;
+        return new ReadAhead(window);
+    }
+
+    /**
+     * Starts loading the given pages into the pool in the background and
+     * returns right away. Pages that are cached or already being loaded are
+     * skipped; a thread that asks for one of the others before it has been
+     * read waits for that read instead of issuing its own. The pages are
+     * read in the order given, so a scan should list them in file order.
+     * Prefetching is only a hint: no locks are taken, and a page that
+     * cannot be read is simply left out.
+     *
+     * @param pids the pages to load
+     * @param ring the ring of the scan the pages are loaded for, or null
+     */
+    public void prefetchPages(List<PageId> pids, ScanRing ring) {
+        final ArrayList<Frame> claimed = new ArrayList<Frame>();
+        for (PageId pid : pids)
+        {
+            if (frames.containsKey(pid))
+                continue;
+            Frame fresh = new Frame(pid);
+            if (frames.putIfAbsent(pid, fresh) != null)
+                continue;
+            claimed.add(fresh);
+            if (ring != null)
+            {
+                recycleRingFrame(ring);
+                ring_pages.add(pid);
+                ring.loaded(pid);
+            }
+        }
+        if (claimed.isEmpty())
+            return;
+        prefetcher.execute(new Runnable() {
+            public void run() {
+                for (Frame frame : claimed)
+                {
+                    prefetched.add(frame.pid);
+                    try
+                    {
+                        readIntoFrame(frame, null);
+                    }
+                    catch (RuntimeException | DbException e)
+                    {
+                        // the frame is gone again; whoever needs the page
+                        // will read it and see the error
+                        prefetched.remove(frame.pid);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Evicts the page in the ring's next frame, provided it is still a ring
+     * page (nobody else has requested it since the ring loaded it) and it is
+     * clean.
+     */
+    private void recycleRingFrame(ScanRing ring) {
+        PageId old = ring.nextToRecycle();
+        if (old == null || !ring_pages.remove(old))
+            return;
+        Frame frame = frames.get(old);
+        if (frame != null)
+            evictFrame(frame);
+    }
+
+    /**
+     * @return the maximum number of pages this buffer pool caches
+     */
+    public int getNumPages() {
+        return num_pages;
+    }
+
+    /**
+     * @return true if the page with the given id is currently cached
+     */
+    boolean holdsPage(PageId pid) {
+        Frame frame = frames.get(pid);
+        return frame != null && frame.page != null;
+    }
+
+    /**
+     * @return true if the page is a B+ tree root pointer, internal or header
+     *   page. Replacement policies keep these resident in preference to heap
+     *   and leaf pages, since every index lookup passes through them.
+     */
+    static boolean isIndexPage(PageId pid) {
+        return pid instanceof BTreePageId
+                && ((BTreePageId) pid).pgcateg() != BTreePageId.LEAF;
+    }
+
+    /**
+     * Releases the lock on a page, and the pin on it if the transaction
+     * retrieved it READ_WRITE.
      * Calling this is very risky, and may result in wrong behavior. Think hard
      * about who needs to call this and why, and why they can run the risk of
      * calling it.
@@ -113,8 +666,8 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public  void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        unpin(tid, pid);
+        lock_manager.releaseLock(tid, pid);
     }
 
     /**
@@ -123,28 +676,82 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lock_manager.holdsLock(tid, p);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * On commit, the pages dirtied by the transaction are written to disk
+     * (FORCE) and become the before-image for later transactions. On abort,
+     * they are dropped from the pool, so the next access re-reads the
+     * committed version from disk; pages that were already written out are
+     * first restored from their before-images in the log.
+     * <p>
+     * A transaction that has not been started through {@link Transaction}
+     * but whose pages went through the log gets its commit or abort record
+     * written here.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        try
+        {
+            LogFile log = Database.getLogFile();
+            if (commit)
+            {
+                flushPages(tid);
+                if (log.isLive(tid))
+                    log.logCommit(tid);
+                for (PageId pid : lock_manager.getLockedPages(tid))
+                {
+                    Frame frame = frames.get(pid);
+                    Page page = frame == null ? null : frame.page;
+                    if (page != null)
+                        page.setBeforeImage();
+                }
+            }
+            else
+            {
+                if (log.isLive(tid))
+                    log.logAbort(tid); // rolls back stolen pages too
+                discardPages(tid);
+            }
+        }
+        finally
+        {
+            unpinAll(tid);
+            lock_manager.releaseAllLocks(tid);
+        }
+    }
+
+    /**
+     * Drops every page dirtied by the specified transaction from the pool.
+     */
+    private void discardPages(TransactionId tid) throws IOException {
+        for (Frame frame : frames.values())
+        {
+            Page page = frame.page;
+            if (page != null && tid.equals(page.isDirty()))
+            {
+                discardPage(frame.pid);
+                // the transaction may have filled the page up
+                if (page instanceof HeapPage)
+                {
+                    DbFile file = Database.getCatalog().getDatabaseFile(frame.pid.getTableId());
+                    if (file instanceof HeapFile)
+                        ((HeapFile) file).pageRestored(frame.pid.pageNumber());
+                }
+            }
+        }
     }
 
     /**
@@ -158,6 +765,9 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * Also adds the tuple's entries to the secondary indexes of the table,
+     * see {@link Catalog#getIndexes}.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -175,8 +785,11 @@ public class BufferPool {
         {
             PageId pageId = page.getId();
             page.markDirty(true, tid);
-            page_hash.put(pageId, page);
+            cachePage(pageId, page);
+            unpin(tid, pageId);
         }
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            index.insert(tid, t);
     }
 
     /**
@@ -189,6 +802,9 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * Also removes the tuple's entries from the secondary indexes of its
+     * table.
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
@@ -197,14 +813,27 @@ public class BufferPool {
         int tableId = t.getRecordId().getPageId().getTableId();
         try
         {
+            List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(tableId);
+            // the keys and the RecordId, as the tuple was before the delete
+            RecordId rid = t.getRecordId();
+            Field[] keys = new Field[indexes.size()];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = t.getField(indexes.get(i).getField());
         	ArrayList<Page> updatedPages = Database.getCatalog().getDatabaseFile(tableId).deleteTuple(tid, t);
             for (Page page : updatedPages)
             {
                 PageId pageId = page.getId();
                 page.markDirty(true, tid);
                 // replace old page with updated page
-                page_hash.put(pageId, page);
+                cachePage(pageId, page);
+                unpin(tid, pageId);
             }
+            for (int i = 0; i < keys.length; i++)
+                indexes.get(i).delete(tid, keys[i], rid);
+        }
+        catch (TransactionAbortedException e)
+        {
+            throw e;
         }
         catch (Exception e)
         {
@@ -214,16 +843,12 @@ public class BufferPool {
     }
 
     /**
-     * Flush all dirty pages to disk.
+     * Flush all dirty pages to disk, and force the files they were written to.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
-        for (PageId pageId : page_hash.keySet())
-        {
-            flushPage(pageId);
-        }
-
+    public void flushAllPages() throws IOException {
+        forceFiles(writeFrames(new ArrayList<Frame>(frames.values())));
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -234,58 +859,361 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
-        page_hash.remove(pid);
+    public void discardPage(PageId pid) {
+        ring_pages.remove(pid);
+        prefetched.remove(pid);
+        Frame frame = frames.get(pid);
+        if (frame == null)
+            return;
+        // let a load in flight finish, so it does not fill a dropped frame
+        frame.awaitPage();
+        frame.latch.lock();
+        try
+        {
+            if (frames.remove(pid, frame))
+            {
+                frame_count.decrementAndGet();
+                policy.pageRemoved(pid);
+                releaseMemory(frame, frame.page);
+            }
+        }
+        finally
+        {
+            frame.latch.unlock();
+        }
+    }
+
+    /**
+     * Installs a page returned by a DbFile as the cached version of pid,
+     * replacing any previous version, and reports the access to the
+     * replacement policy.
+     */
+    private void cachePage(PageId pid, Page page) {
+        ring_pages.remove(pid);
+        prefetched.remove(pid);
+        while (true)
+        {
+            Frame frame = frames.get(pid);
+            if (frame == null)
+            {
+                if (frames.putIfAbsent(pid, new Frame(pid, page)) == null)
+                {
+                    frame_count.incrementAndGet();
+                    policy.pageLoaded(pid);
+                    return;
+                }
+                continue;
+            }
+            // a load in flight must not overwrite the new version
+            frame.awaitPage();
+            frame.latch.lock();
+            try
+            {
+                Page old = frame.page;
+                if (old != page)
+                {
+                    releaseMemory(frame, old);
+                    frame.page = page;
+                }
+            }
+            finally
+            {
+                frame.latch.unlock();
+            }
+            if (frames.get(pid) == frame)
+            {
+                policy.pageAccessed(pid);
+                return;
+            }
+            // the frame was dropped in the meantime; install a new one
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
-        if (page_hash.containsKey(pid))
+    private void flushPage(PageId pid) throws IOException {
+        Frame frame = frames.get(pid);
+        if (frame != null)
+            writeFrames(Collections.singletonList(frame));
+    }
+
+    /** Write all pages of the specified transaction to disk, and force the
+     * files they were written to.
+     */
+    public void flushPages(TransactionId tid) throws IOException {
+        ArrayList<Frame> dirty = new ArrayList<Frame>();
+        for (Frame frame : frames.values())
+        {
+            Page page = frame.page;
+            if (page != null && tid.equals(page.isDirty()))
+                dirty.add(frame);
+        }
+        Set<DbFile> written = writeFrames(dirty);
+        // a page cleaner may still be writing one of the pages; it marks a
+        // page clean before it writes it, so wait for writes in flight
+        for (Frame frame : frames.values())
         {
-            Page page = this.page_hash.get(pid);
-            if (page.isDirty() != null)
+            if (frame.latch.isLocked())
             {
-              // write page to disk.
-            	Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
-                // mark page as not dirty
-                page.markDirty(false, null);
+                frame.latch.lock();
+                frame.latch.unlock();
             }
         }
-        else
+        forceFiles(written);
+    }
+
+    /**
+     * Writes the dirty pages among the given frames to disk. Following the
+     * write-ahead rule, an update record with the before- and after-image
+     * of each page is appended to the log, and the log is forced once,
+     * before any of the pages is written. The pages are then written file
+     * by file in page order, so that neighbouring pages go out together in
+     * a single write; the frames of a file are latched in that same order.
+     *
+     * @return the files that pages were written to
+     */
+    private Set<DbFile> writeFrames(List<Frame> batch) throws IOException {
+        LogFile log = Database.getLogFile();
+        final HashMap<Frame,Page> pages = new HashMap<Frame,Page>();
+        HashMap<Frame,TransactionId> dirtiers = new HashMap<Frame,TransactionId>();
+        ArrayList<Frame> logged = new ArrayList<Frame>();
+        for (Frame frame : batch)
         {
-            throw new IOException();
+            Page page = frame.page;
+            TransactionId dirtier = page == null ? null : page.isDirty();
+            if (dirtier == null)
+                continue;
+            log.logWrite(dirtier, page.getBeforeImage(), page);
+            logged.add(frame);
+            pages.put(frame, page);
+            dirtiers.put(frame, dirtier);
+        }
+        HashSet<DbFile> written = new HashSet<DbFile>();
+        if (logged.isEmpty())
+            return written;
+        log.force();
+        Collections.sort(logged, new Comparator<Frame>() {
+            public int compare(Frame a, Frame b) {
+                int c = Integer.compare(a.pid.getTableId(), b.pid.getTableId());
+                return c != 0 ? c : Integer.compare(a.pid.pageNumber(), b.pid.pageNumber());
+            }
+        });
+        int first = 0;
+        while (first < logged.size())
+        {
+            int table = logged.get(first).pid.getTableId();
+            int end = first;
+            while (end < logged.size() && logged.get(end).pid.getTableId() == table)
+                end++;
+            List<Frame> group = logged.subList(first, end);
+            DbFile file = Database.getCatalog().getDatabaseFile(table);
+            ArrayList<Frame> latched = new ArrayList<Frame>();
+            ArrayList<Frame> writing = new ArrayList<Frame>();
+            ArrayList<Page> out = new ArrayList<Page>();
+            try
+            {
+                for (Frame frame : group)
+                {
+                    frame.latch.lock();
+                    latched.add(frame);
+                    // skip pages that were written or replaced in the
+                    // meantime; their current version has not been logged
+                    Page page = pages.get(frame);
+                    if (frame.page != page || !dirtiers.get(frame).equals(page.isDirty()))
+                        continue;
+                    // clear the flag before taking the image, so that a
+                    // change made while the page is written marks it dirty
+                    // again
+                    page.markDirty(false, null);
+                    writing.add(frame);
+                    out.add(page);
+                }
+                if (!out.isEmpty())
+                {
+                    try
+                    {
+                        file.writePages(out);
+                    }
+                    catch (IOException e)
+                    {
+                        for (Frame frame : writing)
+                            pages.get(frame).markDirty(true, dirtiers.get(frame));
+                        throw e;
+                    }
+                    written.add(file);
+                }
+            }
+            finally
+            {
+                for (Frame frame : latched)
+                    frame.latch.unlock();
+            }
+            first = end;
         }
+        return written;
     }
 
-    /** Write all pages of the specified transaction to disk.
+    /**
+     * Forces the given files to disk, once each.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+    private static void forceFiles(Set<DbFile> files) throws IOException {
+        for (DbFile file : files)
+            file.force();
+    }
+
+    /**
+     * Writes up to max dirty pages that nobody else is writing. Called by
+     * the page cleaner.
+     *
+     * @return the number of pages that were picked for writing
+     */
+    int cleanPages(int max) throws IOException {
+        ArrayList<Frame> batch = new ArrayList<Frame>();
+        for (Frame frame : frames.values())
+        {
+            if (batch.size() >= max)
+                break;
+            Page page = frame.page;
+            if (page != null && page.isDirty() != null && !frame.latch.isLocked())
+                batch.add(frame);
+        }
+        writeFrames(batch);
+        return batch.size();
+    }
+
+    /**
+     * @return the number of dirty pages in the pool
+     */
+    int countDirtyPages() {
+        int dirty = 0;
+        for (Frame frame : frames.values())
+        {
+            Page page = frame.page;
+            if (page != null && page.isDirty() != null)
+                dirty++;
+        }
+        return dirty;
+    }
+
+    /**
+     * Starts a background thread that writes dirty pages to disk ahead of
+     * eviction, with the default watermarks and rate, stopping any cleaner
+     * that is already running.
+     *
+     * @return the new cleaner
+     */
+    public PageCleaner startPageCleaner() {
+        return startPageCleaner(PageCleaner.DEFAULT_LOW_WATERMARK,
+                PageCleaner.DEFAULT_HIGH_WATERMARK,
+                PageCleaner.DEFAULT_PAGES_PER_ROUND,
+                PageCleaner.DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Starts a background thread that writes dirty pages to disk ahead of
+     * eviction, stopping any cleaner that is already running.
+     *
+     * @param lowWatermark fraction of the pool that may be dirty before the
+     *   cleaner starts writing
+     * @param highWatermark fraction of the pool above which the cleaner
+     *   writes without pausing between rounds
+     * @param pagesPerRound the most pages written per round
+     * @param intervalMillis the pause between rounds
+     * @return the new cleaner
+     * @see PageCleaner
+     */
+    public PageCleaner startPageCleaner(double lowWatermark, double highWatermark,
+            int pagesPerRound, long intervalMillis) {
+        stopPageCleaner();
+        PageCleaner c = new PageCleaner(this, lowWatermark, highWatermark,
+                pagesPerRound, intervalMillis);
+        cleaner = c;
+        c.start();
+        return c;
+    }
+
+    /**
+     * Stops the page cleaner, if one is running, and waits for it to finish
+     * its current round.
+     */
+    public void stopPageCleaner() {
+        PageCleaner c = cleaner;
+        cleaner = null;
+        if (c != null)
+            c.shutdown();
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * A single victim is chosen by the replacement policy, in one pass,
+     * preferably among the clean pages that are not being loaded or used.
+     * Only if the policy finds no such page soon enough is a dirty page
+     * written out (STEAL), through the log, and the page cleaner is woken up
+     * so that later misses find clean pages again. Only the choice of the
+     * victim is serialized; hits never wait for it.
      */
-    private synchronized  void evictPage() throws DbException {
-        for (PageId pageId : page_hash.keySet())
+    private void evictPage() throws DbException {
+        synchronized (eviction_lock)
         {
-            try
+            while (true)
             {
-                // flush page to disk
-                flushPage(pageId);
-                // Discard page from buffer pool.
-                page_hash.remove(pageId);
-            }
-            catch (Exception e)
-            {
-                throw new DbException("Error flushing page " + pageId + " during eviction: " + e.getMessage());
+                PageId victim = policy.chooseVictim(evictable, stealable);
+                if (victim == null)
+                {
+                    throw new DbException("all pages in the buffer pool are in use; cannot evict");
+                }
+                if (!evictable.isEvictable(victim))
+                {
+                    PageCleaner c = cleaner;
+                    if (c != null)
+                        c.wakeUp();
+                    try
+                    {
+                        flushPage(victim);
+                    }
+                    catch (IOException e)
+                    {
+                        throw new DbException("Error flushing page " + victim + " during eviction: " + e.getMessage());
+                    }
+                }
+                Frame frame = frames.get(victim);
+                // the victim may have been pinned or dirtied since it was chosen
+                if (frame != null && evictFrame(frame))
+                    return;
             }
         }
     }
 
+    /**
+     * Takes the frame out of the page table, provided it is loaded, clean,
+     * unpinned and nobody else holds its latch. Clean pages need not be
+     * written back.
+     *
+     * @return true if the frame was removed
+     */
+    private boolean evictFrame(Frame frame) {
+        if (!frame.latch.tryLock())
+            return false;
+        try
+        {
+            Page page = frame.page;
+            if (page == null || page.isDirty() != null || frame.pins.get() > 0)
+                return false;
+            if (!frames.remove(frame.pid, frame))
+                return false;
+            frame_count.decrementAndGet();
+            ring_pages.remove(frame.pid);
+            prefetched.remove(frame.pid);
+            policy.pageRemoved(frame.pid);
+            releaseMemory(frame, page);
+            return true;
+        }
+        finally
+        {
+            frame.latch.unlock();
+        }
+    }
+
 }
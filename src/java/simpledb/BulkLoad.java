@@ -0,0 +1,111 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The bulk load operator. Like Insert, it adds the tuples read from its
+ * child to a table and returns the number of tuples added, but it hands
+ * them all to {@link HeapFile#bulkLoad}, which appends whole pages instead
+ * of inserting the tuples one by one through the BufferPool. The Parser
+ * uses it for COPY statements.
+ * <p>
+ * The pages bulkLoad appends never pass through the BufferPool, which
+ * keeps secondary indexes up to date, so the entries of the loaded tuples
+ * are added to the table's indexes once all of them are in, from the
+ * RecordIds bulkLoad returns. By then the child is closed, so a child that
+ * reads the table through one of its indexes never sees the new entries.
+ */
+public class BulkLoad extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private TransactionId t;
+    private DbIterator child;
+    private int tableId;
+    private TupleDesc tup_desc;
+    private boolean already_fetched;
+
+    /**
+     * Constructor.
+     *
+     * @param t
+     *            The transaction running the load.
+     * @param child
+     *            The child operator from which to read tuples to be loaded.
+     * @param tableId
+     *            The table to load the tuples into; it must be a HeapFile.
+     * @throws DbException
+     *             if TupleDesc of child differs from table into which we are to
+     *             load, or the table is not a HeapFile.
+     */
+    public BulkLoad(TransactionId t, DbIterator child, int tableId)
+            throws DbException {
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile))
+            throw new DbException("Only heap files can be bulk loaded");
+        if (!Database.getCatalog().getTupleDesc(tableId).equals(child.getTupleDesc()))
+            throw new DbException("The table and child TupleDesc do not match");
+        this.t = t;
+        this.child = child;
+        this.tableId = tableId;
+        this.tup_desc = new TupleDesc(new Type[] {Type.INT_TYPE});
+        this.already_fetched = false;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tup_desc;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        already_fetched = false;
+    }
+
+    /**
+     * Loads all tuples of the child into the table.
+     *
+     * @return A 1-field tuple containing the number of loaded records, or
+     *         null if called more than once.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (already_fetched)
+            return null;
+        already_fetched = true;
+
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        int count = 0;
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(tableId);
+        try {
+            if (indexes.isEmpty()) {
+                count = file.bulkLoad(t, child);
+            } else {
+                ArrayList<RecordId> rids = new ArrayList<RecordId>();
+                count = file.bulkLoad(t, child, rids);
+                for (RecordId rid : rids) {
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(t,
+                            rid.getPageId(), Permissions.READ_ONLY);
+                    Tuple loaded = page.getTuple(rid.tupleno());
+                    for (SecondaryIndex index : indexes)
+                        index.insert(t, loaded);
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("Bulk load error " + e.toString());
+        }
+
+        Tuple tup = new Tuple(tup_desc);
+        tup.setField(0, new IntField(count));
+        return tup;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] {child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("Incorrect number of elements");
+        child = children[0];
+    }
+}
@@ -35,6 +35,7 @@ public class Catalog {
 		private DbFile file;
 		private String name;
 		private String primary_key;
+		private volatile List<SecondaryIndex> indexes = new ArrayList<SecondaryIndex>();
 		
 		/**
 		 * Constructor for class
@@ -64,6 +65,11 @@ public class Catalog {
 		{
 			return file;
 		}
+		
+		public List<SecondaryIndex> getIndexes()
+		{
+			return indexes;
+		}
 	}
 	
 	
@@ -80,6 +86,8 @@ public class Catalog {
      *    this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
      * conflict exists, use the last table to be added as the table for a given name.
+     * If the file is already in the catalog under another name, that name is dropped,
+     * as when an index built under a temporary name is added by {@link #addIndex}.
      * @param pkeyField the name of the primary key field
      */
     public void addTable(DbFile file, String name, String pkeyField) {
@@ -90,7 +98,21 @@ public class Catalog {
     	Table_info temp = new Table_info(file,name,pkeyField);
     		
     	table_hash.put(name, temp);
-    	tableid_hash.put(file.getId(), temp);
+    	Table_info replaced = tableid_hash.put(file.getId(), temp);
+    	if (replaced != null && !replaced.getName().equals(name)
+    			&& table_hash.get(replaced.getName()) == replaced)
+    		table_hash.remove(replaced.getName());
+    	if (replaced != null && replaced.getFile() != file)
+    		close(replaced.getFile());
+    }
+
+    /** Closes the files of a DbFile that is no longer in the catalog. */
+    private static void close(DbFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -169,6 +191,54 @@ public class Catalog {
     	}
     }
 
+    /**
+     * Adds a secondary index to the table it is on, so that the BufferPool
+     * keeps it up to date and plans may read the table through it. The
+     * index's BTreeFile is added to the catalog as well, under the name
+     * table.field.idx.
+     * @param index the index, which must hold the entries of all tuples of
+     *    its table
+     * @throws NoSuchElementException if the index's table doesn't exist
+     */
+    public void addIndex(SecondaryIndex index) throws NoSuchElementException {
+        Table_info info = tableid_hash.get(index.getTableId());
+        if (info == null)
+            throw new NoSuchElementException();
+        String field = info.getFile().getTupleDesc().getFieldName(index.getField());
+        addTable(index.getFile(), info.getName() + "." + field + ".idx");
+        // replaced rather than changed, for the BufferPool threads reading it
+        ArrayList<SecondaryIndex> indexes = new ArrayList<SecondaryIndex>(info.getIndexes());
+        indexes.add(index);
+        info.indexes = indexes;
+    }
+
+    /**
+     * Returns the secondary indexes of the specified table, or an empty
+     * list if it has none.
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        Table_info info = tableid_hash.get(tableid);
+        if (info == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableList(info.getIndexes());
+    }
+
+    /**
+     * Returns the secondary index on a field of the specified table, or
+     * null if the field has none.
+     * @param tableid The id of the table
+     * @param field the index of the field in the table's TupleDesc
+     */
+    public SecondaryIndex getIndex(int tableid, int field) {
+        for (SecondaryIndex index : getIndexes(tableid)) {
+            if (index.getField() == field)
+                return index;
+        }
+        return null;
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
 //        return null;
@@ -189,13 +259,33 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
-    	// just clear both hash
+    	// close the files of the tables, then clear both hash
+    	for (Table_info info : tableid_hash.values())
+    		close(info.getFile());
     	table_hash.clear();
     	tableid_hash.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table, as in
+     * <pre>
+     *   name (field type, field type pk, ...) [mmap | compressed | direct] [slotted | pax] [pagesize=N]
+     *   name (field type, field type pk, ...) columnar
+     *   name (field type, field type index, field type pk index, ...)
+     * </pre>
+     * where the optional mmap after the field list backs the table's HeapFile
+     * with a memory mapping of its file (see {@link HeapFile#HeapFile(File, TupleDesc, boolean)}),
+     * compressed stores its pages compressed (see {@link CompressedFileChannel}),
+     * direct reads and writes them around the OS cache (see {@link DirectFileChannel}),
+     * slotted stores its tuples in {@link PageFormat#SLOTTED} pages, pax in
+     * {@link PageFormat#PAX} pages, and
+     * pagesize=N gives the table pages of N bytes instead of {@link BufferPool#getPageSize()}.
+     * columnar stores the table in a {@link ColumnFile} instead, a file per column.
+     * A field annotated index gets a {@link SecondaryIndex}, kept in the file
+     * name.field.idx next to the table; the index is built from the table
+     * when that file does not exist yet or was not last written after the
+     * table's, as after the table is rewritten by {@link HeapFileEncoder}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -213,6 +303,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<String> indexed = new ArrayList<String>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -224,21 +315,87 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("index"))
+                            indexed.add(els2[0].trim());
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
                 }
+                StorageMode storage = StorageMode.PLAIN;
+                PageFormat format = PageFormat.FIXED;
+                int pageSize = BufferPool.getPageSize();
+                boolean columnar = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.length() > 0) {
+                    for (String option : options.split("\\s+")) {
+                        String o = option.toLowerCase();
+                        if (o.equals("mmap") || o.equals("compressed") || o.equals("direct")) {
+                            if (storage != StorageMode.PLAIN) {
+                                System.out.println("Conflicting table option " + option);
+                                System.exit(0);
+                            }
+                            storage = o.equals("mmap") ? StorageMode.MAPPED
+                                    : o.equals("compressed") ? StorageMode.COMPRESSED : StorageMode.DIRECT;
+                        }
+                        else if (o.startsWith("pagesize=")) {
+                            try {
+                                pageSize = Integer.parseInt(o.substring("pagesize=".length()));
+                            } catch (NumberFormatException e) {
+                                System.out.println("Bad page size " + option);
+                                System.exit(0);
+                            }
+                        }
+                        else if (o.equals("slotted") || o.equals("pax")) {
+                            if (format != PageFormat.FIXED) {
+                                System.out.println("Conflicting table option " + option);
+                                System.exit(0);
+                            }
+                            format = o.equals("slotted") ? PageFormat.SLOTTED : PageFormat.PAX;
+                        }
+                        else if (o.equals("columnar")) {
+                            columnar = true;
+                        }
+                        else {
+                            System.out.println("Unknown table option " + option);
+                            System.exit(0);
+                        }
+                    }
+                    // the options above are those of a HeapFile
+                    if (columnar && (storage != StorageMode.PLAIN || format != PageFormat.FIXED
+                            || pageSize != BufferPool.getPageSize() || !indexed.isEmpty())) {
+                        System.out.println("Conflicting table option columnar");
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf = columnar ? new ColumnFile(tabFile, t)
+                        : new HeapFile(tabFile, t, storage, format, pageSize);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (String field : indexed) {
+                    File indexFile = new File(baseFolder + "/" + name + "." + field + ".idx");
+                    // an index not newer than its table may not hold the table's
+                    // tuples; file times may count only whole seconds, so an index
+                    // written in the same second as its table is not trusted either
+                    if (indexFile.exists() && indexFile.lastModified() > tabFile.lastModified()) {
+                        addIndex(new SecondaryIndex(tabHf.getId(), t.fieldNameToIndex(field), indexFile));
+                    } else {
+                        Transaction tr = new Transaction();
+                        tr.start();
+                        addIndex(SecondaryIndex.create(tr.getId(), tabHf.getId(),
+                                t.fieldNameToIndex(field), indexFile));
+                        tr.commit();
+                    }
+                    System.out.println("Added index on " + name + "." + field);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -246,6 +403,9 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (DbException | TransactionAbortedException e) {
+            System.out.println("Could not build index : " + e.getMessage());
+            System.exit(0);
         }
     }
 }
@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Measures what checking page checksums adds to reading pages: reads every
+ * page of a table through HeapFile.readPage, first while the pages have no
+ * checksums and then once each page has one, and prints the time per page
+ * of both along with the rate at which checksums are computed. The file is
+ * read from the OS cache, so the difference is the CPU cost of the check.
+ * <p>
+ * Usage: java simpledb.ChecksumBenchmark [pages [rounds]]
+ *
+ * @see PageChecksums
+ */
+public class ChecksumBenchmark {
+
+    // keeps the JIT from dropping the checksums that are only timed
+    static volatile int sink;
+
+    public static void main(String[] args) throws IOException {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        if (!PageChecksums.isEnabled()) {
+            System.out.println("This JVM has no CRC32C; pages are not checked.");
+            return;
+        }
+
+        int tuplesPerPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < pages * tuplesPerPage; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        // the same pages, without checksums and with
+        HeapFile plain = createTable(tuples, "plain");
+        HeapFile f = createTable(tuples, "checked");
+        for (int p = 0; p < f.numPages(); p++)
+            f.writePage(f.readPage(new HeapPageId(f.getId(), p)));
+        tuples = null;
+
+        // alternate between the two, keeping the best time of each
+        double unchecked = Double.MAX_VALUE;
+        double checked = Double.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            unchecked = Math.min(unchecked, timeReads(plain, rounds));
+            checked = Math.min(checked, timeReads(f, rounds));
+        }
+
+        byte[] data = f.readPage(new HeapPageId(f.getId(), 0)).getPageData();
+        int n = 1000000;
+        long start = System.nanoTime();
+        int sum = 0;
+        for (int i = 0; i < n; i++)
+            sum += PageChecksums.checksum(ByteBuffer.wrap(data));
+        double crcNanos = (double) (System.nanoTime() - start) / n;
+        sink = sum;
+
+        System.out.printf("%d pages of %d bytes, %d rounds%n", f.numPages(), BufferPool.getPageSize(), rounds);
+        System.out.printf("readPage without checksums: %8.1f ns/page%n", unchecked);
+        System.out.printf("readPage with checksums:    %8.1f ns/page (%+.1f%%)%n", checked,
+                100 * (checked - unchecked) / unchecked);
+        System.out.printf("CRC32C of a page:           %8.1f ns (%.0f MB/s)%n", crcNanos,
+                data.length / crcNanos * 1e9 / (1 << 20));
+    }
+
+    private static HeapFile createTable(ArrayList<ArrayList<Integer>> tuples, String name)
+            throws IOException {
+        File file = File.createTempFile(name, ".dat");
+        file.deleteOnExit();
+        PageChecksums.checksumFile(file).deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+        HeapFile f = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, name);
+        return f;
+    }
+
+    /**
+     * @return the average time in nanoseconds readPage takes for a page of
+     *   f, over the given number of reads of all of it after one to warm up
+     */
+    private static double timeReads(HeapFile f, int rounds) {
+        int pages = f.numPages();
+        long start = 0;
+        for (int r = 0; r <= rounds; r++) {
+            if (r == 1)
+                start = System.nanoTime();
+            for (int p = 0; p < pages; p++)
+                f.readPage(new HeapPageId(f.getId(), p));
+        }
+        return (double) (System.nanoTime() - start) / ((long) rounds * pages);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ClockReplacementPolicy is a generalized CLOCK (GCLOCK) page replacement
+ * policy. Every tracked page sits in a slot of a circular buffer together
+ * with a small usage count. A hit bumps the count; when a victim is needed
+ * the clock hand sweeps the buffer, decrementing the counts of the pages it
+ * passes and returning the first evictable page whose count is already zero.
+ * <p>
+ * Pages that are touched once by a sequential scan only ever reach a count
+ * of one, so they are reclaimed on the first pass of the hand. B+ tree root
+ * pointer, internal and header pages are bumped straight to the maximum
+ * count on every access so that they survive several sweeps and stay
+ * resident under scan-heavy workloads.
+ * <p>
+ * Hits only bump an atomic counter, so they never take the policy's
+ * monitor; loads, removals and the sweep of the hand are serialized.
+ *
+ * @Threadsafe
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    /** Upper bound for the usage count of a page. */
+    public static final int MAX_USAGE = 5;
+
+    /** A tracked page and its usage count. */
+    private static class Slot {
+        final PageId pid;
+        final int index;
+        final AtomicInteger usage = new AtomicInteger(0);
+
+        Slot(PageId pid, int index) {
+            this.pid = pid;
+            this.index = index;
+        }
+    }
+
+    // slots, freeSlots, used and hand are protected by this policy's monitor
+    private Slot[] slots;
+    private final ConcurrentHashMap<PageId, Slot> slotOf;
+    private final ArrayDeque<Integer> freeSlots;
+    private int used; // number of slots handed out so far
+    private int hand;
+
+    /**
+     * Creates a CLOCK policy sized for a buffer pool of the given capacity.
+     * The clock grows on demand if more pages than that are tracked.
+     *
+     * @param numPages the expected number of resident pages
+     */
+    public ClockReplacementPolicy(int numPages) {
+        int capacity = Math.max(numPages, 1);
+        slots = new Slot[capacity];
+        slotOf = new ConcurrentHashMap<PageId, Slot>();
+        freeSlots = new ArrayDeque<Integer>();
+        used = 0;
+        hand = 0;
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        Slot slot = slotOf.get(pid);
+        if (slot == null) {
+            slot = new Slot(pid, allocateSlot());
+            slots[slot.index] = slot;
+            slotOf.put(pid, slot);
+        }
+        touch(slot);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Slot slot = slotOf.get(pid);
+        if (slot == null) {
+            pageLoaded(pid);
+            return;
+        }
+        touch(slot);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Slot slot = slotOf.remove(pid);
+        if (slot != null) {
+            slots[slot.index] = null;
+            freeSlots.push(slot.index);
+        }
+    }
+
+    public PageId chooseVictim(Candidates candidates) {
+        return chooseVictim(candidates, candidates);
+    }
+
+    /**
+     * Sweeps the hand once for both filters: it decrements the count of
+     * every fallback page it passes, returns the first preferred page whose
+     * count is already zero, and remembers the first such fallback page,
+     * which it returns once PREFERRED_SEARCH_LIMIT more pages went by
+     * without a preferred victim.
+     */
+    public synchronized PageId chooseVictim(Candidates preferred, Candidates fallback) {
+        if (slotOf.isEmpty())
+            return null;
+        // each candidate is decremented at most MAX_USAGE times before it
+        // reaches zero, so this many steps are enough to visit every
+        // candidate with a count of zero, unless hits keep bumping them
+        long maxSteps = (long) used * (MAX_USAGE + 1);
+        PageId fallbackVictim = null;
+        int left = PREFERRED_SEARCH_LIMIT;
+        for (long step = 0; step <= maxSteps; step++) {
+            if (fallbackVictim != null && left-- == 0)
+                break;
+            Slot slot = slots[hand];
+            hand = (hand + 1) % used;
+            if (slot == null)
+                continue;
+            boolean isPreferred = preferred.isEvictable(slot.pid);
+            if (!isPreferred && !fallback.isEvictable(slot.pid))
+                continue;
+            int count = slot.usage.get();
+            if (count == 0) {
+                if (isPreferred)
+                    return slot.pid;
+                if (fallbackVictim == null)
+                    fallbackVictim = slot.pid;
+                continue;
+            }
+            // a concurrent hit wins over the hand
+            slot.usage.compareAndSet(count, count - 1);
+        }
+        return fallbackVictim;
+    }
+
+    private static void touch(Slot slot) {
+        if (BufferPool.isIndexPage(slot.pid)) {
+            slot.usage.set(MAX_USAGE);
+            return;
+        }
+        while (true) {
+            int count = slot.usage.get();
+            if (count >= MAX_USAGE || slot.usage.compareAndSet(count, count + 1))
+                return;
+        }
+    }
+
+    private int allocateSlot() {
+        if (!freeSlots.isEmpty())
+            return freeSlots.pop();
+        if (used == slots.length)
+            slots = Arrays.copyOf(slots, slots.length * 2);
+        return used++;
+    }
+}
@@ -0,0 +1,532 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ColumnFile is a DbFile that stores each column of a table in a file of
+ * its own, so that a scan reads only the columns a query uses.
+ * <p>
+ * The rows of the table are split into row groups of getRowsPerGroup()
+ * rows. The file given to the constructor holds a {@link RowGroupPage} per
+ * group, which records the rows of the group that are in use; column i is
+ * stored in columnFile(f, i), a {@link ColumnPage} per group, each in a
+ * slot of the largest size its values can take. Rows are appended to the
+ * last group and never move, so the values of a row are found by its
+ * position in the group, and its RecordId is that position in the
+ * group's RowGroupPage. The room of deleted rows is not reused.
+ * <p>
+ * A zone map in zoneFile(f) records the smallest and the largest value of
+ * each column in each group. Scans given predicates skip the groups in
+ * which no value can satisfy one of them without reading their pages;
+ * in the other groups the predicate columns are read first, and the other
+ * columns only at the positions of the rows that satisfy all predicates.
+ * A zone only ever grows, so one that is written before its column page
+ * still covers what the page holds, whether or not that write made it to
+ * disk.
+ *
+ * @see SeqScan#pushDown
+ */
+public class ColumnFile implements DbFile {
+
+    /** Rows per row group unless the constructor is given another number. */
+    public static final int DEFAULT_ROWS_PER_GROUP = 1024;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableId;
+    private final int rowsPerGroup;
+
+    private final DbFileChannel rows; // a RowGroupPage per group
+    private final DbFileChannel[] columns; // a ColumnPage per group for each column
+    private final DbFileChannel zones; // the zone map, see writeZone
+
+    private final int rowSlotBytes;
+    private final int[] columnSlotBytes;
+    // where the zone of each column starts in the zone record of a group
+    private final int[] zoneOffsets;
+    private final int zoneRecordBytes;
+
+    // the smallest and largest value of each column in each group; null
+    // where there is none yet
+    private final ArrayList<Field[]> mins = new ArrayList<Field[]>();
+    private final ArrayList<Field[]> maxs = new ArrayList<Field[]>();
+
+    /**
+     * Opens the column store of a table, or creates an empty one if f does
+     * not exist, with DEFAULT_ROWS_PER_GROUP rows per group.
+     *
+     * @param f the file of the RowGroupPages; the column files and the
+     *   zone map are named after it
+     * @param td the schema of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this(f, td, DEFAULT_ROWS_PER_GROUP);
+    }
+
+    /**
+     * Opens the column store of a table, or creates an empty one if f does
+     * not exist. A table must always be opened with the same number of
+     * rows per group.
+     *
+     * @param f the file of the RowGroupPages
+     * @param td the schema of the table
+     * @param rowsPerGroup the number of rows of a row group
+     */
+    public ColumnFile(File f, TupleDesc td, int rowsPerGroup) {
+        if (rowsPerGroup <= 0)
+            throw new IllegalArgumentException("row groups need at least one row");
+        this.f = f;
+        this.td = td;
+        this.tableId = f.getAbsoluteFile().hashCode();
+        this.rowsPerGroup = rowsPerGroup;
+        this.rowSlotBytes = RowGroupPage.size(rowsPerGroup);
+        this.columnSlotBytes = new int[td.numFields()];
+        this.zoneOffsets = new int[td.numFields()];
+        this.columns = new DbFileChannel[td.numFields()];
+        int zoneBytes = 0;
+        for (int i = 0; i < columns.length; i++) {
+            columnSlotBytes[i] = ColumnPage.maxSize(td.getFieldType(i), rowsPerGroup);
+            zoneOffsets[i] = zoneBytes;
+            zoneBytes += 1 + 2 * td.getFieldType(i).getLen();
+            columns[i] = new DbFileChannel(columnFile(f, i));
+        }
+        this.zoneRecordBytes = zoneBytes;
+        this.rows = new DbFileChannel(f);
+        this.zones = new DbFileChannel(zoneFile(f));
+        try {
+            for (int i = 0; i < columns.length; i++)
+                columnFile(f, i).createNewFile();
+            f.createNewFile();
+            zoneFile(f).createNewFile();
+            loadZones();
+        } catch (IOException e) {
+            throw new RuntimeException("cannot open the column files of " + f, e);
+        }
+    }
+
+    /**
+     * @return the file column i of the table stored in f is kept in
+     */
+    public static File columnFile(File f, int i) {
+        return new File(f.getPath() + ".col" + i);
+    }
+
+    /**
+     * @return the file the zone map of the table stored in f is kept in
+     */
+    public static File zoneFile(File f) {
+        return new File(f.getPath() + ".zones");
+    }
+
+    /**
+     * Returns the file of the RowGroupPages of this table.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return tableId;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows of a row group
+     */
+    public int getRowsPerGroup() {
+        return rowsPerGroup;
+    }
+
+    /**
+     * @return the number of row groups of the table
+     */
+    public int numGroups() {
+        return (int) ((rows.size() + rowSlotBytes - 1) / rowSlotBytes);
+    }
+
+    /**
+     * @return the number of BufferPool.getPageSize() pages the files of the
+     *   table take up, for estimating the cost of a scan
+     */
+    public int numPages() {
+        long bytes = rows.size();
+        for (DbFileChannel c : columns)
+            bytes += c.size();
+        return (int) ((bytes + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof ColumnPageId) || pid.getTableId() != tableId)
+            throw new IllegalArgumentException(pid + " is not a page of this file");
+        ColumnPageId cpid = (ColumnPageId) pid;
+        int group = cpid.pageNumber();
+        if (group < 0 || group >= numGroups())
+            throw new IllegalArgumentException("row group " + group + " is not in the file");
+        try {
+            if (cpid.column() == ColumnPageId.ROWS) {
+                ByteBuffer data = ByteBuffer.allocate(rowSlotBytes);
+                rows.read(data, (long) rowSlotBytes * group);
+                return new RowGroupPage(cpid, data.array());
+            }
+            // the stored length comes first; a group with no values in the
+            // column yet has none stored
+            DbFileChannel channel = columns[cpid.column()];
+            long offset = (long) columnSlotBytes[cpid.column()] * group;
+            ByteBuffer header = ByteBuffer.allocate(ColumnPage.HEADER_SIZE);
+            channel.read(header, offset);
+            int length = Math.max(header.getInt(0), ColumnPage.HEADER_SIZE);
+            if (length > columnSlotBytes[cpid.column()])
+                throw new IOException("bad length " + length + " of " + pid);
+            ByteBuffer data = ByteBuffer.allocate(length);
+            if (length > ColumnPage.HEADER_SIZE)
+                channel.read(data, offset);
+            else
+                data.put(header.array());
+            return new ColumnPage(cpid, data.array());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read " + pid, e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId pid = (ColumnPageId) page.getId();
+        int group = pid.pageNumber();
+        if (pid.column() == ColumnPageId.ROWS) {
+            rows.write(ByteBuffer.wrap(page.getPageData()), (long) rowSlotBytes * group);
+            return;
+        }
+        Field[] bounds = ((ColumnPage) page).bounds();
+        if (bounds != null) {
+            widenZone(group, pid.column(), bounds[0], bounds[1]);
+            writeZone(group, pid.column());
+        }
+        columns[pid.column()].write(ByteBuffer.wrap(page.getPageData()),
+                (long) columnSlotBytes[pid.column()] * group);
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        zones.force();
+        for (DbFileChannel c : columns)
+            c.force();
+        rows.force();
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        zones.close();
+        for (DbFileChannel c : columns)
+            c.close();
+        rows.close();
+    }
+
+    /**
+     * Reads the zone map. A zone record holds, for each column, a byte that
+     * is 1 if the zone is known, then its smallest and its largest value.
+     */
+    private synchronized void loadZones() throws IOException {
+        int groups = (int) (zones.size() / zoneRecordBytes);
+        ByteBuffer record = ByteBuffer.allocate(zoneRecordBytes);
+        for (int g = 0; g < groups; g++) {
+            record.clear();
+            zones.read(record, (long) zoneRecordBytes * g);
+            Field[] min = new Field[columns.length];
+            Field[] max = new Field[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                if (record.get(zoneOffsets[i]) == 0)
+                    continue;
+                Type type = td.getFieldType(i);
+                min[i] = type.parse(record, zoneOffsets[i] + 1);
+                max[i] = type.parse(record, zoneOffsets[i] + 1 + type.getLen());
+            }
+            mins.add(min);
+            maxs.add(max);
+        }
+    }
+
+    /**
+     * Grows the zone of column i in the given group to cover min and max.
+     */
+    private synchronized void widenZone(int group, int i, Field min, Field max) {
+        while (mins.size() <= group) {
+            mins.add(new Field[columns.length]);
+            maxs.add(new Field[columns.length]);
+        }
+        Field[] groupMins = mins.get(group);
+        Field[] groupMaxs = maxs.get(group);
+        if (groupMins[i] == null || min.compare(Predicate.Op.LESS_THAN, groupMins[i]))
+            groupMins[i] = min;
+        if (groupMaxs[i] == null || max.compare(Predicate.Op.GREATER_THAN, groupMaxs[i]))
+            groupMaxs[i] = max;
+    }
+
+    /**
+     * Writes the zone of column i in the given group to the zone map.
+     */
+    private synchronized void writeZone(int group, int i) throws IOException {
+        Type type = td.getFieldType(i);
+        ByteBuffer entry = ByteBuffer.allocate(1 + 2 * type.getLen());
+        entry.put(0, (byte) 1);
+        type.write(mins.get(group)[i], entry, 1);
+        type.write(maxs.get(group)[i], entry, 1 + type.getLen());
+        zones.write(entry, (long) zoneRecordBytes * group + zoneOffsets[i]);
+    }
+
+    /**
+     * @return false if no value of the given group can satisfy p, judging
+     *   by the zone map
+     */
+    private synchronized boolean mayMatch(int group, Predicate p) {
+        if (group >= mins.size() || mins.get(group)[p.getField()] == null)
+            return true;
+        Field min = mins.get(group)[p.getField()];
+        Field max = maxs.get(group)[p.getField()];
+        Field c = p.getOperand();
+        switch (p.getOp()) {
+        case LIKE:
+            // a substring match for strings, equality for ints
+            if (c.getType() == Type.STRING_TYPE)
+                return true;
+            // fall through
+        case EQUALS:
+            return min.compare(Predicate.Op.LESS_THAN_OR_EQ, c)
+                    && max.compare(Predicate.Op.GREATER_THAN_OR_EQ, c);
+        case NOT_EQUALS:
+            return !(min.equals(c) && max.equals(c));
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return min.compare(p.getOp(), c);
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return max.compare(p.getOp(), c);
+        }
+        return true;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("Error inserting tuple. Table schema mismatch");
+        BufferPool bufferPool = Database.getBufferPool();
+        RowGroupPage group = null;
+        int g = numGroups() - 1;
+        if (g >= 0) {
+            group = (RowGroupPage) bufferPool.getPage(tid,
+                    new ColumnPageId(tableId, ColumnPageId.ROWS, g), Permissions.READ_WRITE);
+            if (group.isFull())
+                group = null;
+        }
+        if (group == null) {
+            // start a new row group; its columns have no values on disk yet
+            synchronized (this) {
+                g = numGroups();
+                rows.write(ByteBuffer.allocate(rowSlotBytes), (long) rowSlotBytes * g);
+            }
+            group = (RowGroupPage) bufferPool.getPage(tid,
+                    new ColumnPageId(tableId, ColumnPageId.ROWS, g), Permissions.READ_WRITE);
+        }
+
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        int row = group.appendRow();
+        dirtied.add(group);
+        for (int i = 0; i < columns.length; i++) {
+            ColumnPage column = (ColumnPage) bufferPool.getPage(tid,
+                    new ColumnPageId(tableId, i, g), Permissions.READ_WRITE);
+            column.setValue(row, t.getField(i));
+            // scans must not skip the group while the page is only in memory
+            widenZone(g, i, t.getField(i), t.getField(i));
+            dirtied.add(column);
+        }
+        t.setRecordId(new RecordId(group.getId(), row));
+        return dirtied;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != tableId
+                || ((ColumnPageId) rid.getPageId()).column() != ColumnPageId.ROWS)
+            throw new DbException("Tuple is not in this table");
+        RowGroupPage group = (RowGroupPage) Database.getBufferPool().getPage(tid,
+                rid.getPageId(), Permissions.READ_WRITE);
+        group.deleteRow(rid.tupleno());
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(group);
+        return dirtied;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, new ArrayList<Predicate>());
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy all the
+     * given predicates. Row groups whose zones rule out a predicate are
+     * skipped; in the others, the columns of the predicates are read
+     * first, and the other columns only if some row satisfies them all.
+     *
+     * @param fields the indexes of the fields the caller will read, whose
+     *   pages are read along with those of the predicates, or null to read
+     *   each column when one of its values is first read
+     * @param predicates the predicates the tuples must satisfy
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields, List<Predicate> predicates) {
+        return new ColumnFileIterator(tid, fields, new ArrayList<Predicate>(predicates));
+    }
+
+    /**
+     * @return the page of column i in the given group
+     */
+    private ColumnPage getColumnPage(TransactionId tid, int group, int i)
+            throws DbException, TransactionAbortedException {
+        return (ColumnPage) Database.getBufferPool().getPage(tid,
+                new ColumnPageId(tableId, i, group), Permissions.READ_ONLY);
+    }
+
+    private class ColumnFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final int[] fields;
+        private final ArrayList<Predicate> predicates;
+        private boolean open;
+        private int group;
+        private ColumnPageId groupId;
+        // the pages of the current group read so far, by column
+        private ColumnPage[] pages;
+        // the rows of the current group to return, and the next of them
+        private int[] positions;
+        private int next;
+
+        ColumnFileIterator(TransactionId tid, int[] fields, ArrayList<Predicate> predicates) {
+            this.tid = tid;
+            this.fields = fields;
+            this.predicates = predicates;
+        }
+
+        public void open() {
+            open = true;
+            group = -1;
+            positions = new int[0];
+            next = 0;
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        public void close() {
+            super.close();
+            open = false;
+            pages = null;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                return null;
+            while (next >= positions.length) {
+                if (group + 1 >= numGroups())
+                    return null;
+                readGroup(++group);
+            }
+            return new ColumnTuple(tid, groupId, pages, positions[next++]);
+        }
+
+        /**
+         * Finds the rows of group g that satisfy the predicates.
+         */
+        private void readGroup(int g) throws DbException, TransactionAbortedException {
+            groupId = new ColumnPageId(tableId, ColumnPageId.ROWS, g);
+            // locking the RowGroupPage first keeps inserts out of the group
+            // while its zones are checked
+            RowGroupPage rowGroup = (RowGroupPage) Database.getBufferPool().getPage(tid,
+                    groupId, Permissions.READ_ONLY);
+            pages = new ColumnPage[columns.length];
+            positions = new int[0];
+            next = 0;
+            for (Predicate p : predicates) {
+                if (!mayMatch(g, p))
+                    return;
+            }
+            int[] found = rowGroup.usedRows();
+            for (Predicate p : predicates) {
+                if (found.length == 0)
+                    return;
+                ColumnPage page = pages[p.getField()];
+                if (page == null)
+                    page = pages[p.getField()] = getColumnPage(tid, g, p.getField());
+                int n = 0;
+                for (int row : found) {
+                    if (page.getValue(row).compare(p.getOp(), p.getOperand()))
+                        found[n++] = row;
+                }
+                found = Arrays.copyOf(found, n);
+            }
+            if (found.length > 0 && fields != null) {
+                for (int i : fields) {
+                    if (pages[i] == null)
+                        pages[i] = getColumnPage(tid, g, i);
+                }
+            }
+            positions = found;
+        }
+    }
+
+    /**
+     * A row of a ColumnFile, which reads its values from the pages of its
+     * group at its position when they are first asked for.
+     */
+    private class ColumnTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final ColumnPage[] pages;
+        private final int row;
+
+        ColumnTuple(TransactionId tid, ColumnPageId groupId, ColumnPage[] pages, int row) {
+            super(td, new RecordId(groupId, row));
+            this.tid = tid;
+            this.pages = pages;
+            this.row = row;
+        }
+
+        @Override
+        Field loadField(int i) {
+            ColumnPage page = pages[i];
+            if (page == null) {
+                try {
+                    page = pages[i] = getColumnPage(tid, getRecordId().getPageId().pageNumber(), i);
+                } catch (DbException | TransactionAbortedException e) {
+                    throw new RuntimeException("cannot read column " + i + " of " + getRecordId(), e);
+                }
+            }
+            return page.getValue(row);
+        }
+
+        /** Serializes as a plain tuple, without the pages. */
+        private Object writeReplace() {
+            Tuple t = new Tuple(td);
+            t.setRecordId(getRecordId());
+            for (int i = 0; i < td.numFields(); i++)
+                t.setField(i, getField(i));
+            return t;
+        }
+    }
+}
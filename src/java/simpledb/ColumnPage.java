@@ -0,0 +1,222 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * ColumnPage holds the values of one column of a {@link ColumnFile} for the
+ * rows of one row group, in row order: the value of the row at position r
+ * of the group's {@link RowGroupPage} is value r of the page.
+ * <p>
+ * A stored page starts with a header of the stored length in bytes, an
+ * int, the number of values, an int, and the encoding, a byte:
+ * <ul>
+ * <li>PLAIN: the values follow one after another, each at the fixed width
+ * of its Type.
+ * <li>DICTIONARY: the number of distinct values, an int, and the distinct
+ * values at fixed width follow; then, for each row, the index of its value
+ * among them, in one byte, or in two when there are more than 256 distinct
+ * values.
+ * </ul>
+ * getPageData picks the encoding that takes fewer bytes, so a column with
+ * few distinct values in a group is stored in a fraction of the space, and
+ * each distinct value is decoded only once. A page of all zeros is empty.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    /** Bytes of the header of a stored page. */
+    public static final int HEADER_SIZE = 9;
+
+    private static final byte PLAIN = 0;
+    private static final byte DICTIONARY = 1;
+
+    final ColumnPageId pid;
+    final Type type;
+    private final Field[] values;
+    private int count;
+
+    private volatile TransactionId dirtier;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk.
+     *
+     * @param id the id of the page
+     * @param data the stored page, at least HEADER_SIZE bytes
+     * @throws IOException if the data is not a valid page
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        ColumnFile f = (ColumnFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.type = f.getTupleDesc().getFieldType(id.column());
+        this.values = new Field[f.getRowsPerGroup()];
+        decode(data);
+        // the stored bytes are the before image; no need to encode them again
+        this.oldData = data;
+    }
+
+    /**
+     * @return the largest size of a stored page of values of the given
+     *   type in a file with the given number of rows per group
+     */
+    public static int maxSize(Type type, int rowsPerGroup) {
+        return HEADER_SIZE + rowsPerGroup * type.getLen();
+    }
+
+    private void decode(byte[] data) throws IOException {
+        if (data.length < HEADER_SIZE)
+            throw new IOException("column page data is only " + data.length + " bytes");
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int length = buf.getInt(0);
+        count = buf.getInt(4);
+        if (count == 0)
+            return;
+        if (length > data.length || count > values.length)
+            throw new IOException("column page of " + length + " bytes and " + count
+                    + " values does not fit");
+        int width = type.getLen();
+        if (buf.get(8) == PLAIN) {
+            for (int r = 0; r < count; r++)
+                values[r] = type.parse(buf, HEADER_SIZE + r * width);
+            return;
+        }
+        int distinct = buf.getInt(HEADER_SIZE);
+        Field[] dictionary = new Field[distinct];
+        int offset = HEADER_SIZE + 4;
+        for (int d = 0; d < distinct; d++, offset += width)
+            dictionary[d] = type.parse(buf, offset);
+        boolean wide = distinct > 256;
+        for (int r = 0; r < count; r++) {
+            int code = wide ? buf.getShort(offset + 2 * r) & 0xffff : buf.get(offset + r) & 0xff;
+            values[r] = dictionary[code];
+        }
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of values, those of deleted rows included
+     */
+    public synchronized int getNumValues() {
+        return count;
+    }
+
+    /**
+     * @return the value of the row at the given position
+     */
+    public synchronized Field getValue(int row) {
+        if (row < 0 || row >= count)
+            throw new IndexOutOfBoundsException("row " + row + " of " + pid);
+        return values[row];
+    }
+
+    /**
+     * Stores the value of the row at the given position, which is at most
+     * getNumValues(): rows are appended in order.
+     */
+    public synchronized void setValue(int row, Field value) {
+        if (row < 0 || row > count || row >= values.length)
+            throw new IndexOutOfBoundsException("row " + row + " of " + pid);
+        values[row] = value;
+        if (row == count)
+            count++;
+    }
+
+    /**
+     * @return the smallest and the largest value of the page, or null if it
+     *   has none
+     */
+    public synchronized Field[] bounds() {
+        if (count == 0)
+            return null;
+        Field min = values[0];
+        Field max = values[0];
+        for (int r = 1; r < count; r++) {
+            if (values[r].compare(Predicate.Op.LESS_THAN, min))
+                min = values[r];
+            else if (values[r].compare(Predicate.Op.GREATER_THAN, max))
+                max = values[r];
+        }
+        return new Field[] { min, max };
+    }
+
+    public synchronized byte[] getPageData() {
+        int width = type.getLen();
+        int plainSize = HEADER_SIZE + count * width;
+
+        HashMap<Field, Integer> codes = new HashMap<Field, Integer>();
+        ArrayList<Field> dictionary = new ArrayList<Field>();
+        for (int r = 0; r < count && dictionary.size() <= 65536; r++) {
+            if (!codes.containsKey(values[r])) {
+                codes.put(values[r], dictionary.size());
+                dictionary.add(values[r]);
+            }
+        }
+        int distinct = dictionary.size();
+        int dictionarySize = HEADER_SIZE + 4 + distinct * width + count * (distinct > 256 ? 2 : 1);
+
+        if (distinct > 65536 || dictionarySize >= plainSize) {
+            ByteBuffer buf = ByteBuffer.allocate(plainSize);
+            buf.putInt(0, plainSize);
+            buf.putInt(4, count);
+            buf.put(8, PLAIN);
+            for (int r = 0; r < count; r++)
+                type.write(values[r], buf, HEADER_SIZE + r * width);
+            return buf.array();
+        }
+        ByteBuffer buf = ByteBuffer.allocate(dictionarySize);
+        buf.putInt(0, dictionarySize);
+        buf.putInt(4, count);
+        buf.put(8, DICTIONARY);
+        buf.putInt(HEADER_SIZE, distinct);
+        int offset = HEADER_SIZE + 4;
+        for (Field value : dictionary) {
+            type.write(value, buf, offset);
+            offset += width;
+        }
+        for (int r = 0; r < count; r++) {
+            int code = codes.get(values[r]);
+            if (distinct > 256)
+                buf.putShort(offset + 2 * r, (short) code);
+            else
+                buf.put(offset + r, (byte) code);
+        }
+        return buf.array();
+    }
+
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new ColumnPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
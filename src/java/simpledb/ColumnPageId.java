@@ -0,0 +1,74 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a {@link ColumnFile}: the chunk of one
+ * column in one row group, or the {@link RowGroupPage} that records which
+ * rows of the group are in use.
+ */
+public class ColumnPageId implements PageId {
+
+    /** The column number of the RowGroupPage of a row group. */
+    public static final int ROWS = -1;
+
+    private final int tableId;
+    private final int column;
+    private final int group;
+
+    /**
+     * Constructor. Create a page id for a chunk of a column, or for the
+     * RowGroupPage of a row group.
+     *
+     * @param tableId the table that is being referenced
+     * @param column the index of the column in the table's TupleDesc, or
+     *   ROWS for the RowGroupPage
+     * @param group the number of the row group
+     */
+    public ColumnPageId(int tableId, int column, int group) {
+        this.tableId = tableId;
+        this.column = column;
+        this.group = group;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column of the chunk, or ROWS */
+    public int column() {
+        return column;
+    }
+
+    /**
+     * @return the row group the page belongs to
+     */
+    public int pageNumber() {
+        return group;
+    }
+
+    public int hashCode() {
+        return (tableId * 31 + column) * 31 + group;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId))
+            return false;
+        ColumnPageId p = (ColumnPageId) o;
+        return tableId == p.tableId && column == p.column && group == p.group;
+    }
+
+    public String toString() {
+        return "(tableId: " + tableId + ", column: "
+                + (column == ROWS ? "rows" : Integer.toString(column)) + ", group: " + group + ")";
+    }
+
+    /**
+     * Return a representation of this object as an array of
+     * integers, for writing to disk.  Size of returned array must contain
+     * number of integers that corresponds to number of args to the
+     * constructor.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, column, group };
+    }
+}
@@ -0,0 +1,465 @@
+package simpledb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedFileChannel is a DbFileChannel that stores each page of its
+ * file compressed, so that scans of cold tables -- whose pages are mostly
+ * padding and repeated values -- read a fraction of the bytes. Callers
+ * still read and write whole pages at the offsets they would have in a
+ * plain file; a page map, saved next to the file in a file with the same
+ * name plus ".pagemap", says where each page is actually stored.
+ * <p>
+ * The file is a sequence of blocks: an optional header block, such as the
+ * root pointer page of a BTreeFile, followed by pages. Each block is
+ * stored in an extent of the file, a multiple of EXTENT_ALIGN bytes long,
+ * that starts with the codec of the block, its stored length and its
+ * length; the codec is deflate at its fastest level, or none for a block
+ * that does not get smaller. A block that is written again goes back into
+ * its extent if it fits, and into a new extent at the end of the file
+ * otherwise. Extents left behind are not reused; {@link #compress} writes
+ * a file without them.
+ * <p>
+ * A file that has no page map yet is taken to be a plain file, whose
+ * blocks are read where a plain DbFileChannel would read them. They are
+ * compressed as they are written, so a table can switch to compressed
+ * storage at any time. The page map is saved when the file is forced,
+ * after the extents it points to. Until then it points at the previous
+ * extents of blocks that moved, which are left as they were; blocks
+ * written in place describe their own lengths.
+ * <p>
+ * Reads and writes must start at the beginning of a block.
+ *
+ * @see StorageMode#COMPRESSED
+ * @Threadsafe
+ */
+public class CompressedFileChannel extends DbFileChannel {
+
+    /** Extents are a multiple of this many bytes long. */
+    public static final int EXTENT_ALIGN = 128;
+
+    /** Appended to the name of the file to get the name of its page map. */
+    public static final String MAP_SUFFIX = ".pagemap";
+
+    // codec, stored length, length
+    private static final int EXTENT_HEADER = 9;
+    private static final byte RAW = 0;
+    private static final byte DEFLATE = 1;
+
+    private static final int MAP_MAGIC = 0x504d4150;
+    private static final int MAP_BUFFER_BYTES = 1 << 16;
+
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    /**
+     * Where a block is stored. An extent is never moved or resized; a
+     * block that needs a bigger one gets a new extent.
+     */
+    private static class Extent {
+        final long offset;
+        final int capacity;
+        // stored as in a plain file, without an extent header
+        final boolean plain;
+
+        Extent(long offset, int capacity, boolean plain) {
+            this.offset = offset;
+            this.capacity = capacity;
+            this.plain = plain;
+        }
+    }
+
+    private final File mapFile;
+    private final int headerBytes;
+    private final int pageBytes;
+
+    // the extent of each block, or null for a block never written;
+    // all of the following are protected by this
+    private final ArrayList<Extent> extents = new ArrayList<Extent>();
+    // the size the file would have as a plain file
+    private long logicalSize;
+    // where the next extent goes
+    private long physicalEnd;
+    // the page map changed since it was last saved
+    private boolean changed;
+
+    /**
+     * Creates a channel for the given file, reading its page map if it has
+     * one. The file itself is not opened until the first read or write.
+     *
+     * @param f the file to read and write
+     * @param headerBytes the size of the block before the first page, or 0
+     * @param pageBytes the size of a page
+     */
+    public CompressedFileChannel(File f, int headerBytes, int pageBytes) {
+        super(f);
+        this.mapFile = new File(f.getPath() + MAP_SUFFIX);
+        this.headerBytes = headerBytes;
+        this.pageBytes = pageBytes;
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException("cannot read " + mapFile, e);
+        }
+    }
+
+    /** @return the file the page map is saved in */
+    public File getMapFile() {
+        return mapFile;
+    }
+
+    private synchronized void load() throws IOException {
+        long length = getFile().length();
+        if (!mapFile.exists()) {
+            // a plain file: every block where its offset says
+            for (int b = 0; blockStart(b) < length; b++) {
+                long start = blockStart(b);
+                extents.add(new Extent(start, (int) Math.min(blockBytes(b), length - start), true));
+            }
+            logicalSize = length;
+            physicalEnd = length;
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(mapFile), MAP_BUFFER_BYTES));
+        try {
+            if (in.readInt() != MAP_MAGIC)
+                throw new IOException("not a page map");
+            logicalSize = in.readLong();
+            physicalEnd = Math.max(in.readLong(), length);
+            int n = in.readInt();
+            for (int b = 0; b < n; b++) {
+                long offset = in.readLong();
+                int capacity = in.readInt();
+                boolean plain = in.readBoolean();
+                extents.add(capacity == 0 ? null : new Extent(offset, capacity, plain));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the page map to a new file that then replaces the old one, so
+     * that the saved map is always complete.
+     */
+    private void saveMap() throws IOException {
+        File tmp = new File(mapFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, MAP_BUFFER_BYTES));
+        synchronized (this) {
+            out.writeInt(MAP_MAGIC);
+            out.writeLong(logicalSize);
+            out.writeLong(physicalEnd);
+            out.writeInt(extents.size());
+            for (Extent e : extents) {
+                out.writeLong(e == null ? 0 : e.offset);
+                out.writeInt(e == null ? 0 : e.capacity);
+                out.writeBoolean(e != null && e.plain);
+            }
+            changed = false;
+        }
+        out.flush();
+        fos.getFD().sync();
+        out.close();
+        Files.move(tmp.toPath(), mapFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private int blockOf(long position) {
+        long start = position;
+        if (headerBytes > 0) {
+            if (position == 0)
+                return 0;
+            start -= headerBytes;
+        }
+        if (start < 0 || start % pageBytes != 0)
+            throw new IllegalArgumentException("offset " + position + " is not at the start of a page");
+        return (int) (start / pageBytes) + (headerBytes > 0 ? 1 : 0);
+    }
+
+    private long blockStart(int block) {
+        if (headerBytes == 0)
+            return (long) block * pageBytes;
+        return block == 0 ? 0 : headerBytes + (long) (block - 1) * pageBytes;
+    }
+
+    private int blockBytes(int block) {
+        return headerBytes > 0 && block == 0 ? headerBytes : pageBytes;
+    }
+
+    private synchronized Extent extent(int block) {
+        return block < extents.size() ? extents.get(block) : null;
+    }
+
+    @Override
+    public synchronized long size() {
+        return logicalSize;
+    }
+
+    /** @return the number of bytes the file takes up on disk */
+    public long storedSize() {
+        return getFile().length();
+    }
+
+    /**
+     * Reads the block that starts at the given position, as much of it as
+     * fits in dst. A block inside the file that was never written reads as
+     * zeros.
+     *
+     * @param dst the buffer to fill, from its position to its limit
+     * @param position the offset of the block in the file as a plain file
+     * @return the number of bytes read
+     */
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        int block = blockOf(position);
+        Extent e = extent(block);
+        if (e == null) {
+            if (position >= size())
+                return 0;
+            int n = Math.min(dst.remaining(), blockBytes(block));
+            for (int i = 0; i < n; i++)
+                dst.put((byte) 0);
+            return n;
+        }
+        if (e.plain) {
+            ByteBuffer d = dst.duplicate();
+            d.limit(d.position() + Math.min(d.remaining(), e.capacity));
+            int n = super.read(d, e.offset);
+            dst.position(d.position());
+            return n;
+        }
+
+        byte[] stored = new byte[e.capacity];
+        synchronized (e) {
+            super.read(ByteBuffer.wrap(stored), e.offset);
+        }
+        ByteBuffer header = ByteBuffer.wrap(stored);
+        byte codec = header.get();
+        int storedLength = header.getInt();
+        int length = header.getInt();
+        if (storedLength < 0 || storedLength > e.capacity - EXTENT_HEADER || length < 0)
+            throw new IOException("corrupt extent at " + e.offset + " of " + getFile());
+        int n = Math.min(dst.remaining(), length);
+        if (codec == RAW) {
+            dst.put(stored, EXTENT_HEADER, n);
+            return n;
+        }
+        byte[] data = new byte[length];
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(stored, EXTENT_HEADER, storedLength);
+        try {
+            int done = 0;
+            while (done < length) {
+                int r = inflater.inflate(data, done, length - done);
+                if (r == 0 && (inflater.finished() || inflater.needsInput()))
+                    break;
+                done += r;
+            }
+            if (done < length)
+                throw new IOException("corrupt extent at " + e.offset + " of " + getFile());
+        } catch (DataFormatException ex) {
+            throw new IOException("corrupt extent at " + e.offset + " of " + getFile(), ex);
+        }
+        dst.put(data, 0, n);
+        return n;
+    }
+
+    /**
+     * Compresses the bytes of src, from its position to its limit, into
+     * an extent image, and consumes them.
+     */
+    private static byte[] encode(ByteBuffer src) {
+        int length = src.remaining();
+        byte[] in;
+        int off;
+        if (src.hasArray()) {
+            in = src.array();
+            off = src.arrayOffset() + src.position();
+        } else {
+            in = new byte[length];
+            src.duplicate().get(in);
+            off = 0;
+        }
+        src.position(src.limit());
+
+        byte[] out = new byte[EXTENT_HEADER + length];
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(in, off, length);
+        deflater.finish();
+        int stored = 0;
+        while (!deflater.finished() && EXTENT_HEADER + stored < out.length)
+            stored += deflater.deflate(out, EXTENT_HEADER + stored, out.length - EXTENT_HEADER - stored);
+        byte codec = DEFLATE;
+        if (!deflater.finished()) {
+            // no smaller compressed
+            codec = RAW;
+            System.arraycopy(in, off, out, EXTENT_HEADER, length);
+            stored = length;
+        }
+        ByteBuffer header = ByteBuffer.wrap(out);
+        header.put(codec);
+        header.putInt(stored);
+        header.putInt(length);
+        return Arrays.copyOf(out, EXTENT_HEADER + stored);
+    }
+
+    private static int capacityFor(int bytes) {
+        return (bytes + EXTENT_ALIGN - 1) / EXTENT_ALIGN * EXTENT_ALIGN;
+    }
+
+    /**
+     * Writes src as the block that starts at the given position.
+     *
+     * @param src the block, from the buffer's position to its limit
+     * @param position the offset of the block in the file as a plain file
+     */
+    @Override
+    public void write(ByteBuffer src, long position) throws IOException {
+        write(new long[] { position }, new ByteBuffer[] { src });
+    }
+
+    /**
+     * Writes each of srcs as the block that starts at the matching
+     * position. The blocks that need new extents get them next to each
+     * other, so that they are written with a single gathering write.
+     */
+    @Override
+    public void write(long[] positions, ByteBuffer[] srcs) throws IOException {
+        int[] blocks = new int[srcs.length];
+        int[] lengths = new int[srcs.length];
+        byte[][] images = new byte[srcs.length][];
+        for (int i = 0; i < srcs.length; i++) {
+            blocks[i] = blockOf(positions[i]);
+            lengths[i] = srcs[i].remaining();
+            images[i] = encode(srcs[i]);
+        }
+
+        ArrayList<Integer> moved = new ArrayList<Integer>();
+        for (int i = 0; i < srcs.length; i++) {
+            Extent e = extent(blocks[i]);
+            if (e != null && !e.plain && images[i].length <= e.capacity) {
+                synchronized (e) {
+                    super.write(ByteBuffer.wrap(images[i]), e.offset);
+                }
+            } else {
+                moved.add(i);
+            }
+        }
+
+        if (!moved.isEmpty()) {
+            long[] offsets = new long[moved.size()];
+            ByteBuffer[] buffers = new ByteBuffer[moved.size()];
+            Extent[] fresh = new Extent[moved.size()];
+            synchronized (this) {
+                for (int j = 0; j < fresh.length; j++) {
+                    byte[] image = images[moved.get(j)];
+                    fresh[j] = new Extent(physicalEnd, capacityFor(image.length), false);
+                    physicalEnd += fresh[j].capacity;
+                    offsets[j] = fresh[j].offset;
+                    buffers[j] = ByteBuffer.wrap(Arrays.copyOf(image, fresh[j].capacity));
+                }
+            }
+            super.write(offsets, buffers);
+            synchronized (this) {
+                for (int j = 0; j < fresh.length; j++) {
+                    int block = blocks[moved.get(j)];
+                    while (extents.size() <= block)
+                        extents.add(null);
+                    extents.set(block, fresh[j]);
+                }
+                changed = true;
+            }
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < srcs.length; i++) {
+                if (positions[i] + lengths[i] > logicalSize) {
+                    logicalSize = positions[i] + lengths[i];
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces the extents written so far to disk, then saves the page map.
+     */
+    @Override
+    public void force() throws IOException {
+        super.force();
+        boolean save;
+        synchronized (this) {
+            save = changed;
+        }
+        if (save)
+            saveMap();
+    }
+
+    /** Compressed pages cannot be mapped; always returns null. */
+    @Override
+    public ByteBuffer map(long position, int size) {
+        return null;
+    }
+
+    /**
+     * Writes a compressed copy of a file, with every block compressed and
+     * no unused extents, and its page map. The source can be a compressed
+     * file or a plain file; it must not change while it is copied.
+     *
+     * @param in the file to copy
+     * @param out the file to write; it is replaced if it exists
+     * @param headerBytes the size of the block before the first page, or 0
+     * @param pageBytes the size of a page
+     */
+    public static void compress(File in, File out, int headerBytes, int pageBytes) throws IOException {
+        CompressedFileChannel src = new CompressedFileChannel(in, headerBytes, pageBytes);
+        new File(out.getPath() + MAP_SUFFIX).delete();
+        PageChecksums.checksumFile(out).delete();
+        new FileOutputStream(out).close();
+        CompressedFileChannel dst = new CompressedFileChannel(out, headerBytes, pageBytes);
+        try {
+            for (int b = 0; src.blockStart(b) < src.size(); b++) {
+                if (src.extent(b) == null)
+                    continue;
+                ByteBuffer block = ByteBuffer.allocate(src.blockBytes(b));
+                src.read(block, src.blockStart(b));
+                block.flip();
+                dst.write(block, src.blockStart(b));
+            }
+            dst.force();
+        } finally {
+            src.close();
+            dst.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * CsvScan reads tuples from a delimited text file, one tuple per line, in
+ * the format HeapFileEncoder converts: the fields of each line are
+ * separated by a single character, ints are written in decimal, strings
+ * as they are and cut to Type.STRING_LEN characters. Surrounding
+ * whitespace is ignored and empty lines are skipped.
+ */
+public class CsvScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int READ_BUFFER_CHARS = 1 << 16;
+
+    private final File file;
+    private final TupleDesc td;
+    private final char separator;
+
+    private transient BufferedReader reader;
+    private transient Tuple next;
+    private int lineNo;
+
+    /**
+     * Creates a scan of the given file.
+     *
+     * @param file the file to read
+     * @param td the schema of the tuples on each line
+     * @param separator the character between the fields of a line
+     */
+    public CsvScan(File file, TupleDesc td, char separator) {
+        this.file = file;
+        this.td = td;
+        this.separator = separator;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        try {
+            reader = new BufferedReader(new FileReader(file), READ_BUFFER_CHARS);
+        } catch (IOException e) {
+            throw new DbException("Cannot open " + file + ": " + e.getMessage());
+        }
+        next = null;
+        lineNo = 0;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (reader == null)
+            return false;
+        if (next == null)
+            next = readTuple();
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    /**
+     * Parses the next non-empty line.
+     *
+     * @return the tuple, or null at the end of the file
+     */
+    private Tuple readTuple() throws DbException {
+        String line;
+        try {
+            do {
+                line = reader.readLine();
+                lineNo++;
+            } while (line != null && line.trim().isEmpty());
+        } catch (IOException e) {
+            throw new DbException("Cannot read " + file + ": " + e.getMessage());
+        }
+        if (line == null)
+            return null;
+
+        Tuple t = new Tuple(td);
+        int start = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            int end = line.indexOf(separator, start);
+            if (end < 0) {
+                if (i < td.numFields() - 1)
+                    throw new DbException(file + ":" + lineNo + ": expected " + td.numFields() + " fields");
+                end = line.length();
+            }
+            String s = line.substring(start, end).trim();
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                try {
+                    t.setField(i, new IntField(Integer.parseInt(s)));
+                } catch (NumberFormatException e) {
+                    throw new DbException(file + ":" + lineNo + ": not an int: " + s);
+                }
+            } else {
+                if (s.length() > Type.STRING_LEN)
+                    s = s.substring(0, Type.STRING_LEN);
+                t.setField(i, new StringField(s, Type.STRING_LEN));
+            }
+            start = end + 1;
+        }
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void close() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // nothing left to read anyway
+            }
+        }
+        reader = null;
+        next = null;
+    }
+}
@@ -28,6 +28,48 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk, as if by calling writePage on
+     * each. Files that can write neighbouring pages with a single call
+     * should override this.
+     *
+     * @param pages distinct pages of this file, in ascending page number
+     *   order
+     * @throws IOException if a write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
+    /**
+     * Forces the pages written to this file so far to the storage device.
+     * Files whose writes are durable as soon as they return need not
+     * override this.
+     *
+     * @throws IOException if the file cannot be synced
+     */
+    public default void force() throws IOException {
+    }
+
+    /**
+     * Closes the files this DbFile keeps open, once it has left the
+     * Catalog. They are opened again if the DbFile is used afterwards.
+     * Files that keep files open should override this.
+     *
+     * @throws IOException if a file cannot be closed
+     */
+    public default void close() throws IOException {
+    }
+
+    /**
+     * Returns the size of the pages of this file in bytes. Files whose
+     * page size can be chosen per table should override this.
+     */
+    public default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
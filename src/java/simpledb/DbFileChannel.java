@@ -0,0 +1,351 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DbFileChannel is the long-lived FileChannel a DbFile reads and writes its
+ * pages through, instead of opening the file for every page. All access is
+ * positional, so any number of threads can read and write pages of the same
+ * file concurrently without sharing a file pointer.
+ * <p>
+ * The channel is opened on first use. A thread that is interrupted during
+ * I/O closes a FileChannel for everybody; the channel is then reopened and
+ * the operation retried, so an interrupt only ever affects the thread that
+ * received it.
+ * <p>
+ * A channel can also be opened in memory-mapped mode, for read-mostly
+ * tables: pages are then read straight out of read-only mappings of the
+ * file, each covering MAP_CHUNK_BYTES, so files larger than 2GB need
+ * several. Writes still go through the channel; the mappings share the
+ * operating system's cache with it and see them right away.
+ * <p>
+ * DbFileChannel also keeps a small pool of page-sized byte arrays for
+ * callers that only need a page's bytes for as long as it takes to decode
+ * them.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+
+    /** Most page buffers kept around for reuse. */
+    public static final int MAX_POOLED_BUFFERS = 64;
+
+    private static final ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<byte[]>();
+    private static final AtomicInteger pooled = new AtomicInteger(0);
+
+    /** Bytes of the file covered by one mapping in memory-mapped mode. */
+    public static final long MAP_CHUNK_BYTES = 1L << 30;
+
+    // each mapping extends this far into the next chunk, so that a page
+    // that starts in a chunk always ends in the same mapping
+    private static final int MAP_OVERLAP = 1 << 20;
+
+    private final File f;
+    // null until first used, or after the channel was closed
+    private volatile FileChannel channel;
+
+    // serializes gathering writes, the only users of the channel's position
+    private final Object gatherLock = new Object();
+
+    private final boolean mapped;
+    // the mapping of each chunk, or null where none has been made yet;
+    // replaced as a whole whenever a mapping is added, under this object's lock
+    private volatile MappedByteBuffer[] mappings = new MappedByteBuffer[0];
+
+    /**
+     * Creates a channel for the given file. The file is not opened until
+     * the first read or write.
+     *
+     * @param f the file to read and write
+     */
+    public DbFileChannel(File f) {
+        this(f, false);
+    }
+
+    /**
+     * Creates a channel for the given file, optionally in memory-mapped
+     * mode. The file is not opened until the first read or write.
+     *
+     * @param f the file to read and write
+     * @param mapped true to serve map requests from mappings of the file
+     */
+    public DbFileChannel(File f, boolean mapped) {
+        this.f = f;
+        this.mapped = mapped;
+    }
+
+    /** @return the file this channel reads and writes */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns the number of bytes the pages of the file take up, which is
+     * where a page appended to the file goes.
+     */
+    public long size() {
+        return f.length();
+    }
+
+    /** @return true if this channel is in memory-mapped mode */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c != null && c.isOpen())
+            return c;
+        synchronized (this) {
+            c = channel;
+            if (c == null || !c.isOpen()) {
+                c = FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channel = c;
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Reads from the file at the given position until dst is full or the end
+     * of the file is reached.
+     *
+     * @param dst the buffer to fill, from its position to its limit
+     * @param position the offset in the file to read from
+     * @return the number of bytes read
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        int start = dst.position();
+        boolean interrupted = false;
+        try {
+            while (dst.hasRemaining()) {
+                try {
+                    int n = channel().read(dst, position + dst.position() - start);
+                    if (n < 0)
+                        break;
+                } catch (ClosedChannelException e) {
+                    // closed by an interrupt, here or in another thread
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * Writes all of src to the file at the given position.
+     *
+     * @param src the bytes to write, from the buffer's position to its limit
+     * @param position the offset in the file to write to
+     */
+    public void write(ByteBuffer src, long position) throws IOException {
+        writeFully(src, position);
+    }
+
+    private void writeFully(ByteBuffer src, long position) throws IOException {
+        int start = src.position();
+        boolean interrupted = false;
+        try {
+            while (src.hasRemaining()) {
+                try {
+                    channel().write(src, position + src.position() - start);
+                } catch (ClosedChannelException e) {
+                    // closed by an interrupt, here or in another thread
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes each of srcs to the file at the matching position. Buffers
+     * that follow each other in the file are written with a single
+     * gathering write.
+     *
+     * @param positions the offset in the file of each buffer, in ascending
+     *   order
+     * @param srcs the bytes to write, from each buffer's position to its
+     *   limit
+     */
+    public void write(long[] positions, ByteBuffer[] srcs) throws IOException {
+        int first = 0;
+        while (first < srcs.length) {
+            int end = first + 1;
+            long next = positions[first] + srcs[first].remaining();
+            while (end < srcs.length && positions[end] == next) {
+                next += srcs[end].remaining();
+                end++;
+            }
+            if (end - first == 1)
+                writeFully(srcs[first], positions[first]);
+            else
+                gather(Arrays.copyOfRange(srcs, first, end), positions[first]);
+            first = end;
+        }
+    }
+
+    /**
+     * Writes all of srcs one after the other, starting at the given
+     * position. FileChannel has no positional gathering write, so this
+     * moves the channel's position, which nothing else relies on.
+     */
+    private void gather(ByteBuffer[] srcs, long position) throws IOException {
+        long total = remaining(srcs);
+        boolean interrupted = false;
+        try {
+            synchronized (gatherLock) {
+                long left;
+                while ((left = remaining(srcs)) > 0) {
+                    try {
+                        // the buffers say how far an interrupted write got
+                        FileChannel c = channel();
+                        c.position(position + total - left);
+                        c.write(srcs);
+                    } catch (ClosedChannelException e) {
+                        // closed by an interrupt, here or in another thread
+                        interrupted |= Thread.interrupted();
+                    }
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long remaining(ByteBuffer[] bufs) {
+        long n = 0;
+        for (ByteBuffer buf : bufs)
+            n += buf.remaining();
+        return n;
+    }
+
+    /**
+     * Forces everything written to the file so far to the storage device.
+     */
+    public void force() throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    channel().force(false);
+                    return;
+                } catch (ClosedChannelException e) {
+                    // closed by an interrupt, here or in another thread
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns a read-only view of size bytes of the file, starting at
+     * position, straight from a mapping of the file. The view keeps
+     * reflecting the file: later writes to those bytes show through.
+     *
+     * @param position the offset in the file of the first byte
+     * @param size the number of bytes, at most a page
+     * @return the view, or null if the channel is not memory-mapped or the
+     *   file ends before position + size
+     */
+    public ByteBuffer map(long position, int size) throws IOException {
+        if (!mapped || size > MAP_OVERLAP || position < 0)
+            return null;
+        int chunk = (int) (position / MAP_CHUNK_BYTES);
+        long base = chunk * MAP_CHUNK_BYTES;
+        long end = position + size;
+        MappedByteBuffer[] maps = mappings;
+        MappedByteBuffer m = chunk < maps.length ? maps[chunk] : null;
+        if (m == null || base + m.capacity() < end) {
+            m = mapChunk(chunk, end);
+            if (m == null)
+                return null;
+        }
+        ByteBuffer view = m.duplicate();
+        view.limit((int) (end - base));
+        view.position((int) (position - base));
+        return view.slice();
+    }
+
+    /**
+     * Maps the given chunk, or maps it again if the file has grown since,
+     * so that the mapping reaches at least end.
+     *
+     * @return the mapping, or null if the file ends before end
+     */
+    private synchronized MappedByteBuffer mapChunk(int chunk, long end) throws IOException {
+        MappedByteBuffer[] maps = mappings;
+        MappedByteBuffer m = chunk < maps.length ? maps[chunk] : null;
+        long base = chunk * MAP_CHUNK_BYTES;
+        if (m != null && base + m.capacity() >= end)
+            return m;
+        FileChannel c = channel();
+        long length = c.size();
+        if (length < end)
+            return null;
+        m = c.map(FileChannel.MapMode.READ_ONLY, base,
+                Math.min(length - base, MAP_CHUNK_BYTES + MAP_OVERLAP));
+        MappedByteBuffer[] grown = Arrays.copyOf(maps, Math.max(maps.length, chunk + 1));
+        grown[chunk] = m;
+        mappings = grown;
+        return m;
+    }
+
+    /**
+     * Closes the channel and drops its mappings. The channel is opened again
+     * if the file is used afterwards.
+     */
+    public synchronized void close() throws IOException {
+        FileChannel c = channel;
+        channel = null;
+        mappings = new MappedByteBuffer[0];
+        if (c != null)
+            c.close();
+    }
+
+    /**
+     * Hands out a byte array of the given size from the pool, or a new one
+     * if the pool has none. Its contents are undefined.
+     *
+     * @param size the size of the array, usually BufferPool.getPageSize()
+     */
+    public static byte[] acquireBuffer(int size) {
+        byte[] buf;
+        while ((buf = buffers.poll()) != null) {
+            pooled.decrementAndGet();
+            if (buf.length == size)
+                return buf;
+            // left over from a different page size
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Returns a byte array obtained from acquireBuffer to the pool. The
+     * caller must not use it afterwards.
+     */
+    public static void releaseBuffer(byte[] buf) {
+        if (pooled.incrementAndGet() <= MAX_POOLED_BUFFERS)
+            buffers.add(buf);
+        else
+            pooled.decrementAndGet();
+    }
+}
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.util.ArrayList;
 
 /**
  * The delete operator. Delete reads tuples from its child operator and removes
@@ -55,6 +56,10 @@ public class Delete extends Operator {
      * processed via the buffer pool (which can be accessed via the
      * Database.getBufferPool() method.
      * 
+     * A child that reads a table through a secondary index would see the
+     * index change under it as the deletes remove entries from it, so its
+     * tuples are all read before the first one is deleted.
+     * 
      * @return A 1-field tuple containing the number of deleted records.
      * @see Database#getBufferPool
      * @see BufferPool#deleteTuple
@@ -68,9 +73,19 @@ public class Delete extends Operator {
     	try 
     	{
     		child.open();
-    		while(child.hasNext()) {
-    			Database.getBufferPool().deleteTuple(this.t, child.next());
-    			count_deleted++;
+    		if (SecondaryIndexScan.readsIndex(child)) {
+    			ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    			while(child.hasNext())
+    				tuples.add(child.next());
+    			for (Tuple tup : tuples) {
+    				Database.getBufferPool().deleteTuple(this.t, tup);
+    				count_deleted++;
+    			}
+    		} else {
+    			while(child.hasNext()) {
+    				Database.getBufferPool().deleteTuple(this.t, child.next());
+    				count_deleted++;
+    			}
     		}
     		child.close();
     	}
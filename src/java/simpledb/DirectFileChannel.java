@@ -0,0 +1,252 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DirectFileChannel is a DbFileChannel that moves pages between the file
+ * and memory without going through the operating system's cache, the way
+ * O_DIRECT does, so that large scans do not keep every page twice: once
+ * in the BufferPool and once in the OS cache, pushing out more useful
+ * pages of other files.
+ * <p>
+ * Direct transfers must start at an offset that is a multiple of
+ * ALIGNMENT, be a multiple of ALIGNMENT long, and use memory aligned the
+ * same way, so pages go through an aligned direct buffer of each thread.
+ * Transfers that are not aligned, such as those of a file whose pages are
+ * smaller than ALIGNMENT, go through the OS cache as with a plain
+ * DbFileChannel. So does everything when the JVM or the file system does
+ * not support direct I/O; see {@link #isDirect}.
+ *
+ * @see StorageMode#DIRECT
+ * @Threadsafe
+ */
+public class DirectFileChannel extends DbFileChannel {
+
+    /** Offsets, lengths and buffers of direct transfers are multiples of this. */
+    public static final int ALIGNMENT = 4096;
+
+    /** Neighbouring pages are written together up to this many bytes. */
+    public static final int MAX_TRANSFER_BYTES = 1 << 20;
+
+    // ExtendedOpenOption.DIRECT and ByteBuffer.alignedSlice, which not
+    // every JVM has; null where missing
+    private static final OpenOption DIRECT = directOption();
+    private static final Method ALIGNED_SLICE = alignedSliceMethod();
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>();
+
+    // opened on first use, like the channel of the superclass
+    private volatile FileChannel direct;
+    // set once opening the file for direct I/O failed
+    private volatile boolean unsupported;
+
+    /**
+     * Creates a channel for the given file. The file is not opened until
+     * the first read or write.
+     *
+     * @param f the file to read and write
+     */
+    public DirectFileChannel(File f) {
+        super(f);
+    }
+
+    private static OpenOption directOption() {
+        try {
+            Class<?> c = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            for (Object option : c.getEnumConstants()) {
+                if (((Enum<?>) option).name().equals("DIRECT"))
+                    return (OpenOption) option;
+            }
+        } catch (ClassNotFoundException e) {
+            // not a JVM we know how to do direct I/O with
+        }
+        return null;
+    }
+
+    private static Method alignedSliceMethod() {
+        try {
+            return ByteBuffer.class.getMethod("alignedSlice", int.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if aligned transfers bypass the OS cache; false if the
+     *   JVM or the file system does not support it
+     */
+    public boolean isDirect() {
+        try {
+            return directChannel() != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the channel for direct transfers, or null if there can be none
+     */
+    private FileChannel directChannel() throws IOException {
+        if (unsupported || DIRECT == null || ALIGNED_SLICE == null)
+            return null;
+        FileChannel c = direct;
+        if (c != null && c.isOpen())
+            return c;
+        synchronized (this) {
+            c = direct;
+            if (c == null || !c.isOpen()) {
+                if (!getFile().exists())
+                    throw new IOException(getFile() + " does not exist");
+                try {
+                    c = FileChannel.open(getFile().toPath(),
+                            StandardOpenOption.READ, StandardOpenOption.WRITE, DIRECT);
+                } catch (IOException | UnsupportedOperationException e) {
+                    // the file system does not do direct I/O, as tmpfs may not
+                    unsupported = true;
+                    return null;
+                }
+                direct = c;
+            }
+            return c;
+        }
+    }
+
+    private static boolean aligned(long position, int length) {
+        return position % ALIGNMENT == 0 && length % ALIGNMENT == 0 && length > 0;
+    }
+
+    /**
+     * @return this thread's aligned direct buffer, cleared and limited to
+     *   length bytes
+     */
+    private static ByteBuffer buffer(int length) throws IOException {
+        ByteBuffer buf = buffers.get();
+        if (buf == null || buf.capacity() < length) {
+            try {
+                buf = (ByteBuffer) ALIGNED_SLICE.invoke(
+                        ByteBuffer.allocateDirect(length + ALIGNMENT), ALIGNMENT);
+            } catch (ReflectiveOperationException e) {
+                throw new IOException("cannot allocate an aligned buffer", e);
+            }
+            buffers.set(buf);
+        }
+        buf.clear();
+        buf.limit(length);
+        return buf;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        int length = dst.remaining();
+        FileChannel c = aligned(position, length) ? directChannel() : null;
+        if (c == null)
+            return super.read(dst, position);
+
+        ByteBuffer buf = buffer(length);
+        boolean interrupted = false;
+        try {
+            while (buf.hasRemaining() && c != null) {
+                try {
+                    int n = c.read(buf, position + buf.position());
+                    // a short read is the end of the file, and the next read
+                    // would not be aligned
+                    if (n <= 0 || buf.position() % ALIGNMENT != 0)
+                        break;
+                } catch (ClosedChannelException e) {
+                    // closed by an interrupt, here or in another thread
+                    interrupted |= Thread.interrupted();
+                    c = directChannel();
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        buf.flip();
+        int n = buf.remaining();
+        dst.put(buf);
+        return n;
+    }
+
+    @Override
+    public void write(ByteBuffer src, long position) throws IOException {
+        write(new long[] { position }, new ByteBuffer[] { src });
+    }
+
+    /**
+     * Writes each of srcs to the file at the matching position. Aligned
+     * buffers that follow each other in the file are copied into one
+     * direct buffer and written with a single call.
+     */
+    @Override
+    public void write(long[] positions, ByteBuffer[] srcs) throws IOException {
+        int first = 0;
+        while (first < srcs.length) {
+            if (!aligned(positions[first], srcs[first].remaining()) || directChannel() == null) {
+                super.write(srcs[first], positions[first]);
+                first++;
+                continue;
+            }
+            int end = first + 1;
+            long next = positions[first] + srcs[first].remaining();
+            while (end < srcs.length && positions[end] == next
+                    && next - positions[first] + srcs[end].remaining() <= MAX_TRANSFER_BYTES
+                    && aligned(next, srcs[end].remaining())) {
+                next += srcs[end].remaining();
+                end++;
+            }
+            ByteBuffer buf = buffer((int) (next - positions[first]));
+            for (int i = first; i < end; i++)
+                buf.put(srcs[i]);
+            buf.flip();
+            writeDirect(buf, positions[first]);
+            first = end;
+        }
+    }
+
+    private void writeDirect(ByteBuffer buf, long position) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (buf.hasRemaining()) {
+                FileChannel c = directChannel();
+                try {
+                    c.write(buf, position + buf.position());
+                } catch (ClosedChannelException e) {
+                    // closed by an interrupt, here or in another thread
+                    interrupted |= Thread.interrupted();
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Forces what was written through either channel to the storage
+     * device; a direct write skips the OS cache but not the device's.
+     */
+    @Override
+    public void force() throws IOException {
+        super.force();
+        FileChannel c = directChannel();
+        if (c != null)
+            c.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        super.close();
+        FileChannel c = direct;
+        direct = null;
+        if (c != null)
+            c.close();
+    }
+}
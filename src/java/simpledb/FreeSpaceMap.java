@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile may still have an empty
+ * slot, so that an insert can go straight to such a page instead of looking
+ * at every page of the file. It keeps one bit per page and is saved next to
+ * the heap file, in a file with the same name plus ".fsm".
+ * <p>
+ * The map is a hint that errs on one side only: a page whose bit is clear
+ * is full, but a page whose bit is set may have filled up since. Inserts
+ * check the page itself and clear the bit of a page they find full, so a
+ * wrong bit costs one page visit. Whenever the map cannot be trusted -- it
+ * has never been saved, or it was being changed when the database stopped
+ * -- every page is taken to have room, and the map corrects itself as
+ * inserts visit the pages. Pages past the end of the map, such as pages
+ * added to the file by other means, are also taken to have room.
+ * <p>
+ * The saved map starts with the number of pages it covers and a flag that
+ * is cleared on disk before the map first changes after a save, and set
+ * again by the next save. Clearing the flag is not forced, to keep syncs
+ * off the insert and delete path: only a crash of the machine can lose
+ * it, and then the old map at worst takes pages with room to be full,
+ * which wastes their room but loses no tuple.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private static final int HEADER_SIZE = 5;
+
+    private final File file;
+    private final DbFileChannel channel;
+
+    // bit i is set if page i may have an empty slot; protected by this
+    private final BitSet free = new BitSet();
+    // number of pages the map knows about; later pages count as free
+    private int known;
+    // no set bit below this page
+    private int firstFree;
+    // the map changed since it was last saved
+    private boolean changed;
+    // the flag on disk says the saved map is up to date
+    private boolean savedClean;
+
+    /**
+     * Opens the free space map of the given heap file, reading the saved
+     * map if there is a trustworthy one.
+     *
+     * @param heapFile the file of the HeapFile
+     */
+    public FreeSpaceMap(File heapFile) {
+        this.file = new File(heapFile.getPath() + ".fsm");
+        this.channel = new DbFileChannel(file);
+        load();
+    }
+
+    /** @return the file the map is saved in */
+    public File getFile() {
+        return file;
+    }
+
+    private synchronized void load() {
+        if (!file.exists() || file.length() < HEADER_SIZE)
+            return;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if (header.get(4) != 1)
+                return;
+            int pages = header.getInt(0);
+            ByteBuffer bits = ByteBuffer.allocate((pages + 7) / 8);
+            if (channel.read(bits, HEADER_SIZE) < bits.capacity())
+                return;
+            free.or(BitSet.valueOf(bits.array()));
+            known = pages;
+            savedClean = true;
+        } catch (IOException e) {
+            // treat every page as having room
+            free.clear();
+            known = 0;
+        }
+    }
+
+    /**
+     * Returns a page that may have an empty slot.
+     *
+     * @param numPages the number of pages in the heap file
+     * @param from the first page to consider
+     * @return a page number from from to numPages - 1, or -1 if every page
+     *   from from on is known to be full
+     */
+    public synchronized int findFree(int numPages, int from) {
+        int start = Math.max(from, firstFree);
+        int p = free.nextSetBit(start);
+        if (p < 0 || p >= known) {
+            // the pages the map knows of are full
+            p = Math.max(start, known);
+            if (from <= firstFree)
+                firstFree = p;
+        }
+        else if (from <= firstFree) {
+            firstFree = p;
+        }
+        return p < numPages ? p : -1;
+    }
+
+    /**
+     * Records that the given page is full.
+     */
+    public synchronized void markFull(int pageNo) throws IOException {
+        cover(pageNo);
+        if (!free.get(pageNo))
+            return;
+        beforeChange();
+        free.clear(pageNo);
+    }
+
+    /**
+     * Records that the given page may have an empty slot.
+     */
+    public synchronized void markFree(int pageNo) throws IOException {
+        if (pageNo >= known || free.get(pageNo)) {
+            if (pageNo < firstFree)
+                firstFree = pageNo;
+            return;
+        }
+        beforeChange();
+        free.set(pageNo);
+        if (pageNo < firstFree)
+            firstFree = pageNo;
+    }
+
+    /** Extends the map to cover pageNo; the new pages count as free. */
+    private void cover(int pageNo) {
+        if (pageNo < known)
+            return;
+        free.set(known, pageNo + 1);
+        known = pageNo + 1;
+        changed = true;
+    }
+
+    /**
+     * Marks the saved map out of date before it first changes after a
+     * save, so that a map that was being changed when the database stopped
+     * is not trusted.
+     */
+    private void beforeChange() throws IOException {
+        changed = true;
+        if (savedClean) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0 }), 4);
+            savedClean = false;
+        }
+    }
+
+    /**
+     * Saves the map if it has changed since it was last saved.
+     */
+    public synchronized void save() throws IOException {
+        if (!changed)
+            return;
+        if (!file.exists())
+            file.createNewFile();
+        byte[] bits = free.get(0, known).toByteArray();
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + (known + 7) / 8);
+        buf.putInt(known);
+        buf.put((byte) 0);
+        buf.put(bits);
+        buf.clear();
+        // write the map first and mark it up to date once it is on disk
+        channel.write(buf, 0);
+        channel.force();
+        channel.write(ByteBuffer.wrap(new byte[] { 1 }), 4);
+        channel.force();
+        savedClean = true;
+        changed = false;
+    }
+
+    /**
+     * Closes the file the map is saved in. It is opened again if the map is
+     * saved afterwards.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import javax.xml.crypto.Data;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -9,7 +10,8 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor; a table can also use another {@link PageFormat}, such as the
+ * variable-length records of SlottedHeapPage.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -20,6 +22,15 @@ public class HeapFile implements DbFile {
 	private TupleDesc td; // the schema
 	private int tableID; // the table id corresponding to this file
 	private int num_pages; // number of pages in file
+	private final DbFileChannel channel; // all page reads and writes go through it
+	private final FreeSpaceMap free_space; // pages that may have room for inserts
+	private final PageChecksums checksums; // of the pages written, checked on reads
+	private final PageFormat format; // how tuples are laid out in the pages
+	private final int page_size; // bytes per page
+	private final StorageMode storage; // how the pages are kept in the file
+
+	/** Pages bulkLoad fills in memory before it appends them together. */
+	public static final int BULK_LOAD_BATCH_PAGES = 256;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -29,11 +40,116 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally in
+     * memory-mapped mode. A memory-mapped heap file builds its pages right
+     * on top of a read-only mapping of the file, without copying them, and
+     * suits tables that are read much more than they are written: a page
+     * that is modified gets a private copy, and pages are still written
+     * back through the file channel.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped true to read pages from a mapping of the file
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
+        this(f, td, mapped, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * in the given format.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped true to read pages from a mapping of the file
+     * @param format the layout of the pages of the file
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped, PageFormat format) {
+        this(f, td, mapped ? StorageMode.MAPPED : StorageMode.PLAIN, format);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * in the given format and stored in the given mode.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param storage how the pages are kept in the file
+     * @param format the layout of the pages of the file
+     */
+    public HeapFile(File f, TupleDesc td, StorageMode storage, PageFormat format) {
+        this(f, td, storage, format, BufferPool.getPageSize());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * pageSize bytes rather than BufferPool.getPageSize(). Large pages suit
+     * tables that are mostly scanned, small ones tables that are mostly
+     * looked up by RecordId.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param storage how the pages are kept in the file
+     * @param format the layout of the pages of the file
+     * @param pageSize the size of the pages of the file in bytes
+     */
+    public HeapFile(File f, TupleDesc td, StorageMode storage, PageFormat format, int pageSize) {
         // some code goes here
+    	if (pageSize < td.getSize() + 1)
+    		throw new IllegalArgumentException("pages of " + pageSize + " bytes cannot hold a tuple");
+    	if (format == PageFormat.SLOTTED && pageSize > SlottedHeapPage.MAX_PAGE_SIZE)
+    		throw new IllegalArgumentException("slotted pages are at most " + SlottedHeapPage.MAX_PAGE_SIZE + " bytes");
     	this.f = f;
+    	this.format = format;
     	this.td = td;
+    	this.page_size = pageSize;
+    	this.storage = storage;
     	this.tableID = f.getAbsoluteFile().hashCode();
-    	this.num_pages = (int)Math.ceil(f.length()/BufferPool.getPageSize());
+    	this.channel = storage.open(f, 0, pageSize);
+    	this.num_pages = (int)Math.ceil(channel.size()/pageSize);
+    	this.free_space = new FreeSpaceMap(f);
+    	this.checksums = new PageChecksums(f);
+    }
+
+    /**
+     * @return true if this file reads its pages from a mapping of the file
+     */
+    public boolean isMapped() {
+        return channel.isMapped();
+    }
+
+    /**
+     * @return true if this file stores its pages compressed
+     */
+    public boolean isCompressed() {
+        return channel instanceof CompressedFileChannel;
+    }
+
+    /**
+     * @return how the pages are kept in the file
+     */
+    public StorageMode getStorageMode() {
+        return storage;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return page_size;
+    }
+
+    /**
+     * @return the layout of the pages of this file
+     */
+    public PageFormat getFormat() {
+        return format;
     }
 
     /**
@@ -84,52 +200,171 @@ public class HeapFile implements DbFile {
     	// to read and write pages at arbitrary offsets. You should not call BufferPool
     	// methods when reading a page from disk.
     	
-    	// get page number, then read from it 
-    	try {
-    		RandomAccessFile file = new RandomAccessFile(f,"r");
-    		int offset = BufferPool.getPageSize() * pid.pageNumber();
-    		byte [] data = new byte[BufferPool.getPageSize()];
-    		int read_len = Math.min(BufferPool.getPageSize(), (int)(f.length() - offset));
-    		file.seek(offset);	// needed to ensure out of bounds access does not happen
-    		// seek automatically raise exception
-    		file.read(data,0,read_len);
-    		file.close();
-    		// now construct a page from data 
-    		HeapPageId id = new HeapPageId(tableID,pid.pageNumber());
-    		HeapPage pg = new HeapPage(id, data);
-    		return pg;
+    	if (channel.isMapped())
+    	{
+    		try
+    		{
+    			long offset = (long) page_size * pid.pageNumber();
+    			ByteBuffer view = pid.pageNumber() < 0 ? null
+    					: channel.map(offset, page_size);
+    			// a short last page is read through the channel instead, and
+    			// so is a damaged one, which is repaired there
+    			if (view != null && checksums.verify(pid.pageNumber(), view))
+    				return format.newPage(new HeapPageId(tableID, pid.pageNumber()), view);
     		}
-    	catch(Exception e)
+    		catch(IOException e)
+    		{
+    			throw new IllegalArgumentException(e);
+    		}
+    	}
+    	// read straight into the buffer the page will use as its storage
+    	ByteBuffer data = ByteBuffer.allocate(page_size);
+    	return readPage(pid, data);
+    }
+
+    /**
+     * Read the specified page from disk into the given frame and return a
+     * HeapPage that uses the frame as its storage. Used by an off-heap
+     * BufferPool to load pages straight into its arena.
+     *
+     * @param pid the page to read
+     * @param frame a buffer of getPageSize() bytes; the page takes
+     *   it over
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    public Page readPage(PageId pid, ByteBuffer frame) throws IllegalArgumentException {
+    	long offset = (long) page_size * pid.pageNumber();
+    	if (pid.pageNumber() < 0 || offset >= channel.size())
+    		throw new IllegalArgumentException("page " + pid.pageNumber() + " is not in the file");
+    	try {
+    		ByteBuffer dst = frame.duplicate();
+    		dst.clear();
+    		channel.read(dst, offset);
+    		// a short last page reads as zeros
+    		while (dst.hasRemaining())
+    			dst.put((byte) 0);
+    		dst.flip();
+    		if (!checksums.verify(pid.pageNumber(), dst))
+    			dst.put(repairPage(pid.pageNumber()));
+    		return format.newPage(new HeapPageId(tableID, pid.pageNumber()), frame);
+    	}
+    	catch(IOException e)
     	{
-    		throw new IllegalArgumentException();
+    		throw new IllegalArgumentException(e);
     	}
     }
 
+    /**
+     * Puts back the data a page that failed its checksum had when it was
+     * last logged.
+     *
+     * @return the data of the page
+     * @throws IllegalArgumentException if the log holds no copy of the page
+     */
+    private byte[] repairPage(int pageNo) throws IOException {
+    	byte[] data = Database.getLogFile().findPageImage(new HeapPageId(tableID, pageNo));
+    	if (data == null || data.length != page_size)
+    		throw new IllegalArgumentException(new IOException("page " + pageNo + " of " + f
+    				+ " fails its checksum and the log holds no copy of it"));
+    	channel.write(ByteBuffer.wrap(data), (long) page_size * pageNo);
+    	checksums.update(pageNo, ByteBuffer.wrap(data));
+    	return data;
+    }
+
+    /**
+     * @return the checksums of the pages of this file
+     */
+    public PageChecksums getChecksums() {
+    	return checksums;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
 		byte[] pageData = page.getPageData();
-		long offsetPosition = BufferPool.getPageSize() * page.getId().pageNumber();
-		try
-		{
-			RandomAccessFile file = new RandomAccessFile(this.f, "rw");
-			// Set the file-pointer offset,
-			file.seek(offsetPosition);
-			file.write(pageData);
-			// Close file stream
-			file.close();
-		}
-		catch(Exception e)
-		{
-			throw new IOException("error writing page to file");
-		}
+		long offsetPosition = (long) page_size * page.getId().pageNumber();
+		channel.write(ByteBuffer.wrap(pageData), offsetPosition);
+		checksums.update(page.getId().pageNumber(), ByteBuffer.wrap(pageData));
+		noteFreeSpace(page);
+    }
+
+    /**
+     * Brings the free space map up to date with a page that was written.
+     */
+    private void noteFreeSpace(Page page) throws IOException {
+    	if (page instanceof HeapPage)
+    		noteFreeSpace(page.getId().pageNumber(), (HeapPage) page);
+    }
+
+    private void noteFreeSpace(int pageNo, HeapPage page) throws IOException {
+    	if (page.getNumEmptySlots() > 0)
+    		free_space.markFree(pageNo);
+    	else
+    		free_space.markFull(pageNo);
+    }
+
+    /**
+     * Called by the BufferPool when it drops the changes an aborted
+     * transaction made to a page: the page may have room again.
+     */
+    void pageRestored(int pageNo) throws IOException {
+    	free_space.markFree(pageNo);
+    }
+
+    /**
+     * Returns the free space map of this file.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+    	return free_space;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+    	long[] positions = new long[pages.size()];
+    	int[] pageNos = new int[pages.size()];
+    	ByteBuffer[] buffers = new ByteBuffer[pages.size()];
+    	for (int i = 0; i < buffers.length; i++)
+    	{
+    		Page page = pages.get(i);
+    		pageNos[i] = page.getId().pageNumber();
+    		positions[i] = (long) page_size * pageNos[i];
+    		buffers[i] = ByteBuffer.wrap(page.getPageData());
+    	}
+    	channel.write(positions, buffers);
+    	checksums.update(pageNos, rewound(buffers));
+    	for (Page page : pages)
+    		noteFreeSpace(page);
+    }
+
+    /**
+     * @return the buffers, which were written, with their positions back
+     *   at the start
+     */
+    private static ByteBuffer[] rewound(ByteBuffer[] buffers) {
+    	for (ByteBuffer buffer : buffers)
+    		buffer.rewind();
+    	return buffers;
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+    	free_space.save();
+    	channel.force();
+    	checksums.force();
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+    	channel.close();
+    	free_space.close();
+    	checksums.close();
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-    	this.num_pages = (int)Math.ceil(this.f.length() / BufferPool.getPageSize()); 
+    	this.num_pages = (int)Math.ceil(channel.size() / page_size); 
     	return this.num_pages;
     }
 
@@ -140,32 +375,217 @@ public class HeapFile implements DbFile {
     	ArrayList<Page> pageList = new ArrayList<>();
     	BufferPool bufferPool = Database.getBufferPool();
 
-    	for (int i = 0; i < numPages() ; i++)
+    	// only visit pages the free space map says may have room
+    	int i = 0;
+    	while ((i = free_space.findFree(numPages(), i)) >= 0)
 		{
 			PageId pageId = new HeapPageId(this.getId(), i);
-			HeapPage heapPage = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
-			if (heapPage.getNumEmptySlots() > 0)
+			// look at the page under a shared lock first, so that searching
+			// for free space does not write-lock every page of the file
+			boolean alreadyLocked = bufferPool.holdsLock(tid, pageId);
+			HeapPage heapPage = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_ONLY);
+			if (heapPage.hasRoomFor(t))
 			{
+				heapPage = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
 				heapPage.insertTuple(t);
 				pageList.add(heapPage);
 				break;
 			}
+			// the page is full; should that be because of this transaction
+			// and the transaction aborts, the buffer pool marks it free again.
+			// A page that only lacks room for a tuple as long as t stays free
+			if (heapPage.getNumEmptySlots() == 0)
+				free_space.markFull(i);
+			// nothing was read from this page, so the lock can go again
+			// unless the transaction held it before
+			if (!alreadyLocked)
+				bufferPool.releasePage(tid, pageId);
+			i++;
 		}
 
     	// check if there are no modified pages
 		if (pageList.isEmpty())
 		{
-			HeapPageId heapPageId = new HeapPageId(this.getId(), this.numPages());
-			HeapPage heapPage = new HeapPage(heapPageId, HeapPage.createEmptyPageData());
-
+			// append an empty page to the file and fill it through the buffer
+			// pool, so the tuple only reaches disk when the transaction commits
+			HeapPageId heapPageId;
+			synchronized (this)
+			{
+				heapPageId = new HeapPageId(this.getId(), this.numPages());
+				this.writePage(new HeapPage(heapPageId, HeapPage.createEmptyPageData(page_size)));
+			}
+			HeapPage heapPage = (HeapPage) bufferPool.getPage(tid, heapPageId, Permissions.READ_WRITE);
 			heapPage.insertTuple(t);
-			this.writePage(heapPage);
 			pageList.add(heapPage);
 		}
 
     	return pageList;
     }
 
+    /**
+     * Appends all tuples of the given iterator to this file on behalf of
+     * tid, without going through BufferPool.insertTuple. The tuples are
+     * packed into pages in memory, and every BULK_LOAD_BATCH_PAGES pages
+     * are appended to the end of the file with a single write, after a
+     * single APPEND record for them has reached the log. The file is forced
+     * once all tuples are in.
+     * <p>
+     * The appended pages stay locked by tid, so nobody sees the tuples
+     * before tid commits, and are emptied again if tid aborts. Free space
+     * in existing pages is not used, and the Tuples read from the iterator
+     * do not get RecordIds. The file must be in the Catalog. The tuples may
+     * come from a scan of this file, which reads only the pages the file
+     * had when it opened.
+     *
+     * @param tid the transaction loading the tuples
+     * @param tuples the tuples to load, matching this file's TupleDesc; the
+     *   iterator is opened, read to the end and closed
+     * @return the number of tuples loaded
+     * @throws DbException if the tuples do not match this file's TupleDesc
+     *   or one of them does not fit on a page
+     */
+    public int bulkLoad(TransactionId tid, DbIterator tuples)
+            throws DbException, IOException, TransactionAbortedException {
+    	return bulkLoad(tid, tuples, null);
+    }
+
+    /**
+     * Appends all tuples of the given iterator to this file, like
+     * bulkLoad(tid, tuples), and adds the RecordIds of the loaded tuples
+     * to rids, in the order the iterator returned the tuples. The caller
+     * can use them to add the tuples to the table's secondary indexes,
+     * which bulkLoad does not update.
+     *
+     * @param rids the list to add the RecordIds to, or null
+     */
+    public int bulkLoad(TransactionId tid, DbIterator tuples, List<RecordId> rids)
+            throws DbException, IOException, TransactionAbortedException {
+    	if (!td.equals(tuples.getTupleDesc()))
+    		throw new DbException("The table and child TupleDesc do not match");
+    	ArrayList<HeapPage> batch = new ArrayList<HeapPage>(BULK_LOAD_BATCH_PAGES);
+    	// the slots of the tuples on each page of the batch, if rids is wanted
+    	ArrayList<ArrayList<Integer>> slots = new ArrayList<ArrayList<Integer>>();
+    	// the page being filled; its place in the file is not known yet
+    	HeapPage page = null;
+    	Field[] fields = new Field[td.numFields()];
+    	int count = 0;
+    	tuples.open();
+    	try
+    	{
+    		while (tuples.hasNext())
+    		{
+    			Tuple t = tuples.next();
+    			for (int j = 0; j < fields.length; j++)
+    				fields[j] = t.getField(j);
+    			int slot = page == null ? -1 : page.insertRecord(fields);
+    			if (slot < 0)
+    			{
+    				if (page != null)
+    					batch.add(page);
+    				if (batch.size() == BULK_LOAD_BATCH_PAGES)
+    				{
+    					addRecordIds(appendPages(tid, batch), slots, rids);
+    					batch.clear();
+    				}
+    				page = format.newPage(new HeapPageId(tableID, -1),
+    						ByteBuffer.allocate(page_size));
+    				slot = page.insertRecord(fields);
+    				if (slot < 0)
+    					throw new DbException("tuple does not fit on a page: " + t);
+    				if (rids != null)
+    					slots.add(new ArrayList<Integer>());
+    			}
+    			if (rids != null)
+    				slots.get(slots.size() - 1).add(slot);
+    			count++;
+    		}
+    		if (page != null)
+    			batch.add(page);
+    		if (!batch.isEmpty())
+    			addRecordIds(appendPages(tid, batch), slots, rids);
+    	}
+    	finally
+    	{
+    		tuples.close();
+    	}
+    	force();
+    	return count;
+    }
+
+    /**
+     * Adds to rids the RecordIds of the tuples in slots, whose pages were
+     * appended from page number first on, and empties slots. Does nothing
+     * if rids is null.
+     */
+    private void addRecordIds(int first, ArrayList<ArrayList<Integer>> slots, List<RecordId> rids) {
+    	if (rids == null)
+    		return;
+    	for (int i = 0; i < slots.size(); i++)
+    	{
+    		HeapPageId pid = new HeapPageId(tableID, first + i);
+    		for (int slot : slots.get(i))
+    			rids.add(new RecordId(pid, slot));
+    	}
+    	slots.clear();
+    }
+
+    /**
+     * Appends the given pages to the end of the file, in order, locking
+     * them for tid and logging them first.
+     *
+     * @return the page number of the first page
+     */
+    private int appendPages(TransactionId tid, List<HeapPage> pages)
+            throws IOException, TransactionAbortedException {
+    	ArrayList<byte[]> data = new ArrayList<byte[]>(pages.size());
+    	for (HeapPage page : pages)
+    		data.add(page.getPageData());
+    	long[] positions = new long[pages.size()];
+    	int[] pageNos = new int[pages.size()];
+    	ByteBuffer[] buffers = new ByteBuffer[pages.size()];
+    	// like an insert that adds a page, under this file's lock, so that
+    	// both never pick the same page number
+    	synchronized (this)
+    	{
+    		int first = numPages();
+    		for (int i = 0; i < buffers.length; i++)
+    		{
+    			Database.getBufferPool().lockNewPage(tid, new HeapPageId(tableID, first + i));
+    			pageNos[i] = first + i;
+    			positions[i] = (long) page_size * (first + i);
+    			buffers[i] = ByteBuffer.wrap(data.get(i));
+    		}
+    		LogFile log = Database.getLogFile();
+    		log.logAppend(tid, tableID, first, data);
+    		log.force();
+    		channel.write(positions, buffers);
+    		checksums.update(pageNos, rewound(buffers));
+    		for (int i = 0; i < buffers.length; i++)
+    			noteFreeSpace(first + i, pages.get(i));
+    		return first;
+    	}
+    }
+
+    /**
+     * Overwrites the given pages with empty pages. Used by the LogFile to
+     * undo pages appended by bulkLoad.
+     */
+    void clearPages(int first, int count) throws IOException {
+    	long[] positions = new long[count];
+    	int[] pageNos = new int[count];
+    	ByteBuffer[] buffers = new ByteBuffer[count];
+    	for (int i = 0; i < count; i++)
+    	{
+    		pageNos[i] = first + i;
+    		positions[i] = (long) page_size * (first + i);
+    		buffers[i] = ByteBuffer.wrap(HeapPage.createEmptyPageData(page_size));
+    	}
+    	channel.write(positions, buffers);
+    	checksums.update(pageNos, rewound(buffers));
+    	for (int i = 0; i < count; i++)
+    		free_space.markFree(first + i);
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -174,6 +594,7 @@ public class HeapFile implements DbFile {
         	PageId pageId = t.getRecordId().getPageId();
         	HeapPage heapPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
         	heapPage.deleteTuple(t);
+        	free_space.markFree(pageId.pageNumber());
         	ArrayList<Page> pageList = new ArrayList<>();
         	Collections.addAll(pageList, heapPage);
 
@@ -183,22 +604,73 @@ public class HeapFile implements DbFile {
         {
             throw new DbException("Error deleting tuple" + e.getMessage());
         }
+        catch(IOException e)
+        {
+            throw new DbException("Error deleting tuple" + e.getMessage());
+        }
     }
 
     // see DbFile.java for javadocs 
     public DbFileIterator iterator(TransactionId tid) {
+    	return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this file, like
+     * iterator(tid), whose given fields are decoded a page at a time as the
+     * scan reaches each page. Suits scans that read just those fields,
+     * above all of {@link PageFormat#PAX} files, which keep the values of a
+     * field together.
+     *
+     * @param fields the indexes of the fields the caller will read, or null
+     *   to decode each field only when it is read
+     */
+    public DbFileIterator iterator(TransactionId tid, final int[] fields) {
     	
     	DbFileIterator iter = new DbFileIterator() {  		
     		
     		Iterator<Tuple> cursor;
       	  	int cur_page_num;
       	  	boolean is_open=false;
+      	  	ScanRing ring; // private frames for scans of large files, or null
+      	  	ReadAhead read_ahead; // when to prefetch pages ahead of the scan, or null
+      	  	int prefetched_up_to; // last page handed to prefetchPages
+      	  	// the pages the scan reads, counted when it opens or rewinds, so
+      	  	// that pages appended meanwhile, say by a COPY of the file into
+      	  	// itself, are not read
+      	  	int end_page;
     		
       	  
       	  	public void open() throws DbException, TransactionAbortedException {
       	  		cur_page_num = -1;
       	  		cursor = null;
       	  		is_open = true;
+      	  		end_page = numPages();
+      	  		ring = Database.getBufferPool().getScanRing(end_page);
+      	  		read_ahead = Database.getBufferPool().getReadAhead(ring);
+      	  		prefetched_up_to = -1;
+      	  	}
+
+      	  	/**
+      	  	 * Tells the read-ahead that the scan has moved on to page, and has
+      	  	 * the pages that follow it loaded in the background once the
+      	  	 * scan looks sequential.
+      	  	 */
+      	  	private void readAhead(int page) {
+      	  		if (read_ahead == null)
+      	  			return;
+      	  		int n = read_ahead.next();
+      	  		if (n == 0)
+      	  			return;
+      	  		int from = Math.max(page, prefetched_up_to) + 1;
+      	  		int to = Math.min(from + n, end_page);
+      	  		if (from >= to)
+      	  			return;
+      	  		ArrayList<PageId> pids = new ArrayList<PageId>(to - from);
+      	  		for (int i = from; i < to; i++)
+      	  			pids.add(new HeapPageId(getId(), i));
+      	  		prefetched_up_to = to - 1;
+      	  		Database.getBufferPool().prefetchPages(pids, ring);
       	  	}
       	  
       	  @Override
@@ -211,11 +683,12 @@ public class HeapFile implements DbFile {
     	  		
     	  		// we loop because we want to reach the end of file. Intermediate pages may have been filled
     	  		// but then could have had their tuples deleted, leaving the pages empty.
-    	  		while(cursor == null && cur_page_num < numPages() - 1) 
+    	  		while(cursor == null && cur_page_num < end_page - 1) 
     	  		{
     	  			HeapPageId  cur_page_id = new HeapPageId(getId(), ++cur_page_num);
-    	  			HeapPage cur_page = (HeapPage) Database.getBufferPool().getPage(tid,cur_page_id,Permissions.READ_ONLY);
-    	  			cursor = cur_page.iterator();
+    	  			HeapPage cur_page = (HeapPage) Database.getBufferPool().getPage(tid,cur_page_id,Permissions.READ_ONLY,ring);
+    	  			readAhead(cur_page_num);
+    	  			cursor = fields == null ? cur_page.iterator() : cur_page.iterator(fields);
     	  			if (!cursor.hasNext()) 
     	  				cursor = null;
     	  		}
@@ -239,12 +712,18 @@ public class HeapFile implements DbFile {
       	  	public void rewind() throws DbException, TransactionAbortedException {
 	      	  	cursor = null;
 	      	  	cur_page_num = -1;
+	      	  	prefetched_up_to = -1;
+	      	  	end_page = numPages();
+	      	  	if (read_ahead != null)
+	      	  		read_ahead.reset();
       	  	}
       	  
       	  	public void close() {
       	  		cursor = null;
       	  		cur_page_num = Integer.MAX_VALUE;
       	  		is_open = false;
+      	  		ring = null;
+      	  		read_ahead = null;
       	  	}
 
     	};
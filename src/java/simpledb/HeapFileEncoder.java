@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -9,10 +11,17 @@ import java.util.ArrayList;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p>
+ * Text files are parsed on several threads by a {@link ParallelTextParser}
+ * and the pages are written out as they fill up, so files much larger
+ * than the heap can be converted.
  */
 
 public class HeapFileEncoder {
 
+  /** The size of the buffer pages are written through. */
+  private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
   /** Convert the specified tuple list (with only integer fields) into a binary
    * page file. <br>
    *
@@ -68,12 +77,13 @@ public class HeapFileEncoder {
 
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
-    * int,...,int\n<br>
-    * int,...,int\n<br>
+    * Assume format of the input file is:<br>
+    * field,...,field\n<br>
+    * field,...,field\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, and fields are separated by
+    * fieldSeparator. Lines that cannot be parsed are reported and skipped;
+    * see {@link ParallelTextParser}.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
@@ -90,6 +100,25 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, PageFormat.FIXED);
+  }
+
+   /** Convert the specified input text file into a binary page file whose
+    * pages are in the given format.
+    *
+    * @see #convert(File, File, int, int, Type[], char)
+    * @param format the layout of the pages, as the HeapFile reading the
+    *   output file will expect
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, PageFormat format)
+      throws IOException {
+      // the checksums of a file that was there before are not those of the new pages
+      PageChecksums.checksumFile(outFile).delete();
+      if (format == PageFormat.SLOTTED) {
+          convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          return;
+      }
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -102,125 +131,91 @@ public class HeapFileEncoder {
     int nheaderbytes = (nrecords / 8);
     if (nheaderbytes * 8 < nrecords)
         nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
 
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
+    Type[] types = Arrays.copyOf(typeAr, numFields);
+    boolean pax = format == PageFormat.PAX;
+    ParallelTextParser parser = new ParallelTextParser(inFile, types, fieldSeparator);
+    OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile), WRITE_BUFFER_BYTES);
+    ByteBuffer page = ByteBuffer.allocate(npagebytes);
     int recordcount = 0;
     int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
+
+    try {
+        ArrayList<Field[]> chunk;
+        while ((chunk = parser.nextChunk()) != null) {
+            for (Field[] fields : chunk) {
+                // set the header bit of the record, then write its fields
+                page.put(recordcount / 8, (byte) (page.get(recordcount / 8) | (1 << (recordcount % 8))));
+                int offset = 0; // of the field within the record
+                for (int i = 0; i < numFields; i++) {
+                    // PAX pages keep each field in a minipage of its own
+                    int at = pax ? nheaderbytes + nrecords * offset + recordcount * types[i].getLen()
+                            : nheaderbytes + recordcount * nrecbytes + offset;
+                    types[i].write(fields[i], page, at);
+                    offset += types[i].getLen();
                 }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
+                recordcount++;
+
+                // write out a full page and start the next one
+                if (recordcount >= nrecords) {
+                    os.write(page.array());
+                    Arrays.fill(page.array(), (byte) 0);
+                    recordcount = 0;
+                    npages++;
                 }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
             }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
         }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
+
+        // write the last page if it has records on it, or an empty page if
+        // the file is empty
+        if (recordcount > 0 || npages == 0)
+            os.write(page.array());
+    } finally {
+        parser.close();
+        os.close();
+    }
+  }
+
+  /**
+   * Writes the tuples of the input text file into pages of the
+   * {@link PageFormat#SLOTTED} format, filling each page before starting
+   * the next. Lines that cannot be parsed are reported and skipped.
+   */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    if (npagebytes > SlottedHeapPage.MAX_PAGE_SIZE)
+        throw new IllegalArgumentException("slotted pages are at most " + SlottedHeapPage.MAX_PAGE_SIZE + " bytes");
+    Type[] types = Arrays.copyOf(typeAr, numFields);
+    TupleDesc td = new TupleDesc(types);
+    ParallelTextParser parser = new ParallelTextParser(inFile, types, fieldSeparator);
+    OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile), WRITE_BUFFER_BYTES);
+    ByteBuffer page = ByteBuffer.allocate(npagebytes);
+    boolean pageEmpty = true;
+    int npages = 0;
+
+    try {
+        ArrayList<Field[]> chunk;
+        while ((chunk = parser.nextChunk()) != null) {
+            for (Field[] fields : chunk) {
+                if (!SlottedHeapPage.addRecord(page, td, fields)) {
+                    // the page is full: write it out and start the next one
+                    os.write(page.array());
+                    npages++;
+                    Arrays.fill(page.array(), (byte) 0);
+                    if (!SlottedHeapPage.addRecord(page, td, fields))
+                        throw new IOException("tuple does not fit on a page: " + Arrays.toString(fields));
                 }
+                pageEmpty = false;
             }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
         }
+
+        // write the last page, or an empty page if the file is empty
+        if (!pageEmpty || npages == 0)
+            os.write(page.array());
+    } finally {
+        parser.close();
+        os.close();
     }
-    br.close();
-    os.close();
   }
 }
@@ -1,11 +1,30 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.locks.StampedLock;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage is a thin view over the raw bytes of the page: the tuples it
+ * hands out are lazy views of their slots, which decode a field only when
+ * it is read, and inserted tuples are encoded straight into the page. The
+ * bytes live in a heap buffer or, in an off-heap BufferPool, in a frame of
+ * the pool's {@link PageArena}. When the pool gives the frame up it first
+ * moves the contents to the heap, so a page that is still referenced
+ * somewhere stays readable.
+ * <p>
+ * The tuples handed out keep showing the contents the page had when they
+ * were handed out: before the page is first modified after that, those
+ * contents are copied for them to read from.
+ * <p>
+ * Where slots and records lie in the page is left to a few package-private
+ * methods, which {@link SlottedHeapPage} and {@link PaxHeapPage} override
+ * for their own formats; the rest, latching, before images and dirty
+ * tracking, is shared.
  *
  * @see HeapFile
  * @see BufferPool
@@ -15,54 +34,82 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
+    final int pageSize;
     final int numSlots;
-
+    final int headerSize;
+    final int tupleSize;
+    // offset of each field within a tuple
+    final int[] fieldOffsets;
+
+    // the bytes of the page
+    private volatile ByteBuffer data;
+    // readers validate optimistically against it; writers and detach lock it
+    private final StampedLock latch = new StampedLock();
+    // what the tuples handed out since the last modification read from
+    private volatile Generation generation = new Generation();
+
+    // the contents at the time of the last setBeforeImage, copied when the
+    // page is first modified after it; null while the page is unmodified
     byte[] oldData;
-    TransactionId dirtyTransaction;
+    volatile TransactionId dirtyTransaction;
     boolean isPageDirty;
 
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and the page size is that of the table's file, see {@link DbFile#getPageSize()}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see DbFile#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, copyOf(data, Database.getCatalog().getDatabaseFile(id.getTableId()).getPageSize()));
+    }
+
+    /**
+     * Create a HeapPage over a buffer that holds the bytes of the page, for
+     * instance a frame of a PageArena. The page takes over the buffer: it
+     * reads and writes it in place, using absolute offsets from 0. A
+     * read-only buffer, such as a mapping of the page's file, is copied the
+     * first time the page is modified.
+     *
+     * @param id the id of the page
+     * @param data a buffer of one page of the table's file; its capacity
+     *   is the page size
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = data.capacity();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+        this.fieldOffsets = new int[td.numFields()];
+        int offset = 0;
+        for (int j = 0; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = offset;
+            offset += td.getFieldType(j).getLen();
         }
-        dis.close();
+        this.data = data;
+    }
 
-        setBeforeImage();
+    private static ByteBuffer copyOf(byte[] data, int pageSize) throws IOException {
+        if (data.length < pageSize)
+            throw new IOException("page data is only " + data.length + " bytes");
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.put(data, 0, pageSize);
+        return buf;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -71,7 +118,7 @@ public class HeapPage implements Page {
     private int getNumTuples() {        
         // some code goes here
     	int t_size = td.getSize();
-        return (int) Math.floor(((BufferPool.getPageSize()*8) / (t_size * 8 + 1)));
+        return (int) Math.floor(((pageSize*8) / (t_size * 8 + 1)));
 
     }
 
@@ -95,7 +142,9 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            if (oldDataRef == null)
+                oldDataRef = getPageData();
+            return withData(copyOf(oldDataRef, pageSize));
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -107,10 +156,33 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
         }
     }
 
+    /**
+     * Copies the current contents into oldData if this is the first
+     * modification since the last setBeforeImage. Must hold the write lock.
+     * @return the copy, or null if oldData was already set
+     */
+    private byte[] saveBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        if (oldData != null)
+            return null;
+        oldData = bytesOf(data);
+        return oldData;
+        }
+    }
+
+    /**
+     * Creates a page with the same id and format as this one over the
+     * given buffer.
+     */
+    HeapPage withData(ByteBuffer data) {
+        return new HeapPage(pid, data);
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -120,109 +192,266 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Gives the page a private, writable copy of its contents if it was
+     * built over a read-only buffer, such as a mapping of its file. Must
+     * hold the write lock.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private void copyOnWrite() {
+        if (data.isReadOnly())
+            data = ByteBuffer.wrap(bytesOf(data));
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Moves the contents of this page to a new heap buffer. The BufferPool
+     * calls this before it reuses the arena frame the page was loaded into;
+     * readers that raced with the move retry on the new buffer.
+     */
+    void detach() {
+        long stamp = latch.writeLock();
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            data = ByteBuffer.wrap(bytesOf(data));
+        } finally {
+            latch.unlockWrite(stamp);
         }
+    }
 
-        return t;
+    /** @return a copy of all the bytes of buf */
+    private static byte[] bytesOf(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.capacity()];
+        ByteBuffer dup = buf.duplicate();
+        dup.clear();
+        dup.get(bytes);
+        return bytes;
     }
 
     /**
-     * Generates a byte array representing the contents of this page.
-     * Used to serialize this page to disk.
-     * <p>
-     * The invariant here is that it should be possible to pass the byte
-     * array generated by getPageData to the HeapPage constructor and
-     * have it produce an identical HeapPage object.
+     * The contents of the page between two modifications, as seen by the
+     * tuples handed out in that time.
+     */
+    private static class Generation {
+        // set once tuples of this generation have been handed out
+        volatile boolean shared;
+        // a copy of the contents, made before the page was modified; null
+        // while the tuples can still read the page itself
+        volatile ByteBuffer frozen;
+    }
+
+    /**
+     * Gives the tuples handed out since the last modification their own
+     * copy of the contents, before the page is modified again. Must hold
+     * the write lock.
      *
-     * @see #HeapPage
-     * @return A byte array correspond to the bytes of this page.
+     * @param copy a copy of the current contents that may be used, or null
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+    private void freezeTuples(byte[] copy) {
+        Generation gen = generation;
+        if (!gen.shared)
+            return;
+        gen.frozen = ByteBuffer.wrap(copy != null ? copy : bytesOf(data));
+        generation = new Generation();
+    }
 
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+    /**
+     * A tuple in a slot of this page, which decodes its fields from the
+     * page when they are first read.
+     */
+    private class PageTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Generation gen;
+        private final int slotId;
+        private boolean ridSet;
+
+        PageTuple(Generation gen, int slotId) {
+            super(td, null);
+            this.gen = gen;
+            this.slotId = slotId;
         }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        @Override
+        public RecordId getRecordId() {
+            if (!ridSet)
+                setRecordId(new RecordId(pid, slotId));
+            return super.getRecordId();
+        }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        @Override
+        public void setRecordId(RecordId rid) {
+            ridSet = true;
+            super.setRecordId(rid);
+        }
 
-                }
-                continue;
+        @Override
+        Field loadField(int i) {
+            ByteBuffer frozen = gen.frozen;
+            if (frozen != null)
+                return readField(frozen, slotId, i);
+            long stamp = latch.tryOptimisticRead();
+            Field f;
+            try {
+                f = readField(data, slotId, i);
+            } catch (IndexOutOfBoundsException e) {
+                // offsets read while the page changed can point anywhere
+                f = null;
+            }
+            if (gen.frozen == null && latch.validate(stamp))
+                return f;
+            stamp = latch.readLock();
+            try {
+                frozen = gen.frozen;
+                return readField(frozen != null ? frozen : data, slotId, i);
+            } finally {
+                latch.unlockRead(stamp);
             }
+        }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        /** Serializes as a plain tuple, without the page. */
+        private Object writeReplace() {
+            Tuple t = new Tuple(td);
+            t.setRecordId(getRecordId());
+            for (int i = 0; i < td.numFields(); i++)
+                t.setField(i, getField(i));
+            return t;
+        }
+    }
+
+    /**
+     * @return the tuple stored in the given slot, or null if the slot is empty
+     */
+    Tuple getTuple(int slotId) {
+        if (slotId < 0)
+            return null;
+        long stamp = latch.tryOptimisticRead();
+        Generation gen = generation;
+        gen.shared = true;
+        boolean used = slotId < slotCount(data) && slotUsed(data, slotId);
+        if (!latch.validate(stamp)) {
+            stamp = latch.readLock();
+            try {
+                gen = generation;
+                gen.shared = true;
+                used = slotId < slotCount(data) && slotUsed(data, slotId);
+            } finally {
+                latch.unlockRead(stamp);
             }
         }
+        return used ? new PageTuple(gen, slotId) : null;
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
+    /**
+     * @return an iterator over all tuples on this page, like iterator(),
+     *   whose given fields are decoded up front: one field at a time over
+     *   all tuples, under a single latch. The other fields are still
+     *   decoded when they are first read.
+     *
+     * @param fields the indexes of the fields to decode
+     */
+    Iterator<Tuple> iterator(int[] fields) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        long stamp = latch.readLock();
         try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+            Generation gen = generation;
+            gen.shared = true;
+            int n = slotCount(data);
+            for (int s = 0; s < n; s++)
+                if (slotUsed(data, s))
+                    tuples.add(new PageTuple(gen, s));
+            for (int i : fields)
+                for (Tuple t : tuples)
+                    t.setField(i, readField(data, ((PageTuple) t).slotId, i));
+        } finally {
+            latch.unlockRead(stamp);
         }
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+
+    /**
+     * @return the number of slots of the page held in buf
+     */
+    int slotCount(ByteBuffer buf) {
+        return numSlots;
+    }
 
+    /**
+     * @return the number of slots of this page
+     */
+    private int slotCount() {
+        long stamp = latch.tryOptimisticRead();
+        int n = slotCount(data);
+        if (latch.validate(stamp))
+            return n;
+        stamp = latch.readLock();
         try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+            return slotCount(data);
+        } finally {
+            latch.unlockRead(stamp);
         }
+    }
 
-        return baos.toByteArray();
+    /**
+     * Decodes field i of the tuple in the given, used, slot of buf.
+     */
+    Field readField(ByteBuffer buf, int slotId, int i) {
+        return td.getFieldType(i).parse(buf, headerSize + slotId * tupleSize + fieldOffsets[i]);
+    }
+
+    /**
+     * @return the slot of buf a tuple with the given fields can be stored
+     *   in, or -1 if the page has no room for it
+     */
+    int findSlot(ByteBuffer buf, Field[] fields) {
+        for (int i = 0; i < numSlots; i++)
+            if (!slotUsed(buf, i))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Stores a tuple with the given fields in a slot returned by findSlot.
+     * Must hold the write lock.
+     */
+    void writeRecord(ByteBuffer buf, int slotId, Field[] fields) {
+        int base = headerSize + slotId * tupleSize;
+        for (int j = 0; j < fieldOffsets.length; j++)
+            td.getFieldType(j).write(fields[j], buf, base + fieldOffsets[j]);
+        markSlotUsed(buf, slotId, true);
+    }
+
+    /**
+     * Empties the given, used, slot. Must hold the write lock.
+     */
+    void clearRecord(ByteBuffer buf, int slotId) {
+        // mark slot as not used, and clear it so the page bytes stay the
+        // same as for a page that never held the tuple
+        markSlotUsed(buf, slotId, false);
+        int base = headerSize + slotId * tupleSize;
+        for (int i = 0; i < tupleSize; i++)
+            buf.put(base + i, (byte) 0);
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the HeapPage constructor and
+     * have it produce an identical HeapPage object.
+     *
+     * @see #HeapPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        long stamp = latch.tryOptimisticRead();
+        byte[] bytes = bytesOf(data);
+        if (latch.validate(stamp))
+            return bytes;
+        stamp = latch.readLock();
+        try {
+            return bytesOf(data);
+        } finally {
+            latch.unlockRead(stamp);
+        }
     }
 
     /**
@@ -235,8 +464,16 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Generates a byte array corresponding to an empty HeapPage of the
+     * given size, for files whose pages are not BufferPool.getPageSize()
+     * bytes.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -250,18 +487,23 @@ public class HeapPage implements Page {
         RecordId recordId = t.getRecordId();
         int tupleNumber = recordId.tupleno();
 
-        // check if this tuple is not on this page, or slot is not used
-        if (!this.pid.equals(recordId.getPageId()) || !isSlotUsed(tupleNumber))
+        long stamp = latch.writeLock();
+        try
         {
-            throw  new DbException("Tuple not in this page or tuple slot empty");
+            // check if this tuple is not on this page, or slot is not used
+            if (!this.pid.equals(recordId.getPageId()) || tupleNumber < 0
+                    || tupleNumber >= slotCount(data) || !slotUsed(data, tupleNumber))
+            {
+                throw  new DbException("Tuple not in this page or tuple slot empty");
+            }
+            freezeTuples(saveBeforeImage());
+            copyOnWrite();
+            clearRecord(data, tupleNumber);
         }
-        else
+        finally
         {
-            // mark slot as not used
-            markSlotUsed(tupleNumber, false);
+            latch.unlockWrite(stamp);
         }
-
-
     }
 
     /**
@@ -272,34 +514,71 @@ public class HeapPage implements Page {
      * @param t The tuple to add.
      */
     public void insertTuple(Tuple t) throws DbException {
-        // check that the page is not full
-        if (getNumEmptySlots() == 0) {
+        // check for tupledesc match
+        if (!this.td.equals(t.getTupleDesc()))
+        {
+            throw new DbException("Error inserting tuple. Table schema mismatch");
+        }
+        // read the fields first: t may be a lazy tuple of this very page
+        int i = insertRecord(fieldsOf(t));
+        if (i < 0)
+        {
+            // the page is full (no empty slots)
             throw new DbException("Error inserting tuple. Heap page full");
         }
-        // check for tupledesc match
-        if (this.td.equals(t.getTupleDesc()))
+        t.setRecordId(new RecordId(this.pid, i));
+    }
+
+    /**
+     * Adds a tuple with the given fields to the page, like insertTuple, but
+     * without a Tuple to hand the RecordId to.
+     *
+     * @param fields the fields of the tuple, matching the page's TupleDesc
+     * @return the slot of the tuple, or -1 if the page has no room for it
+     */
+    int insertRecord(Field[] fields) {
+        long stamp = latch.writeLock();
+        try
         {
-            for (int i = 0; i < this.numSlots; i++)
+            int i = findSlot(data, fields);
+            if (i >= 0)
             {
-                if (!this.isSlotUsed(i))
-                {
-                    RecordId recordId = new RecordId(this.pid, i);
-                    int tupleNumber = recordId.tupleno();
-                    this.markSlotUsed(tupleNumber, true);
-
-                    this.tuples[i] = t;
-                    t.setRecordId(recordId);
-                    // break out of loop once tuple has been inserted into page
-                    break;
-                }
+                freezeTuples(saveBeforeImage());
+                copyOnWrite();
+                writeRecord(data, i, fields);
             }
+            return i;
         }
-        else
+        finally
         {
-            throw new DbException("Error inserting tuple. Table schema mismatch");
+            latch.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns true if insertTuple would find room for t on this page.
+     */
+    boolean hasRoomFor(Tuple t) {
+        Field[] fields = fieldsOf(t);
+        long stamp = latch.tryOptimisticRead();
+        boolean room = findSlot(data, fields) >= 0;
+        if (latch.validate(stamp))
+            return room;
+        stamp = latch.readLock();
+        try {
+            return findSlot(data, fields) >= 0;
+        } finally {
+            latch.unlockRead(stamp);
         }
     }
 
+    private Field[] fieldsOf(Tuple t) {
+        Field[] fields = new Field[td.numFields()];
+        for (int j = 0; j < fields.length; j++)
+            fields[j] = t.getField(j);
+        return fields;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -321,10 +600,26 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
+        long stamp = latch.tryOptimisticRead();
+        int empty = countEmptySlots(data);
+        if (latch.validate(stamp))
+            return empty;
+        stamp = latch.readLock();
+        try {
+            return countEmptySlots(data);
+        } finally {
+            latch.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Counts the empty slots of the page held in buf.
+     */
+    int countEmptySlots(ByteBuffer buf) {
     	int summ=0;
-    	for(int i=0;i<this.getNumTuples();++i)
+    	for(int i=0;i<numSlots;++i)
     	{
-    		if(!(this.isSlotUsed(i)))
+    		if(!slotUsed(buf, i))
     			summ =  summ + 1;
     	}
     	return summ;
@@ -335,41 +630,53 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
+        if (i < 0)
+            return false;
+        long stamp = latch.tryOptimisticRead();
+        boolean used = i < slotCount(data) && slotUsed(data, i);
+        if (latch.validate(stamp))
+            return used;
+        stamp = latch.readLock();
+        try {
+            return i < slotCount(data) && slotUsed(data, i);
+        } finally {
+            latch.unlockRead(stamp);
+        }
+    }
 
+    /**
+     * Reads the header bit of slot i from buf.
+     */
+    boolean slotUsed(ByteBuffer buf, int i) {
         // check the header info
-        
         int index = i/8;
         int pos_in_index = i%8;
-        if (index >= header.length) 
-        	return false;
-        
-        byte content = header[index];
+        byte content = buf.get(index);
         
         // if mask is 0 then its not used
         int mask = 1 << pos_in_index; // left shift by the position in byte
-        if( (content&mask)==0)
-        	return false;
-        
-        // slot used
-        return true;
+        return (content&mask) != 0;
     }
 
     /**
-     * Abstraction to fill or clear a slot on this page.
+     * Abstraction to fill or clear a slot on this page. Must hold the write
+     * lock.
      */
-    private void markSlotUsed(int i, boolean value) {
+    void markSlotUsed(ByteBuffer buf, int i, boolean value) {
         int index = i / 8;
         int pos_in_index = i % 8;
+        byte content = buf.get(index);
 
         // marks or unmark slot
         if (value)
         {
-            header[index] |= 1 << pos_in_index;
+            content |= 1 << pos_in_index;
         }
         else
         {
-            header[index] &= ~(1 << pos_in_index);
+            content &= ~(1 << pos_in_index);
         }
+        buf.put(index, content);
     }
 
     /**
@@ -380,16 +687,28 @@ public class HeapPage implements Page {
 
     	Iterator<Tuple> iter = new Iterator<Tuple>() {
 		int cur_index = 0;
-		private int cur_size = getNumTuples() - getNumEmptySlots();
-		
+		Tuple next_tuple = null;
+
         @Override
         public boolean hasNext() {
-        	return cur_index < cur_size && tuples[cur_index] != null;
+        	// tuples are decoded one at a time, skipping empty slots
+        	while (next_tuple == null && cur_index < slotCount())
+        		next_tuple = getTuple(cur_index++);
+        	return next_tuple != null;
         }
 
         @Override
         public Tuple next() {
-            return tuples[cur_index++];
+        	if (!hasNext())
+        		throw new NoSuchElementException();
+        	Tuple t = next_tuple;
+        	next_tuple = null;
+            return t;
+        }
+
+        @Override
+        public void remove() {
+        	throw new UnsupportedOperationException();
         }
 
 	};
@@ -399,4 +718,3 @@ public class HeapPage implements Page {
     }
 
 }
-
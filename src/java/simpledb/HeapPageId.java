@@ -63,7 +63,7 @@ public class HeapPageId implements PageId {
     	if(o==null)
         return false;
     	
-    	if(!(o instanceof PageId))
+    	if(!(o instanceof HeapPageId))
     		return false;
     	
     	HeapPageId checking = (HeapPageId) o;
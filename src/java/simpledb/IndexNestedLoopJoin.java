@@ -0,0 +1,210 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+/**
+ * The IndexNestedLoopJoin operator joins the tuples of its child, the
+ * outer relation, with those of a table that has a B+ tree on the join
+ * field: for each outer tuple it looks up the matching inner tuples through
+ * {@link BTreeFile#indexIterator} instead of scanning the whole table. The
+ * B+ tree is either the table itself, when it is a BTreeFile keyed on the
+ * join field, or a {@link SecondaryIndex} on the field, whose entries lead
+ * to the tuples in the table's heap pages.
+ * <p>
+ * The tuples returned are the concatenation of the outer and inner tuples,
+ * as those of {@link Join}.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final JoinPredicate joinPredicate;
+    private final Predicate.Op probeOp;
+    private final BTreeFile tree;
+    private final SecondaryIndex index; // null if the table is the tree
+    private final TupleDesc innerTd;
+    private final TupleDesc td;
+    private final ArrayList<Predicate> innerFilters = new ArrayList<Predicate>();
+    private DbIterator child;
+    private transient DbFileIterator probe;
+    private Tuple outer;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            The transaction the inner table is read on behalf of
+     * @param p
+     *            The predicate to join on; field2 is a field of the inner
+     *            table, and the operator may not be NOT_EQUALS or LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param tableid2
+     *            The inner table
+     * @param alias2
+     *            The alias of the inner table; its fields are named
+     *            alias2.fieldName in the returned TupleDesc
+     * @throws IllegalArgumentException
+     *            if the inner table has no B+ tree on field2, or p cannot be
+     *            looked up in one
+     */
+    public IndexNestedLoopJoin(TransactionId tid, JoinPredicate p, DbIterator child1,
+            int tableid2, String alias2) {
+        this.tid = tid;
+        this.joinPredicate = p;
+        this.child = child1;
+        this.probeOp = probeOp(p.getOperator());
+        if (probeOp == null)
+            throw new IllegalArgumentException("cannot look up " + p.getOperator() + " in a B+ tree");
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid2);
+        if (f instanceof BTreeFile && ((BTreeFile) f).keyField() == p.getField2()) {
+            tree = (BTreeFile) f;
+            index = null;
+        } else {
+            index = Database.getCatalog().getIndex(tableid2, p.getField2());
+            if (index == null)
+                throw new IllegalArgumentException("no index on field " + p.getField2()
+                        + " of " + Database.getCatalog().getTableName(tableid2));
+            tree = index.getFile();
+        }
+        TupleDesc tableTd = f.getTupleDesc();
+        Type[] types = new Type[tableTd.numFields()];
+        String[] names = new String[tableTd.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = tableTd.getFieldType(i);
+            names[i] = alias2 + "." + tableTd.getFieldName(i);
+        }
+        this.innerTd = new TupleDesc(types, names);
+        this.td = TupleDesc.merge(child1.getTupleDesc(), innerTd);
+    }
+
+    /**
+     * @return the operator to look up inner keys with, so that key probeOp
+     *   outer holds exactly when outer op key does, or null if there is none
+     */
+    static Predicate.Op probeOp(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return Predicate.Op.EQUALS;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Tells the join to keep only the inner tuples that satisfy p, as a
+     * Filter over the inner table would. Must be called before open().
+     *
+     * @param p a predicate on a field of the inner table, by its index in
+     *   the table's TupleDesc
+     */
+    public void pushDown(Predicate p) {
+        innerFilters.add(p);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    /** @return the TupleDesc of the inner table, prefixed with its alias */
+    public TupleDesc getInnerTupleDesc() {
+        return innerTd;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeProbe();
+        outer = null;
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeProbe();
+        outer = null;
+        child.rewind();
+    }
+
+    private void closeProbe() {
+        if (probe != null)
+            probe.close();
+        probe = null;
+    }
+
+    /**
+     * Returns the next outer tuple joined with a matching inner tuple,
+     * looking up the inner tuples of the next outer tuple once those of the
+     * current one run out.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (probe != null && probe.hasNext()) {
+                Tuple inner = probe.next();
+                if (index != null)
+                    inner = index.fetch(tid, inner);
+                if (passes(inner))
+                    return merge(outer, inner);
+            }
+            closeProbe();
+            if (!child.hasNext())
+                return null;
+            outer = child.next();
+            Field key = outer.getField(joinPredicate.getField1());
+            if (key != null) {
+                probe = tree.indexIterator(tid, new IndexPredicate(probeOp, key));
+                probe.open();
+            }
+        }
+    }
+
+    private boolean passes(Tuple inner) {
+        for (Predicate p : innerFilters) {
+            if (!p.filter(inner))
+                return false;
+        }
+        return true;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        int n1 = td.numFields() - innerTd.numFields();
+        for (int i = 0; i < n1; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < innerTd.numFields(); i++)
+            t.setField(n1 + i, t2.getField(i));
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("Incorrect number of elements supplied");
+        child = children[0];
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.ArrayList;
+
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
  * constructor
@@ -72,6 +74,10 @@ public class Insert extends Operator {
      * instances of BufferPool is available via Database.getBufferPool(). Note
      * that insert DOES NOT need check to see if a particular tuple is a
      * duplicate before inserting it.
+     * 
+     * A child that reads a table through a secondary index would see the
+     * entries of the inserted tuples appear in the index it reads, so its
+     * tuples are all read before the first one is inserted.
      *
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
@@ -87,9 +93,19 @@ public class Insert extends Operator {
     	try 
     	{
     		child.open();
-    		while(child.hasNext()) {
-    			Database.getBufferPool().insertTuple(this.t, this.tableId, child.next());
-    			count_insert++;
+    		if (SecondaryIndexScan.readsIndex(child)) {
+    			ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    			while(child.hasNext())
+    				tuples.add(child.next());
+    			for (Tuple tup : tuples) {
+    				Database.getBufferPool().insertTuple(this.t, this.tableId, tup);
+    				count_insert++;
+    			}
+    		} else {
+    			while(child.hasNext()) {
+    				Database.getBufferPool().insertTuple(this.t, this.tableId, child.next());
+    				count_insert++;
+    			}
     		}
     		child.close();
     	}
@@ -118,8 +118,18 @@ public class IntHistogram {
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        // the selectivity of EQUALS for a value drawn from the values in
+        // the histogram, as estimateSelectivity would estimate it
+        if (this.numberOfTuples == 0)
+        {
+            return 1.0;
+        }
+        double sum = 0;
+        for (int h : this.histogram)
+        {
+            sum += (double) h * h;
+        }
+        return sum / ((int)this.width + 1) / this.numberOfTuples / this.numberOfTuples;
     }
 
     /**
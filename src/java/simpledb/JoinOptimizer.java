@@ -13,6 +13,10 @@ import javax.swing.tree.*;
 public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
+    // the statistics of the last orderJoins, which instantiateJoin uses
+    // to choose the join orderJoins costed
+    private Map<String, TableStats> stats = TableStats.getStatsMap();
+    private Map<String, Double> filterSelectivities = new HashMap<String, Double>();
 
     /**
      * Constructor
@@ -74,6 +78,109 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Return best iterator for computing a given logical join, like
+     * {@link #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator)}, but
+     * joining with an {@link IndexNestedLoopJoin} instead where the inner
+     * side, plan2, reads a single table with a B+ tree on the join field and
+     * looking up each outer tuple's matches is cheaper than scanning the
+     * inner side for it, by the statistics given to orderJoins. The filters
+     * of plan2 are then applied to the inner tuples by the join.
+     * 
+     * @param tid
+     *            The transaction the inner table is read on behalf of
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     */
+    public DbIterator instantiateJoin(TransactionId tid, LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2) throws ParsingException {
+        double probeCost = indexProbeCost(lj);
+        if (probeCost < 0)
+            return instantiateJoin(lj, plan1, plan2);
+        TableStats s = stats.get(Database.getCatalog().getTableName(p.getTableId(lj.t2Alias)));
+        Double sel = filterSelectivities.get(lj.t2Alias);
+        double scanCost = s.estimateScanCost()
+                + s.estimateTableCardinality(sel == null ? 1.0 : sel);
+        if (probeCost >= scanCost)
+            return instantiateJoin(lj, plan1, plan2);
+
+        // the filters of the inner table, and the scan below them
+        ArrayList<Predicate> filters = new ArrayList<Predicate>();
+        DbIterator scan = plan2;
+        while (scan instanceof Filter) {
+            filters.add(((Filter) scan).getPredicate());
+            scan = ((Filter) scan).getChildren()[0];
+        }
+        if (scan instanceof SecondaryIndexScan) {
+            SecondaryIndexScan is = (SecondaryIndexScan) scan;
+            IndexPredicate ipred = is.getIndexPredicate();
+            if (!is.getAlias().equals(lj.t2Alias))
+                return instantiateJoin(lj, plan1, plan2);
+            if (ipred != null)
+                filters.add(new Predicate(is.getIndex().getField(), ipred.getOp(), ipred.getField()));
+        } else if (!(scan instanceof SeqScan) || !((SeqScan) scan).getAlias().equals(lj.t2Alias)) {
+            // the inner side is not a single table
+            return instantiateJoin(lj, plan1, plan2);
+        }
+
+        int t1id, t2id;
+        try {
+            t1id = plan1.getTupleDesc().fieldNameToIndex(lj.f1QuantifiedName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + lj.f1QuantifiedName);
+        }
+        try {
+            t2id = plan2.getTupleDesc().fieldNameToIndex(lj.f2QuantifiedName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field " + lj.f2QuantifiedName);
+        }
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(tid, new JoinPredicate(t1id, lj.p, t2id),
+                plan1, p.getTableId(lj.t2Alias), lj.t2Alias);
+        for (Predicate f : filters)
+            j.pushDown(f);
+        return j;
+    }
+
+    /**
+     * Estimates the cost of looking up the tuples of the inner table of a
+     * join that match one outer tuple, through a B+ tree on the inner join
+     * field: the table itself if it is a BTreeFile keyed on the field, or a
+     * SecondaryIndex on it. The share of the inner tuples that match is the
+     * average selectivity of the join operator on the field.
+     * 
+     * @return the cost of one lookup, or -1 if the inner table has no B+
+     *         tree on the field or the join cannot look up its operator
+     */
+    private double indexProbeCost(LogicalJoinNode j) {
+        if (j instanceof LogicalSubplanJoinNode || j.t2Alias == null
+                || IndexNestedLoopJoin.probeOp(j.p) == null)
+            return -1;
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return -1;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return -1;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        int field;
+        try {
+            field = f.getTupleDesc().fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+        double sel = s.avgSelectivity(field, j.p);
+        if (f instanceof BTreeFile && ((BTreeFile) f).keyField() == field)
+            return s.estimateIndexProbeCost((BTreeFile) f, sel);
+        SecondaryIndex index = Database.getCatalog().getIndex(tableId, field);
+        if (index == null)
+            return -1;
+        return s.estimateIndexScanCost(index, sel, false);
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -111,10 +218,31 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            return cost1 + card1*cost2 + card1*card2;
+            return estimateJoinCost(j, card1, card2, cost1, cost2, true);
         }
     }
 
+    /**
+     * Estimate the cost of a join, as estimateJoinCost does, considering an
+     * index nested-loop join only if the right-hand side of the join is the
+     * table j.t2Alias by itself rather than the result of earlier joins.
+     * 
+     * @param innerIsTable
+     *            true if the right-hand side is the table j.t2Alias
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean innerIsTable) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return estimateJoinCost(j, card1, card2, cost1, cost2);
+        double cost = cost1 + card1*cost2 + card1*card2;
+        double probeCost = innerIsTable ? indexProbeCost(j) : -1;
+        // with a B+ tree on the inner join field, each outer tuple only
+        // reads the inner tuples it joins with
+        if (probeCost >= 0)
+            cost = Math.min(cost, cost1 + card1*probeCost);
+        return cost;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -242,6 +370,12 @@ public class JoinOptimizer {
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
         
+    	this.stats = stats;
+    	this.filterSelectivities = filterSelectivities;
+    	// a single table query has nothing to order
+    	if (joins.isEmpty())
+    		return joins;
+
     	// stores optimal plans
     	PlanCache p_cache = new PlanCache();
     	// logic - given that all of the subsets of size joinSet.size() - 1 have already been computed
@@ -411,10 +545,12 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost,
+                news.isEmpty() || doesJoin(prevBest, table1Alias));
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost,
+                news.isEmpty() || doesJoin(prevBest, table2Alias));
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
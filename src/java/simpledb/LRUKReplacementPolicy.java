@@ -0,0 +1,195 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRUKReplacementPolicy implements the LRU-K page replacement algorithm of
+ * O'Neil, O'Neil and Weikum. For every page it remembers the times of the
+ * last K references and evicts the page whose K-th most recent reference is
+ * the oldest (the largest "backward K-distance"). Pages referenced fewer
+ * than K times have an infinite backward K-distance and are evicted first,
+ * least recently used first, which makes the policy resistant to sequential
+ * scans that touch every page exactly once.
+ * <p>
+ * The reference history of evicted pages is retained for a while, so a page
+ * that is re-read shortly after its eviction is recognized as hot again.
+ * Among pages with the same backward K-distance class, B+ tree root pointer,
+ * internal and header pages are only chosen when no other candidate is left.
+ * <p>
+ * Resident pages are kept in a skip list in the order they are evicted
+ * in, so a victim is found by walking it from the front, past the pages
+ * that are not evictable right now, instead of looking at every page. A
+ * reference only locks the page's history while it moves the page in the
+ * list, so hits on different pages do not contend, and neither hits nor
+ * victim selection take the policy's monitor; loads and removals, which
+ * also move histories in and out of the retained ones, are serialized on
+ * it.
+ *
+ * @Threadsafe
+ */
+public class LRUKReplacementPolicy implements ReplacementPolicy {
+
+    /** Default number of references tracked per page. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final ConcurrentHashMap<PageId, History> resident;
+    // the resident pages by their eviction order, see History.order
+    private final ConcurrentSkipListMap<Long, PageId> order;
+    // protected by this policy's monitor
+    private final LinkedHashMap<PageId, History> retained;
+    private final AtomicLong clock;
+
+    /**
+     * Reference history of one page: the last k reference times, newest
+     * first. Protected by the History's own monitor.
+     */
+    private static class History {
+        final long[] refs;
+        int count;
+        // true while the page is resident and in the order
+        boolean resident;
+        // the page's key in the order while it is resident
+        long order;
+
+        History(int k) {
+            refs = new long[k];
+            count = 0;
+        }
+
+        synchronized void reference(long time) {
+            System.arraycopy(refs, 0, refs, 1, refs.length - 1);
+            refs[0] = time;
+            if (count < refs.length)
+                count++;
+        }
+
+        /** @return the time of the k-th most recent reference, or -1 if there is none */
+        synchronized long kthReference() {
+            return count < refs.length ? -1 : refs[refs.length - 1];
+        }
+
+        synchronized long lastReference() {
+            return refs[0];
+        }
+    }
+
+    /**
+     * Creates an LRU-K policy for a buffer pool of the given capacity.
+     *
+     * @param numPages the number of pages in the buffer pool; also bounds
+     *   how many evicted pages keep their reference history
+     * @param k the number of references to track per page (at least 1)
+     */
+    public LRUKReplacementPolicy(int numPages, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.resident = new ConcurrentHashMap<PageId, History>();
+        this.order = new ConcurrentSkipListMap<Long, PageId>();
+        final int retainedLimit = Math.max(numPages, 1);
+        this.retained = new LinkedHashMap<PageId, History>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, History> eldest) {
+                return size() > retainedLimit;
+            }
+        };
+        this.clock = new AtomicLong(0);
+    }
+
+    /**
+     * Creates an LRU-2 policy for a buffer pool of the given capacity.
+     */
+    public LRUKReplacementPolicy(int numPages) {
+        this(numPages, DEFAULT_K);
+    }
+
+    public synchronized void pageLoaded(PageId pid) {
+        History h = resident.get(pid);
+        if (h == null) {
+            h = retained.remove(pid);
+            if (h == null)
+                h = new History(k);
+            resident.put(pid, h);
+        }
+        reference(pid, h, true);
+    }
+
+    public void pageAccessed(PageId pid) {
+        History h = resident.get(pid);
+        if (h == null) {
+            pageLoaded(pid);
+            return;
+        }
+        reference(pid, h, false);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        History h = resident.remove(pid);
+        if (h != null) {
+            synchronized (h) {
+                h.resident = false;
+                order.remove(h.order);
+            }
+            retained.put(pid, h);
+        }
+    }
+
+    /**
+     * Records a reference to a page and moves it to its new place in the
+     * order.
+     *
+     * @param load true if the page has just become resident
+     */
+    private void reference(PageId pid, History h, boolean load) {
+        synchronized (h) {
+            if (h.resident)
+                order.remove(h.order);
+            else if (!load)
+                return; // removed since it was looked up
+            h.reference(clock.incrementAndGet());
+            h.order = orderOf(h, BufferPool.isIndexPage(pid));
+            h.resident = true;
+            order.put(h.order, pid);
+        }
+    }
+
+    /**
+     * Returns the key of a page in the eviction order: pages with an
+     * infinite backward K-distance come first, least recently used first,
+     * then the others by the time of their K-th most recent reference;
+     * within either class, index pages come after all other pages. Keys
+     * are unique, since every reference time belongs to a single page.
+     */
+    private static long orderOf(History h, boolean isIndex) {
+        long kth = h.kthReference();
+        int rank = (kth < 0 ? 0 : 2) + (isIndex ? 1 : 0);
+        long time = kth < 0 ? h.lastReference() : kth;
+        return ((long) rank << 61) | time;
+    }
+
+    public PageId chooseVictim(Candidates candidates) {
+        return chooseVictim(candidates, candidates);
+    }
+
+    public PageId chooseVictim(Candidates preferred, Candidates fallback) {
+        PageId fallbackVictim = null;
+        int left = PREFERRED_SEARCH_LIMIT;
+        for (PageId pid : order.values()) {
+            if (preferred.isEvictable(pid))
+                return pid;
+            if (fallbackVictim == null) {
+                if (fallback.isEvictable(pid))
+                    fallbackVictim = pid;
+            } else if (--left == 0) {
+                break;
+            }
+        }
+        return fallbackVictim;
+    }
+}
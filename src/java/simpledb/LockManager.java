@@ -0,0 +1,268 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager grants page-granularity shared and exclusive locks to
+ * transactions on behalf of the BufferPool. A transaction that asks for a
+ * lock it cannot get blocks until the lock is released. READ_ONLY locks are
+ * shared, READ_WRITE locks are exclusive, and a transaction that is the sole
+ * holder of a shared lock can upgrade it to an exclusive one.
+ * <p>
+ * Deadlocks are detected with a waits-for graph: before a transaction
+ * blocks, an edge is added from it to every transaction it is waiting on,
+ * and if that closes a cycle the request fails with a DeadlockException
+ * instead of waiting for a timeout.
+ * <p>
+ * Each page has its own lock object, so requests for different pages never
+ * contend with each other; the waits-for graph is only touched by requests
+ * that actually have to block.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Lock state of one page. All fields are protected by the PageLock's monitor. */
+    private static class PageLock {
+        final HashSet<TransactionId> sharers = new HashSet<TransactionId>();
+        TransactionId exclusive = null;
+        int waiters = 0;
+        // set once the lock has been dropped from the lock table; a thread
+        // that still found it there has to look the page up again
+        boolean retired = false;
+
+        boolean isHeldBy(TransactionId tid) {
+            return tid.equals(exclusive) || sharers.contains(tid);
+        }
+
+        boolean isFree() {
+            return exclusive == null && sharers.isEmpty();
+        }
+
+        /**
+         * @return the transactions that keep tid from getting the lock in the
+         *   requested mode; empty if the lock can be granted right away
+         */
+        Set<TransactionId> blockers(TransactionId tid, boolean wantExclusive) {
+            HashSet<TransactionId> result = new HashSet<TransactionId>();
+            if (exclusive != null && !exclusive.equals(tid))
+                result.add(exclusive);
+            if (wantExclusive) {
+                for (TransactionId t : sharers) {
+                    if (!t.equals(tid))
+                        result.add(t);
+                }
+            }
+            return result;
+        }
+
+        void grant(TransactionId tid, boolean wantExclusive) {
+            if (wantExclusive) {
+                sharers.remove(tid);
+                exclusive = tid;
+            } else if (!tid.equals(exclusive)) {
+                sharers.add(tid);
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<PageId, PageLock> locks;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> lockedPages;
+    // waits-for graph: edges from a blocked transaction to the transactions
+    // it waits on; protected by its own monitor
+    private final HashMap<TransactionId, Set<TransactionId>> waitsFor;
+
+    public LockManager() {
+        locks = new ConcurrentHashMap<PageId, PageLock>();
+        lockedPages = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        waitsFor = new HashMap<TransactionId, Set<TransactionId>>();
+    }
+
+    /**
+     * Acquires a lock on the specified page for the specified transaction,
+     * blocking until the lock can be granted. Asking for a lock that is
+     * already held (or a shared lock while holding the exclusive one) returns
+     * immediately.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws DeadlockException if waiting for the lock would deadlock; the
+     *   transaction is not left waiting on anything
+     */
+    public void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+            throws DeadlockException {
+        boolean wantExclusive = perm == Permissions.READ_WRITE;
+        while (true) {
+            PageLock lock = lockFor(pid);
+            synchronized (lock) {
+                if (lock.retired)
+                    continue;
+                Set<TransactionId> blockers = lock.blockers(tid, wantExclusive);
+                if (!blockers.isEmpty()) {
+                    lock.waiters++;
+                    try {
+                        while (!blockers.isEmpty() && !lock.retired) {
+                            startWaiting(tid, blockers);
+                            try {
+                                lock.wait();
+                            } catch (InterruptedException e) {
+                                // fall through and re-check the lock
+                            }
+                            blockers = lock.blockers(tid, wantExclusive);
+                        }
+                    } finally {
+                        lock.waiters--;
+                        stopWaiting(tid);
+                    }
+                    if (lock.retired)
+                        continue;
+                }
+                lock.grant(tid, wantExclusive);
+                // waiters have to add edges to the new holder
+                if (lock.waiters > 0)
+                    lock.notifyAll();
+            }
+            pagesLockedBy(tid).add(pid);
+            return;
+        }
+    }
+
+    /**
+     * Releases whatever lock the transaction holds on the page.
+     *
+     * @param tid the transaction releasing the lock
+     * @param pid the page to unlock
+     */
+    public void releaseLock(TransactionId tid, PageId pid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        if (pages != null)
+            pages.remove(pid);
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return;
+        synchronized (lock) {
+            if (tid.equals(lock.exclusive))
+                lock.exclusive = null;
+            lock.sharers.remove(tid);
+            if (lock.isFree() && lock.waiters == 0) {
+                lock.retired = true;
+                locks.remove(pid, lock);
+            } else {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Releases every lock held by the transaction.
+     *
+     * @param tid the finishing transaction
+     */
+    public void releaseAllLocks(TransactionId tid) {
+        Set<PageId> pages = lockedPages.remove(tid);
+        if (pages == null)
+            return;
+        for (PageId pid : pages.toArray(new PageId[0]))
+            releaseLock(tid, pid);
+    }
+
+    /**
+     * @return true if the transaction holds a lock (of either mode) on the page
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return lock.isHeldBy(tid);
+        }
+    }
+
+    /**
+     * @return true if the transaction holds the exclusive lock on the page
+     */
+    public boolean holdsExclusiveLock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return tid.equals(lock.exclusive);
+        }
+    }
+
+    /**
+     * @return the pages the transaction currently holds locks on
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        if (pages == null)
+            return Collections.emptySet();
+        return new HashSet<PageId>(pages);
+    }
+
+    private PageLock lockFor(PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null) {
+            PageLock fresh = new PageLock();
+            lock = locks.putIfAbsent(pid, fresh);
+            if (lock == null)
+                lock = fresh;
+        }
+        return lock;
+    }
+
+    private Set<PageId> pagesLockedBy(TransactionId tid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        if (pages == null) {
+            Set<PageId> fresh = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            pages = lockedPages.putIfAbsent(tid, fresh);
+            if (pages == null)
+                pages = fresh;
+        }
+        return pages;
+    }
+
+    /**
+     * Records that tid is about to wait on blockers, and fails if that makes
+     * tid part of a cycle in the waits-for graph.
+     */
+    private void startWaiting(TransactionId tid, Set<TransactionId> blockers)
+            throws DeadlockException {
+        synchronized (waitsFor) {
+            waitsFor.put(tid, blockers);
+            if (reaches(blockers, tid)) {
+                waitsFor.remove(tid);
+                throw new DeadlockException();
+            }
+        }
+    }
+
+    private void stopWaiting(TransactionId tid) {
+        synchronized (waitsFor) {
+            waitsFor.remove(tid);
+        }
+    }
+
+    /**
+     * @return true if target can be reached from any of the given
+     *   transactions by following waits-for edges. Must hold the waitsFor
+     *   monitor.
+     */
+    private boolean reaches(Set<TransactionId> from, TransactionId target) {
+        HashSet<TransactionId> visited = new HashSet<TransactionId>();
+        ArrayDeque<TransactionId> stack = new ArrayDeque<TransactionId>(from);
+        while (!stack.isEmpty()) {
+            TransactionId t = stack.pop();
+            if (t.equals(target))
+                return true;
+            if (!visited.add(t))
+                continue;
+            Set<TransactionId> next = waitsFor.get(t);
+            if (next != null)
+                stack.addAll(next);
+        }
+        return false;
+    }
+}
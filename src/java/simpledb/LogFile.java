@@ -51,8 +51,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and APPEND
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -67,6 +67,13 @@ of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
+<li> APPEND records describe a batch of pages a transaction appended to a
+HeapFile without going through the buffer pool (see HeapFile.bulkLoad).
+They consist of the table id, the number of the first page and the
+number of pages, followed by the data of each page as an integer length
+and that many bytes.  The pages were not part of the file before, so
+their before images are empty pages.
+
 </ul>
 
 */
@@ -82,6 +89,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int APPEND_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -207,6 +215,11 @@ public class LogFile {
            after page data
            start offset
         */
+        // a transaction that was not started through Transaction has no
+        // BEGIN record; its first update marks where rollback has to look
+        if (tidToFirstLogRecord.get(tid.getId()) == null)
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
+
         raf.writeInt(UPDATE_RECORD);
         raf.writeLong(tid.getId());
 
@@ -218,6 +231,36 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write an APPEND record for pages the specified tid added to the end
+        of a HeapFile in one batch.  The record must be forced to disk
+        before the pages are written.
+        @param tid The transaction appending the pages
+        @param tableId The table the pages belong to
+        @param firstPage The number of the first page of the batch
+        @param pages The data of the pages, in page order
+
+        @see HeapFile#bulkLoad
+    */
+    public synchronized void logAppend(TransactionId tid, int tableId,
+                                       int firstPage, List<byte[]> pages)
+        throws IOException {
+        preAppend();
+        if (tidToFirstLogRecord.get(tid.getId()) == null)
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
+
+        raf.writeInt(APPEND_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPage);
+        raf.writeInt(pages.size());
+        for (byte[] page : pages) {
+            raf.writeInt(page.length);
+            raf.write(page);
+        }
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -265,17 +308,25 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+            // pages are rebuilt with their (id, data) constructor, or, for
+            // B+ tree pages that need it, (id, data, key field)
+            Constructor<?> pageConst;
+            Object[] pageArgs;
+            try {
+                pageConst = pageClass.getDeclaredConstructor(idClass, byte[].class);
+                pageArgs = new Object[] { pid, pageData };
+            } catch (NoSuchMethodException e) {
+                pageConst = pageClass.getDeclaredConstructor(idClass, byte[].class, int.class);
+                BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+                pageArgs = new Object[] { pid, pageData, f.keyField() };
+            }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -290,11 +341,109 @@ public class LogFile {
         } catch (InvocationTargetException e) {
             e.printStackTrace();
             throw new IOException();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new IOException();
         }
         return newPage;
 
     }
 
+    /** Find the data the specified page had when it was last written, to
+        repair a copy on disk that fails its checksum (see
+        PageChecksums).  That is the after image of the last update or
+        append of the page in the log, or its before image if the
+        transaction that made the change aborted.  Pages are logged before
+        they are written, but the log only goes back to the last
+        checkpoint, which wrote every page to disk; the pages written
+        before that cannot be repaired.
+
+        @param pid The page to find
+        @return the data of the page, or null if the log holds none
+    */
+    public synchronized byte[] findPageImage(PageId pid) throws IOException {
+        if (raf.length() <= LONG_SIZE)
+            return null;
+        long position = raf.getFilePointer();
+        String idClassName = pid.getClass().getName();
+        int[] idInts = pid.serialize();
+        // the page before and after the last change to it, and the
+        // transaction that made it
+        byte[][] last = null;
+        long lastTid = 0;
+        HashSet<Long> aborted = new HashSet<Long>();
+        try {
+            raf.seek(LONG_SIZE);
+            while (true) {
+                int type = raf.readInt();
+                long record_tid = raf.readLong();
+                switch (type) {
+                case UPDATE_RECORD:
+                    byte[] before = readPageImage(raf, idClassName, idInts);
+                    byte[] after = readPageImage(raf, idClassName, idInts);
+                    if (after != null) {
+                        last = new byte[][] { before, after };
+                        lastTid = record_tid;
+                    }
+                    break;
+                case APPEND_RECORD:
+                    int tableId = raf.readInt();
+                    int firstPage = raf.readInt();
+                    int numPages = raf.readInt();
+                    for (int i = 0; i < numPages; i++) {
+                        byte[] page = new byte[raf.readInt()];
+                        raf.readFully(page);
+                        if (pid instanceof HeapPageId && pid.getTableId() == tableId
+                                && pid.pageNumber() == firstPage + i) {
+                            last = new byte[][] { HeapPage.createEmptyPageData(page.length), page };
+                            lastTid = record_tid;
+                        }
+                    }
+                    break;
+                case CHECKPOINT_RECORD:
+                    int numXactions = raf.readInt();
+                    raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                    break;
+                case ABORT_RECORD:
+                    aborted.add(record_tid);
+                    break;
+                }
+                raf.readLong();
+            }
+        } catch (EOFException e) {
+            // the end of the log, or of what made it to disk of it
+        } finally {
+            raf.seek(position);
+        }
+        if (last == null)
+            return null;
+        // an aborted transaction put back what the page had before it
+        // changed it
+        return last[aborted.contains(lastTid) ? 0 : 1];
+    }
+
+    /** Read the page data written by writePageData, returning its bytes if
+        it is that of the page with the given id, and null otherwise. */
+    private byte[] readPageImage(RandomAccessFile raf, String idClassName, int[] idInts)
+        throws IOException {
+        raf.readUTF();
+        boolean match = raf.readUTF().equals(idClassName);
+        int numIdArgs = raf.readInt();
+        match &= numIdArgs == idInts.length;
+        for (int i = 0; i < numIdArgs; i++) {
+            int arg = raf.readInt();
+            match &= i < idInts.length && arg == idInts[i];
+        }
+        int pageSize = raf.readInt();
+        if (!match) {
+            raf.seek(raf.getFilePointer() + pageSize);
+            return null;
+        }
+        byte[] pageData = new byte[pageSize];
+        raf.readFully(pageData);
+        return pageData;
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -416,6 +565,18 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case APPEND_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    int numPages = raf.readInt();
+                    logNew.writeInt(numPages);
+                    while (numPages-- > 0) {
+                        byte[] page = new byte[raf.readInt()];
+                        raf.readFully(page);
+                        logNew.writeInt(page.length);
+                        logNew.write(page);
+                    }
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -467,10 +628,74 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null)
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not live");
+
+                // every update record of a page carries the page as of the
+                // start of the transaction, so the first one is enough
+                LinkedHashMap<PageId, Page> beforeImages = new LinkedHashMap<PageId, Page>();
+                // tableId, first page and number of pages of each batch
+                // of pages the transaction appended
+                ArrayList<int[]> appended = new ArrayList<int[]>();
+                raf.seek(firstRecord);
+                while (true) {
+                    try {
+                        int type = raf.readInt();
+                        long record_tid = raf.readLong();
+                        switch (type) {
+                        case UPDATE_RECORD:
+                            Page before = readPageData(raf);
+                            readPageData(raf);
+                            if (record_tid == tid.getId() && !beforeImages.containsKey(before.getId()))
+                                beforeImages.put(before.getId(), before);
+                            break;
+                        case APPEND_RECORD:
+                            int[] batch = new int[] { raf.readInt(), raf.readInt(), raf.readInt() };
+                            for (int i = 0; i < batch[2]; i++)
+                                raf.skipBytes(raf.readInt());
+                            if (record_tid == tid.getId())
+                                appended.add(batch);
+                            break;
+                        case CHECKPOINT_RECORD:
+                            int numXactions = raf.readInt();
+                            raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                            break;
+                        }
+                        raf.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                }
+                raf.seek(currentOffset);
+
+                // drop the cached versions first, so that no page writer can
+                // put the transaction's changes back on disk afterwards
+                for (Page before : beforeImages.values()) {
+                    PageId pid = before.getId();
+                    Database.getBufferPool().discardPage(pid);
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(before);
+                }
+                // appended pages are emptied last, as later updates to them
+                // restored what was appended
+                for (int[] batch : appended) {
+                    for (int i = 0; i < batch[2]; i++)
+                        Database.getBufferPool().discardPage(new HeapPageId(batch[0], batch[1] + i));
+                    HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(batch[0]);
+                    f.clearPages(batch[1], batch[2]);
+                }
             }
         }
     }
 
+    /**
+     * @return true if the transaction has started logging (with a BEGIN or
+     *   UPDATE record) and has neither committed nor aborted yet
+     */
+    public synchronized boolean isLive(TransactionId tid) {
+        return tidToFirstLogRecord.get(tid.getId()) != null;
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -2,9 +2,11 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 /**
@@ -258,6 +260,58 @@ public class LogicalPlan {
 
     }
 
+    /**
+     * Finds the fields of a table that the plan reads, in filters, joins,
+     * the select list, grouping and ordering, so that its scan can decode
+     * just those.
+     *
+     * @return the indexes of the fields the plan reads, or null if it reads
+     *   all of them or names one the table does not have
+     */
+    private int[] readFields(LogicalScanNode table) {
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(table.alias))
+                names.add(lf.fieldPureName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            if (table.alias.equals(lj.t1Alias))
+                names.add(lj.f1PureName);
+            if (table.alias.equals(lj.t2Alias))
+                names.add(lj.f2PureName);
+        }
+        ArrayList<String> qualified = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            qualified.add(si.fname);
+        qualified.add(aggField);
+        qualified.add(groupByField);
+        qualified.add(oByField);
+        for (String name : qualified) {
+            if (name == null)
+                continue;
+            String[] parts = name.split("[.]");
+            if (parts.length != 2 || parts[1].equals("*"))
+                return null;
+            if (parts[0].equals(table.alias))
+                names.add(parts[1]);
+        }
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        if (names.size() >= td.numFields())
+            return null;
+        int[] fields = new int[names.size()];
+        int i = 0;
+        try {
+            for (String name : names)
+                fields[i++] = td.fieldNameToIndex(name);
+        } catch (NoSuchElementException e) {
+            // reported when the plan is built
+            return null;
+        }
+        Arrays.sort(fields);
+        return fields;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -271,6 +325,60 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Picks the cheapest index scan that reads the tuples of a table that
+     * satisfy one of the given filters, if any is cheaper than a SeqScan of
+     * the whole table. The scan is index-only if the plan reads no other
+     * field of the table than the indexed one. The filters other than the
+     * one the index matches are applied on top of the scan.
+     *
+     * @param table the table to read
+     * @param filters the filters on the table's tuples, by field index
+     * @param fields the fields of the table the plan reads, as returned by
+     *   readFields
+     * @return the filtered index scan, or null if a SeqScan is cheaper
+     */
+    private DbIterator indexPlan(TransactionId t, LogicalScanNode table, ArrayList<Predicate> filters,
+            int[] fields, Map<String,TableStats> statsMap, boolean explain) {
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+        if (s == null || filters.isEmpty())
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        double bestCost = s.estimateScanCost();
+        Predicate best = null;
+        SecondaryIndex bestIndex = null;
+        boolean bestIndexOnly = false;
+        for (Predicate p : filters) {
+            SecondaryIndex index = Database.getCatalog().getIndex(table.t, p.getField());
+            if (index == null || p.getOp() == Predicate.Op.NOT_EQUALS || p.getOp() == Predicate.Op.LIKE)
+                continue;
+            boolean indexOnly = fields == null ? td.numFields() == 1
+                    : fields.length == 1 && fields[0] == p.getField();
+            double sel = s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+            double cost = s.estimateIndexScanCost(index, sel, indexOnly);
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = p;
+                bestIndex = index;
+                bestIndexOnly = indexOnly;
+            }
+        }
+        if (best == null)
+            return null;
+
+        DbIterator plan = new SecondaryIndexScan(t, bestIndex, table.alias,
+                new IndexPredicate(best.getOp(), best.getOperand()), bestIndexOnly);
+        for (Predicate p : filters) {
+            if (p != best)
+                plan = new Filter(p, plan);
+        }
+        if (explain)
+            System.out.println("Reading " + table.alias + " through the index on "
+                    + td.getFieldName(best.getField()) + (bestIndexOnly ? " (index only)" : "")
+                    + ", cost " + bestCost + " instead of " + s.estimateScanCost());
+        return plan;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -289,17 +397,25 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,SeqScan> scans = new HashMap<String,SeqScan>();
+        HashMap<String,int[]> scanFields = new HashMap<String,int[]>();
+        HashMap<String,ArrayList<Predicate>> predicates = new HashMap<String,ArrayList<Predicate>>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
+            int[] fields = readFields(table);
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias,
+                         fields);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
             subplanMap.put(table.alias,ss);
+            scans.put(table.alias, ss);
+            scanFields.put(table.alias, fields);
+            predicates.put(table.alias, new ArrayList<Predicate>());
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -335,6 +451,9 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // the scan may skip what p rules out; the Filter still applies it
+            scans.get(lf.tableAlias).pushDown(p);
+            predicates.get(lf.tableAlias).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -343,6 +462,15 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // read a table through one of its secondary indexes where that is
+        // cheaper than scanning and filtering all of it
+        for (LogicalScanNode table : tables) {
+            DbIterator plan = indexPlan(t, table, predicates.get(table.alias),
+                    scanFields.get(table.alias), statsMap, explain);
+            if (plan != null)
+                subplanMap.put(table.alias, plan);
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -382,7 +510,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = jo.instantiateJoin(t,lj,plan1,plan2);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
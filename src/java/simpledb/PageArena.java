@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageArena is a pool of fixed-size page frames carved out of a few large
+ * direct (off-heap) ByteBuffers. An off-heap BufferPool keeps the contents
+ * of cached HeapPages in these frames, so a cached page costs the garbage
+ * collector a handful of small objects instead of a graph of tuples and
+ * fields, and the bulk of the pool never has to be traced or copied.
+ * <p>
+ * The arena reserves its memory chunk by chunk as frames are first handed
+ * out; frames that are released are reused before new ones are carved.
+ *
+ * @Threadsafe
+ */
+public class PageArena {
+
+    /** Upper bound for the size of one direct buffer of the arena. */
+    public static final int CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int numFrames;
+    private final int framesPerChunk;
+    // chunks are allocated on demand; protected by the arena's monitor
+    private final ByteBuffer[] chunks;
+    private final AtomicInteger carved;
+    private final ConcurrentLinkedQueue<ByteBuffer> free;
+
+    /**
+     * Creates an arena of numFrames frames of frameSize bytes each. No
+     * memory is reserved until the first frame is allocated.
+     *
+     * @param numFrames the number of frames in the arena
+     * @param frameSize the size of a frame in bytes
+     */
+    public PageArena(int numFrames, int frameSize) {
+        if (frameSize <= 0 || frameSize > CHUNK_BYTES)
+            throw new IllegalArgumentException("bad frame size " + frameSize);
+        this.frameSize = frameSize;
+        this.numFrames = Math.max(numFrames, 0);
+        this.framesPerChunk = CHUNK_BYTES / frameSize;
+        this.chunks = new ByteBuffer[(this.numFrames + framesPerChunk - 1) / framesPerChunk];
+        this.carved = new AtomicInteger(0);
+        this.free = new ConcurrentLinkedQueue<ByteBuffer>();
+    }
+
+    /** @return the size of a frame in bytes */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /** @return the number of frames in the arena */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Hands out an unused frame. The frame's contents are undefined.
+     *
+     * @return a buffer of exactly getFrameSize() bytes, or null if every
+     *   frame is in use
+     */
+    public ByteBuffer allocate() {
+        ByteBuffer frame = free.poll();
+        if (frame != null)
+            return frame;
+        while (true) {
+            int n = carved.get();
+            if (n >= numFrames)
+                return free.poll();
+            if (carved.compareAndSet(n, n + 1))
+                return carve(n);
+        }
+    }
+
+    /**
+     * Gives a frame back to the arena. The caller must not touch the frame
+     * afterwards.
+     *
+     * @param frame a buffer previously returned by allocate
+     */
+    public void release(ByteBuffer frame) {
+        free.add(frame);
+    }
+
+    private ByteBuffer carve(int n) {
+        ByteBuffer chunk = chunk(n / framesPerChunk);
+        int offset = (n % framesPerChunk) * frameSize;
+        ByteBuffer frame = chunk.duplicate();
+        frame.limit(offset + frameSize);
+        frame.position(offset);
+        return frame.slice();
+    }
+
+    private synchronized ByteBuffer chunk(int i) {
+        if (chunks[i] == null) {
+            int frames = Math.min(framesPerChunk, numFrames - i * framesPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        return chunks[i];
+    }
+}
@@ -0,0 +1,194 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+/**
+ * PageChecksums keeps a CRC32C checksum of each page of a HeapFile or
+ * BTreeFile, so that a page that was only partly written when the
+ * database stopped, or that decayed on disk, is caught when it is read
+ * instead of being parsed into garbage. The file writes the checksum of
+ * each page it writes, and checks the data of each page it reads.
+ * <p>
+ * The layouts of the pages leave no room in them, so the checksums are
+ * kept next to the file, in a file with the same name plus ".crc": an int
+ * per page, in page order. 0 stands for a page with no checksum, such as
+ * the pages of a file written by HeapFileEncoder, which are read
+ * unchecked until they are first written; a checksum that comes out as 0
+ * is stored as 1. The checksums are also kept in memory, 4 bytes per page,
+ * so checking a page costs one pass of CRC32C over its data, which the
+ * JVM computes with the CPU's CRC32 instructions where there are some.
+ * <p>
+ * JVMs before Java 9 have no CRC32C. On those, pages are not checked and
+ * the checksums of the pages written are cleared, so that the file can go
+ * on being checked on a newer JVM.
+ *
+ * @see LogFile#findPageImage
+ * @Threadsafe
+ */
+public class PageChecksums {
+
+    /** Added to the name of a file to give that of its checksums. */
+    public static final String SUFFIX = ".crc";
+
+    private static final int NONE = 0;
+
+    // the constructor of java.util.zip.CRC32C, or null if the JVM has none
+    private static final Constructor<?> CRC32C = crc32cConstructor();
+
+    private static final ThreadLocal<Checksum> checksums = new ThreadLocal<Checksum>();
+
+    private final File file;
+    private final DbFileChannel channel;
+
+    // the checksum of each page, NONE past the end; protected by this
+    private int[] sums;
+
+    /**
+     * Opens the checksums of the given file.
+     *
+     * @param dataFile the file whose pages are checksummed
+     */
+    public PageChecksums(File dataFile) {
+        this.file = checksumFile(dataFile);
+        this.channel = new DbFileChannel(file);
+        try {
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException("cannot read " + file, e);
+        }
+    }
+
+    /**
+     * @return the file the checksums of the pages of dataFile are kept in
+     */
+    public static File checksumFile(File dataFile) {
+        return new File(dataFile.getPath() + SUFFIX);
+    }
+
+    private static Constructor<?> crc32cConstructor() {
+        try {
+            return Class.forName("java.util.zip.CRC32C").getConstructor();
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if this JVM can compute the checksums, so pages are
+     *   checked
+     */
+    public static boolean isEnabled() {
+        return CRC32C != null;
+    }
+
+    /**
+     * @return the CRC32C of the bytes between the position and the limit of
+     *   data, which are left as they are, as it is stored: never 0
+     */
+    public static int checksum(ByteBuffer data) {
+        Checksum crc = checksums.get();
+        if (crc == null) {
+            try {
+                crc = (Checksum) CRC32C.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("cannot compute CRC32C checksums", e);
+            }
+            checksums.set(crc);
+        }
+        crc.reset();
+        crc.update(data.duplicate());
+        int sum = (int) crc.getValue();
+        return sum == NONE ? 1 : sum;
+    }
+
+    /** @return the file the checksums are kept in */
+    public File getFile() {
+        return file;
+    }
+
+    private synchronized void load() throws IOException {
+        sums = new int[0];
+        if (!file.exists())
+            return;
+        ByteBuffer data = ByteBuffer.allocate((int) (channel.size() / 4 * 4));
+        channel.read(data, 0);
+        data.clear();
+        sums = new int[data.capacity() / 4];
+        data.asIntBuffer().get(sums);
+    }
+
+    /**
+     * Checks the data of a page against its checksum.
+     *
+     * @param page the number of the page
+     * @param data the data of the page, between its position and its limit
+     * @return false if the page has a checksum and the data does not match
+     *   it
+     */
+    public boolean verify(int page, ByteBuffer data) {
+        int sum;
+        synchronized (this) {
+            sum = page < sums.length ? sums[page] : NONE;
+        }
+        return sum == NONE || !isEnabled() || checksum(data) == sum;
+    }
+
+    /**
+     * Records the checksum of a page that was written.
+     *
+     * @param page the number of the page
+     * @param data the data written, between its position and its limit
+     */
+    public void update(int page, ByteBuffer data) throws IOException {
+        update(new int[] { page }, new ByteBuffer[] { data });
+    }
+
+    /**
+     * Records the checksums of pages that were written, with a single write
+     * for neighbouring pages.
+     *
+     * @param pages the numbers of the pages
+     * @param data the data written of each page, between its position and
+     *   its limit
+     */
+    public void update(int[] pages, ByteBuffer[] data) throws IOException {
+        long[] positions = new long[pages.length];
+        ByteBuffer[] entries = new ByteBuffer[pages.length];
+        for (int i = 0; i < pages.length; i++) {
+            positions[i] = 4L * pages[i];
+            entries[i] = ByteBuffer.allocate(4);
+            entries[i].putInt(0, isEnabled() ? checksum(data[i]) : NONE);
+        }
+        synchronized (this) {
+            if (!file.exists())
+                file.createNewFile();
+            for (int i = 0; i < pages.length; i++) {
+                if (pages[i] >= sums.length)
+                    sums = Arrays.copyOf(sums, Math.max(pages[i] + 1, 2 * sums.length));
+                sums[pages[i]] = entries[i].getInt(0);
+            }
+            channel.write(positions, entries);
+        }
+    }
+
+    /**
+     * Forces the checksums written so far to disk.
+     */
+    public void force() throws IOException {
+        if (file.exists())
+            channel.force();
+    }
+
+    /**
+     * Closes the file the checksums are kept in. It is opened again if
+     * checksums are written afterwards.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
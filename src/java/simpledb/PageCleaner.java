@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageCleaner is a background thread that writes dirty pages of a
+ * BufferPool to disk ahead of eviction, so that a miss almost always finds a
+ * clean page to replace instead of having to write one out first.
+ * <p>
+ * The cleaner works in rounds. As long as no more than the low watermark
+ * (a fraction of the pool's capacity) is dirty it stays idle. Above it, each
+ * round writes up to pagesPerRound pages and then pauses for the interval;
+ * above the high watermark it keeps writing without pausing. A miss that
+ * had to write a dirty page itself wakes the cleaner up early.
+ * <p>
+ * Pages go through the same path as any other write: an update record is
+ * logged and the log forced before the page is written.
+ *
+ * @see BufferPool#startPageCleaner
+ */
+public class PageCleaner extends Thread {
+
+    public static final double DEFAULT_LOW_WATERMARK = 0.25;
+    public static final double DEFAULT_HIGH_WATERMARK = 0.75;
+    public static final int DEFAULT_PAGES_PER_ROUND = 16;
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    private final BufferPool pool;
+    private final double lowWatermark;
+    private final double highWatermark;
+    private final int pagesPerRound;
+    private final long intervalMillis;
+
+    private volatile boolean running = true;
+    // protected by this cleaner's monitor
+    private boolean wakeUpPending = false;
+    private volatile long pagesWritten = 0;
+
+    /**
+     * Creates a cleaner for the given pool; call start to run it.
+     *
+     * @param pool the pool to clean
+     * @param lowWatermark fraction of the pool that may be dirty before the
+     *   cleaner starts writing
+     * @param highWatermark fraction of the pool above which the cleaner
+     *   writes without pausing between rounds
+     * @param pagesPerRound the most pages written per round
+     * @param intervalMillis the pause between rounds
+     */
+    public PageCleaner(BufferPool pool, double lowWatermark, double highWatermark,
+            int pagesPerRound, long intervalMillis) {
+        super("page cleaner");
+        if (lowWatermark < 0 || highWatermark < lowWatermark || pagesPerRound < 1 || intervalMillis < 0)
+            throw new IllegalArgumentException("bad page cleaner settings");
+        this.pool = pool;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.pagesPerRound = pagesPerRound;
+        this.intervalMillis = intervalMillis;
+        setDaemon(true);
+    }
+
+    /** @return the number of dirty pages this cleaner has written so far */
+    public long getPagesWritten() {
+        return pagesWritten;
+    }
+
+    public void run() {
+        while (running) {
+            boolean busy = false;
+            try {
+                busy = cleanRound();
+            } catch (IOException e) {
+                // leave the pages dirty; eviction or commit will retry them
+                e.printStackTrace();
+            }
+            if (!busy)
+                pause();
+        }
+    }
+
+    /**
+     * Writes pages if the pool is above the low watermark.
+     *
+     * @return true if the pool is still above the high watermark and the
+     *   next round should start right away
+     */
+    private boolean cleanRound() throws IOException {
+        int capacity = pool.getNumPages();
+        int dirty = pool.countDirtyPages();
+        int low = (int) (lowWatermark * capacity);
+        if (dirty <= low)
+            return false;
+        int written = pool.cleanPages(Math.min(pagesPerRound, dirty - low));
+        pagesWritten += written;
+        return written > 0 && dirty - written > highWatermark * capacity;
+    }
+
+    private synchronized void pause() {
+        if (!wakeUpPending && running) {
+            try {
+                wait(intervalMillis);
+            } catch (InterruptedException e) {
+                // check whether we should stop
+            }
+        }
+        wakeUpPending = false;
+    }
+
+    /**
+     * Starts the next round right away instead of after the pause.
+     */
+    public synchronized void wakeUp() {
+        wakeUpPending = true;
+        notifyAll();
+    }
+
+    /**
+     * Stops the cleaner and waits for the current round to finish.
+     */
+    public void shutdown() {
+        running = false;
+        wakeUp();
+        boolean interrupted = false;
+        while (isAlive() && Thread.currentThread() != this) {
+            try {
+                join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PageFormat is the way a HeapFile lays out tuples in its pages. It is
+ * chosen per table, when the HeapFile is created, and the same for all
+ * pages of the file. A page of all zeros is an empty page in every format.
+ *
+ * @see HeapFile#HeapFile(java.io.File, TupleDesc, boolean, PageFormat)
+ */
+public enum PageFormat {
+
+    /**
+     * A header bitmap followed by fixed-size slots, one per tuple; strings
+     * take Type.STRING_LEN bytes whatever their length. See {@link HeapPage}.
+     */
+    FIXED {
+        @Override
+        public HeapPage newPage(HeapPageId id, ByteBuffer data) {
+            return new HeapPage(id, data);
+        }
+    },
+
+    /**
+     * A slot directory pointing to variable-length records, which store
+     * strings with just the bytes they need. Suits tables of short
+     * strings. See {@link SlottedHeapPage}.
+     */
+    SLOTTED {
+        @Override
+        public HeapPage newPage(HeapPageId id, ByteBuffer data) {
+            return new SlottedHeapPage(id, data);
+        }
+    },
+
+    /**
+     * The slots of FIXED, with the values of each field stored together in
+     * a minipage of their own. Suits wide tables of which scans read only
+     * a few fields. See {@link PaxHeapPage}.
+     */
+    PAX {
+        @Override
+        public HeapPage newPage(HeapPageId id, ByteBuffer data) {
+            return new PaxHeapPage(id, data);
+        }
+    };
+
+    /**
+     * Creates a page of this format over a buffer that holds its bytes.
+     *
+     * @param id the id of the page
+     * @param data a buffer of BufferPool.getPageSize() bytes; the page
+     *   takes it over
+     */
+    public abstract HeapPage newPage(HeapPageId id, ByteBuffer data);
+}
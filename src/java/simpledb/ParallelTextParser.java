@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ParallelTextParser parses a delimited text file, in the format
+ * HeapFileEncoder converts, on several threads. The file is read in chunks
+ * of whole lines; a pool of worker threads parses the chunks into tuples
+ * while the following chunks are read, and the caller gets the parsed
+ * chunks back in file order. Only a few chunks are in flight at any time,
+ * so files much larger than the heap can be streamed through it.
+ * <p>
+ * Fields are separated by a single character and surrounding whitespace is
+ * ignored; ints are written in decimal, strings as they are and cut to
+ * Type.STRING_LEN characters. Empty lines are skipped, and so are lines
+ * that cannot be parsed, which are reported on System.out. Fields after
+ * the last one of the schema are ignored.
+ */
+public class ParallelTextParser implements Closeable {
+
+    /** The number of bytes read per chunk, unless a line is longer. */
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+
+    private final FileInputStream in;
+    private final Type[] types;
+    private final char separator;
+    private final int chunkBytes;
+    private final ExecutorService workers;
+    private final int maxPending;
+    private final ArrayDeque<Future<ArrayList<Field[]>>> pending;
+
+    // the start of a line cut off at the end of the last chunk read
+    private byte[] carry;
+    private boolean eof;
+
+    /**
+     * Creates a parser of the given file using one thread per processor.
+     *
+     * @param file the file to parse
+     * @param types the types of the fields on each line
+     * @param separator the character between the fields of a line
+     */
+    public ParallelTextParser(File file, Type[] types, char separator) throws IOException {
+        this(file, types, separator, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * Creates a parser of the given file.
+     *
+     * @param file the file to parse
+     * @param types the types of the fields on each line
+     * @param separator the character between the fields of a line
+     * @param threads the number of threads parsing chunks
+     * @param chunkBytes the number of bytes read per chunk
+     */
+    public ParallelTextParser(File file, Type[] types, char separator,
+            int threads, int chunkBytes) throws IOException {
+        this.in = new FileInputStream(file);
+        this.types = types.clone();
+        this.separator = separator;
+        this.chunkBytes = chunkBytes;
+        this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "parser");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // keep every worker busy while the caller consumes a chunk
+        this.maxPending = 2 * threads;
+        this.pending = new ArrayDeque<Future<ArrayList<Field[]>>>();
+        this.carry = new byte[0];
+        this.eof = false;
+    }
+
+    /**
+     * Returns the tuples of the next chunk of the file, each as the array
+     * of its fields.
+     *
+     * @return the tuples of the next chunk, or null after the last chunk
+     * @throws IOException if the file cannot be read
+     */
+    public ArrayList<Field[]> nextChunk() throws IOException {
+        while (!eof && pending.size() < maxPending)
+            readChunk();
+        Future<ArrayList<Field[]>> next = pending.poll();
+        if (next == null)
+            return null;
+        try {
+            return next.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads the file up to the last line break within the next chunkBytes
+     * bytes, or further if no line ends there, and hands the lines read to
+     * a worker.
+     */
+    private void readChunk() throws IOException {
+        byte[] buf = Arrays.copyOf(carry, carry.length + chunkBytes);
+        int n = carry.length;
+        int end;
+        while (true) {
+            int r = in.read(buf, n, buf.length - n);
+            if (r < 0) {
+                eof = true;
+                end = n;
+                break;
+            }
+            n += r;
+            if (n < buf.length)
+                continue;
+            end = n;
+            while (end > 0 && buf[end - 1] != '\n')
+                end--;
+            if (end > 0)
+                break;
+            // a single line longer than the buffer
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        carry = Arrays.copyOfRange(buf, end, n);
+
+        final byte[] chunk = buf;
+        final int length = end;
+        pending.add(workers.submit(new Callable<ArrayList<Field[]>>() {
+            public ArrayList<Field[]> call() {
+                return parse(chunk, length);
+            }
+        }));
+    }
+
+    /** Parses the lines in the first length bytes of chunk. */
+    private ArrayList<Field[]> parse(byte[] chunk, int length) {
+        // the default charset, as a FileReader would decode the file
+        String text = new String(chunk, 0, length);
+        ArrayList<Field[]> tuples = new ArrayList<Field[]>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0)
+                end = text.length();
+            String line = text.substring(start, end);
+            start = end + 1;
+            if (line.trim().isEmpty())
+                continue;
+            Field[] fields = parseLine(line);
+            if (fields == null)
+                System.out.println ("BAD LINE : " + line);
+            else
+                tuples.add(fields);
+        }
+        return tuples;
+    }
+
+    /** @return the fields of the line, or null if it cannot be parsed */
+    private Field[] parseLine(String line) {
+        Field[] fields = new Field[types.length];
+        int start = 0;
+        for (int i = 0; i < types.length; i++) {
+            if (start > line.length())
+                return null;
+            int end = line.indexOf(separator, start);
+            if (end < 0)
+                end = line.length();
+            String s = line.substring(start, end).trim();
+            if (types[i] == Type.INT_TYPE) {
+                try {
+                    fields[i] = new IntField(Integer.parseInt(s));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            } else {
+                if (s.length() > Type.STRING_LEN)
+                    s = s.substring(0, Type.STRING_LEN);
+                fields[i] = new StringField(s, Type.STRING_LEN);
+            }
+            start = end + 1;
+        }
+        return fields;
+    }
+
+    /**
+     * Stops the workers and closes the file.
+     */
+    public void close() throws IOException {
+        workers.shutdownNow();
+        in.close();
+    }
+}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -394,6 +396,99 @@ public class Parser {
         return insertQ;
     }
 
+    private static final Pattern COPY_STATEMENT = Pattern.compile(
+            "\\s*COPY\\s+(\\w+)\\s+FROM\\s+(.*?)\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern COPY_FILE = Pattern.compile(
+            "'([^']*)'(?:\\s+DELIMITER\\s+'(.)')?",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * Handles a COPY statement, which ZQL does not know about. It bulk loads
+     * a table, either from a delimited text file or from a query:
+     * <pre>
+     *   COPY table FROM 'file' [DELIMITER 'c'];
+     *   COPY table FROM (SELECT ...);
+     * </pre>
+     * The file is in the format CsvScan reads, with fields separated by
+     * commas unless another delimiter is given.
+     *
+     * @see BulkLoad
+     */
+    public Query handleCopyStatement(String s, TransactionId tId)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
+        Matcher m = COPY_STATEMENT.matcher(s);
+        if (!m.matches())
+            throw new simpledb.ParsingException("Invalid COPY statement: " + s);
+        int tableId;
+        try {
+            tableId = Database.getCatalog().getTableId(m.group(1));
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : "
+                    + m.group(1));
+        }
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+
+        String source = m.group(2);
+        DbIterator newTups;
+        Matcher f = COPY_FILE.matcher(source);
+        if (f.matches()) {
+            char separator = f.group(2) == null ? ',' : f.group(2).charAt(0);
+            newTups = new CsvScan(new File(f.group(1)), td, separator);
+        } else if (source.startsWith("(") && source.endsWith(")")) {
+            String query = source.substring(1, source.length() - 1) + ";";
+            ZStatement zs = new ZqlParser(new ByteArrayInputStream(
+                    query.getBytes("UTF-8"))).readStatement();
+            if (!(zs instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "COPY can only read from a file or a SELECT query");
+            LogicalPlan lp = parseQueryLogicalPlan(tId, (ZQuery) zs);
+            newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
+        } else {
+            throw new simpledb.ParsingException(
+                    "COPY can only read from a file or a SELECT query");
+        }
+        if (!td.equals(newTups.getTupleDesc()))
+            throw new simpledb.ParsingException(
+                    "COPY source does not have the same fields as table "
+                            + m.group(1));
+
+        Query copyQ = new Query(tId);
+        copyQ.setPhysicalPlan(new BulkLoad(tId, newTups, tableId));
+        return copyQ;
+    }
+
+    /**
+     * If the statement at the start of in is a COPY statement, reads it up
+     * to its semicolon and returns it; otherwise leaves in as it was.
+     *
+     * @return the COPY statement, or null if the statement is another one
+     */
+    private static String readCopyStatement(BufferedInputStream in)
+            throws IOException {
+        final int peek = 1024;
+        in.mark(peek);
+        int c;
+        int n = 0;
+        do {
+            c = in.read();
+        } while (c >= 0 && Character.isWhitespace(c) && ++n < peek - 5);
+        StringBuilder word = new StringBuilder();
+        while (c >= 0 && word.length() < 5) {
+            word.append((char) c);
+            c = in.read();
+        }
+        in.reset();
+        if (!word.toString().toUpperCase().startsWith("COPY")
+                || word.length() < 5 || !Character.isWhitespace(word.charAt(4)))
+            return null;
+        ByteArrayOutputStream statement = new ByteArrayOutputStream();
+        while ((c = in.read()) >= 0 && c != ';')
+            statement.write(c);
+        return statement.toString("UTF-8");
+    }
+
     public Query handleDeleteStatement(ZDelete s, TransactionId tid)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
@@ -503,8 +598,14 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            // ZQL does not parse COPY statements, so look for them first
+            BufferedInputStream in = new BufferedInputStream(is);
+            String copy = readCopyStatement(in);
+            ZStatement s = null;
+            if (copy == null) {
+                ZqlParser p = new ZqlParser(in);
+                s = p.readStatement();
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -517,7 +618,9 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (copy != null)
+                        query = handleCopyStatement(copy, curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -530,7 +633,7 @@ public class Parser {
                         System.out
                                 .println("Can't parse "
                                         + s
-                                        + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
+                                        + "\n -- parser only handles SQL transactions, insert, delete, copy, and select statements");
                     }
                     if (query != null)
                         query.execute();
@@ -581,7 +684,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "copy" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapPage is a HeapPage that groups the values of its tuples by field
+ * (Partition Attributes Across). It holds as many tuples as a
+ * {@link PageFormat#FIXED} page and starts with the same header bitmap,
+ * but the slots that follow are split into one minipage per field: the
+ * values of the first field of all slots, then those of the second, and
+ * so on. A value of field i of slot s is found at
+ * <pre>
+ *   header size + slots * (offset of field i in a tuple) + s * (size of field i)
+ * </pre>
+ * A scan that reads a few fields of a wide table thus touches only the
+ * bytes of those fields, one after another, instead of striding over whole
+ * tuples; see {@link HeapFile#iterator(TransactionId, int[])}. A page of
+ * all zeros is an empty page.
+ *
+ * @see PageFormat#PAX
+ */
+public class PaxHeapPage extends HeapPage {
+
+    // offset of the minipage of each field
+    private final int[] minipageOffsets;
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        this.minipageOffsets = minipageOffsets();
+    }
+
+    /**
+     * Create a PaxHeapPage over a buffer that holds the bytes of the page.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public PaxHeapPage(HeapPageId id, ByteBuffer data) {
+        super(id, data);
+        this.minipageOffsets = minipageOffsets();
+    }
+
+    private int[] minipageOffsets() {
+        int[] offsets = new int[fieldOffsets.length];
+        for (int j = 0; j < offsets.length; j++)
+            offsets[j] = headerSize + numSlots * fieldOffsets[j];
+        return offsets;
+    }
+
+    @Override
+    HeapPage withData(ByteBuffer data) {
+        return new PaxHeapPage(pid, data);
+    }
+
+    @Override
+    Field readField(ByteBuffer buf, int slotId, int i) {
+        Type type = td.getFieldType(i);
+        return type.parse(buf, minipageOffsets[i] + slotId * type.getLen());
+    }
+
+    @Override
+    void writeRecord(ByteBuffer buf, int slotId, Field[] fields) {
+        for (int j = 0; j < minipageOffsets.length; j++) {
+            Type type = td.getFieldType(j);
+            type.write(fields[j], buf, minipageOffsets[j] + slotId * type.getLen());
+        }
+        markSlotUsed(buf, slotId, true);
+    }
+
+    @Override
+    void clearRecord(ByteBuffer buf, int slotId) {
+        markSlotUsed(buf, slotId, false);
+        for (int j = 0; j < minipageOffsets.length; j++) {
+            int len = td.getFieldType(j).getLen();
+            int base = minipageOffsets[j] + slotId * len;
+            for (int k = 0; k < len; k++)
+                buf.put(base + k, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+/**
+ * ReadAhead decides when a sequential scan should ask the BufferPool to
+ * prefetch the pages in front of it, and how many. Once the scan has read a
+ * few pages in a row, it keeps a window of pages requested ahead of the page
+ * it is reading; whenever half of that window has been consumed, the window
+ * is topped up in one batch and doubled, up to a maximum, so that a long
+ * scan ends up with many reads in flight while a short one prefetches
+ * little it does not use.
+ * <p>
+ * A ReadAhead belongs to a single iterator and is not thread-safe.
+ *
+ * @see BufferPool#getReadAhead
+ * @see BufferPool#prefetchPages
+ */
+public class ReadAhead {
+
+    /** Size of the first window, in pages. */
+    public static final int MIN_WINDOW = 2;
+
+    /** Largest window ever used, in pages. */
+    public static final int MAX_WINDOW = 32;
+
+    /** Number of pages read in a row before prefetching starts. */
+    public static final int TRIGGER = 2;
+
+    private final int maxWindow;
+    private int window;
+    // pages read since the scan started or was rewound
+    private int run;
+    // pages prefetched beyond the one being read
+    private int ahead;
+
+    /**
+     * Creates a read-ahead whose window grows up to maxWindow pages.
+     *
+     * @param maxWindow the largest number of pages to keep ahead of the scan
+     *   (at least 1)
+     */
+    public ReadAhead(int maxWindow) {
+        this.maxWindow = Math.max(1, Math.min(maxWindow, MAX_WINDOW));
+        reset();
+    }
+
+    /** @return the largest number of pages kept ahead of the scan */
+    public int getMaxWindow() {
+        return maxWindow;
+    }
+
+    /**
+     * Records that the scan moved on to its next page.
+     *
+     * @return the number of pages after the ones already requested that
+     *   should be prefetched now, or 0 if none
+     */
+    public int next() {
+        run++;
+        if (ahead > 0)
+            ahead--;
+        if (run < TRIGGER || ahead > window / 2)
+            return 0;
+        int n = window - ahead;
+        ahead = window;
+        window = Math.min(window * 2, maxWindow);
+        return n;
+    }
+
+    /**
+     * Starts over, as for a scan that is rewound to its first page.
+     */
+    public void reset() {
+        window = Math.min(MIN_WINDOW, maxWindow);
+        run = 0;
+        ahead = 0;
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs room for a new one. The BufferPool reports every page that enters
+ * the pool, is hit in the pool, or leaves the pool; the policy keeps whatever
+ * history it needs and, when asked, names a single victim among the pages the
+ * BufferPool is currently willing to evict.
+ * <p>
+ * Implementations must tolerate notifications for pages they have never seen
+ * (for example, pages that were put in the pool by insertTuple) and must be
+ * safe to call from several threads.
+ *
+ * @see BufferPool#evictPage
+ * @see ClockReplacementPolicy
+ * @see LRUKReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Restricts the pages that chooseVictim may return. The BufferPool uses
+     * this, for instance, to look for clean pages before dirty ones.
+     */
+    public interface Candidates {
+        /** @return true if the page with the given id may be evicted */
+        public boolean isEvictable(PageId pid);
+    }
+
+    /**
+     * Called when a page is added to the buffer pool.
+     *
+     * @param pid the id of the page that was added
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Called when a page that is already resident is requested again.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool, either because it was
+     * evicted or because it was discarded.
+     *
+     * @param pid the id of the page that was removed
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Pick the page that should be evicted next. The page stays tracked by
+     * the policy until pageRemoved is called for it.
+     *
+     * @param candidates the filter a victim must pass
+     * @return the id of the page to evict, or null if no tracked page passes
+     *   the filter
+     */
+    public PageId chooseVictim(Candidates candidates);
+
+    /**
+     * Most pages a policy looks at for a preferred victim once it has found
+     * a fallback one, in {@link #chooseVictim(Candidates, Candidates)}.
+     */
+    public static final int PREFERRED_SEARCH_LIMIT = 32;
+
+    /**
+     * Pick the page that should be evicted next among the preferred pages,
+     * or among the fallback pages if there is no preferred one, as the
+     * BufferPool does to evict clean pages before dirty ones. Policies
+     * should do this in a single pass over their pages, and may settle for
+     * a fallback page once PREFERRED_SEARCH_LIMIT more pages failed to be
+     * preferred ones.
+     *
+     * @param preferred the filter a victim should pass
+     * @param fallback the filter a victim must pass otherwise; every
+     *   preferred page passes it too
+     * @return the id of the page to evict, or null if no tracked page passes
+     *   either filter
+     */
+    public default PageId chooseVictim(Candidates preferred, Candidates fallback) {
+        PageId victim = chooseVictim(preferred);
+        return victim != null ? victim : chooseVictim(fallback);
+    }
+}
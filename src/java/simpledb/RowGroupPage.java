@@ -0,0 +1,153 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * RowGroupPage records which rows of a row group of a {@link ColumnFile}
+ * are in use. The values of a row are stored in the {@link ColumnPage}s of
+ * the group, at the row's position. Rows are only ever appended, so their
+ * positions never change: a deleted row keeps its position, marked unused.
+ * <p>
+ * The page is stored as the number of rows appended to the group, an int,
+ * followed by a bitmap with one bit per row, set while the row is in use.
+ * A page of all zeros is an empty row group.
+ *
+ * @see ColumnFile
+ */
+public class RowGroupPage implements Page {
+
+    final ColumnPageId pid;
+    private final int capacity;
+    private int count;
+    private final byte[] bitmap;
+
+    private volatile TransactionId dirtier;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a RowGroupPage from a set of bytes of data read from disk.
+     *
+     * @param id the id of the page; its column is ColumnPageId.ROWS
+     * @param data the stored page, at least size(rows per group) bytes
+     * @throws IOException if the data is too short
+     */
+    public RowGroupPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.capacity = ((ColumnFile) Database.getCatalog().getDatabaseFile(id.getTableId()))
+                .getRowsPerGroup();
+        if (data.length < size(capacity))
+            throw new IOException("row group data is only " + data.length + " bytes");
+        this.count = ByteBuffer.wrap(data).getInt(0);
+        this.bitmap = Arrays.copyOfRange(data, 4, size(capacity));
+        setBeforeImage();
+    }
+
+    /**
+     * @return the size of a stored RowGroupPage of a file with the given
+     *   number of rows per group
+     */
+    public static int size(int rowsPerGroup) {
+        return 4 + (rowsPerGroup + 7) / 8;
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of rows appended to the group, deleted or not
+     */
+    public synchronized int getNumRows() {
+        return count;
+    }
+
+    /**
+     * @return true if no more rows can be appended to the group
+     */
+    public synchronized boolean isFull() {
+        return count >= capacity;
+    }
+
+    /**
+     * @return true if the row at the given position is in use
+     */
+    public synchronized boolean isRowUsed(int row) {
+        return row >= 0 && row < count && (bitmap[row / 8] & (1 << (row % 8))) != 0;
+    }
+
+    /**
+     * @return the positions of the rows in use, in ascending order
+     */
+    public synchronized int[] usedRows() {
+        int[] rows = new int[count];
+        int n = 0;
+        for (int r = 0; r < count; r++)
+            if ((bitmap[r / 8] & (1 << (r % 8))) != 0)
+                rows[n++] = r;
+        return Arrays.copyOf(rows, n);
+    }
+
+    /**
+     * Appends a row to the group and marks it in use. The caller stores its
+     * values in the ColumnPages of the group at the returned position.
+     *
+     * @return the position of the new row, or -1 if the group is full
+     */
+    public synchronized int appendRow() {
+        if (count >= capacity)
+            return -1;
+        int row = count++;
+        bitmap[row / 8] |= 1 << (row % 8);
+        return row;
+    }
+
+    /**
+     * Marks the row at the given position unused.
+     *
+     * @throws DbException if the row is not in use
+     */
+    public synchronized void deleteRow(int row) throws DbException {
+        if (!isRowUsed(row))
+            throw new DbException("row " + row + " of " + pid + " is not in use");
+        bitmap[row / 8] &= ~(1 << (row % 8));
+    }
+
+    public synchronized byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(size(capacity));
+        buf.putInt(count);
+        buf.put(bitmap);
+        return buf.array();
+    }
+
+    public RowGroupPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new RowGroupPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+/**
+ * ScanRing is a small private ring of buffer pool frames used by a large
+ * sequential scan, in the spirit of PostgreSQL's buffer access strategies.
+ * Pages that a scan brings into the BufferPool through a ring are recycled
+ * by that same scan once it has moved on, instead of pushing out pages
+ * that other transactions are using. A page stops belonging to the ring as
+ * soon as it is requested by an ordinary (non-ring) getPage call, so pages
+ * that turn out to be shared are left to the regular replacement policy.
+ * <p>
+ * A ScanRing belongs to a single iterator and is not thread-safe.
+ *
+ * @see BufferPool#getScanRing
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, ScanRing)
+ */
+public class ScanRing {
+
+    /** Largest number of frames a ring ever uses. */
+    public static final int MAX_SIZE = 8;
+
+    private final PageId[] frames;
+    private int next;
+
+    /**
+     * Creates a ring with the given number of frames.
+     *
+     * @param size the number of frames in the ring (at least 1)
+     */
+    public ScanRing(int size) {
+        frames = new PageId[Math.max(size, 1)];
+        next = 0;
+    }
+
+    /** @return the number of frames in this ring */
+    public int size() {
+        return frames.length;
+    }
+
+    /**
+     * @return the page that occupies the frame the next page will be loaded
+     *   into, or null if that frame has not been used yet
+     */
+    PageId nextToRecycle() {
+        return frames[next];
+    }
+
+    /**
+     * Records that pid was loaded into the current frame and advances the
+     * ring to the next frame.
+     */
+    void loaded(PageId pid) {
+        frames[next] = pid;
+        next = (next + 1) % frames.length;
+    }
+}
@@ -0,0 +1,223 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A secondary index on a field of a HeapFile table: a BTreeFile with an
+ * entry for every tuple of the table, made of the tuple's value of the
+ * field and the page and slot of its RecordId, keyed on the value. Unlike
+ * a BTreeFile table, the index does not hold the tuples themselves, so a
+ * table may have an index on any number of its fields.
+ * <p>
+ * Indexes are kept in the Catalog with their table, and the BufferPool
+ * adds and removes the entries of the tuples it inserts into and deletes
+ * from the table, as part of the same transaction. The index pages are
+ * locked, logged and recovered like those of any other BTreeFile.
+ *
+ * @see Catalog#addIndex
+ * @see SecondaryIndexScan
+ */
+public class SecondaryIndex {
+
+    /** The fraction of each page filled when an index is built. */
+    public static final double FILL_FACTOR = 0.7;
+
+    private final int tableId;
+    private final int field;
+    private final BTreeFile file;
+
+    /**
+     * Opens an index over a file that already holds the entries of all
+     * tuples of the table.
+     *
+     * @param tableId the table the index is on
+     * @param field the index of the field in the table's TupleDesc
+     * @param f the file of the index
+     */
+    public SecondaryIndex(int tableId, int field, File f) {
+        this(tableId, field, new BTreeFile(f, 0,
+                entryTupleDesc(Database.getCatalog().getTupleDesc(tableId), field)));
+    }
+
+    private SecondaryIndex(int tableId, int field, BTreeFile file) {
+        this.tableId = tableId;
+        this.field = field;
+        this.file = file;
+    }
+
+    /**
+     * Builds an index on a field of a table, with the entries of all tuples
+     * the table holds, bottom-up from the sorted entries. The table is read
+     * on behalf of tid, which keeps its locks on the table's pages, so the
+     * index stays complete as long as it is added to the Catalog before tid
+     * commits.
+     *
+     * @param tid the transaction reading the table
+     * @param tableId the table to index, which must be a HeapFile
+     * @param field the index of the field in the table's TupleDesc
+     * @param f the file to write the index to; it is overwritten
+     * @return the index, not yet added to the Catalog
+     * @see BTreeFileEncoder#convert(DbIterator, File, File, int, double)
+     */
+    public static SecondaryIndex create(TransactionId tid, int tableId, int field, File f)
+            throws IOException, DbException, TransactionAbortedException {
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile))
+            throw new DbException("Only heap files can have secondary indexes");
+        File runs = File.createTempFile("index", ".runs");
+        try {
+            BTreeFile bf = BTreeFileEncoder.convert(new Entries(tableId, field,
+                    new SeqScan(tid, tableId)), runs, f, 0, FILL_FACTOR);
+            return new SecondaryIndex(tableId, field, bf);
+        } finally {
+            runs.delete();
+        }
+    }
+
+    /**
+     * @return the TupleDesc of the entries of an index on the given field
+     *   of a table with TupleDesc td: the field, then the page and slot of
+     *   the tuple's RecordId
+     */
+    public static TupleDesc entryTupleDesc(TupleDesc td, int field) {
+        return new TupleDesc(new Type[] { td.getFieldType(field), Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { td.getFieldName(field), "rid_page", "rid_slot" });
+    }
+
+    /** @return the id of the table the index is on */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the index of the indexed field in the table's TupleDesc */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the BTreeFile holding the entries */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    /**
+     * @return the RecordId of the tuple an entry of this index stands for
+     */
+    public RecordId recordId(Tuple entry) {
+        return new RecordId(new HeapPageId(tableId, ((IntField) entry.getField(1)).getValue()),
+                ((IntField) entry.getField(2)).getValue());
+    }
+
+    /**
+     * Reads the tuple an entry of this index stands for from its heap page.
+     *
+     * @param tid the transaction reading the tuple
+     * @param entry an entry of this index
+     * @throws DbException if the entry's slot is empty
+     */
+    public Tuple fetch(TransactionId tid, Tuple entry)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = recordId(entry);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                Permissions.READ_ONLY);
+        Tuple t = page.getTuple(rid.tupleno());
+        if (t == null)
+            throw new DbException("index entry for an empty slot " + rid);
+        return t;
+    }
+
+    /**
+     * Adds the entry of a tuple that was inserted into the table.
+     *
+     * @param t the tuple, with the RecordId it was inserted at
+     */
+    void insert(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Database.getBufferPool().insertTuple(tid, file.getId(),
+                entry(file.getTupleDesc(), t.getField(field), t.getRecordId()));
+    }
+
+    /**
+     * Removes the entry of a tuple that was deleted from the table.
+     *
+     * @param key the tuple's value of the indexed field
+     * @param rid the RecordId the tuple had
+     * @throws DbException if the index has no entry for the tuple
+     */
+    void delete(TransactionId tid, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, key));
+        Tuple found = null;
+        it.open();
+        try {
+            while (found == null && it.hasNext()) {
+                Tuple e = it.next();
+                if (recordId(e).equals(rid))
+                    found = e;
+            }
+        } finally {
+            it.close();
+        }
+        if (found == null)
+            throw new DbException("no index entry for " + rid);
+        Database.getBufferPool().deleteTuple(tid, found);
+    }
+
+    private static Tuple entry(TupleDesc td, Field key, RecordId rid) {
+        Tuple e = new Tuple(td);
+        e.setField(0, key);
+        e.setField(1, new IntField(rid.getPageId().pageNumber()));
+        e.setField(2, new IntField(rid.tupleno()));
+        return e;
+    }
+
+    /**
+     * The entries of the tuples of a table, read through a scan of it.
+     */
+    private static class Entries extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int field;
+        private final TupleDesc td;
+        private DbIterator child;
+
+        Entries(int tableId, int field, DbIterator child) {
+            this.field = field;
+            this.td = entryTupleDesc(Database.getCatalog().getTupleDesc(tableId), field);
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (!child.hasNext())
+                return null;
+            Tuple t = child.next();
+            return entry(td, t.getField(field), t.getRecordId());
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child };
+        }
+
+        public void setChildren(DbIterator[] children) {
+            child = children[0];
+        }
+    }
+}
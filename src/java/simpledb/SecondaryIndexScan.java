@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * SecondaryIndexScan reads the tuples of a table that satisfy a predicate
+ * on an indexed field through the table's {@link SecondaryIndex}, in the
+ * order of the field. For each matching index entry it fetches the tuple
+ * from the heap page the entry's RecordId points to.
+ * <p>
+ * An index-only scan does not fetch the tuples: it returns tuples with
+ * only the indexed field set, and the RecordId of the tuple, which is
+ * enough for a plan that reads no other field of the table.
+ */
+public class SecondaryIndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private final String alias;
+    private final IndexPredicate ipred;
+    private final boolean indexOnly;
+    private final TupleDesc tableTd;
+    private final TupleDesc myTd;
+    private transient DbFileIterator it;
+    private boolean isOpen = false;
+
+    /**
+     * Creates a scan of a table through one of its indexes.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to read the table through
+     * @param tableAlias
+     *            the alias of the table; the returned tupleDesc has fields
+     *            with name tableAlias.fieldName, as that of a SeqScan
+     * @param ipred
+     *            the predicate on the indexed field to match, or null to
+     *            return all tuples in the order of the field
+     * @param indexOnly
+     *            true to set only the indexed field of the returned tuples
+     *            instead of fetching them from the table
+     */
+    public SecondaryIndexScan(TransactionId tid, SecondaryIndex index, String tableAlias,
+            IndexPredicate ipred, boolean indexOnly) {
+        this.tid = tid;
+        this.index = index;
+        this.alias = tableAlias;
+        this.ipred = ipred;
+        this.indexOnly = indexOnly;
+        this.tableTd = Database.getCatalog().getTupleDesc(index.getTableId());
+        Type[] types = new Type[tableTd.numFields()];
+        String[] names = new String[tableTd.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = tableTd.getFieldType(i);
+            names[i] = tableAlias + "." + tableTd.getFieldName(i);
+        }
+        this.myTd = new TupleDesc(types, names);
+    }
+
+    /** @return the index this scan reads */
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    /** @return the name of the table this scan reads in the catalog */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /** @return the alias of the table this scan reads */
+    public String getAlias() {
+        return alias;
+    }
+
+    /** @return the predicate on the indexed field, or null if there is none */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /** @return true if this scan does not fetch the tuples from the table */
+    public boolean isIndexOnly() {
+        return indexOnly;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one DbIterator.");
+        BTreeFile f = index.getFile();
+        it = ipred == null ? f.iterator(tid) : f.indexIterator(tid, ipred);
+        it.open();
+        isOpen = true;
+    }
+
+    /**
+     * Returns the TupleDesc of the table, with field names prefixed with the
+     * tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        Tuple entry = it.next();
+        if (!indexOnly)
+            return index.fetch(tid, entry);
+        Tuple t = new Tuple(tableTd);
+        t.setField(index.getField(), entry.getField(0));
+        t.setRecordId(index.recordId(entry));
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        isOpen = false;
+    }
+
+    /**
+     * @return true if the plan reads a table through a secondary index.
+     *   An operator that changes a table must read all tuples of such a
+     *   plan before its first change, since the changes add or remove the
+     *   index entries the plan is still reading.
+     */
+    static boolean readsIndex(DbIterator plan) {
+        if (plan instanceof SecondaryIndexScan)
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator c : ((Operator) plan).getChildren()) {
+                if (c != null && readsIndex(c))
+                    return true;
+            }
+        }
+        return false;
+    }
+}
@@ -16,6 +16,9 @@ public class SeqScan implements DbIterator {
     private String tableAlias; // alias for table
     private DbFile db_file; // file from which it starts reading
     private DbFileIterator db_iter; // the iterator for reading
+    private int[] fields; // the fields the plan reads, or null if not known
+    // predicates the plan applies to the scanned tuples, see pushDown
+    private ArrayList<Predicate> predicates = new ArrayList<Predicate>();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -34,12 +37,52 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table, of whose tuples
+     * only the given fields will be read. A HeapFile decodes those fields
+     * a page at a time and the others not at all, unless they are read
+     * anyway.
+     *
+     * @param fields
+     *            the indexes of the fields the plan reads, or null if it may
+     *            read any of them
+     * @see HeapFile#iterator(TransactionId, int[])
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
         // some code goes here
     	this.tid = tid;
     	this.tableid = tableid;
     	this.tableAlias = tableAlias;
+    	this.fields = fields;
     	this.db_file = Database.getCatalog().getDatabaseFile(tableid);
-    	this.db_iter = db_file.iterator(tid);
+    	this.db_iter = newIterator();
+    }
+
+    /**
+     * Tells the scan that the plan keeps only the tuples that satisfy p, so
+     * that it may skip the parts of the table in which none does. A
+     * ColumnFile skips the row groups its zone map rules out, and returns
+     * only the tuples that satisfy p; other files return all their tuples,
+     * so the plan must still filter them. Must be called before open().
+     *
+     * @param p a predicate on a field of the table, by its index in the
+     *   table's TupleDesc
+     * @see ColumnFile#iterator(TransactionId, int[], List)
+     */
+    public void pushDown(Predicate p) {
+    	predicates.add(p);
+    	this.db_iter = newIterator();
+    }
+
+    private DbFileIterator newIterator() {
+    	if (db_file instanceof ColumnFile)
+    		return ((ColumnFile) db_file).iterator(tid, fields, predicates);
+    	if (fields != null && db_file instanceof HeapFile)
+    		return ((HeapFile) db_file).iterator(tid, fields);
+    	return db_file.iterator(tid);
     }
 
     /**
@@ -79,8 +122,11 @@ public class SeqScan implements DbIterator {
         // some code goes here
     	this.tableid = tableid;
     	this.tableAlias = tableAlias;
+    	// the fields and predicates were those of the old table
+    	this.fields = null;
+    	this.predicates = new ArrayList<Predicate>();
     	this.db_file = Database.getCatalog().getDatabaseFile(tableid);
-    	this.db_iter = db_file.iterator(this.tid);
+    	this.db_iter = newIterator();
     }
 
     public SeqScan(TransactionId tid, int tableid) {
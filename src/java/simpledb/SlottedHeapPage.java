@@ -0,0 +1,295 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapPage is a HeapPage whose tuples are variable-length records,
+ * found through a slot directory. A string takes two bytes for its length
+ * plus one byte per character, instead of Type.STRING_LEN bytes whatever
+ * its length, so tables of short strings fit many more tuples on a page.
+ * <p>
+ * The page starts with a header of two unsigned shorts: the number of
+ * entries in the slot directory, and the offset where the records start.
+ * The directory follows the header and grows towards the end of the page;
+ * the records are stored at the end of the page and grow towards the
+ * directory. Each directory entry holds the offset and length of the
+ * record in its slot, or zeros if the slot is empty. A record stores its
+ * fields in order: an int as four bytes, a string as its length in two
+ * bytes followed by its characters.
+ * <p>
+ * The slot of a tuple never changes while it is on the page, so RecordIds
+ * stay valid. Deleting a tuple leaves a hole among the records; when an
+ * insert finds no contiguous room but enough room in total, the records
+ * are first moved together at the end of the page. A page of all zeros is
+ * an empty page, and pages are at most MAX_PAGE_SIZE bytes.
+ *
+ * @see PageFormat#SLOTTED
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    /** The largest page size the format can address. */
+    public static final int MAX_PAGE_SIZE = 1 << 16;
+
+    private static final int HEADER_SIZE = 4;
+    private static final int ENTRY_SIZE = 4;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        checkSize(pageSize);
+    }
+
+    /**
+     * Create a SlottedHeapPage over a buffer that holds the bytes of the
+     * page.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) {
+        super(id, data);
+        checkSize(data.capacity());
+    }
+
+    private static void checkSize(int pageSize) {
+        if (pageSize > MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("slotted pages are at most " + MAX_PAGE_SIZE + " bytes");
+    }
+
+    @Override
+    HeapPage withData(ByteBuffer data) {
+        return new SlottedHeapPage(pid, data);
+    }
+
+    @Override
+    int slotCount(ByteBuffer buf) {
+        return entries(buf);
+    }
+
+    @Override
+    boolean slotUsed(ByteBuffer buf, int i) {
+        return i < entries(buf) && recordOffset(buf, i) != 0;
+    }
+
+    /**
+     * Returns the number of tuples of the shortest possible size, those
+     * with all strings empty, that still fit on the page.
+     */
+    @Override
+    int countEmptySlots(ByteBuffer buf) {
+        int n = entries(buf);
+        int emptyEntries = 0;
+        int free = buf.capacity() - HEADER_SIZE - n * ENTRY_SIZE;
+        for (int i = 0; i < n; i++) {
+            if (recordOffset(buf, i) == 0)
+                emptyEntries++;
+            else
+                free -= recordLength(buf, i);
+        }
+        int min = minRecordSize(td);
+        // empty directory entries are used first, then new ones are added
+        int fit = Math.min(emptyEntries, Math.max(0, free) / min);
+        free -= fit * min;
+        if (fit == emptyEntries)
+            fit += Math.max(0, free) / (min + ENTRY_SIZE);
+        return fit;
+    }
+
+    @Override
+    Field readField(ByteBuffer buf, int slotId, int i) {
+        int offset = recordOffset(buf, slotId);
+        for (int j = 0; j < i; j++)
+            offset += fieldSize(buf, offset, td.getFieldType(j));
+        if (td.getFieldType(i) == Type.INT_TYPE)
+            return new IntField(buf.getInt(offset));
+        int len = Math.min(Type.STRING_LEN, buf.getShort(offset) & 0xffff);
+        byte[] bs = new byte[len];
+        for (int k = 0; k < len; k++)
+            bs[k] = buf.get(offset + 2 + k);
+        return new StringField(new String(bs), Type.STRING_LEN);
+    }
+
+    @Override
+    int findSlot(ByteBuffer buf, Field[] fields) {
+        return findSlot(buf, recordSize(td, fields));
+    }
+
+    @Override
+    void writeRecord(ByteBuffer buf, int slotId, Field[] fields) {
+        putRecord(buf, slotId, td, fields, recordSize(td, fields));
+    }
+
+    @Override
+    void clearRecord(ByteBuffer buf, int slotId) {
+        int offset = recordOffset(buf, slotId);
+        int length = recordLength(buf, slotId);
+        for (int k = 0; k < length; k++)
+            buf.put(offset + k, (byte) 0);
+        setEntry(buf, slotId, 0, 0);
+        if (offset == recordsStart(buf))
+            setRecordsStart(buf, offset + length);
+        // drop empty entries from the end of the directory
+        int n = entries(buf);
+        while (n > 0 && recordOffset(buf, n - 1) == 0)
+            n--;
+        buf.putShort(0, (short) n);
+        if (n == 0)
+            setRecordsStart(buf, buf.capacity());
+    }
+
+    /**
+     * Adds a tuple with the given fields to a page of this format held in
+     * buf, without going through a SlottedHeapPage. Used to build pages
+     * outside of the database, as HeapFileEncoder does.
+     *
+     * @param buf the page; its capacity is the page size
+     * @param td the schema of the tuple
+     * @param fields the fields of the tuple
+     * @return false if the page has no room for the tuple
+     */
+    public static boolean addRecord(ByteBuffer buf, TupleDesc td, Field[] fields) {
+        int size = recordSize(td, fields);
+        int slot = findSlot(buf, size);
+        if (slot < 0)
+            return false;
+        putRecord(buf, slot, td, fields, size);
+        return true;
+    }
+
+    /** @return the number of directory entries, capped by the page size */
+    private static int entries(ByteBuffer buf) {
+        return Math.min(buf.getShort(0) & 0xffff, (buf.capacity() - HEADER_SIZE) / ENTRY_SIZE);
+    }
+
+    /** @return the offset of the first record; the page end if there is none */
+    private static int recordsStart(ByteBuffer buf) {
+        int start = buf.getShort(2) & 0xffff;
+        return start == 0 ? buf.capacity() : Math.min(start, buf.capacity());
+    }
+
+    private static void setRecordsStart(ByteBuffer buf, int start) {
+        // the page end is stored as 0, which also fits a 64KB page
+        buf.putShort(2, (short) (start == buf.capacity() ? 0 : start));
+    }
+
+    private static int recordOffset(ByteBuffer buf, int slotId) {
+        return buf.getShort(HEADER_SIZE + slotId * ENTRY_SIZE) & 0xffff;
+    }
+
+    private static int recordLength(ByteBuffer buf, int slotId) {
+        return buf.getShort(HEADER_SIZE + slotId * ENTRY_SIZE + 2) & 0xffff;
+    }
+
+    private static void setEntry(ByteBuffer buf, int slotId, int offset, int length) {
+        buf.putShort(HEADER_SIZE + slotId * ENTRY_SIZE, (short) offset);
+        buf.putShort(HEADER_SIZE + slotId * ENTRY_SIZE + 2, (short) length);
+    }
+
+    /** @return the size of the field of the given type stored at offset */
+    private static int fieldSize(ByteBuffer buf, int offset, Type type) {
+        if (type == Type.INT_TYPE)
+            return 4;
+        return 2 + Math.min(Type.STRING_LEN, buf.getShort(offset) & 0xffff);
+    }
+
+    private static int minRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            size += td.getFieldType(j) == Type.INT_TYPE ? 4 : 2;
+        return size;
+    }
+
+    private static int recordSize(TupleDesc td, Field[] fields) {
+        int size = 0;
+        for (int j = 0; j < fields.length; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                size += 4;
+            else
+                size += 2 + Math.min(Type.STRING_LEN, ((StringField) fields[j]).getValue().length());
+        }
+        return size;
+    }
+
+    /**
+     * @return the slot a record of the given size can go in, or -1 if the
+     *   page does not have that much room, even after compaction
+     */
+    private static int findSlot(ByteBuffer buf, int size) {
+        int n = entries(buf);
+        int slot = n;
+        int free = buf.capacity() - HEADER_SIZE - n * ENTRY_SIZE;
+        for (int i = 0; i < n; i++) {
+            if (recordOffset(buf, i) != 0)
+                free -= recordLength(buf, i);
+            else if (slot == n)
+                slot = i;
+        }
+        if (slot == n)
+            size += ENTRY_SIZE;
+        return free >= size ? slot : -1;
+    }
+
+    /**
+     * Stores a record in a slot returned by findSlot, compacting the page
+     * first if the free space between the directory and the records is too
+     * small.
+     */
+    private static void putRecord(ByteBuffer buf, int slotId, TupleDesc td, Field[] fields, int size) {
+        int n = entries(buf);
+        if (slotId == n) {
+            n++;
+            buf.putShort(0, (short) n);
+            setEntry(buf, slotId, 0, 0);
+        }
+        if (recordsStart(buf) - (HEADER_SIZE + n * ENTRY_SIZE) < size)
+            compact(buf);
+        int offset = recordsStart(buf) - size;
+        int pos = offset;
+        for (int j = 0; j < fields.length; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                buf.putInt(pos, ((IntField) fields[j]).getValue());
+                pos += 4;
+            } else {
+                String s = ((StringField) fields[j]).getValue();
+                int len = Math.min(Type.STRING_LEN, s.length());
+                buf.putShort(pos, (short) len);
+                // the low byte of each char, as Type.STRING_TYPE stores it
+                for (int k = 0; k < len; k++)
+                    buf.put(pos + 2 + k, (byte) s.charAt(k));
+                pos += 2 + len;
+            }
+        }
+        setEntry(buf, slotId, offset, size);
+        setRecordsStart(buf, offset);
+    }
+
+    /**
+     * Moves all records together at the end of the page, leaving the free
+     * space in one piece between the directory and the records.
+     */
+    private static void compact(ByteBuffer buf) {
+        int n = entries(buf);
+        byte[] old = new byte[buf.capacity()];
+        ByteBuffer dup = buf.duplicate();
+        dup.clear();
+        dup.get(old);
+        int end = buf.capacity();
+        for (int i = 0; i < n; i++) {
+            int offset = recordOffset(buf, i);
+            if (offset == 0)
+                continue;
+            int length = recordLength(buf, i);
+            end -= length;
+            for (int k = 0; k < length; k++)
+                buf.put(end + k, old[offset + k]);
+            setEntry(buf, i, end, length);
+        }
+        for (int k = HEADER_SIZE + n * ENTRY_SIZE; k < end; k++)
+            buf.put(k, (byte) 0);
+        setRecordsStart(buf, end);
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.io.File;
+
+/**
+ * StorageMode is the way a DbFile keeps its pages in its file on disk. It
+ * is chosen per table, when the file is created, and decides which kind of
+ * DbFileChannel the pages are read and written through.
+ *
+ * @see HeapFile#HeapFile(File, TupleDesc, StorageMode, PageFormat)
+ * @see BTreeFile#BTreeFile(File, int, TupleDesc, StorageMode)
+ */
+public enum StorageMode {
+
+    /** Each page is stored as it is, at a fixed offset in the file. */
+    PLAIN {
+        @Override
+        public DbFileChannel open(File f, int headerBytes, int pageBytes) {
+            return new DbFileChannel(f);
+        }
+    },
+
+    /**
+     * Like PLAIN, but pages are read from a memory mapping of the file.
+     * Suits tables that are read much more than they are written.
+     */
+    MAPPED {
+        @Override
+        public DbFileChannel open(File f, int headerBytes, int pageBytes) {
+            return new DbFileChannel(f, true);
+        }
+    },
+
+    /**
+     * Pages are compressed on disk and found through a page map, so that
+     * scans of cold tables read fewer bytes. See {@link CompressedFileChannel}.
+     */
+    COMPRESSED {
+        @Override
+        public DbFileChannel open(File f, int headerBytes, int pageBytes) {
+            return new CompressedFileChannel(f, headerBytes, pageBytes);
+        }
+    },
+
+    /**
+     * Like PLAIN, but pages bypass the operating system's cache where the
+     * file system allows it, so that scans of large tables do not evict
+     * the cached pages of other files. See {@link DirectFileChannel}.
+     */
+    DIRECT {
+        @Override
+        public DbFileChannel open(File f, int headerBytes, int pageBytes) {
+            return new DirectFileChannel(f);
+        }
+    };
+
+    /**
+     * Creates the channel the pages of a file in this mode go through.
+     *
+     * @param f the file
+     * @param headerBytes the size of the block at the start of the file
+     *   that comes before the first page, or 0 if there is none
+     * @param pageBytes the size of a page
+     */
+    public abstract DbFileChannel open(File f, int headerBytes, int pageBytes);
+}
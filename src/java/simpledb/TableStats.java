@@ -93,7 +93,7 @@ public class TableStats {
         DbFile f = Database.getCatalog().getDatabaseFile(tableid);
         td = f.getTupleDesc();
 
-        if (!(f instanceof HeapFile)) {
+        if (!(f instanceof HeapFile) && !(f instanceof ColumnFile) && !(f instanceof BTreeFile)) {
             basePages = 0;
             baseTups = 0;
             this.costPerPageIO=ioCostPerPage;
@@ -142,7 +142,12 @@ public class TableStats {
             }
         }
 
-        basePages = ((HeapFile) f).numPages();
+        if (f instanceof ColumnFile)
+            basePages = ((ColumnFile) f).numPages();
+        else if (f instanceof BTreeFile)
+            basePages = ((BTreeFile) f).numPages();
+        else
+            basePages = ((HeapFile) f).numPages();
         int count = 0;
         try {
             Transaction t = new Transaction();
@@ -189,6 +194,47 @@ public class TableStats {
         //return 0;
     }
 
+    /**
+     * Estimates the cost of reading the tuples of the table that satisfy a
+     * predicate with selectivity selectivityFactor through a secondary index
+     * on the table: a descent from the root of the index to a leaf, the
+     * share of the index's pages the matching entries are on, and, unless
+     * the scan is index-only, a page read for each matching tuple, since the
+     * tuples are not stored in the order of the index.
+     *
+     * @param index
+     *            the index the scan reads
+     * @param selectivityFactor
+     *            The selectivity of the predicate the index matches
+     * @param indexOnly
+     *            true if the scan does not fetch the tuples from the table
+     * @return The estimated cost of the index scan, comparable to
+     *         {@link #estimateScanCost()}
+     * @see SecondaryIndexScan
+     */
+    public double estimateIndexScanCost(SecondaryIndex index, double selectivityFactor,
+            boolean indexOnly) {
+        double cost = estimateIndexProbeCost(index.getFile(), selectivityFactor);
+        if (!indexOnly)
+            cost += estimateTableCardinality(selectivityFactor) * costPerPageIO;
+        return cost;
+    }
+
+    /**
+     * Estimates the cost of looking up the entries of a B+ tree that satisfy
+     * a predicate with selectivity selectivityFactor: a descent from the root
+     * to a leaf, and the share of the tree's pages the entries are on.
+     *
+     * @param tree
+     *            the B+ tree, either this table or an index on it
+     * @param selectivityFactor
+     *            The selectivity of the predicate the lookup matches
+     * @return The estimated cost of the lookup
+     */
+    public double estimateIndexProbeCost(BTreeFile tree, double selectivityFactor) {
+        return (tree.estimateDepth() + Math.ceil(tree.numPages() * selectivityFactor)) * costPerPageIO;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
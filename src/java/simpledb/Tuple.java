@@ -4,12 +4,16 @@ import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.ArrayList;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple can also be a lazy view of a record stored somewhere else, such as
+ * a slot of a HeapPage: its fields are then decoded by loadField the first
+ * time they are asked for, so that a scan whose predicate looks at one field
+ * does not decode the others.
  */
 public class Tuple implements Serializable {
 
@@ -17,7 +21,8 @@ public class Tuple implements Serializable {
     
     private TupleDesc schema;  // store the tuple schema
     private RecordId rec_id; // store the record id for that tuple
-    private ArrayList<Field> tuple_fields; // store the actual fields
+    private Field[] tuple_fields; // store the actual fields; null until first used in a lazy tuple
+    private final boolean lazy; // fields that are not set yet come from loadField
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -28,17 +33,44 @@ public class Tuple implements Serializable {
      */
     public Tuple(TupleDesc td) {
         // some code goes here
-    	
+    	lazy = false;
     	if(td.numFields()==0)
     		return;
     	
     	schema = td;
-    	tuple_fields = new ArrayList<Field>();
-    	for(int i=0;i<schema.numFields();++i)
-    	{
-    		Field f=null;
-    		tuple_fields.add(f);
-    	}	
+    	tuple_fields = new Field[schema.numFields()];
+    }
+
+    /**
+     * Create a lazy tuple, whose fields are loaded through loadField when
+     * they are first read, unless they have been set before.
+     *
+     * @param td
+     *            the schema of this tuple
+     * @param rid
+     *            the RecordId of this tuple; may be null
+     */
+    Tuple(TupleDesc td, RecordId rid) {
+    	lazy = true;
+    	schema = td;
+    	rec_id = rid;
+    }
+
+    /**
+     * Loads the value of the ith field of a lazy tuple. Subclasses that
+     * create lazy tuples must override this.
+     *
+     * @param i
+     *            index of the field, a valid index
+     */
+    Field loadField(int i) {
+    	throw new UnsupportedOperationException();
+    }
+
+    private Field[] fieldArray() {
+    	if (tuple_fields == null && lazy)
+    		tuple_fields = new Field[schema.numFields()];
+    	return tuple_fields;
     }
 
     /**
@@ -79,8 +111,9 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-    	if(i>=0 && i< tuple_fields.size())  // sanity check
-    		tuple_fields.set(i,f);
+    	Field[] fields = fieldArray();
+    	if(i>=0 && i< fields.length)  // sanity check
+    		fields[i] = f;
     }
 
     /**
@@ -91,13 +124,13 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i)  throws NoSuchElementException  {
         // some code goes here
-        try {
-        	return tuple_fields.get(i);
-        }
-    	catch(Exception e)
-    	{
-    		throw new NoSuchElementException();
-    	}
+        Field[] fields = fieldArray();
+        if (fields == null || i < 0 || i >= fields.length)
+        	throw new NoSuchElementException();
+        Field f = fields[i];
+        if (f == null && lazy)
+        	f = fields[i] = loadField(i);
+        return f;
     }
 
     /**
@@ -113,9 +146,9 @@ public class Tuple implements Serializable {
 //        throw new UnsupportedOperationException("Implement this");
     	String ans = new String();
     	
-    	for(int i=0;i<tuple_fields.size();++i)
+    	for(int i=0;i<schema.numFields();++i)
     	{
-    		ans = ans + tuple_fields.get(i).toString();
+    		ans = ans + getField(i).toString();
     		ans = ans + "\t";
     	}
     	return ans;
@@ -129,7 +162,9 @@ public class Tuple implements Serializable {
     {
         // some code goes here
 //        return null;
-    	return tuple_fields.iterator();
+    	for(int i=0;lazy && i<schema.numFields();++i)
+    		getField(i);
+    	return Arrays.asList(fieldArray()).iterator();
     }
 
     /**
@@ -142,12 +177,10 @@ public class Tuple implements Serializable {
     	if(td.numFields()==0)
     		return;
     	
+    	// fields of a lazy tuple are loaded before the schema changes
+    	for(int i=0;lazy && i<schema.numFields();++i)
+    		getField(i);
     	schema = td;
-    	
-    	for(int i=0;i<schema.numFields();++i)
-    	{
-    		Field f=null;
-    		tuple_fields.add(f);
-    	}
+    	tuple_fields = Arrays.copyOf(fieldArray(), td.numFields());
     }
 }
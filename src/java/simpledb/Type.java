@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
+        @Override
+        public void write(Field f, ByteBuffer buf, int offset) {
+            buf.putInt(offset, ((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +53,29 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            // the length is clamped so that a corrupt or concurrently
+            // overwritten buffer cannot make us read past the field
+            int strLen = Math.max(0, Math.min(STRING_LEN, buf.getInt(offset)));
+            byte bs[] = new byte[strLen];
+            for (int i = 0; i < strLen; i++)
+                bs[i] = buf.get(offset + 4 + i);
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public void write(Field f, ByteBuffer buf, int offset) {
+            String s = ((StringField) f).getValue();
+            if (s.length() > STRING_LEN)
+                s = s.substring(0, STRING_LEN);
+            buf.putInt(offset, s.length());
+            // same encoding as DataOutputStream.writeBytes: the low byte of
+            // each char, padded with zeros
+            for (int i = 0; i < STRING_LEN; i++)
+                buf.put(offset + 4 + i, i < s.length() ? (byte) s.charAt(i) : 0);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +94,23 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer, starting at the given absolute offset.
+   *   The position of the buffer is not changed.
+   * @param buf The buffer to read from
+   * @param offset The offset of the field in the buffer
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * Writes the field into the specified buffer at the given absolute offset,
+   * in the same format as Field.serialize; exactly getLen() bytes are
+   * written. The position of the buffer is not changed.
+   * @param f The field to write; must be of this type
+   * @param buf The buffer to write to
+   * @param offset The offset of the field in the buffer
+   */
+    public abstract void write(Field f, ByteBuffer buf, int offset);
+
 }
@@ -103,6 +103,7 @@ public class Utility {
     public static HeapFile createEmptyHeapFile(String path, int cols)
         throws IOException {
         File f = new File(path);
+        PageChecksums.checksumFile(f).delete();
         // touch the file
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
@@ -0,0 +1,177 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileEncoderTest extends SimpleDbTestBase {
+
+    /**
+     * Tuples that do not fit in one run are spilled to the scratch file in
+     * sorted runs and merged; the tree holds all of them in key order, with
+     * equal keys in the order of the input.
+     */
+    @Test public void externalSort() throws Exception {
+        int rows = 5000;
+        Random rand = new Random(42);
+        File text = File.createTempFile("btree", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        int[] keys = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            keys[i] = rand.nextInt(1000);
+            w.write(keys[i] + "," + i + "\n");
+        }
+        w.close();
+
+        File hFile = File.createTempFile("runs", ".dat");
+        hFile.deleteOnExit();
+        File bFile = File.createTempFile("btree", ".dat");
+        bFile.deleteOnExit();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        BTreeFile bf = BTreeFileEncoder.convert(text, hFile, bFile, BufferPool.getPageSize(),
+                2, types, ',', 0, 700);
+        // the last, partial run stays in memory
+        assertEquals((rows / 700) * 700 * 8L, hFile.length());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int n = 0;
+        int prevKey = Integer.MIN_VALUE;
+        int prevRow = -1;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            int row = ((IntField) t.getField(1)).getValue();
+            assertEquals(keys[row], key);
+            assertTrue(key >= prevKey);
+            if (key == prevKey)
+                assertTrue(row > prevRow);
+            prevKey = key;
+            prevRow = row;
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(rows, n);
+
+        int[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        assertEquals(sorted[rows - 1], prevKey);
+    }
+
+    /**
+     * A file that fits in memory is sorted without the scratch file.
+     */
+    @Test public void inMemorySort() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 3000, null, tuples, 0);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int n = 0;
+        int prevKey = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(key >= prevKey);
+            prevKey = key;
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(tuples.size(), n);
+    }
+
+    /**
+     * @return the keys of the tuples of bf, in the order the tree returns them
+     */
+    private static ArrayList<Integer> scanKeys(BTreeFile bf) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        while (it.hasNext())
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return keys;
+    }
+
+    /**
+     * A tree built bottom-up from an operator holds all of its tuples in key
+     * order, on pages filled to the fill factor, and is a valid tree that
+     * takes inserts. Small pages give it several internal levels.
+     */
+    @Test public void buildFromOperator() throws Exception {
+        BufferPool.setPageSize(256);
+        try {
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, tuples);
+            File hFile = File.createTempFile("runs", ".dat");
+            hFile.deleteOnExit();
+            File bFile = File.createTempFile("btree", ".dat");
+            bFile.deleteOnExit();
+            PageChecksums.checksumFile(bFile).deleteOnExit();
+
+            TransactionId tid = new TransactionId();
+            BTreeFile bf = BTreeFileEncoder.convert(new SeqScan(tid, hf.getId()), hFile, bFile, 0, 0.5, 3000);
+            Database.getBufferPool().transactionComplete(tid);
+            assertTrue(hFile.length() > 0);
+
+            int[] keys = new int[tuples.size()];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = tuples.get(i).get(0);
+            Arrays.sort(keys);
+            ArrayList<Integer> scanned = scanKeys(bf);
+            assertEquals(keys.length, scanned.size());
+            for (int i = 0; i < keys.length; i++)
+                assertEquals(keys[i], (int) scanned.get(i));
+
+            // half-full leaves: about twice as many pages as a full build
+            int perLeaf = BTreeUtility.getNumTuplesPerPage(2);
+            assertTrue(bf.numPages() >= 2 * (keys.length / perLeaf));
+
+            tid = new TransactionId();
+            BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+            for (int i = 0; i < 500; i++)
+                Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(i * 10, 2));
+            BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+            Database.getBufferPool().transactionComplete(tid);
+            assertEquals(keys.length + 500, scanKeys(bf).size());
+        } finally {
+            BufferPool.resetPageSize();
+        }
+    }
+
+    /**
+     * Fill factors that would leave pages less than half full, or overfull,
+     * are refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void fillFactorOutOfRange() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        File bFile = File.createTempFile("btree", ".dat");
+        bFile.deleteOnExit();
+        BTreeFileEncoder.convert(new SeqScan(new TransactionId(), hf.getId()), bFile, bFile, 0, 0.4);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileEncoderTest.class);
+    }
+}
@@ -172,6 +172,57 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		assertTrue(page.getId().pageNumber() == 2 || otherPage.getId().pageNumber() == 2);
 	}
 
+	@Test
+	public void testLockCoupling() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+
+		// the encoder fills the pages, so split the leaf 17 goes to first
+		TransactionId setup = new TransactionId();
+		Database.getBufferPool().insertTuple(setup, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { 17, 17 }));
+		Database.getBufferPool().transactionComplete(setup);
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				null, BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+		BTreePageId rootId = rootPtr.getRootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+
+		// an insert that does not split keeps only the leaf locked
+		Tuple t = BTreeUtility.getBTreeTuple(new int[] { 17, 17 });
+		Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		assertTrue(Database.getBufferPool().holdsLock(tid, t.getRecordId().getPageId()));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootPtr.getId()));
+		assertFalse(Database.getBufferPool().holdsLock(tid, rootId));
+
+		// and so does a search, here of the right-most leaf
+		TransactionId reader = new TransactionId();
+		DbFileIterator it = bf.indexIterator(reader, 
+				new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(BTreeUtility.MAX_RAND_VALUE)));
+		it.open();
+		assertFalse(it.hasNext());
+		assertFalse(Database.getBufferPool().holdsLock(reader, rootPtr.getId()));
+		assertFalse(Database.getBufferPool().holdsLock(reader, rootId));
+		it.close();
+		Database.getBufferPool().transactionComplete(reader);
+
+		// which leaves the root free to be split by another transaction
+		TransactionId other = new TransactionId();
+		Database.getBufferPool().getPage(other, rootId, Permissions.READ_WRITE);
+		Database.getBufferPool().transactionComplete(other);
+	}
+
+	@Test
+	public void testLocksHeldBeforeAreKept() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, rootPtrId, Permissions.READ_ONLY);
+		BTreePageId rootId = rootPtr.getRootId();
+		Database.getBufferPool().getPage(tid, rootId, Permissions.READ_ONLY);
+
+		Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[] { 17, 17 }));
+		assertTrue(Database.getBufferPool().holdsLock(tid, rootPtrId));
+		assertTrue(Database.getBufferPool().holdsLock(tid, rootId));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -313,6 +313,42 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * @return the child findChild(f) should return, found by walking the entries
+	 */
+	private static BTreePageId linearFindChild(BTreeInternalPage page, Field f) {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while (it.hasNext()) {
+			e = it.next();
+			if (f == null || e.getKey().compare(Predicate.Op.GREATER_THAN_OR_EQ, f))
+				return e.getLeftChild();
+		}
+		return e.getRightChild();
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.findChild(), including after deletes
+	 * leave gaps between the used slots
+	 */
+	@Test public void findChild() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		int[] keys = new int[] { 0, 1468, 1469, 22064, 30000, 42812, 42878, 62778, 70000 };
+		for (int k : keys)
+			assertEquals(linearFindChild(page, new IntField(k)), page.findChild(new IntField(k)));
+		assertEquals(linearFindChild(page, null), page.findChild(null));
+
+		Iterator<BTreeEntry> it = page.iterator();
+		LinkedList<BTreeEntry> entries = new LinkedList<BTreeEntry>();
+		while (it.hasNext())
+			entries.add(it.next());
+		for (int i = 0; i < entries.size(); i += 2) {
+			page.deleteKeyAndRightChild(entries.get(i));
+			for (int k : keys)
+				assertEquals(linearFindChild(page, new IntField(k)), page.findChild(new IntField(k)));
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
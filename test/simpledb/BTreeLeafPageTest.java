@@ -336,6 +336,36 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.iterator(Field), including after deletes
+	 * leave gaps between the used slots
+	 */
+	@Test public void iteratorFromKey() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		int[] keys = new int[] { 0, 1468, 1469, 22064, 30000, 42812, 62778, 70000 };
+		for (int round = 0; round < 2; round++) {
+			for (int k : keys) {
+				IntField f = new IntField(k);
+				Iterator<Tuple> all = page.iterator();
+				Iterator<Tuple> it = page.iterator(f);
+				while (all.hasNext()) {
+					Tuple t = all.next();
+					if (t.getField(0).compare(Predicate.Op.GREATER_THAN_OR_EQ, f))
+						assertEquals(t, it.next());
+				}
+				assertFalse(it.hasNext());
+			}
+
+			// delete every other tuple and check again
+			Iterator<Tuple> it = page.iterator();
+			LinkedList<Tuple> tuples = new LinkedList<Tuple>();
+			while (it.hasNext())
+				tuples.add(it.next());
+			for (int i = 0; i < tuples.size(); i += 2)
+				page.deleteTuple(tuples.get(i));
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.CountingHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+
+    private CountingHeapFile createCountingFile(int pages) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        CountingHeapFile counting = new CountingHeapFile(hf.getFile(), hf.getTupleDesc(), 50);
+        Database.getCatalog().addTable(counting, SystemTestUtil.getUUID());
+        return counting;
+    }
+
+    /** Calls getPage from several threads at once and collects the results. */
+    private Page[] getPageConcurrently(final PageId pid) throws Exception {
+        final Page[] pages = new Page[THREADS];
+        final Exception[] errors = new Exception[THREADS];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        pages[n] = Database.getBufferPool().getPage(
+                                new TransactionId(), pid, Permissions.READ_ONLY);
+                    } catch (Exception e) {
+                        errors[n] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join(10000);
+            assertFalse(threads[i].isAlive());
+            assertNull(errors[i]);
+        }
+        return pages;
+    }
+
+    /**
+     * Threads that miss on the same page at the same time share a single read
+     * of that page.
+     */
+    @Test public void concurrentMissesReadOnce() throws Exception {
+        CountingHeapFile hf = createCountingFile(2);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+
+        Page[] pages = getPageConcurrently(pid);
+        assertEquals(1, hf.reads.get());
+        for (Page p : pages)
+            assertSame(pages[0], p);
+    }
+
+    /**
+     * Concurrent misses on a full pool evict no more pages than needed.
+     */
+    @Test public void concurrentMissesRespectCapacity() throws Exception {
+        CountingHeapFile hf = createCountingFile(6);
+        BufferPool bp = Database.resetBufferPool(4);
+        for (int i = 0; i < 4; i++)
+            bp.getPage(null, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+
+        getPageConcurrently(new HeapPageId(hf.getId(), 4));
+        assertEquals(5, hf.reads.get());
+        int resident = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            if (bp.holdsPage(new HeapPageId(hf.getId(), i)))
+                resident++;
+        }
+        assertEquals(4, resident);
+    }
+
+    /**
+     * A page that failed to load is not left behind as an empty frame.
+     */
+    @Test public void failedLoadIsRetried() throws Exception {
+        CountingHeapFile hf = createCountingFile(1);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId missing = new HeapPageId(hf.getId(), 5);
+        for (int i = 0; i < 2; i++) {
+            try {
+                bp.getPage(null, missing, Permissions.READ_ONLY);
+                fail("expected the read of a page past the end of the file to fail");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertEquals(2, hf.reads.get());
+        assertFalse(bp.holdsPage(missing));
+    }
+
+    /**
+     * A page fetched READ_WRITE is not evicted until its transaction
+     * releases it or completes, even while it is still clean.
+     */
+    @Test public void readWritePagesStayPinned() throws Exception {
+        CountingHeapFile hf = createCountingFile(6);
+        BufferPool bp = Database.resetBufferPool(2);
+        HeapPageId p0 = new HeapPageId(hf.getId(), 0);
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, p0, Permissions.READ_WRITE);
+        for (int i = 1; i < 6; i++)
+            bp.getPage(null, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertTrue(bp.holdsPage(p0));
+
+        // with both frames pinned, nothing can be evicted
+        bp.getPage(writer, new HeapPageId(hf.getId(), 1), Permissions.READ_WRITE);
+        try {
+            bp.getPage(null, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+            fail("expected a full pool of pinned pages to refuse the read");
+        } catch (DbException e) {
+            // expected
+        }
+
+        bp.releasePage(writer, new HeapPageId(hf.getId(), 1));
+        bp.getPage(null, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        bp.transactionComplete(writer);
+        for (int i = 3; i < 6; i++)
+            bp.getPage(null, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertFalse(bp.holdsPage(p0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -133,6 +134,53 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Committing writes a file's dirty pages in one call, in page order,
+     * and forces the file once.
+     */
+    @Test public void commitWritesPagesOfAFileTogether() throws Exception {
+        final ArrayList<Integer> written = new ArrayList<Integer>();
+        final int[] batches = new int[1];
+        final int[] forces = new int[1];
+        HeapFile recording = new HeapFile(empty.getFile(), empty.getTupleDesc()) {
+            @Override
+            public void writePages(List<Page> pages) throws IOException {
+                batches[0]++;
+                for (Page p : pages)
+                    written.add(p.getId().pageNumber());
+                super.writePages(pages);
+            }
+
+            @Override
+            public void force() throws IOException {
+                forces[0]++;
+                super.force();
+            }
+        };
+        Database.getCatalog().addTable(recording, SystemTestUtil.getUUID());
+        TransactionId inserter = new TransactionId();
+        for (int i = 0; i < 504 * 3; i++)
+            Database.getBufferPool().insertTuple(inserter, recording.getId(), Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(inserter);
+
+        assertEquals(1, batches[0]);
+        assertEquals(1, forces[0]);
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < recording.numPages(); i++)
+            expected.add(i);
+        assertEquals(expected, written);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        DbFileIterator it = recording.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(504 * 3, count);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,169 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoadTest extends SimpleDbTestBase {
+
+    private static final int TUPLES_PER_PAGE = 504;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile f;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Makes rows new rows, adds them to tuples and returns them as Tuples. */
+    private ArrayList<Tuple> newTuples(int rows) {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            result.add(Utility.getHeapTuple(new int[] { i, -i }));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        return result;
+    }
+
+    /**
+     * Loaded pages are appended after the existing ones, one log record
+     * per batch of pages, and stay locked until the load commits.
+     */
+    @Test public void loadAppendsPages() throws Exception {
+        int pages = f.numPages();
+        int rows = TUPLES_PER_PAGE * (HeapFile.BULK_LOAD_BATCH_PAGES + 10);
+        Transaction t = new Transaction();
+        t.start();
+        int records = Database.getLogFile().getTotalRecords();
+        assertEquals(rows, f.bulkLoad(t.getId(), new TupleArrayIterator(newTuples(rows))));
+        assertEquals(2, Database.getLogFile().getTotalRecords() - records);
+        assertEquals(pages + HeapFile.BULK_LOAD_BATCH_PAGES + 10, f.numPages());
+        assertTrue(Database.getBufferPool().holdsLock(t.getId(), new HeapPageId(f.getId(), pages)));
+        t.commit();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void abortEmptiesPages() throws Exception {
+        ArrayList<ArrayList<Integer>> before = new ArrayList<ArrayList<Integer>>(tuples);
+        Transaction t = new Transaction();
+        t.start();
+        f.bulkLoad(t.getId(), new TupleArrayIterator(newTuples(TUPLES_PER_PAGE * 3)));
+        t.abort();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, before);
+        // the emptied pages are where the next inserts go
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(f.getFreeSpaceMap().findFree(f.numPages(), 0) < f.numPages());
+    }
+
+    @Test public void copyFromFile() throws Exception {
+        File csv = File.createTempFile("copy", ".txt");
+        csv.deleteOnExit();
+        FileWriter w = new FileWriter(csv);
+        for (Tuple t : newTuples(2000))
+            w.write(t.getField(0) + " | " + t.getField(1) + "\n");
+        w.close();
+
+        String name = "copy" + SystemTestUtil.getUUID().replace("-", "");
+        Database.getCatalog().addTable(f, name);
+        new Parser().processNextStatement("COPY " + name + " FROM '" + csv.getPath() + "' DELIMITER '|';");
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void copyFromQuery() throws Exception {
+        String from = "src" + SystemTestUtil.getUUID().replace("-", "");
+        Database.getCatalog().addTable(f, from);
+        TableStats.setTableStats(from, new TableStats(f.getId(), 1));
+        ArrayList<ArrayList<Integer>> copied = new ArrayList<ArrayList<Integer>>();
+        HeapFile to = SystemTestUtil.createRandomHeapFile(2, 10, null, copied);
+        String name = "dst" + SystemTestUtil.getUUID().replace("-", "");
+        Database.getCatalog().addTable(to, name);
+        copied.addAll(tuples);
+
+        new Parser().processNextStatement("COPY " + name + " FROM (SELECT * FROM " + from + ");");
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(to, copied);
+    }
+
+    /**
+     * Copying a table into itself copies each tuple once, although the
+     * scan of the table runs while the load appends pages to it.
+     */
+    @Test public void copyIntoItself() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(2,
+                TUPLES_PER_PAGE * (HeapFile.BULK_LOAD_BATCH_PAGES + 10), null, tuples);
+        String name = "self" + SystemTestUtil.getUUID().replace("-", "");
+        Database.getCatalog().addTable(f, name);
+        TableStats.setTableStats(name, new TableStats(f.getId(), 1));
+        int pages = f.numPages();
+        ArrayList<ArrayList<Integer>> copied = new ArrayList<ArrayList<Integer>>(tuples);
+        copied.addAll(tuples);
+
+        new Parser().processNextStatement("COPY " + name + " FROM (SELECT * FROM " + name + ");");
+
+        assertEquals(2 * pages, f.numPages());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, copied);
+    }
+
+    /**
+     * A table with an index is still loaded by appending pages, and the
+     * index gets an entry for each loaded tuple.
+     */
+    @Test public void copyIntoIndexedTable() throws Exception {
+        String name = "indexed" + SystemTestUtil.getUUID().replace("-", "");
+        Database.getCatalog().addTable(f, name);
+        TableStats.setTableStats(name, new TableStats(f.getId(), 1));
+        File file = File.createTempFile("index", ".idx");
+        file.deleteOnExit();
+        PageChecksums.checksumFile(file).deleteOnExit();
+        Transaction t = new Transaction();
+        t.start();
+        SecondaryIndex index = SecondaryIndex.create(t.getId(), f.getId(), 0, file);
+        Database.getCatalog().addIndex(index);
+        t.commit();
+        int pages = f.numPages();
+        ArrayList<ArrayList<Integer>> copied = new ArrayList<ArrayList<Integer>>(tuples);
+        copied.addAll(tuples);
+
+        new Parser().processNextStatement("COPY " + name + " FROM (SELECT * FROM " + name + ");");
+
+        assertEquals(2 * pages, f.numPages());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, copied);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, index, "t", null, false), copied);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoadTest.class);
+    }
+}
@@ -83,7 +83,8 @@ public class CatalogTest extends SimpleDbTestBase {
     }
     
     /**
-     * Check that duplicate file ids are handled correctly
+     * Check that duplicate file ids are handled correctly: the file added
+     * last replaces the one before, under its own name only
      */
     @Test public void handleDuplicateIds() throws Exception {
     	String newName = SystemTestUtil.getUUID();
@@ -91,6 +92,12 @@ public class CatalogTest extends SimpleDbTestBase {
     	Database.getCatalog().addTable(f, newName);
     	assertEquals(newName, Database.getCatalog().getTableName(id2));
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
+    	try {
+    		Database.getCatalog().getTableId(name);
+    		Assert.fail("the name the file had before should be dropped");
+    	} catch (NoSuchElementException e) {
+    		// Expected to get here
+    	}
     }
 
     /**
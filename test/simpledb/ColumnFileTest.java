@@ -0,0 +1,229 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS_PER_GROUP = 100;
+
+    private static ColumnFile createColumnFile(File file) {
+        ColumnFile f = new ColumnFile(file, Utility.getTupleDesc(2, "field"), ROWS_PER_GROUP);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    private static File tempFile() throws Exception {
+        File file = File.createTempFile("columns", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        for (int i = 0; i < 2; i++)
+            ColumnFile.columnFile(file, i).deleteOnExit();
+        ColumnFile.zoneFile(file).deleteOnExit();
+        return file;
+    }
+
+    /** Inserts the rows (i, i % 7) for i in [from, to) and commits. */
+    private static void insert(ColumnFile f, int from, int to) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = from; i < to; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i % 7));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the first fields of the tuples the iterator returns */
+    private static ArrayList<Integer> scan(DbFileIterator it) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals(new IntField(i % 7), t.getField(1));
+            values.add(i);
+        }
+        it.close();
+        return values;
+    }
+
+    private static ArrayList<Integer> range(int from, int to) {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        for (int i = from; i < to; i++)
+            values.add(i);
+        return values;
+    }
+
+    /**
+     * Rows inserted through the BufferPool are spread over row groups and
+     * read back in order; those of an aborted transaction are not, and the
+     * rows survive reopening the files.
+     */
+    @Test public void insertScanAbortAndReopen() throws Exception {
+        File file = tempFile();
+        ColumnFile f = createColumnFile(file);
+        insert(f, 0, 250);
+        assertEquals(3, f.numGroups());
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { 999, 5 }));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(range(0, 250), scan(f.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f = createColumnFile(file);
+        tid = new TransactionId();
+        assertEquals(range(0, 250), scan(f.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A deleted row is no longer returned, and its position is not reused.
+     */
+    @Test public void delete() throws Exception {
+        ColumnFile f = createColumnFile(tempFile());
+        insert(f, 0, 150);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 1)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        insert(f, 150, 151);
+        tid = new TransactionId();
+        ArrayList<Integer> values = scan(f.iterator(tid));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(76, values.size());
+        for (int i = 0; i < 75; i++)
+            assertEquals(Integer.valueOf(2 * i), values.get(i));
+        assertEquals(Integer.valueOf(150), values.get(75));
+        assertEquals(2, f.numGroups());
+    }
+
+    /**
+     * A column with few distinct values is stored with a dictionary, in a
+     * fraction of the room of one with distinct values.
+     */
+    @Test public void dictionaryEncoding() throws Exception {
+        ColumnFile f = createColumnFile(tempFile());
+        ColumnPage distinct = new ColumnPage(new ColumnPageId(f.getId(), 0, 0),
+                new byte[ColumnPage.HEADER_SIZE]);
+        ColumnPage repeated = new ColumnPage(new ColumnPageId(f.getId(), 1, 0),
+                new byte[ColumnPage.HEADER_SIZE]);
+        for (int i = 0; i < ROWS_PER_GROUP; i++) {
+            distinct.setValue(i, new IntField(i));
+            repeated.setValue(i, new IntField(i % 7));
+        }
+        assertEquals(ColumnPage.maxSize(Type.INT_TYPE, ROWS_PER_GROUP), distinct.getPageData().length);
+        assertTrue(repeated.getPageData().length < ColumnPage.HEADER_SIZE + 4 + 7 * 4 + ROWS_PER_GROUP + 1);
+
+        ColumnPage copy = new ColumnPage(repeated.getId(), repeated.getPageData());
+        assertEquals(ROWS_PER_GROUP, copy.getNumValues());
+        for (int i = 0; i < ROWS_PER_GROUP; i++)
+            assertEquals(new IntField(i % 7), copy.getValue(i));
+    }
+
+    /**
+     * A scan given a predicate skips the row groups whose zones rule it out
+     * without reading their pages, before and after the files are reopened,
+     * and returns just the rows that satisfy it.
+     */
+    @Test public void zoneMapsSkipRowGroups() throws Exception {
+        File file = tempFile();
+        ColumnFile f = createColumnFile(file);
+        insert(f, 0, 1000);
+        for (int pass = 0; pass < 2; pass++) {
+            ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+            predicates.add(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(420)));
+            predicates.add(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(480)));
+            predicates.add(new Predicate(1, Predicate.Op.EQUALS, new IntField(3)));
+            TransactionId tid = new TransactionId();
+            ArrayList<Integer> values = scan(f.iterator(tid, new int[] { 0, 1 }, predicates));
+            ArrayList<Integer> expected = new ArrayList<Integer>();
+            for (int i = 420; i < 480; i++)
+                if (i % 7 == 3)
+                    expected.add(i);
+            assertEquals(expected, values);
+            for (int g = 0; g < f.numGroups(); g++) {
+                assertEquals(g == 4, Database.getBufferPool().holdsLock(tid,
+                        new ColumnPageId(f.getId(), 0, g)));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            f = createColumnFile(file);
+        }
+    }
+
+    /**
+     * A query over a columnar table from the schema pushes its filters
+     * down to the scan.
+     */
+    @Test public void schemaAndQuery() throws Exception {
+        File dir = File.createTempFile("schema", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("facts (a int, b int) columnar\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        int tableId = Database.getCatalog().getTableId("facts");
+        ColumnFile f = (ColumnFile) Database.getCatalog().getDatabaseFile(tableId);
+        for (File g : dir.listFiles())
+            g.deleteOnExit();
+        insert(f, 0, 3000);
+
+        // SELECT t.a FROM facts t WHERE t.b = 2 AND t.a > 2980
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "t");
+        lp.addFilter("t.b", Predicate.Op.EQUALS, "2");
+        lp.addFilter("t.a", Predicate.Op.GREATER_THAN, "2980");
+        lp.addProjectField("t.a", null);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("facts", new TableStats(tableId, 1));
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        while (plan.hasNext())
+            values.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 2981; i < 3000; i++)
+            if (i % 7 == 2)
+                expected.add(i);
+        assertEquals(expected, values);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
@@ -0,0 +1,190 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedFileChannelTest extends SimpleDbTestBase {
+
+    private static final int PAGE = 4096;
+
+    private static File emptyFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + CompressedFileChannel.MAP_SUFFIX).deleteOnExit();
+        return f;
+    }
+
+    private static ByteBuffer page(int seed, boolean random) {
+        byte[] data = new byte[PAGE];
+        if (random)
+            new Random(seed).nextBytes(data);
+        else
+            for (int i = 0; i < PAGE; i += 64)
+                data[i] = (byte) seed;
+        return ByteBuffer.wrap(data);
+    }
+
+    private static ByteBuffer read(DbFileChannel c, long position) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(PAGE);
+        assertEquals(PAGE, c.read(buf, position));
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Pages are stored compressed and read back as they were written, also
+     * by a new channel once the first one was forced.
+     */
+    @Test public void roundTrip() throws Exception {
+        File f = emptyFile();
+        CompressedFileChannel c = new CompressedFileChannel(f, 0, PAGE);
+        for (int i = 0; i < 20; i++)
+            c.write(page(i, i == 7), (long) i * PAGE);
+        assertEquals(20L * PAGE, c.size());
+        for (int i = 0; i < 20; i++)
+            assertEquals(page(i, i == 7), read(c, (long) i * PAGE));
+        c.force();
+        c.close();
+        // the random page is stored as it is, the others in a few bytes
+        assertTrue(f.length() < 2 * PAGE);
+
+        c = new CompressedFileChannel(f, 0, PAGE);
+        assertEquals(20L * PAGE, c.size());
+        for (int i = 0; i < 20; i++)
+            assertEquals(page(i, i == 7), read(c, (long) i * PAGE));
+        c.close();
+    }
+
+    /**
+     * A page that no longer fits in its extent moves to a new one; one
+     * that still fits is written in place.
+     */
+    @Test public void rewrites() throws Exception {
+        File f = emptyFile();
+        CompressedFileChannel c = new CompressedFileChannel(f, 0, PAGE);
+        c.write(page(1, false), 0);
+        c.write(page(2, false), PAGE);
+        long stored = c.storedSize();
+        c.write(page(3, false), 0);
+        assertEquals(stored, c.storedSize());
+        c.write(page(4, true), 0);
+        assertTrue(c.storedSize() > stored + PAGE);
+        assertEquals(page(4, true), read(c, 0));
+        assertEquals(page(2, false), read(c, PAGE));
+        c.close();
+    }
+
+    /**
+     * A plain file can be opened compressed as it is, and compress writes
+     * a compressed copy of it.
+     */
+    @Test public void plainFiles() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File plain = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 10, null, tuples);
+        long plainLength = plain.length();
+        HeapFile f = new HeapFile(plain, Utility.getTupleDesc(2), StorageMode.COMPRESSED, PageFormat.FIXED);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        assertTrue(f.isCompressed());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+
+        File copy = emptyFile();
+        CompressedFileChannel.compress(plain, copy, 0, BufferPool.getPageSize());
+        assertTrue(copy.length() * 4 < plainLength);
+        HeapFile g = new HeapFile(copy, Utility.getTupleDesc(2), StorageMode.COMPRESSED, PageFormat.FIXED);
+        Database.getCatalog().addTable(g, SystemTestUtil.getUUID());
+        assertEquals(f.numPages(), g.numPages());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(g, tuples);
+    }
+
+    /**
+     * Compressed heap and B+ tree files are read and written through the
+     * BufferPool like plain ones.
+     */
+    @Test public void compressedTables() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File plain = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 10, null, tuples);
+        File file = emptyFile();
+        CompressedFileChannel.compress(plain, file, 0, BufferPool.getPageSize());
+        HeapFile f = new HeapFile(file, Utility.getTupleDesc(2), StorageMode.COMPRESSED, PageFormat.FIXED);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        // a new HeapFile reads the page map saved when the file was forced
+        HeapFile g = new HeapFile(file, Utility.getTupleDesc(2), StorageMode.COMPRESSED, PageFormat.FIXED);
+        Database.getCatalog().addTable(g, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(g, tuples);
+
+        tuples.clear();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, null, tuples, 0);
+        File btree = emptyFile();
+        CompressedFileChannel.compress(bf.getFile(), btree, BTreeRootPtrPage.getPageSize(), BufferPool.getPageSize());
+        BTreeFile cbf = new BTreeFile(btree, 0, Utility.getTupleDesc(2), StorageMode.COMPRESSED);
+        Database.getCatalog().addTable(cbf, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, cbf.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(cbf, tuples);
+    }
+
+    @Test public void schemaSelectsCompressedTables() throws Exception {
+        File dir = File.createTempFile("schema", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("archive (a int, b string) compressed slotted\n");
+        w.close();
+        File data = new File(dir, "archive.dat");
+        data.createNewFile();
+        data.deleteOnExit();
+
+        Database.getCatalog().loadSchema(schema.getPath());
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("archive"));
+        assertTrue(f.isCompressed());
+        assertEquals(PageFormat.SLOTTED, f.getFormat());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedFileChannelTest.class);
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class DbFileChannelTest extends SimpleDbTestBase {
+
+    @Test public void positionalReadAndWrite() throws Exception {
+        File f = File.createTempFile("channel", ".dat");
+        f.deleteOnExit();
+        DbFileChannel channel = new DbFileChannel(f);
+        channel.write(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }), 8);
+        assertEquals(12, f.length());
+
+        ByteBuffer dst = ByteBuffer.allocate(6);
+        assertEquals(6, channel.read(dst, 6));
+        assertArrayEquals(new byte[] { 0, 0, 1, 2, 3, 4 }, dst.array());
+
+        // reading stops at the end of the file
+        dst.clear();
+        assertEquals(2, channel.read(dst, 10));
+        channel.close();
+    }
+
+    @Test public void gatheringWrite() throws Exception {
+        File f = File.createTempFile("channel", ".dat");
+        f.deleteOnExit();
+        DbFileChannel channel = new DbFileChannel(f);
+        // the first two buffers are neighbours, the third is not
+        channel.write(new long[] { 0, 2, 6 }, new ByteBuffer[] {
+                ByteBuffer.wrap(new byte[] { 1, 2 }),
+                ByteBuffer.wrap(new byte[] { 3, 4 }),
+                ByteBuffer.wrap(new byte[] { 5 }) });
+        channel.force();
+
+        ByteBuffer dst = ByteBuffer.allocate(7);
+        assertEquals(7, channel.read(dst, 0));
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 0, 0, 5 }, dst.array());
+        channel.close();
+    }
+
+    /**
+     * A thread that is interrupted while reading must not break the channel
+     * for everybody else.
+     */
+    @Test public void survivesInterrupts() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, tuples);
+        Thread.currentThread().interrupt();
+        try {
+            f.readPage(new HeapPageId(f.getId(), 0));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void buffersAreReused() {
+        byte[] buf = DbFileChannel.acquireBuffer(128);
+        assertEquals(128, buf.length);
+        DbFileChannel.releaseBuffer(buf);
+        assertSame(buf, DbFileChannel.acquireBuffer(128));
+        // a buffer of another size is never handed out
+        DbFileChannel.releaseBuffer(buf);
+        assertEquals(256, DbFileChannel.acquireBuffer(256).length);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
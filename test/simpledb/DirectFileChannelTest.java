@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class DirectFileChannelTest extends SimpleDbTestBase {
+
+    private static ByteBuffer block(int seed, int size) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return ByteBuffer.wrap(data);
+    }
+
+    private static ByteBuffer read(DbFileChannel c, long position, int size) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        assertEquals(size, c.read(buf, position));
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Aligned and unaligned blocks are read back as they were written,
+     * whether or not the file system lets the channel bypass its cache.
+     */
+    @Test public void roundTrip() throws Exception {
+        int page = DirectFileChannel.ALIGNMENT;
+        File f = File.createTempFile("direct", ".dat");
+        f.deleteOnExit();
+        DirectFileChannel c = new DirectFileChannel(f);
+        long[] positions = new long[8];
+        ByteBuffer[] blocks = new ByteBuffer[8];
+        for (int i = 0; i < 8; i++) {
+            positions[i] = (long) i * page;
+            blocks[i] = block(i, page);
+        }
+        c.write(positions, blocks);
+        // a block that is not aligned goes through the OS cache
+        c.write(block(8, 100), 8L * page + 10);
+        c.force();
+        assertEquals(8L * page + 110, c.size());
+
+        for (int i = 0; i < 8; i++)
+            assertEquals(block(i, page), read(c, (long) i * page, page));
+        assertEquals(block(8, 100), read(c, 8L * page + 10, 100));
+        c.close();
+
+        // the tail of the file is shorter than a block
+        c = new DirectFileChannel(f);
+        ByteBuffer buf = ByteBuffer.allocate(2 * page);
+        assertEquals(page + 110, c.read(buf, 7L * page));
+        c.close();
+    }
+
+    /**
+     * Tables stored DIRECT are read and written through the BufferPool like
+     * plain ones, including those with pages larger than the alignment.
+     */
+    @Test public void directTables() throws Exception {
+        for (int pageSize : new int[] { BufferPool.getPageSize(), 16384 }) {
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            HeapFile f = PageSizeTest.createHeapFile(pageSize, StorageMode.DIRECT, 5000, tuples);
+            assertEquals(StorageMode.DIRECT, f.getStorageMode());
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            SystemTestUtil.matchTuples(f, tuples);
+
+            PageSizeTest.insert(f, 0, 3000, tuples);
+            Database.getBufferPool().flushAllPages();
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            SystemTestUtil.matchTuples(f, tuples);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DirectFileChannelTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.CountingHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private static final int TUPLES_PER_PAGE = 504;
+    private static final int PAGES = 10;
+
+    private File file;
+
+    @Before public void setUp() throws Exception {
+        // PAGES full pages
+        file = SystemTestUtil.createRandomHeapFileUnopened(2, TUPLES_PER_PAGE * PAGES, 1000, null, null);
+        new File(file.getPath() + ".fsm").deleteOnExit();
+    }
+
+    private CountingHeapFile open() {
+        CountingHeapFile f = new CountingHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return f;
+    }
+
+    private static RecordId insert(HeapFile f, boolean commit) throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 2 });
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        Database.getBufferPool().transactionComplete(tid, commit);
+        return t.getRecordId();
+    }
+
+    /**
+     * Once an insert has found the pages full, later inserts, even through
+     * a new HeapFile over the same file, go straight to the page with room.
+     */
+    @Test public void insertsSkipFullPages() throws Exception {
+        CountingHeapFile f = open();
+        assertEquals(PAGES, insert(f, true).getPageId().pageNumber());
+        assertEquals(PAGES + 1, f.reads.get());
+
+        f = open();
+        assertEquals(PAGES, insert(f, true).getPageId().pageNumber());
+        assertEquals(1, f.reads.get());
+    }
+
+    @Test public void deleteMakesRoom() throws Exception {
+        CountingHeapFile f = open();
+        insert(f, true);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Tuple victim = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().pageNumber() == 3) {
+                victim = t;
+                break;
+            }
+        }
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(3, insert(f, true).getPageId().pageNumber());
+    }
+
+    /**
+     * A page filled up by a transaction that aborts has room again.
+     */
+    @Test public void abortRestoresRoom() throws Exception {
+        CountingHeapFile f = open();
+        insert(f, true);
+
+        // fill the last page and look for room past it, then abort
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < TUPLES_PER_PAGE; i++)
+            Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        assertEquals(PAGES, insert(f, true).getPageId().pageNumber());
+    }
+
+    /**
+     * A map that was changed but not saved again is not trusted.
+     */
+    @Test public void unsavedChangesAreNotTrusted() throws Exception {
+        FreeSpaceMap map = new FreeSpaceMap(file);
+        map.markFull(0);
+        map.markFull(1);
+        map.save();
+        assertEquals(2, new FreeSpaceMap(file).findFree(PAGES, 0));
+
+        map.markFree(1);
+        map.markFull(2);
+        // as if the database had stopped here
+        assertEquals(0, new FreeSpaceMap(file).findFree(PAGES, 0));
+
+        map.save();
+        assertEquals(1, new FreeSpaceMap(file).findFree(PAGES, 0));
+        assertEquals(3, new FreeSpaceMap(file).findFree(PAGES, 2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -126,6 +126,41 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples read from a page keep their values when the page changes
+     * under them, and when the page gives up its buffer.
+     */
+    @Test public void tuplesOutliveChanges() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        LinkedList<Tuple> tuples = new LinkedList<Tuple>();
+        while (it.hasNext())
+            tuples.add(it.next());
+        Tuple first = tuples.getFirst();
+        // one field read before the changes, the other after
+        Field a = first.getField(0);
+
+        for (Tuple t : tuples)
+            page.deleteTuple(t);
+        int free = page.getNumEmptySlots();
+        for (int i = 0; i < free; ++i)
+            page.insertTuple(Utility.getHeapTuple(-1, 2));
+        page.detach();
+
+        assertEquals(a, first.getField(0));
+        int row = 0;
+        for (Tuple t : tuples) {
+            for (int j = 0; j < 2; ++j)
+                assertEquals(new IntField(HeapPageReadTest.EXAMPLE_VALUES[row][j]), t.getField(j));
+            row++;
+        }
+
+        // a tuple can be moved back into the page it came from
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(first);
+        assertEquals(page.getId(), first.getRecordId().getPageId());
+    }
+
     /**
      * JUnit suite target
      */
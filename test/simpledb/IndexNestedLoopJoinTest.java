@@ -0,0 +1,171 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> outerTuples;
+    private ArrayList<ArrayList<Integer>> innerTuples;
+    private HeapFile outer;
+    private HeapFile inner;
+
+    /**
+     * A small outer table o(o0, o1) and a large inner table i(i0, i1, i2)
+     * with an index on i1.
+     */
+    @Before public void setUp() throws Exception {
+        outerTuples = new ArrayList<ArrayList<Integer>>();
+        innerTuples = new ArrayList<ArrayList<Integer>>();
+        outer = SystemTestUtil.createRandomHeapFile(2, 50, 2000, null, outerTuples, "o");
+        inner = SystemTestUtil.createRandomHeapFile(3, 20000, 2000, null, innerTuples, "i");
+        Database.getCatalog().addTable(outer, "outer_t");
+        Database.getCatalog().addTable(inner, "inner_t");
+        File file = File.createTempFile("index", ".idx");
+        file.deleteOnExit();
+        PageChecksums.checksumFile(file).deleteOnExit();
+        Transaction t = new Transaction();
+        t.start();
+        Database.getCatalog().addIndex(SecondaryIndex.create(t.getId(), inner.getId(), 1, file));
+        t.commit();
+    }
+
+    /** @return the concatenated pairs of tuples with o[f1] op i[f2] */
+    private static ArrayList<ArrayList<Integer>> join(ArrayList<ArrayList<Integer>> outerTuples,
+            int f1, Predicate.Op op, ArrayList<ArrayList<Integer>> innerTuples, int f2) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> o : outerTuples) {
+            for (ArrayList<Integer> i : innerTuples) {
+                if (new IntField(o.get(f1)).compare(op, new IntField(i.get(f2)))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(o);
+                    row.addAll(i);
+                    result.add(row);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** @return the join in the plan, or null if there is none */
+    private static IndexNestedLoopJoin findIndexJoin(DbIterator plan) {
+        if (plan instanceof IndexNestedLoopJoin)
+            return (IndexNestedLoopJoin) plan;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                IndexNestedLoopJoin j = findIndexJoin(child);
+                if (j != null)
+                    return j;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Joining through a secondary index returns what a Join does, for
+     * equality and ranges, with filters on the inner table.
+     */
+    @Test public void secondaryIndex() throws Exception {
+        TransactionId tid = new TransactionId();
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(tid,
+                new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, outer.getId(), "o"), inner.getId(), "i");
+        assertEquals("i.i1", j.getTupleDesc().getFieldName(3));
+        SystemTestUtil.matchTuples(j, join(outerTuples, 0, Predicate.Op.EQUALS, innerTuples, 1));
+
+        // o.o1 > i.i1 AND i.i2 < 100, for a few outer tuples
+        ArrayList<ArrayList<Integer>> few = new ArrayList<ArrayList<Integer>>();
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 3, 2000, null, few, "o");
+        j = new IndexNestedLoopJoin(tid, new JoinPredicate(1, Predicate.Op.GREATER_THAN, 1),
+                new SeqScan(tid, small.getId(), "o"), inner.getId(), "i");
+        j.pushDown(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(100)));
+        ArrayList<ArrayList<Integer>> filtered = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : innerTuples) {
+            if (row.get(2) < 100)
+                filtered.add(row);
+        }
+        SystemTestUtil.matchTuples(j, join(few, 1, Predicate.Op.GREATER_THAN, filtered, 1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A BTreeFile keyed on the join field is probed directly.
+     */
+    @Test public void btreeFile() throws Exception {
+        ArrayList<ArrayList<Integer>> treeTuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, 5000, 2000, null, treeTuples, 0);
+        TransactionId tid = new TransactionId();
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(tid,
+                new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, outer.getId(), "o"), tree.getId(), "b");
+        SystemTestUtil.matchTuples(j, join(outerTuples, 1, Predicate.Op.EQUALS, treeTuples, 0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A join without a B+ tree on the inner field cannot be built.
+     */
+    @Test(expected = IllegalArgumentException.class) public void noIndex() {
+        TransactionId tid = new TransactionId();
+        new IndexNestedLoopJoin(tid, new JoinPredicate(0, Predicate.Op.EQUALS, 2),
+                new SeqScan(tid, outer.getId(), "o"), inner.getId(), "i");
+    }
+
+    /**
+     * The optimizer costs an equality join into the indexed table below a
+     * nested-loops join, and plans it with an IndexNestedLoopJoin that
+     * applies the inner table's filters.
+     */
+    @Test public void optimizerPicksIndexJoin() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("outer_t", new TableStats(outer.getId(), TableStats.IOCOSTPERPAGE));
+        stats.put("inner_t", new TableStats(inner.getId(), TableStats.IOCOSTPERPAGE));
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        selectivities.put("o", 1.0);
+        selectivities.put("i", 1.0);
+
+        // SELECT * FROM outer_t o, inner_t i WHERE o.o0 = i.i1 AND i.i2 > 1000
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "o");
+        lp.addScan(inner.getId(), "i");
+        lp.addJoin("o.o0", "i.i1", Predicate.Op.EQUALS);
+        lp.addFilter("i.i2", Predicate.Op.GREATER_THAN, "1000");
+        lp.addProjectField("*", null);
+
+        JoinOptimizer jo = new JoinOptimizer(lp, new java.util.Vector<LogicalJoinNode>());
+        jo.orderJoins(stats, selectivities, false);
+        LogicalJoinNode toIndexed = new LogicalJoinNode("o", "i", "o0", "i1", Predicate.Op.EQUALS);
+        LogicalJoinNode toPlain = new LogicalJoinNode("o", "i", "o0", "i2", Predicate.Op.EQUALS);
+        double scanCost = stats.get("inner_t").estimateScanCost();
+        assertTrue(jo.estimateJoinCost(toIndexed, 50, 20000, 500, scanCost)
+                < jo.estimateJoinCost(toPlain, 50, 20000, 500, scanCost) / 5);
+
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertNotNull(findIndexJoin(plan));
+        ArrayList<ArrayList<Integer>> filtered = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : innerTuples) {
+            if (row.get(2) > 1000)
+                filtered.add(row);
+        }
+        SystemTestUtil.matchTuples(plan, join(outerTuples, 0, Predicate.Op.EQUALS, filtered, 1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
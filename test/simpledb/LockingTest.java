@@ -0,0 +1,169 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LockingTest extends TestUtil.CreateHeapFile {
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+
+        // populate the empty HeapFile with three pages and commit them
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1025; ++i) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, empty.numPages());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        this.p0 = new HeapPageId(empty.getId(), 0);
+        this.p1 = new HeapPageId(empty.getId(), 1);
+        this.tid1 = new TransactionId();
+        this.tid2 = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid1, false);
+        Database.getBufferPool().transactionComplete(tid2, false);
+    }
+
+    /**
+     * Starts a thread that tries to get the lock and checks, after a short
+     * wait, whether it was granted.
+     */
+    private TestUtil.LockGrabber grabLock(TransactionId tid, PageId pid,
+            Permissions perm, boolean expected) throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        assertEquals(expected, t.acquired());
+        assertNull(t.getError());
+        return t;
+    }
+
+    private void metaLockTester(TransactionId tid1, PageId pid1, Permissions perm1,
+            TransactionId tid2, PageId pid2, Permissions perm2, boolean expected)
+            throws Exception {
+        Database.getBufferPool().getPage(tid1, pid1, perm1);
+        grabLock(tid2, pid2, perm2, expected);
+    }
+
+    @Test public void acquireReadLocksOnSamePage() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_ONLY,
+                tid2, p0, Permissions.READ_ONLY, true);
+    }
+
+    @Test public void acquireReadWriteLocksOnSamePage() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_ONLY,
+                tid2, p0, Permissions.READ_WRITE, false);
+    }
+
+    @Test public void acquireWriteReadLocksOnSamePage() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_WRITE,
+                tid2, p0, Permissions.READ_ONLY, false);
+    }
+
+    @Test public void acquireWriteLocksOnTwoPages() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_WRITE,
+                tid2, p1, Permissions.READ_WRITE, true);
+    }
+
+    @Test public void acquireWriteAndReadLocksOnSameTransaction() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_WRITE,
+                tid1, p0, Permissions.READ_ONLY, true);
+    }
+
+    @Test public void lockUpgrade() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_ONLY,
+                tid1, p0, Permissions.READ_WRITE, true);
+        metaLockTester(tid2, p1, Permissions.READ_ONLY,
+                tid2, p1, Permissions.READ_WRITE, true);
+    }
+
+    @Test public void holdsLockAndRelease() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertFalse(bp.holdsLock(tid2, p0));
+
+        TestUtil.LockGrabber t = grabLock(tid2, p0, Permissions.READ_WRITE, false);
+        bp.releasePage(tid1, p0);
+        assertFalse(bp.holdsLock(tid1, p0));
+        t.join(TIMEOUT * 10);
+        assertTrue(t.acquired());
+        assertTrue(bp.holdsLock(tid2, p0));
+    }
+
+    @Test public void commitReleasesAllLocks() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber t = grabLock(tid2, p0, Permissions.READ_ONLY, false);
+        bp.transactionComplete(tid1);
+        t.join(TIMEOUT * 10);
+        assertTrue(t.acquired());
+        assertFalse(bp.holdsLock(tid1, p1));
+    }
+
+    /**
+     * Two transactions that each hold a shared lock and both try to upgrade
+     * deadlock; one of them must be aborted instead of waiting forever.
+     */
+    @Test public void upgradeDeadlockAborts() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+
+        TestUtil.LockGrabber t1 = new TestUtil.LockGrabber(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber t2 = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+        t1.start();
+        t2.start();
+        t1.join(TIMEOUT * 10);
+        t2.join(TIMEOUT * 10);
+
+        // the aborted grabber releases its locks, which lets the other one in
+        assertTrue(t1.acquired() != t2.acquired());
+        Exception e = t1.acquired() ? t2.getError() : t1.getError();
+        assertTrue(e instanceof TransactionAbortedException);
+        assertTrue(e.getCause() instanceof DeadlockException);
+    }
+
+    /**
+     * Aborting a transaction drops its changes from the buffer pool.
+     */
+    @Test public void abortDiscardsDirtyPages() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        HeapPage p = (HeapPage) bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        int empty = p.getNumEmptySlots();
+        Iterator<Tuple> it = p.iterator();
+        Tuple t = it.next();
+        bp.deleteTuple(tid1, t);
+        assertEquals(empty + 1, ((HeapPage) bp.getPage(tid1, p0, Permissions.READ_ONLY)).getNumEmptySlots());
+
+        bp.transactionComplete(tid1, false);
+        assertEquals(empty, ((HeapPage) bp.getPage(tid2, p0, Permissions.READ_ONLY)).getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockingTest.class);
+    }
+}
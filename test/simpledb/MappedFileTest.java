@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MappedFileTest extends SimpleDbTestBase {
+
+    private static HeapFile openMapped(int columns, int rows,
+            ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        File file = SystemTestUtil.createRandomHeapFileUnopened(columns, rows, 1000, null, tuples);
+        HeapFile f = new HeapFile(file, Utility.getTupleDesc(columns), true);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    @Test public void scanMappedHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = openMapped(3, 3000, tuples);
+        assertTrue(f.isMapped());
+        Database.resetBufferPool(4);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * Modifying a page read from the mapping works on a private copy; the
+     * change reaches the file only when the page is written back.
+     */
+    @Test public void writesGoThroughTheChannel() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = openMapped(2, 10, tuples);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        HeapPage onDisk = (HeapPage) f.readPage(pid);
+        int empty = onDisk.getNumEmptySlots();
+
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { 7, 8 }));
+        assertEquals(empty, onDisk.getNumEmptySlots());
+        bp.transactionComplete(tid);
+
+        // the mapping sees what was written through the channel
+        assertEquals(empty - 1, ((HeapPage) f.readPage(pid)).getNumEmptySlots());
+        ArrayList<Integer> row = new ArrayList<Integer>();
+        row.add(7);
+        row.add(8);
+        tuples.add(row);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void scanMappedBTreeFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, null, tuples, 0);
+        BTreeFile f = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void schemaSelectsMappedTables() throws Exception {
+        File dir = File.createTempFile("schema", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("plain (a int, b int)\n");
+        w.write("mapped (a int pk, b int) mmap\n");
+        w.write("slotted (a int, b string) mmap slotted\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        Catalog c = Database.getCatalog();
+        assertFalse(((HeapFile) c.getDatabaseFile(c.getTableId("plain"))).isMapped());
+        assertTrue(((HeapFile) c.getDatabaseFile(c.getTableId("mapped"))).isMapped());
+        assertEquals("a", c.getPrimaryKey(c.getTableId("mapped")));
+        HeapFile slotted = (HeapFile) c.getDatabaseFile(c.getTableId("slotted"));
+        assertTrue(slotted.isMapped());
+        assertEquals(PageFormat.SLOTTED, slotted.getFormat());
+        assertEquals(PageFormat.FIXED, ((HeapFile) c.getDatabaseFile(c.getTableId("plain"))).getFormat());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedFileTest.class);
+    }
+}
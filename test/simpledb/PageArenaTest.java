@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageArenaTest extends SimpleDbTestBase {
+
+    @Test public void allocateAndRelease() {
+        PageArena arena = new PageArena(3, 4096);
+        HashSet<ByteBuffer> frames = new HashSet<ByteBuffer>();
+        ByteBuffer first = null;
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer frame = arena.allocate();
+            assertNotNull(frame);
+            assertTrue(frame.isDirect());
+            assertEquals(4096, frame.capacity());
+            if (first == null)
+                first = frame;
+            frames.add(frame);
+        }
+        assertNull(arena.allocate());
+
+        // frames do not overlap
+        for (ByteBuffer frame : frames)
+            frame.put(0, (byte) 1);
+        first.put(4095, (byte) 7);
+        for (ByteBuffer frame : frames) {
+            if (frame != first)
+                assertEquals(0, frame.get(4095));
+        }
+
+        arena.release(first);
+        assertSame(first, arena.allocate());
+    }
+
+    /**
+     * Scanning through an off-heap pool much smaller than the table returns
+     * the same tuples as the file holds.
+     */
+    @Test public void scanThroughOffHeapPool() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 6000, null, tuples);
+        Database.resetBufferPool(8, true);
+        SystemTestUtil.matchTuples(f, tuples);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * A page that is evicted from an off-heap pool while somebody still holds
+     * it keeps its contents, even after its frame has been reused.
+     */
+    @Test public void evictedPageStaysReadable() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        BufferPool bp = Database.resetBufferPool(1, true);
+        HeapPageId first = new HeapPageId(f.getId(), 0);
+        HeapPage page = (HeapPage) bp.getPage(null, first, Permissions.READ_ONLY);
+        ArrayList<Tuple> before = new ArrayList<Tuple>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            before.add(it.next());
+
+        for (int i = 1; i < 4; i++)
+            bp.getPage(null, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        assertFalse(bp.holdsPage(first));
+
+        it = page.iterator();
+        for (Tuple t : before)
+            assertTrue(TestUtil.compareTuples(t, it.next()));
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Tuples inserted into an off-heap page are written back on commit.
+     */
+    @Test public void insertAndCommit() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, tuples);
+        BufferPool bp = Database.resetBufferPool(4, true);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 5; i++) {
+            bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        bp.transactionComplete(tid);
+
+        Database.resetBufferPool(4, true);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
@@ -0,0 +1,181 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageChecksumsTest extends SimpleDbTestBase {
+
+    @Before public void needChecksums() {
+        Assume.assumeTrue(PageChecksums.isEnabled());
+    }
+
+    /** Flips the bits of a byte of the file, as a bad disk would. */
+    private static void damage(File f, long offset) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(offset);
+        int b = raf.read();
+        raf.seek(offset);
+        raf.write(~b);
+        raf.close();
+    }
+
+    private static HeapFile createHeapFile() throws Exception {
+        File file = File.createTempFile("checksums", ".dat");
+        file.deleteOnExit();
+        PageChecksums.checksumFile(file).deleteOnExit();
+        return Utility.createEmptyHeapFile(file.getPath(), 2);
+    }
+
+    private static void insert(HeapFile f, int from, int to, ArrayList<ArrayList<Integer>> tuples,
+            boolean commit) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = from; i < to; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+            if (tuples != null) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(i);
+                row.add(-i);
+                tuples.add(row);
+            }
+        }
+        if (commit) {
+            t.commit();
+        } else {
+            // write the changes out first, so that the abort must undo them
+            Database.getBufferPool().flushPages(t.getId());
+            t.abort();
+        }
+    }
+
+    /**
+     * A checksum matches the page it was computed over and no other, and
+     * is never 0, which stands for none.
+     */
+    @Test public void checksumOfPageData() throws Exception {
+        byte[] data = HeapPage.createEmptyPageData();
+        int sum = PageChecksums.checksum(ByteBuffer.wrap(data));
+        assertTrue(sum != 0);
+        data[100] = 1;
+        assertTrue(sum != PageChecksums.checksum(ByteBuffer.wrap(data)));
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.flip();
+        assertEquals(PageChecksums.checksum(ByteBuffer.wrap(data)), PageChecksums.checksum(direct));
+        assertEquals(0, direct.position());
+    }
+
+    /**
+     * A page that decayed on disk after a commit is caught when it is read
+     * and put back from the log.
+     */
+    @Test public void damagedHeapPageIsRepaired() throws Exception {
+        HeapFile f = createHeapFile();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        insert(f, 0, 600, tuples, true);
+        assertEquals(2, f.numPages());
+        assertTrue(f.getChecksums().getFile().length() >= 8);
+
+        damage(f.getFile(), 1000);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+        // and on disk
+        assertTrue(f.getChecksums().verify(0, ByteBuffer.wrap(
+                ((HeapPage) f.readPage(new HeapPageId(f.getId(), 0))).getPageData())));
+    }
+
+    /**
+     * A page whose last change was aborted is put back as it was before
+     * the change.
+     */
+    @Test public void repairUndoesAbortedChanges() throws Exception {
+        HeapFile f = createHeapFile();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        insert(f, 0, 100, tuples, true);
+        insert(f, 100, 200, null, false);
+
+        damage(f.getFile(), 10);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * A damaged page that the log holds no copy of cannot be read.
+     */
+    @Test public void damagedPageWithoutLogCopy() throws Exception {
+        HeapFile f = createHeapFile();
+        HeapPage page = new HeapPage(new HeapPageId(f.getId(), 0), HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+        // written without going through the BufferPool, so not logged
+        f.writePage(page);
+        damage(f.getFile(), 0);
+        try {
+            f.readPage(page.getId());
+            fail("read a damaged page");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Pages that were never written by a HeapFile have no checksums, and
+     * are read unchecked.
+     */
+    @Test public void pagesWithoutChecksums() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        assertFalse(f.getChecksums().getFile().exists());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * B+ tree pages are checked and repaired the same way.
+     */
+    @Test public void damagedBTreePageIsRepaired() throws Exception {
+        File file = File.createTempFile("checksums", ".dat");
+        file.deleteOnExit();
+        PageChecksums.checksumFile(file).deleteOnExit();
+        BTreeFile f = BTreeUtility.createEmptyBTreeFile(file.getPath(), 2, 0);
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), BTreeUtility.getBTreeTuple(i, 2));
+        t.commit();
+
+        // the root leaf is the first page after the root pointer page
+        damage(file, BTreeRootPtrPage.getPageSize() + 20);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            assertEquals(new IntField(n), it.next().getField(0));
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(100, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChecksumsTest.class);
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    private static final int TUPLES_PER_PAGE = 504;
+
+    private static void insertRows(BufferPool bp, TransactionId tid, HeapFile f,
+            int count, ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        for (int i = 0; i < count; i++) {
+            bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { i, 2 * i }));
+            if (tuples != null) {
+                ArrayList<Integer> row = new ArrayList<Integer>();
+                row.add(i);
+                row.add(2 * i);
+                tuples.add(row);
+            }
+        }
+    }
+
+    /**
+     * The cleaner writes dirty pages until the pool is back at the low
+     * watermark, and what it wrote is still committed properly.
+     */
+    @Test public void cleansDownToLowWatermark() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        BufferPool bp = Database.resetBufferPool(20);
+        TransactionId tid = new TransactionId();
+        insertRows(bp, tid, f, TUPLES_PER_PAGE * 8, tuples);
+        assertEquals(8, bp.countDirtyPages());
+
+        PageCleaner cleaner = bp.startPageCleaner(0.1, 0.5, 2, 10);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.countDirtyPages() > 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        bp.stopPageCleaner();
+        assertEquals(2, bp.countDirtyPages());
+        assertEquals(6, cleaner.getPagesWritten());
+        assertFalse(cleaner.isAlive());
+
+        bp.transactionComplete(tid);
+        Database.resetBufferPool(20);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * A transaction that dirties more pages than the pool holds gets its
+     * pages written out early; aborting it puts the old contents back.
+     */
+    @Test public void abortRestoresStolenPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * 2, null, tuples);
+        BufferPool bp = Database.resetBufferPool(3);
+        TransactionId tid = new TransactionId();
+
+        // fill up the two existing pages, then three new ones
+        insertRows(bp, tid, f, TUPLES_PER_PAGE * 4, null);
+        assertTrue(Database.getLogFile().isLive(tid));
+        bp.transactionComplete(tid, false);
+        assertFalse(Database.getLogFile().isLive(tid));
+
+        Database.resetBufferPool(3);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * Committing a transaction whose pages were stolen keeps its changes.
+     */
+    @Test public void commitKeepsStolenPages() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        BufferPool bp = Database.resetBufferPool(3);
+        TransactionId tid = new TransactionId();
+        insertRows(bp, tid, f, TUPLES_PER_PAGE * 5, tuples);
+        bp.transactionComplete(tid);
+
+        Database.resetBufferPool(3);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageSizeTest extends SimpleDbTestBase {
+
+    static HeapFile createHeapFile(int pageSize, StorageMode storage, int rows,
+            ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        Random rand = new Random(pageSize);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(rand.nextInt(1000));
+            row.add(i);
+            tuples.add(row);
+        }
+        File file = File.createTempFile("pagesize", ".dat");
+        file.deleteOnExit();
+        HeapFileEncoder.convert(tuples, file, pageSize, 2);
+        HeapFile f = new HeapFile(file, Utility.getTupleDesc(2), storage, PageFormat.FIXED, pageSize);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    static void insert(HeapFile f, int from, int to, ArrayList<ArrayList<Integer>> tuples)
+            throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = from; i < to; i++) {
+            Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { i, -i }));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tables with pages larger and smaller than the default are read and
+     * written through the same BufferPool, on the heap and off it.
+     */
+    @Test public void mixedPageSizes() throws Exception {
+        for (boolean offHeap : new boolean[] { false, true }) {
+            ArrayList<ArrayList<Integer>> big = new ArrayList<ArrayList<Integer>>();
+            ArrayList<ArrayList<Integer>> small = new ArrayList<ArrayList<Integer>>();
+            HeapFile f = createHeapFile(16384, StorageMode.PLAIN, 5000, big);
+            HeapFile g = createHeapFile(1024, StorageMode.PLAIN, 5000, small);
+            assertEquals(16384, f.getPageSize());
+            assertEquals(1024, g.getPageSize());
+            // 16384 * 8 / (8 * 8 + 1) = 2016 tuples per page
+            assertEquals(3, f.numPages());
+            // 1024 * 8 / (8 * 8 + 1) = 126 tuples per page
+            assertEquals(40, g.numPages());
+
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES, offHeap);
+            SystemTestUtil.matchTuples(f, big);
+            SystemTestUtil.matchTuples(g, small);
+
+            insert(f, 0, 2000, big);
+            insert(g, 0, 2000, small);
+            Database.getBufferPool().flushAllPages();
+            assertEquals(4, f.numPages());
+            assertEquals(56, g.numPages());
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES, offHeap);
+            SystemTestUtil.matchTuples(f, big);
+            SystemTestUtil.matchTuples(g, small);
+        }
+    }
+
+    /**
+     * Slotted pages and the bulk load path follow the page size of the file.
+     */
+    @Test public void slottedPagesAndBulkLoad() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File file = File.createTempFile("pagesize", ".dat");
+        file.deleteOnExit();
+        HeapFile f = new HeapFile(file, Utility.getTupleDesc(2), StorageMode.PLAIN, PageFormat.SLOTTED, 8192);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        insert(f, 0, 3000, tuples);
+
+        ArrayList<Tuple> load = new ArrayList<Tuple>();
+        for (int i = 3000; i < 6000; i++) {
+            load.add(Utility.getHeapTuple(new int[] { i, -i }));
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(i);
+            row.add(-i);
+            tuples.add(row);
+        }
+        TransactionId tid = new TransactionId();
+        f.bulkLoad(tid, new TupleIterator(Utility.getTupleDesc(2), load));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        assertEquals(0, file.length() % 8192);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pageTooSmallForATuple() throws Exception {
+        File file = File.createTempFile("pagesize", ".dat");
+        file.deleteOnExit();
+        new HeapFile(file, Utility.getTupleDesc(4), StorageMode.PLAIN, PageFormat.FIXED, 16);
+    }
+
+    @Test public void schemaSetsPageSize() throws Exception {
+        File dir = File.createTempFile("schema", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("facts (a int, b int) direct pagesize=65536\n");
+        w.close();
+        File data = new File(dir, "facts.dat");
+        data.createNewFile();
+        data.deleteOnExit();
+
+        Database.getCatalog().loadSchema(schema.getPath());
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("facts"));
+        assertEquals(65536, f.getPageSize());
+        assertEquals(StorageMode.DIRECT, f.getStorageMode());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ParallelTextParserTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+
+    private static File textFile(String text) throws Exception {
+        File f = File.createTempFile("parser", ".txt");
+        f.deleteOnExit();
+        FileWriter w = new FileWriter(f);
+        w.write(text);
+        w.close();
+        return f;
+    }
+
+    private static ArrayList<Field[]> parseAll(File f, int threads, int chunkBytes) throws Exception {
+        ArrayList<Field[]> tuples = new ArrayList<Field[]>();
+        ParallelTextParser parser = new ParallelTextParser(f, TYPES, ',', threads, chunkBytes);
+        ArrayList<Field[]> chunk;
+        while ((chunk = parser.nextChunk()) != null)
+            tuples.addAll(chunk);
+        parser.close();
+        return tuples;
+    }
+
+    /**
+     * Tuples come back in file order, whatever the chunk boundaries and
+     * however many threads parse the chunks.
+     */
+    @Test public void chunksKeepFileOrder() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        int rows = 5000;
+        for (int i = 0; i < rows; i++)
+            sb.append(i).append(", name").append(i % 13).append('\n');
+        File f = textFile(sb.toString());
+
+        for (int chunkBytes : new int[] { 7, 100, ParallelTextParser.DEFAULT_CHUNK_BYTES }) {
+            ArrayList<Field[]> tuples = parseAll(f, 3, chunkBytes);
+            assertEquals(rows, tuples.size());
+            for (int i = 0; i < rows; i++) {
+                assertEquals(new IntField(i), tuples.get(i)[0]);
+                assertEquals(new StringField("name" + (i % 13), Type.STRING_LEN), tuples.get(i)[1]);
+            }
+        }
+    }
+
+    /**
+     * Blank and malformed lines are skipped, Windows line endings and a
+     * missing line break at the end of the file are accepted.
+     */
+    @Test public void irregularLines() throws Exception {
+        File f = textFile("1,a\r\n\n2,b\r\nx,c\n3\n4,d,extra\n  \n5,e");
+        ArrayList<Field[]> tuples = parseAll(f, 2, 4);
+        int[] ids = { 1, 2, 4, 5 };
+        String[] names = { "a", "b", "d", "e" };
+        assertEquals(ids.length, tuples.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(new IntField(ids[i]), tuples.get(i)[0]);
+            assertEquals(new StringField(names[i], Type.STRING_LEN), tuples.get(i)[1]);
+        }
+    }
+
+    @Test public void emptyFile() throws Exception {
+        assertEquals(0, parseAll(textFile(""), 2, 16).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelTextParserTest.class);
+    }
+}
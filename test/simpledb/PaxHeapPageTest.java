@@ -0,0 +1,184 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = Utility.getTupleDesc(3, "field");
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static void assertTuple(int i, Tuple t) {
+        assertEquals(new IntField(i), t.getField(0));
+        assertEquals(new IntField(i * 10), t.getField(1));
+        assertEquals(new IntField(-i), t.getField(2));
+    }
+
+    /**
+     * The values of each field are stored together, and the page holds as
+     * many tuples as a FIXED one.
+     */
+    @Test public void fieldsAreGroupedInMinipages() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.getNumEmptySlots() > 0) {
+            page.insertTuple(Utility.getHeapTuple(new int[] { n, n * 10, -n }));
+            n++;
+        }
+        assertEquals(new HeapPage(pid, HeapPage.createEmptyPageData()).getNumEmptySlots(), n);
+
+        ByteBuffer bytes = ByteBuffer.wrap(page.getPageData());
+        int header = page.headerSize;
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, bytes.getInt(header + 4 * i));
+            assertEquals(i * 10, bytes.getInt(header + 4 * n + 4 * i));
+            assertEquals(-i, bytes.getInt(header + 8 * n + 4 * i));
+        }
+
+        // the page is the same when read back from its bytes
+        HeapPage copy = new PaxHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < n; i++)
+            assertTuple(i, it.next());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * A deleted tuple leaves its slot empty and zeroed in every minipage.
+     */
+    @Test public void deleteClearsAllMinipages() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 2, 3 });
+        page.insertTuple(t);
+        page.deleteTuple(t);
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+    }
+
+    /**
+     * Fields asked for up front are decoded with the page; the others are
+     * still read from it.
+     */
+    @Test public void fieldsDecodedUpFront() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 50; i++)
+            page.insertTuple(Utility.getHeapTuple(new int[] { i, i * 10, -i }));
+        page.deleteTuple(page.getTuple(7));
+        Iterator<Tuple> it = page.iterator(new int[] { 1 });
+        // tuples keep the contents the page had when they were handed out
+        page.insertTuple(Utility.getHeapTuple(new int[] { 99, 99, 99 }));
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertTrue(i != 7 && i != 99);
+            assertTuple(i, t);
+            n++;
+        }
+        assertEquals(49, n);
+    }
+
+    /**
+     * A PAX file written by HeapFileEncoder holds the same tuples as a FIXED
+     * one, and a query over it reads them through scans of just the fields
+     * it needs.
+     */
+    @Test public void encodedFileAndQuery() throws Exception {
+        File text = File.createTempFile("pax", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        int rows = 3000;
+        for (int i = 0; i < rows; i++)
+            w.write(i + "," + (i * 10) + "," + (-i) + "\n");
+        w.close();
+        File fixed = File.createTempFile("fixed", ".dat");
+        fixed.deleteOnExit();
+        File pax = File.createTempFile("pax", ".dat");
+        pax.deleteOnExit();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+        HeapFileEncoder.convert(text, fixed, BufferPool.getPageSize(), 3, types, ',');
+        HeapFileEncoder.convert(text, pax, BufferPool.getPageSize(), 3, types, ',', PageFormat.PAX);
+        assertEquals(fixed.length(), pax.length());
+
+        HeapFile f = new HeapFile(pax, TD, StorageMode.PLAIN, PageFormat.PAX);
+        String name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(f, name);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid, new int[] { 2 });
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTuple(((IntField) t.getField(0)).getValue(), t);
+            n++;
+        }
+        it.close();
+        assertEquals(rows, n);
+
+        // SELECT t.field1 FROM name t WHERE t.field2 < -2990
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.field2", Predicate.Op.LESS_THAN, "-2990");
+        lp.addProjectField("t.field1", null);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1));
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        n = 0;
+        while (plan.hasNext()) {
+            int v = ((IntField) plan.next().getField(0)).getValue();
+            assertTrue(v > 29900);
+            n++;
+        }
+        plan.close();
+        assertEquals(9, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void schemaSelectsPaxTables() throws Exception {
+        File dir = File.createTempFile("schema", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("facts (a int, b int, c int) pax\n");
+        w.close();
+        File data = new File(dir, "facts.dat");
+        data.createNewFile();
+        data.deleteOnExit();
+
+        Database.getCatalog().loadSchema(schema.getPath());
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("facts"));
+        assertEquals(PageFormat.PAX, f.getFormat());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
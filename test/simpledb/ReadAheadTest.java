@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.CountingHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    @Test public void windowGrowsUpToMax() {
+        ReadAhead ra = new ReadAhead(8);
+        assertEquals(0, ra.next());
+        assertEquals(ReadAhead.MIN_WINDOW, ra.next());
+        // the scan is on page 1, and pages 2 and 3 have been requested
+        int current = 1;
+        int last = 1 + ReadAhead.MIN_WINDOW;
+        int n = 0;
+        for (int i = 0; i < 100; i++) {
+            current++;
+            int more = ra.next();
+            last += more;
+            if (more > 0)
+                n = more;
+            // never more than the window ahead of the page being read,
+            // and never run dry
+            assertTrue(last - current <= 8);
+            assertTrue(last - current >= 1);
+        }
+        // once the window is full, it is topped up half a window at a time
+        assertEquals(8 / 2, n);
+    }
+
+    @Test public void resetStartsOver() {
+        ReadAhead ra = new ReadAhead(ReadAhead.MAX_WINDOW);
+        for (int i = 0; i < 10; i++)
+            ra.next();
+        ra.reset();
+        assertEquals(0, ra.next());
+        assertEquals(ReadAhead.MIN_WINDOW, ra.next());
+    }
+
+    @Test public void tinyPoolsDoNotPrefetch() {
+        BufferPool bp = Database.resetBufferPool(3);
+        assertNull(bp.getReadAhead(null));
+        assertNull(bp.getReadAhead(new ScanRing(1)));
+        assertEquals(3, bp.getReadAhead(new ScanRing(4)).getMaxWindow());
+    }
+
+    /**
+     * A cold scan has the pages in front of it read by the prefetch
+     * threads, and still reads each page exactly once.
+     */
+    @Test public void scanPrefetchesEachPageOnce() throws Exception {
+        final int PAGES = 40;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * PAGES, 1000, null, tuples);
+        CountingHeapFile f = new CountingHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        BufferPool bp = Database.resetBufferPool(100);
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(PAGES, f.reads.get());
+        assertTrue(f.prefetched.get() > 0);
+        for (int i = 0; i < PAGES; i++)
+            assertTrue(bp.holdsPage(new HeapPageId(f.getId(), i)));
+    }
+
+    /**
+     * Prefetching through a scan ring keeps the scan within its ring.
+     */
+    @Test public void ringScanPrefetches() throws Exception {
+        final int PAGES = 60;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * PAGES, 1000, null, tuples);
+        CountingHeapFile f = new CountingHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        BufferPool bp = Database.resetBufferPool(40);
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(PAGES, f.reads.get());
+        assertTrue(f.prefetched.get() > 0);
+        int resident = 0;
+        for (int i = 0; i < PAGES; i++) {
+            if (bp.holdsPage(new HeapPageId(f.getId(), i)))
+                resident++;
+        }
+        assertTrue(resident <= bp.getScanRing(PAGES).size());
+    }
+
+    /**
+     * Scanning a B+ tree has leaves read by the prefetch threads, reads no
+     * page twice and returns every tuple.
+     */
+    @Test public void btreeScanPrefetches() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 502 * 30, null, tuples, 0);
+        final Set<PageId> read = Collections.newSetFromMap(new ConcurrentHashMap<PageId,Boolean>());
+        final AtomicInteger twice = new AtomicInteger();
+        final AtomicInteger prefetched = new AtomicInteger();
+        BTreeFile f = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(2)) {
+            @Override
+            public Page readPage(PageId pid) {
+                if (!read.add(pid))
+                    twice.incrementAndGet();
+                if (Thread.currentThread().getName().equals("prefetch"))
+                    prefetched.incrementAndGet();
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        Database.resetBufferPool(100);
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(0, twice.get());
+        assertTrue(prefetched.get() > 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
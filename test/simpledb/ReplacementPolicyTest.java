@@ -0,0 +1,212 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final ReplacementPolicy.Candidates ALL = new ReplacementPolicy.Candidates() {
+        public boolean isEvictable(PageId pid) {
+            return true;
+        }
+    };
+
+    private static HeapPageId heap(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Pages that were only touched once (as by a scan) go before pages that
+     * have been referenced repeatedly.
+     */
+    @Test public void lruKPrefersSingleReferencePages() {
+        LRUKReplacementPolicy policy = new LRUKReplacementPolicy(4);
+        policy.pageLoaded(heap(0));
+        policy.pageAccessed(heap(0));
+        policy.pageLoaded(heap(1));
+        policy.pageLoaded(heap(2));
+        policy.pageAccessed(heap(0));
+
+        assertEquals(heap(1), policy.chooseVictim(ALL));
+        policy.pageRemoved(heap(1));
+        assertEquals(heap(2), policy.chooseVictim(ALL));
+        policy.pageRemoved(heap(2));
+        assertEquals(heap(0), policy.chooseVictim(ALL));
+    }
+
+    /**
+     * The victim is the page whose K-th most recent reference is oldest.
+     */
+    @Test public void lruKUsesBackwardKDistance() {
+        LRUKReplacementPolicy policy = new LRUKReplacementPolicy(4, 2);
+        policy.pageLoaded(heap(0));
+        policy.pageLoaded(heap(1));
+        policy.pageAccessed(heap(1));
+        policy.pageAccessed(heap(0));
+        // page 1 was used most recently, but its second to last reference
+        // is older than page 0's
+        policy.pageAccessed(heap(1));
+        policy.pageAccessed(heap(0));
+        policy.pageAccessed(heap(1));
+        assertEquals(heap(0), policy.chooseVictim(ALL));
+    }
+
+    /**
+     * A page re-read soon after its eviction keeps its reference history.
+     */
+    @Test public void lruKRetainsHistory() {
+        LRUKReplacementPolicy policy = new LRUKReplacementPolicy(4);
+        policy.pageLoaded(heap(0));
+        policy.pageRemoved(heap(0));
+        policy.pageLoaded(heap(1));
+        policy.pageLoaded(heap(0));
+        assertEquals(heap(1), policy.chooseVictim(ALL));
+    }
+
+    @Test public void lruKKeepsIndexPages() {
+        LRUKReplacementPolicy policy = new LRUKReplacementPolicy(4);
+        BTreePageId root = new BTreePageId(1, 0, BTreePageId.ROOT_PTR);
+        BTreePageId internal = new BTreePageId(1, 1, BTreePageId.INTERNAL);
+        policy.pageLoaded(root);
+        policy.pageLoaded(internal);
+        policy.pageLoaded(heap(0));
+        assertEquals(heap(0), policy.chooseVictim(ALL));
+    }
+
+    @Test public void clockSecondChance() {
+        ClockReplacementPolicy policy = new ClockReplacementPolicy(3);
+        policy.pageLoaded(heap(0));
+        policy.pageLoaded(heap(1));
+        policy.pageLoaded(heap(2));
+        policy.pageAccessed(heap(0));
+        policy.pageAccessed(heap(2));
+        assertEquals(heap(1), policy.chooseVictim(ALL));
+    }
+
+    @Test public void clockKeepsIndexPages() {
+        ClockReplacementPolicy policy = new ClockReplacementPolicy(3);
+        BTreePageId internal = new BTreePageId(1, 1, BTreePageId.INTERNAL);
+        policy.pageLoaded(internal);
+        for (int i = 0; i < 20; i++) {
+            policy.pageLoaded(heap(i));
+            PageId victim = policy.chooseVictim(ALL);
+            assertFalse(internal.equals(victim));
+            policy.pageRemoved(victim);
+            // the internal page is looked up again every other scanned page
+            if (i % 2 == 0)
+                policy.pageAccessed(internal);
+        }
+    }
+
+    @Test public void respectsCandidates() {
+        ReplacementPolicy[] policies = {
+                new ClockReplacementPolicy(3), new LRUKReplacementPolicy(3) };
+        for (ReplacementPolicy policy : policies) {
+            policy.pageLoaded(heap(0));
+            policy.pageLoaded(heap(1));
+            assertEquals(heap(1), policy.chooseVictim(new ReplacementPolicy.Candidates() {
+                public boolean isEvictable(PageId pid) {
+                    return pid.pageNumber() == 1;
+                }
+            }));
+            assertNull(policy.chooseVictim(new ReplacementPolicy.Candidates() {
+                public boolean isEvictable(PageId pid) {
+                    return false;
+                }
+            }));
+        }
+    }
+
+    /** @return candidates that are the pages up to pgNo, or from it on */
+    private static ReplacementPolicy.Candidates pages(final int pgNo, final boolean from) {
+        return new ReplacementPolicy.Candidates() {
+            public boolean isEvictable(PageId pid) {
+                return from ? pid.pageNumber() >= pgNo : pid.pageNumber() <= pgNo;
+            }
+        };
+    }
+
+    /**
+     * A single pass picks a preferred page if there is one near the front
+     * of the order, and settles for a fallback page otherwise.
+     */
+    @Test public void preferredBeforeFallback() {
+        ReplacementPolicy[] policies = {
+                new ClockReplacementPolicy(100), new LRUKReplacementPolicy(100) };
+        for (ReplacementPolicy policy : policies) {
+            for (int i = 0; i < 100; i++)
+                policy.pageLoaded(heap(i));
+            assertEquals(heap(10), policy.chooseVictim(pages(10, true), ALL));
+            assertNull(policy.chooseVictim(pages(100, true), pages(100, true)));
+        }
+
+        // the preferred page is too far behind the first fallback one
+        LRUKReplacementPolicy policy = new LRUKReplacementPolicy(100);
+        for (int i = 0; i < 100; i++)
+            policy.pageLoaded(heap(i));
+        assertEquals(heap(0), policy.chooseVictim(pages(99, true), pages(5, false)));
+        ClockReplacementPolicy clock = new ClockReplacementPolicy(100);
+        for (int i = 0; i < 100; i++)
+            clock.pageLoaded(heap(i));
+        assertEquals(heap(0), clock.chooseVictim(pages(99, true), pages(5, false)));
+    }
+
+    /**
+     * A reference moves a page to the back of the order, and removed pages
+     * are no longer chosen.
+     */
+    @Test public void lruKOrderFollowsReferences() {
+        LRUKReplacementPolicy policy = new LRUKReplacementPolicy(4);
+        for (int i = 0; i < 3; i++)
+            policy.pageLoaded(heap(i));
+        assertEquals(heap(0), policy.chooseVictim(ALL));
+        policy.pageAccessed(heap(0));
+        assertEquals(heap(1), policy.chooseVictim(ALL));
+        policy.pageRemoved(heap(1));
+        policy.pageAccessed(heap(1));
+        assertEquals(heap(2), policy.chooseVictim(ALL));
+        policy.pageRemoved(heap(2));
+        assertEquals(heap(0), policy.chooseVictim(ALL));
+    }
+
+    /**
+     * Filling a full pool evicts one page per miss instead of emptying the
+     * pool, and a clean page is chosen over a dirty one.
+     */
+    @Test public void bufferPoolEvictsOnePageAtATime() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+
+        HeapPage dirty = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+        dirty.markDirty(true, tid);
+        for (int i = 1; i < 6; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+
+        HashSet<Integer> resident = new HashSet<Integer>();
+        for (int i = 0; i < 6; i++) {
+            if (bp.holdsPage(new HeapPageId(hf.getId(), i)))
+                resident.add(i);
+        }
+        assertEquals(4, resident.size());
+        assertTrue(resident.contains(0));
+        assertTrue(resident.contains(4));
+        assertTrue(resident.contains(5));
+        assertSame(dirty, bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
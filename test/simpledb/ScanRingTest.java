@@ -0,0 +1,81 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ScanRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 20;
+
+    @Test public void smallScansUseTheSharedPool() {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        assertNull(bp.getScanRing(POOL_PAGES));
+        ScanRing ring = bp.getScanRing(POOL_PAGES + 1);
+        assertNotNull(ring);
+        assertTrue(ring.size() <= ScanRing.MAX_SIZE);
+    }
+
+    /**
+     * A scan over a table much larger than the pool must not push out the
+     * pages another transaction is working on.
+     */
+    @Test public void largeScanKeepsWorkingSet() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 60, null, null);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+
+        for (int i = 0; i < 3; i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 60, count);
+
+        for (int i = 0; i < 3; i++)
+            assertTrue(bp.holdsPage(new HeapPageId(hot.getId(), i)));
+        int resident = 0;
+        for (int i = 0; i < big.numPages(); i++) {
+            if (bp.holdsPage(new HeapPageId(big.getId(), i)))
+                resident++;
+        }
+        assertTrue(resident <= bp.getScanRing(big.numPages()).size());
+    }
+
+    /**
+     * A ring page that another transaction asks for stays in the pool after
+     * the scan moves on.
+     */
+    @Test public void sharedRingPagesAreNotRecycled() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 30, null, null);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        ScanRing ring = bp.getScanRing(big.numPages());
+
+        HeapPageId first = new HeapPageId(big.getId(), 0);
+        bp.getPage(tid, first, Permissions.READ_ONLY, ring);
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        for (int i = 1; i < big.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+        assertTrue(bp.holdsPage(first));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
@@ -0,0 +1,305 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 20000;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile f;
+    private SecondaryIndex index;
+
+    /** A table of 3 columns c0, c1, c2 with an index on c1. */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(3, ROWS, 1000, null, tuples, "c");
+        File file = File.createTempFile("index", ".idx");
+        file.deleteOnExit();
+        PageChecksums.checksumFile(file).deleteOnExit();
+        Transaction t = new Transaction();
+        t.start();
+        index = SecondaryIndex.create(t.getId(), f.getId(), 1, file);
+        Database.getCatalog().addIndex(index);
+        t.commit();
+    }
+
+    private ArrayList<ArrayList<Integer>> matching(Predicate.Op op, int value) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : tuples) {
+            if (new IntField(row.get(1)).compare(op, new IntField(value)))
+                result.add(row);
+        }
+        return result;
+    }
+
+    private void insert(TransactionId tid, int c1, int n) throws Exception {
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(c1));
+            t.setField(2, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+    }
+
+    private int count(TransactionId tid, IndexPredicate ipred) throws Exception {
+        SecondaryIndexScan scan = new SecondaryIndexScan(tid, index, "t", ipred, false);
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (ipred != null)
+                assertTrue(t.getField(1).compare(ipred.getOp(), ipred.getField()));
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    /** @return the index scan in the plan, or null if there is none */
+    private static SecondaryIndexScan findIndexScan(DbIterator plan) {
+        if (plan instanceof SecondaryIndexScan)
+            return (SecondaryIndexScan) plan;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                SecondaryIndexScan scan = findIndexScan(child);
+                if (scan != null)
+                    return scan;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * An index scan returns the tuples of the table that satisfy its
+     * predicate, and an index-only scan their values of the field.
+     */
+    @Test public void scan() throws Exception {
+        int value = tuples.get(0).get(1);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, index, "t",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(value)), false),
+                matching(Predicate.Op.EQUALS, value));
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, index, "t",
+                new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(900)), false),
+                matching(Predicate.Op.GREATER_THAN, 900));
+
+        SecondaryIndexScan keys = new SecondaryIndexScan(tid, index, "t",
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(100)), true);
+        assertEquals("t.c1", keys.getTupleDesc().getFieldName(1));
+        keys.open();
+        int n = 0;
+        int last = Integer.MIN_VALUE;
+        while (keys.hasNext()) {
+            Tuple t = keys.next();
+            int key = ((IntField) t.getField(1)).getValue();
+            assertTrue(key < 100 && key >= last);
+            assertNull(t.getField(0));
+            last = key;
+            n++;
+        }
+        keys.close();
+        assertEquals(matching(Predicate.Op.LESS_THAN, 100).size(), n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples inserted and deleted through the BufferPool are added to and
+     * removed from the index, and aborting a transaction undoes both.
+     */
+    @Test public void maintainedByBufferPool() throws Exception {
+        IndexPredicate inserted = new IndexPredicate(Predicate.Op.EQUALS, new IntField(-5));
+        Transaction t = new Transaction();
+        t.start();
+        insert(t.getId(), -5, 300);
+        assertEquals(300, count(t.getId(), inserted));
+
+        // delete the ones with an even c0
+        SeqScan scan = new SeqScan(t.getId(), f.getId(), "t");
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple tup = scan.next();
+            if (((IntField) tup.getField(1)).getValue() == -5
+                    && ((IntField) tup.getField(0)).getValue() % 2 == 0)
+                doomed.add(tup);
+        }
+        scan.close();
+        for (Tuple tup : doomed)
+            Database.getBufferPool().deleteTuple(t.getId(), tup);
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        assertEquals(150, count(t.getId(), inserted));
+        assertEquals(ROWS + 150, count(t.getId(), null));
+        insert(t.getId(), -6, 100);
+        t.abort();
+
+        TransactionId tid = new TransactionId();
+        assertEquals(0, count(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(-6))));
+        assertEquals(ROWS + 150, count(tid, null));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A selective filter on the indexed field is read through the index,
+     * index-only when the plan reads no other field; a filter that keeps
+     * most tuples is not.
+     */
+    @Test public void plannerPicksIndex() throws Exception {
+        int value = tuples.get(0).get(1);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(Database.getCatalog().getTableName(f.getId()),
+                new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+        TransactionId tid = new TransactionId();
+
+        // SELECT t.c0, t.c1, t.c2 FROM table t WHERE t.c1 = value AND t.c0 > 500
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, "" + value);
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN, "500");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        lp.addProjectField("t.c2", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertNotNull(findIndexScan(plan));
+        assertFalse(findIndexScan(plan).isIndexOnly());
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : matching(Predicate.Op.EQUALS, value)) {
+            if (row.get(0) > 500)
+                expected.add(row);
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+
+        // SELECT t.c1 FROM table t WHERE t.c1 = value
+        lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, "" + value);
+        lp.addProjectField("t.c1", null);
+        plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(findIndexScan(plan).isIndexOnly());
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            assertEquals(new IntField(value), plan.next().getField(0));
+            n++;
+        }
+        plan.close();
+        assertEquals(matching(Predicate.Op.EQUALS, value).size(), n);
+
+        // SELECT t.c0 FROM table t WHERE t.c1 > 10
+        lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "10");
+        lp.addProjectField("t.c0", null);
+        assertNull(findIndexScan(lp.physicalPlan(tid, stats, false)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deleting the tuples an index scan finds removes them all, although
+     * the deletes change the index the scan reads.
+     */
+    @Test public void deleteThroughIndex() throws Exception {
+        int value = tuples.get(0).get(1);
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(value));
+        Transaction t = new Transaction();
+        t.start();
+        Delete delete = new Delete(t.getId(), new SecondaryIndexScan(t.getId(), index, "t", ipred, false));
+        delete.open();
+        assertEquals(matching(Predicate.Op.GREATER_THAN_OR_EQ, value).size(),
+                ((IntField) delete.next().getField(0)).getValue());
+        delete.close();
+        assertEquals(0, count(t.getId(), ipred));
+        t.commit();
+        SystemTestUtil.matchTuples(f, matching(Predicate.Op.LESS_THAN, value));
+    }
+
+    /**
+     * Inserting into a table the tuples an index scan of the table finds
+     * copies each of them once, although the inserts add to the index the
+     * scan reads.
+     */
+    @Test public void insertThroughIndex() throws Exception {
+        // keys 1000 to 1499, above those of the random tuples
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 500; i++) {
+            Tuple tup = Utility.getHeapTuple(new int[] { i, 1000 + i, 0 });
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tup);
+            tuples.add(SystemTestUtil.tupleToList(tup));
+        }
+        t.commit();
+
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1495));
+        t = new Transaction();
+        t.start();
+        Insert insert = new Insert(t.getId(),
+                new SecondaryIndexScan(t.getId(), index, "t", ipred, false), f.getId());
+        insert.open();
+        assertEquals(5, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        assertEquals(10, count(t.getId(), ipred));
+        t.commit();
+        tuples.addAll(matching(Predicate.Op.GREATER_THAN_OR_EQ, 1495));
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * An index file not last written after its table's file is rebuilt
+     * when the catalog is loaded, since the table may have been rewritten,
+     * even when both were written in the same second.
+     */
+    @Test public void staleIndexRebuilt() throws Exception {
+        File dir = File.createTempFile("indexed", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("people (a int, b int index)\n");
+        w.close();
+        File data = new File(dir, "people.dat");
+        ArrayList<ArrayList<Integer>> before = new ArrayList<ArrayList<Integer>>();
+        SystemTestUtil.createRandomHeapFileUnopened(2, 1000, 1000, null, before).renameTo(data);
+        Database.getCatalog().loadSchema(schema.getPath());
+        File indexFile = new File(dir, "people.b.idx");
+        assertTrue(indexFile.exists());
+
+        // rewrite the table with other tuples, as convert would
+        ArrayList<ArrayList<Integer>> after = new ArrayList<ArrayList<Integer>>();
+        SystemTestUtil.createRandomHeapFileUnopened(2, 600, 1000, null, after).renameTo(data);
+        data.setLastModified(indexFile.lastModified());
+        Database.reset();
+        Database.getCatalog().loadSchema(schema.getPath());
+        SecondaryIndex rebuilt = Database.getCatalog().getIndex(
+                Database.getCatalog().getTableId("people"), 1);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SecondaryIndexScan(tid, rebuilt, "p", null, false), after);
+        Database.getBufferPool().transactionComplete(tid);
+        for (File f : dir.listFiles())
+            f.deleteOnExit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
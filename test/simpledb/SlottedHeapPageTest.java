@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "id", "name" });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String name(int i) {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < i % 7; k++)
+            sb.append((char) ('a' + k));
+        return sb.toString();
+    }
+
+    private static void assertTuple(int id, String name, Tuple t) {
+        assertEquals(new IntField(id), t.getField(0));
+        assertEquals(new StringField(name, Type.STRING_LEN), t.getField(1));
+    }
+
+    /**
+     * Short strings take only the room they need.
+     */
+    @Test public void shortStringsFitMoreTuples() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, name(n)))) {
+            page.insertTuple(tuple(n, name(n)));
+            n++;
+        }
+        // a fixed-size page holds 30 of these tuples
+        assertTrue(n > 200);
+
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertTuple(i, name(i), t);
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertFalse(it.hasNext());
+
+        // the page is the same when read back from its bytes
+        HeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        assertTuple(n - 1, name(n - 1), copy.getTuple(n - 1));
+    }
+
+    /**
+     * Deleting tuples leaves holes that a later insert reuses, once the
+     * records have been moved together; the other tuples keep their slots.
+     */
+    @Test public void deletedSpaceIsReused() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        String longName = "";
+        while (longName.length() < Type.STRING_LEN)
+            longName += "x";
+        while (page.hasRoomFor(tuple(0, longName))) {
+            Tuple t = tuple(tuples.size(), longName);
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        for (int i = 0; i < tuples.size(); i += 2)
+            page.deleteTuple(tuples.get(i));
+
+        // half the page is free, but only in holes between records
+        int added = 0;
+        Tuple t = tuple(-1, longName);
+        while (page.hasRoomFor(t)) {
+            page.insertTuple(t);
+            assertEquals(0, t.getRecordId().tupleno() % 2);
+            added++;
+            t = tuple(-1, longName);
+        }
+        assertEquals((tuples.size() + 1) / 2, added);
+
+        for (int i = 1; i < tuples.size(); i += 2)
+            assertTuple(i, longName, page.getTuple(i));
+        for (int i = 0; i < tuples.size(); i += 2)
+            assertTuple(-1, longName, page.getTuple(i));
+    }
+
+    @Test public void emptiedPageIsEmpty() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int empty = page.getNumEmptySlots();
+        Tuple a = tuple(1, "abc");
+        Tuple b = tuple(2, "de");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.deleteTuple(b);
+        page.deleteTuple(a);
+        assertEquals(empty, page.getNumEmptySlots());
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+    }
+
+    /**
+     * A slotted file written by HeapFileEncoder can be scanned and
+     * modified through the BufferPool.
+     */
+    @Test public void encodedFile() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        int rows = 2000;
+        for (int i = 0; i < rows; i++)
+            w.write(i + "," + name(i) + "\n");
+        w.close();
+
+        File fixed = File.createTempFile("fixed", ".dat");
+        fixed.deleteOnExit();
+        File slotted = File.createTempFile("slotted", ".dat");
+        slotted.deleteOnExit();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        HeapFileEncoder.convert(text, fixed, BufferPool.getPageSize(), 2, types, ',');
+        HeapFileEncoder.convert(text, slotted, BufferPool.getPageSize(), 2, types, ',', PageFormat.SLOTTED);
+        assertTrue(slotted.length() * 5 < fixed.length());
+
+        HeapFile f = new HeapFile(slotted, TD, false, PageFormat.SLOTTED);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(rows, scan(f));
+
+        // an aborted insert leaves the file as it was
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), tuple(-1, "aborted"));
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), tuple(rows, name(rows)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(rows + 1, scan(f));
+    }
+
+    /** Scans f, checking each tuple, and returns the number of tuples. */
+    private static int scan(HeapFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        boolean[] seen = new boolean[f.numPages() * BufferPool.getPageSize()];
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertFalse(seen[id]);
+            seen[id] = true;
+            assertTuple(id, name(id), t);
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    @Test public void pageSizeLimit() {
+        try {
+            new SlottedHeapPage(pid, ByteBuffer.allocate(SlottedHeapPage.MAX_PAGE_SIZE * 2));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
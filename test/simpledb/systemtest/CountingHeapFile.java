@@ -0,0 +1,42 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import simpledb.*;
+
+/**
+ * A HeapFile that counts the pages it reads, and how many of them the
+ * prefetch threads read. It can also read each page slowly, so that
+ * concurrent misses on a page overlap.
+ */
+public class CountingHeapFile extends HeapFile {
+    public final AtomicInteger reads = new AtomicInteger();
+    public final AtomicInteger prefetched = new AtomicInteger();
+    private final long readDelayMillis;
+
+    public CountingHeapFile(File f, TupleDesc td) {
+        this(f, td, 0);
+    }
+
+    /** @param readDelayMillis how long each page read sleeps before reading */
+    public CountingHeapFile(File f, TupleDesc td, long readDelayMillis) {
+        super(f, td);
+        this.readDelayMillis = readDelayMillis;
+    }
+
+    @Override
+    public Page readPage(PageId pid) {
+        reads.incrementAndGet();
+        if (Thread.currentThread().getName().equals("prefetch"))
+            prefetched.incrementAndGet();
+        if (readDelayMillis > 0) {
+            try {
+                Thread.sleep(readDelayMillis);
+            } catch (InterruptedException e) {
+                // read the page anyway
+            }
+        }
+        return super.readPage(pid);
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Runs several writer threads that each read a counter stored in a one-row
+ * table, delete it and insert the incremented value. With page-level
+ * two-phase locking no increment may be lost; transactions that are picked
+ * as deadlock victims abort and retry.
+ */
+public class TransactionTest extends SimpleDbTestBase {
+    private static final int WRITERS = 6;
+    private static final int INCREMENTS = 5;
+
+    private static class Writer extends Thread {
+        private final HeapFile table;
+        private final CountDownLatch start;
+        private final Random random = new Random();
+        Exception error = null;
+        int aborts = 0;
+
+        Writer(HeapFile table, CountDownLatch start) {
+            this.table = table;
+            this.start = start;
+        }
+
+        public void run() {
+            try {
+                start.await();
+                for (int i = 0; i < INCREMENTS; i++) {
+                    while (!increment()) {
+                        aborts++;
+                        Thread.sleep(random.nextInt(20));
+                    }
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        /** @return true if the increment committed, false if it was aborted */
+        private boolean increment() throws DbException, IOException {
+            Transaction tr = new Transaction();
+            tr.start();
+            try {
+                SeqScan scan = new SeqScan(tr.getId(), table.getId(), "");
+                scan.open();
+                Tuple old = scan.next();
+                assertFalse(scan.hasNext());
+                scan.close();
+
+                int value = ((IntField) old.getField(0)).getValue();
+                Tuple updated = new Tuple(old.getTupleDesc());
+                updated.setField(0, new IntField(value + 1));
+                updated.setField(1, old.getField(1));
+
+                Database.getBufferPool().deleteTuple(tr.getId(), old);
+                Database.getBufferPool().insertTuple(tr.getId(), table.getId(), updated);
+                tr.commit();
+                return true;
+            } catch (TransactionAbortedException e) {
+                tr.abort();
+                return false;
+            }
+        }
+    }
+
+    @Test public void testConcurrentIncrements() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Integer> row = new ArrayList<Integer>();
+        row.add(0);
+        row.add(7);
+        tuples.add(row);
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(0));
+        t.setField(1, new IntField(7));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        CountDownLatch start = new CountDownLatch(1);
+        Writer[] writers = new Writer[WRITERS];
+        for (int i = 0; i < WRITERS; i++) {
+            writers[i] = new Writer(table, start);
+            writers[i].start();
+        }
+        start.countDown();
+        for (Writer w : writers) {
+            w.join(60000);
+            assertFalse(w.isAlive());
+            assertNull(w.error);
+        }
+
+        tuples.get(0).set(0, WRITERS * INCREMENTS);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TransactionTest.class);
+    }
+}